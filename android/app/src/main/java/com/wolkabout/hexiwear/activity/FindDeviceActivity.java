@@ -42,6 +42,7 @@ import com.wolkabout.hexiwear.model.BluetoothDeviceWrapper;
 import com.wolkabout.hexiwear.service.BluetoothService;
 import com.wolkabout.hexiwear.service.BluetoothService_;
 import com.wolkabout.hexiwear.service.DeviceDiscoveryService;
+import com.wolkabout.hexiwear.service.DiscoveryCache;
 
 import org.androidannotations.annotations.AfterInject;
 import org.androidannotations.annotations.AfterViews;
@@ -52,12 +53,14 @@ import org.androidannotations.annotations.ItemLongClick;
 import org.androidannotations.annotations.Receiver;
 import org.androidannotations.annotations.ViewById;
 
+import java.util.List;
+
 /**
  * @author notzuonotdied
  */
 @SuppressLint("Registered")
 @EActivity(R.layout.activity_main)
-public class FindDeviceActivity extends AppCompatActivity implements ServiceConnection {
+public class FindDeviceActivity extends AppCompatActivity implements ServiceConnection, DiscoveryCache.Listener {
 
     private static final String TAG = FindDeviceActivity.class.getSimpleName();
 
@@ -90,6 +93,7 @@ public class FindDeviceActivity extends AppCompatActivity implements ServiceConn
         setSupportActionBar(toolbar);
         listDevices.setAdapter(adapter);
 
+        deviceDiscoveryService.setListener(this);
         deviceDiscoveryService.startScan();
         swipeRefresh.setOnRefreshListener(new SwipeRefreshLayout.OnRefreshListener() {
             @Override
@@ -167,6 +171,7 @@ public class FindDeviceActivity extends AppCompatActivity implements ServiceConn
 
     @Override
     protected void onDestroy() {
+        deviceDiscoveryService.setListener(null);
         if (serviceBound) {
             unbindService(this);
         }
@@ -198,10 +203,13 @@ public class FindDeviceActivity extends AppCompatActivity implements ServiceConn
         toolbar.setTitle(getString(R.string.app_name));
     }
 
-    @Receiver(actions = DeviceDiscoveryService.DEVICE_DISCOVERED, local = true)
-    void onBluetoothDeviceFound(@Receiver.Extra final BluetoothDeviceWrapper wrapper) {
-        emptyListView.setVisibility(View.GONE);
-        adapter.add(wrapper);
+    @Override
+    public void onDevicesChanged(final List<BluetoothDeviceWrapper> added, final List<BluetoothDeviceWrapper> changed,
+                                 final List<BluetoothDeviceWrapper> lost) {
+        if (!added.isEmpty()) {
+            emptyListView.setVisibility(View.GONE);
+        }
+        adapter.update(added, changed, lost, listDevices);
     }
 
     @Receiver(actions = BluetoothDevice.ACTION_BOND_STATE_CHANGED, registerAt = Receiver.RegisterAt.OnResumeOnPause)
@@ -23,7 +23,6 @@ package com.wolkabout.hexiwear.activity;
 import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothDevice;
 import android.content.ComponentName;
-import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.IBinder;
 import android.support.design.widget.Snackbar;
@@ -40,9 +39,18 @@ import com.txusballesteros.SnakeView;
 import com.wolkabout.hexiwear.R;
 import com.wolkabout.hexiwear.model.Characteristic;
 import com.wolkabout.hexiwear.model.Mode;
+import com.wolkabout.hexiwear.model.Sample;
 import com.wolkabout.hexiwear.service.BluetoothService;
 import com.wolkabout.hexiwear.service.BluetoothService_;
+import com.wolkabout.hexiwear.service.DeviceSession;
+import com.wolkabout.hexiwear.service.SampleAggregator;
+import com.wolkabout.hexiwear.service.SampleListener;
+import com.wolkabout.hexiwear.stream.Subscription;
+import com.wolkabout.hexiwear.util.DataConverter;
+import com.wolkabout.hexiwear.util.LttbDownsampler;
+import com.wolkabout.hexiwear.util.PipelineMetrics;
 import com.wolkabout.hexiwear.view.Reading;
+import com.wolkabout.hexiwear.view.RenderCoalescer;
 import com.wolkabout.hexiwear.view.SingleReading;
 import com.wolkabout.hexiwear.view.TripleReading;
 
@@ -50,10 +58,13 @@ import org.androidannotations.annotations.AfterInject;
 import org.androidannotations.annotations.AfterViews;
 import org.androidannotations.annotations.EActivity;
 import org.androidannotations.annotations.Extra;
+import org.androidannotations.annotations.OptionsItem;
 import org.androidannotations.annotations.OptionsMenu;
 import org.androidannotations.annotations.Receiver;
 import org.androidannotations.annotations.ViewById;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 
 /**
@@ -64,9 +75,15 @@ import java.lang.reflect.InvocationTargetException;
 @SuppressLint("Registered")
 @EActivity(R.layout.activity_readings)
 @OptionsMenu(R.menu.menu_readings)
-public class ReadingsActivity extends AppCompatActivity implements ServiceConnection {
+public class ReadingsActivity extends AppCompatActivity
+        implements ServiceConnection, SampleListener, RenderCoalescer.Renderer {
 
     private static final String TAG = ReadingsActivity.class.getSimpleName();
+    private static final long ALL_READINGS = -1L;
+    private static final long DISPLAY_WINDOW = 100;
+    private static final long HEART_RATE_CHART_BUCKET = 1000;
+    private static final int HEART_RATE_CHART_BUCKET_POINTS = 32;
+    private static final long LATENCY_OVERLAY_REFRESH = 1000;
 
     @Extra
     BluetoothDevice device;
@@ -122,9 +139,28 @@ public class ReadingsActivity extends AppCompatActivity implements ServiceConnec
     @ViewById
     SnakeView snake;
 
+    @ViewById
+    TextView latencyOverlay;
+
     private boolean isBound;
     private Mode mode = Mode.IDLE;
     private boolean shouldUnpair;
+    private Subscription sampleSubscription;
+    private BluetoothService bluetoothService;
+
+    private volatile RenderCoalescer renderCoalescer;
+    private LttbDownsampler heartRateChart;
+    private volatile PipelineMetrics pipelineMetrics;
+    private final Runnable latencyOverlayRefresh = new Runnable() {
+        @Override
+        public void run() {
+            final PipelineMetrics metrics = pipelineMetrics;
+            if (metrics != null) {
+                latencyOverlay.setText(metrics.snapshot());
+            }
+            latencyOverlay.postDelayed(this, LATENCY_OVERLAY_REFRESH);
+        }
+    };
 
     @AfterInject
     void startService() {
@@ -139,6 +175,16 @@ public class ReadingsActivity extends AppCompatActivity implements ServiceConnec
         snake.setMaxValue(222);
         setSupportActionBar(toolbar);
         progressBar.setVisibility(View.VISIBLE);
+
+        renderCoalescer = new RenderCoalescer(this);
+        renderCoalescer.setAlwaysRendered(Characteristic.HEARTRATE.getMask());
+        heartRateChart = new LttbDownsampler(HEART_RATE_CHART_BUCKET, HEART_RATE_CHART_BUCKET_POINTS,
+                new LttbDownsampler.Output() {
+                    @Override
+                    public void onPoint(final long timestamp, final float value) {
+                        snake.addValue(value);
+                    }
+                });
     }
 
     @Override
@@ -146,11 +192,20 @@ public class ReadingsActivity extends AppCompatActivity implements ServiceConnec
         super.onResume();
         shouldUnpair = false;
         invalidateOptionsMenu();
-        setReadingVisibility(mode);
+        setReadingVisibility(mode, ALL_READINGS);
     }
 
     @Receiver(actions = BluetoothService.MODE_CHANGED, local = true)
-    void onModeChanged(@Receiver.Extra final Mode mode) {
+    void onModeChanged(@Receiver.Extra final Mode mode,
+                       @Receiver.Extra(BluetoothService.DEVICE_ADDRESS) final String deviceAddress) {
+        if (!isOwnDevice(deviceAddress)) {
+            return;
+        }
+        onModeChanged(mode);
+    }
+
+    private void onModeChanged(final Mode mode) {
+        final long changedReadings = Mode.getChangedCapabilities(this.mode, mode);
         this.mode = mode;
         connectionStatus.setText(mode.getStringResource());
 
@@ -158,7 +213,7 @@ public class ReadingsActivity extends AppCompatActivity implements ServiceConnec
             showInfo(R.string.readings_idle_mode);
         }
 
-        setReadingVisibility(mode);
+        setReadingVisibility(mode, changedReadings);
     }
 
     @Receiver(actions = BluetoothService.BLUETOOTH_SERVICE_STOPPED, local = true)
@@ -197,17 +252,20 @@ public class ReadingsActivity extends AppCompatActivity implements ServiceConnec
     /**
      * 根据当前的模式选择显示的数据
      *
-     * @param mode 模式
+     * @param mode    模式
+     * @param changed mask of the characteristics whose visibility may have changed
      */
-    private void setReadingVisibility(final Mode mode) {
+    private void setReadingVisibility(final Mode mode, final long changed) {
+        if (changed == 0) {
+            return;
+        }
+
         for (int i = 0; i < readings.getChildCount(); i++) {
             final View view = readings.getChildAt(i);
-            if (view instanceof SnakeView) {
-                snake.setVisibility(mode.hasCharacteristic(Characteristic.HEARTRATE) ? View.VISIBLE : View.GONE);
-            } else {
-                final Reading reading = (Reading) view;
-                final Characteristic readingType = reading.getReadingType();
-                reading.setVisibility(mode.hasCharacteristic(readingType) ? View.VISIBLE : View.GONE);
+            final Characteristic readingType = view instanceof SnakeView ?
+                    Characteristic.HEARTRATE : ((Reading) view).getReadingType();
+            if ((changed & readingType.getMask()) != 0) {
+                view.setVisibility(mode.hasCharacteristic(readingType) ? View.VISIBLE : View.GONE);
             }
         }
     }
@@ -215,11 +273,16 @@ public class ReadingsActivity extends AppCompatActivity implements ServiceConnec
     @Override
     public void onServiceConnected(final ComponentName name, final IBinder service) {
         final BluetoothService.ServiceBinder binder = (BluetoothService.ServiceBinder) service;
-        BluetoothService bluetoothService = binder.getService();
-        if (!bluetoothService.isConnected()) {
+        bluetoothService = binder.getService();
+        pipelineMetrics = bluetoothService.getPipelineMetrics();
+        sampleSubscription = bluetoothService.getSampleStreams().of(ALL_READINGS).forDevice(device.getAddress())
+                .window(DISPLAY_WINDOW, SampleAggregator.Statistic.LAST).subscribe(this);
+        final DeviceSession session = bluetoothService.getSession(device.getAddress());
+        if (session == null || !session.isConnected()) {
             bluetoothService.startReading(device);
+            return;
         }
-        final Mode mode = bluetoothService.getCurrentMode();
+        final Mode mode = session.getMode();
         if (mode != null) {
             onModeChanged(mode);
         }
@@ -232,6 +295,19 @@ public class ReadingsActivity extends AppCompatActivity implements ServiceConnec
 
     @Override
     protected void onDestroy() {
+        pipelineMetrics = null;
+        if (latencyOverlay != null) {
+            latencyOverlay.removeCallbacks(latencyOverlayRefresh);
+        }
+        if (sampleSubscription != null) {
+            sampleSubscription.cancel();
+            sampleSubscription = null;
+        }
+        bluetoothService = null;
+        if (renderCoalescer != null) {
+            Log.d(TAG, "Rendering stats: " + renderCoalescer);
+            renderCoalescer.cancel();
+        }
         if (isBound) {
             unbindService(this);
             isBound = false;
@@ -246,78 +322,135 @@ public class ReadingsActivity extends AppCompatActivity implements ServiceConnec
     }
 
     @Receiver(actions = BluetoothService.CONNECTION_STATE_CHANGED, local = true)
-    void onConnectionStateChanged(@Receiver.Extra final boolean connectionState) {
+    void onConnectionStateChanged(@Receiver.Extra final boolean connectionState,
+                                  @Receiver.Extra(BluetoothService.DEVICE_ADDRESS) final String deviceAddress) {
+        if (!isOwnDevice(deviceAddress)) {
+            return;
+        }
         connectionStatus.setText(connectionState ?
                 R.string.readings_connection_connected :
                 R.string.readings_connection_reconnecting);
     }
 
-    @Receiver(actions = BluetoothService.DATA_AVAILABLE, local = true)
-    void onDataAvailable(Intent intent) {
-        progressBar.setVisibility(View.INVISIBLE);
+    @Override
+    public void onSample(final Sample sample) {
+        final RenderCoalescer coalescer = renderCoalescer;
+        if (coalescer != null) {
+            final PipelineMetrics metrics = pipelineMetrics;
+            if (metrics != null) {
+                metrics.recordSince(PipelineMetrics.Stage.DISPATCH, sample.getCharacteristic(), sample.getReceivedNanos());
+            }
+            coalescer.submit(sample);
+        }
+    }
+
+    @OptionsItem
+    void showLatency() {
+        latencyOverlay.removeCallbacks(latencyOverlayRefresh);
+        if (latencyOverlay.getVisibility() == View.VISIBLE) {
+            latencyOverlay.setVisibility(View.GONE);
+            return;
+        }
 
-        final String uuid = intent.getStringExtra(BluetoothService.READING_TYPE);
-        final String data = intent.getStringExtra(BluetoothService.STRING_DATA);
+        latencyOverlay.setVisibility(View.VISIBLE);
+        latencyOverlayRefresh.run();
+    }
+
+    @OptionsItem
+    void collectInBackground() {
+        if (bluetoothService == null) {
+            return;
+        }
+
+        if (bluetoothService.isCollecting()) {
+            bluetoothService.stopCollection();
+            showInfo(R.string.readings_collection_stopped);
+        } else {
+            bluetoothService.startCollection(device);
+            showInfo(R.string.readings_collection_started);
+        }
+    }
 
-        if (data.isEmpty()) {
+    @OptionsItem
+    void captureRawData() {
+        if (bluetoothService == null) {
             return;
         }
 
-        final Characteristic characteristic = Characteristic.byUuid(uuid);
-        if (characteristic == null) {
-            Log.w(TAG, "UUID " + uuid + " is unknown. Skipping.");
+        if (bluetoothService.isCapturing()) {
+            final File capture = bluetoothService.stopCapture();
+            Toast.makeText(this, getString(R.string.readings_capture_stopped, capture), Toast.LENGTH_LONG).show();
             return;
         }
 
-        switch (characteristic) {
+        try {
+            final File capture = bluetoothService.startCapture();
+            Toast.makeText(this, getString(R.string.readings_capture_started, capture), Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to start capturing", e);
+            showInfo(R.string.readings_capture_failed);
+        }
+    }
+
+    private boolean isOwnDevice(final String deviceAddress) {
+        return device.getAddress().equals(deviceAddress);
+    }
+
+    @Override
+    public void render(final Sample sample) {
+        progressBar.setVisibility(View.INVISIBLE);
+
+        switch (sample.getCharacteristic()) {
             case BATTERY:
-                readingBattery.setValue(data);
+                readingBattery.setValue(DataConverter.formatForDisplay(sample, 0));
                 break;
             case TEMPERATURE:
-                readingTemperature.setValue(data);
+                readingTemperature.setValue(DataConverter.formatForDisplay(sample, 0));
                 break;
             case HUMIDITY:
-                readingHumidity.setValue(data);
+                readingHumidity.setValue(DataConverter.formatForDisplay(sample, 0));
                 break;
             case PRESSURE:
-                readingPressure.setValue(data);
+                readingPressure.setValue(DataConverter.formatForDisplay(sample, 0));
                 break;
             case HEARTRATE:
-                readingHeartRate.setValue(data);
-                snake.addValue(Integer.parseInt(data.replace("bpm", "").trim()));
+                readingHeartRate.setValue(DataConverter.formatForDisplay(sample, 0));
+                heartRateChart.add(sample.getTimestamp(), sample.getValue(0));
                 break;
             case LIGHT:
-                readingLight.setValue(data);
+                readingLight.setValue(DataConverter.formatForDisplay(sample, 0));
                 break;
             case STEPS:
-                readingSteps.setValue(data);
+                readingSteps.setValue(formatCounter(sample));
                 break;
             case CALORIES:
-                readingCalories.setValue(data);
+                readingCalories.setValue(formatCounter(sample));
                 break;
             case ACCELERATION:
-                final String[] accelerationReadings = data.split(";");
-                readingAcceleration.setFirstValue(accelerationReadings[0]);
-                readingAcceleration.setSecondValue(accelerationReadings[1]);
-                readingAcceleration.setThirdValue(accelerationReadings[2]);
+                setTripleValue(readingAcceleration, sample);
                 break;
             case MAGNET:
-                final String[] magnetReadings = data.split(";");
-                readingMagnet.setFirstValue(magnetReadings[0]);
-                readingMagnet.setSecondValue(magnetReadings[1]);
-                readingMagnet.setThirdValue(magnetReadings[2]);
+                setTripleValue(readingMagnet, sample);
                 break;
             case GYRO:
-                final String[] gyroscopeReadings = data.split(";");
-                readingGyro.setFirstValue(gyroscopeReadings[0]);
-                readingGyro.setSecondValue(gyroscopeReadings[1]);
-                readingGyro.setThirdValue(gyroscopeReadings[2]);
+                setTripleValue(readingGyro, sample);
                 break;
             default:
-                break;
+                return;
+        }
+
+        final PipelineMetrics metrics = pipelineMetrics;
+        if (metrics != null) {
+            metrics.recordSince(PipelineMetrics.Stage.RENDER, sample.getCharacteristic(), sample.getReceivedNanos());
         }
     }
 
+    private static void setTripleValue(final TripleReading reading, final Sample sample) {
+        reading.setFirstValue(DataConverter.formatForDisplay(sample, 0));
+        reading.setSecondValue(DataConverter.formatForDisplay(sample, 1));
+        reading.setThirdValue(DataConverter.formatForDisplay(sample, 2));
+    }
+
     @Receiver(actions = BluetoothService.STOP)
     void onStopReading() {
         Log.i(TAG, "Stop command received. Finishing...");
@@ -326,13 +459,25 @@ public class ReadingsActivity extends AppCompatActivity implements ServiceConnec
 
     @Override
     public void onBackPressed() {
-        BluetoothService_.intent(this).stop();
+        if (bluetoothService == null || !bluetoothService.isCollecting()) {
+            BluetoothService_.intent(this).stop();
+        }
         if (isTaskRoot()) {
             FindDeviceActivity_.intent(this).start();
         }
         super.onBackPressed();
     }
 
+    /**
+     * Shows the pedometer's counters as totals that don't wrap, once the service tracks them.
+     */
+    private String formatCounter(final Sample sample) {
+        final BluetoothService service = bluetoothService;
+        final long total = service == null ? -1
+                : service.getPedometerAnalytics(sample.getDeviceAddress()).getTotal(sample.getCharacteristic());
+        return total < 0 ? DataConverter.formatForDisplay(sample, 0) : String.valueOf(total);
+    }
+
     private void showInfo(int messageId) {
         Toast.makeText(this, getString(messageId), Toast.LENGTH_SHORT).show();
     }
@@ -28,6 +28,7 @@ import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ListView;
 import android.widget.TextView;
 
 import com.wolkabout.hexiwear.R;
@@ -40,7 +41,10 @@ import org.androidannotations.annotations.UiThread;
 import org.androidannotations.annotations.ViewById;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author notzuonotdied
@@ -49,6 +53,7 @@ import java.util.List;
 public class DeviceListAdapter extends BaseAdapter {
 
     private final List<BluetoothDeviceWrapper> devices = new ArrayList<>();
+    private final Map<String, Integer> positions = new HashMap<>();
 
     @RootContext
     Context context;
@@ -70,22 +75,76 @@ public class DeviceListAdapter extends BaseAdapter {
 
     @UiThread
     public void add(BluetoothDeviceWrapper wrapper) {
-        for (BluetoothDeviceWrapper deviceWrapper : devices) {
-            if (deviceWrapper.getDevice().getAddress().equals(wrapper.getDevice().getAddress())) {
-                return;
+        if (append(wrapper)) {
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Applies a batch of discovery changes. Signal changes rebind just the visible rows they
+     * affect; only added or lost devices make the list lay out again.
+     */
+    @UiThread
+    public void update(List<BluetoothDeviceWrapper> added, List<BluetoothDeviceWrapper> changed,
+                       List<BluetoothDeviceWrapper> lost, ListView listView) {
+        boolean structural = false;
+        if (!lost.isEmpty()) {
+            for (BluetoothDeviceWrapper wrapper : lost) {
+                positions.remove(wrapper.getDevice().getAddress());
+            }
+            final Iterator<BluetoothDeviceWrapper> iterator = devices.iterator();
+            while (iterator.hasNext()) {
+                if (!positions.containsKey(iterator.next().getDevice().getAddress())) {
+                    iterator.remove();
+                }
             }
+            for (int i = 0; i < devices.size(); i++) {
+                positions.put(devices.get(i).getDevice().getAddress(), i);
+            }
+            structural = true;
+        }
+        for (BluetoothDeviceWrapper wrapper : added) {
+            structural |= append(wrapper);
         }
 
-        devices.add(wrapper);
-        notifyDataSetChanged();
+        for (BluetoothDeviceWrapper wrapper : changed) {
+            final Integer position = positions.get(wrapper.getDevice().getAddress());
+            if (position == null) {
+                structural |= append(wrapper);
+                continue;
+            }
+            devices.set(position, wrapper);
+            if (!structural && position >= listView.getFirstVisiblePosition()
+                    && position <= listView.getLastVisiblePosition()) {
+                final View row = listView.getChildAt(position - listView.getFirstVisiblePosition());
+                if (row instanceof DeviceItemView) {
+                    ((DeviceItemView) row).bind(wrapper);
+                }
+            }
+        }
+
+        if (structural) {
+            notifyDataSetChanged();
+        }
     }
 
     @UiThread
     public void clear() {
         devices.clear();
+        positions.clear();
         notifyDataSetChanged();
     }
 
+    private boolean append(BluetoothDeviceWrapper wrapper) {
+        final String address = wrapper.getDevice().getAddress();
+        if (positions.containsKey(address)) {
+            return false;
+        }
+        positions.put(address, devices.size());
+        devices.add(wrapper);
+        return true;
+    }
+
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
         DeviceItemView deviceItemView;
@@ -0,0 +1,122 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.analytics;
+
+import java.util.TimeZone;
+
+/**
+ * Sums of a counter's increments per minute, hour and day of local time. Each resolution is a ring of
+ * int buckets tagged with the number of the period they hold, so adding an increment and reading a
+ * period are O(1), and a bucket left over from an older period is recognised by its tag instead of
+ * being cleared.
+ */
+public class CounterRollup {
+
+    /**
+     * Bucket length and how many buckets are kept.
+     */
+    public enum Resolution {
+        MINUTE(60 * 1000L, 24 * 60),
+        HOUR(60 * 60 * 1000L, 7 * 24),
+        DAY(24 * 60 * 60 * 1000L, 366);
+
+        private final long period;
+        private final int capacity;
+
+        Resolution(final long period, final int capacity) {
+            this.period = period;
+            this.capacity = capacity;
+        }
+
+        public long getPeriod() {
+            return period;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+    }
+
+    private static final Resolution[] RESOLUTIONS = Resolution.values();
+
+    private final TimeZone timeZone;
+    private final int[][] periods = new int[RESOLUTIONS.length][];
+    private final int[][] sums = new int[RESOLUTIONS.length][];
+
+    public CounterRollup(final TimeZone timeZone) {
+        this.timeZone = timeZone;
+        for (Resolution resolution : RESOLUTIONS) {
+            periods[resolution.ordinal()] = new int[resolution.capacity];
+            sums[resolution.ordinal()] = new int[resolution.capacity];
+        }
+    }
+
+    /**
+     * Adds the increment to the minute, hour and day the timestamp falls in. Increments older than
+     * a resolution keeps are dropped from it.
+     */
+    public void add(final long timestamp, final int increment) {
+        final long local = toLocal(timestamp);
+        for (Resolution resolution : RESOLUTIONS) {
+            final int period = (int) (local / resolution.period);
+            final int slot = period % resolution.capacity;
+            final int[] tags = periods[resolution.ordinal()];
+            final int[] values = sums[resolution.ordinal()];
+            if (tags[slot] == period) {
+                values[slot] += increment;
+            } else if (tags[slot] < period) {
+                tags[slot] = period;
+                values[slot] = increment;
+            }
+        }
+    }
+
+    /**
+     * @return sum of the minute, hour or day the timestamp falls in; 0 if it's no longer kept.
+     */
+    public int get(final Resolution resolution, final long timestamp) {
+        final int period = (int) (toLocal(timestamp) / resolution.period);
+        final int slot = period % resolution.capacity;
+        return periods[resolution.ordinal()][slot] == period ? sums[resolution.ordinal()][slot] : 0;
+    }
+
+    /**
+     * Copies the sums of consecutive periods, oldest first, ending with the one the timestamp falls in.
+     *
+     * @return periods copied: the length of the array, at most the resolution's capacity.
+     */
+    public int getSeries(final Resolution resolution, final long endTimestamp, final int[] series) {
+        final int count = Math.min(series.length, resolution.capacity);
+        final int last = (int) (toLocal(endTimestamp) / resolution.period);
+        final int[] tags = periods[resolution.ordinal()];
+        final int[] values = sums[resolution.ordinal()];
+        for (int i = 0; i < count; i++) {
+            final int period = last - count + 1 + i;
+            final int slot = period % resolution.capacity;
+            series[i] = tags[slot] == period ? values[slot] : 0;
+        }
+        return count;
+    }
+
+    private long toLocal(final long timestamp) {
+        return timestamp + timeZone.getOffset(timestamp);
+    }
+}
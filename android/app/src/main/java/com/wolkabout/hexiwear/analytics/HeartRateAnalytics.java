@@ -0,0 +1,275 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.analytics;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.service.SampleListener;
+
+/**
+ * Streaming statistics over one device's HEARTRATE readings, kept up to date per sample in O(1) and
+ * without allocating, so the UI and the publisher can query them at any time.
+ * <ul>
+ * <li>Min, max, mean and standard deviation over a sliding time window. Readings sit in a ring of
+ * primitives indexed by sequence number; min and max come from monotonic deques of sequence numbers,
+ * mean and deviation from running sums, which stay exact because readings are whole beats per minute.</li>
+ * <li>Time spent in each heart rate zone, by fraction of the maximum heart rate. The time between two
+ * readings counts for the zone of the first one, up to {@link #MAX_GAP}, so a disconnect doesn't.</li>
+ * <li>Anomaly flags: a jump of {@link #JUMP_THRESHOLD} or more between close readings, and a flatline,
+ * the same value for {@link #FLATLINE_DURATION}.</li>
+ * </ul>
+ * A reading of 0 means the sensor has no contact; it's skipped and breaks a flatline.
+ */
+public class HeartRateAnalytics implements SampleListener {
+
+    public static final int JUMP = 1;
+    public static final int FLATLINE = 2;
+
+    /**
+     * Lower bounds of zones 1 to 5 as fractions of the maximum heart rate; zone 0 is below them.
+     */
+    public static final float[] ZONE_BOUNDS = {0.5f, 0.6f, 0.7f, 0.8f, 0.9f};
+    public static final int ZONES = ZONE_BOUNDS.length + 1;
+
+    static final long MAX_GAP = 5000;
+    static final int JUMP_THRESHOLD = 30;
+    static final long JUMP_INTERVAL = 5000;
+    static final long FLATLINE_DURATION = 60000;
+
+    private static final int DEFAULT_MAX_HEART_RATE = 190;
+
+    private final long windowMillis;
+    private final int capacity;
+    private final long[] times;
+    private final int[] values;
+    private final long[] minimums;
+    private final long[] maximums;
+    private final int[] zoneBounds = new int[ZONE_BOUNDS.length];
+    private final long[] zoneMillis = new long[ZONES];
+
+    private long oldest;
+    private long next;
+    private int minimumHead;
+    private int minimumSize;
+    private int maximumHead;
+    private int maximumSize;
+    private long sum;
+    private long sumOfSquares;
+    private int maxHeartRate;
+    private int anomalies;
+    private long jumps;
+    private long flatlines;
+    private long runStartedAt = -1;
+    private boolean flatlineCounted;
+
+    /**
+     * @param windowMillis span of the min, max, mean and deviation.
+     * @param capacity     most readings the window holds; older ones leave early if they come faster.
+     */
+    public HeartRateAnalytics(final long windowMillis, final int capacity) {
+        this.windowMillis = windowMillis;
+        this.capacity = capacity;
+        times = new long[capacity];
+        values = new int[capacity];
+        minimums = new long[capacity];
+        maximums = new long[capacity];
+        setMaxHeartRate(DEFAULT_MAX_HEART_RATE);
+    }
+
+    /**
+     * Moves the zone bounds, e.g. to 220 minus the wearer's age. Time already accumulated stays.
+     */
+    public synchronized void setMaxHeartRate(final int maxHeartRate) {
+        this.maxHeartRate = maxHeartRate;
+        for (int i = 0; i < ZONE_BOUNDS.length; i++) {
+            zoneBounds[i] = Math.round(ZONE_BOUNDS[i] * maxHeartRate);
+        }
+    }
+
+    public synchronized int getMaxHeartRate() {
+        return maxHeartRate;
+    }
+
+    @Override
+    public synchronized void onSample(final Sample sample) {
+        if (sample.getCharacteristic() != Characteristic.HEARTRATE) {
+            return;
+        }
+
+        final int value = Math.round(sample.getValue(0));
+        if (value <= 0) {
+            runStartedAt = -1;
+            anomalies = 0;
+            return;
+        }
+
+        final boolean hasPrevious = next > oldest;
+        final long previousTime = hasPrevious ? times[slot(next - 1)] : 0;
+        final int previous = hasPrevious ? values[slot(next - 1)] : 0;
+        final long time = Math.max(sample.getTimestamp(), previousTime);
+
+        anomalies = 0;
+        if (hasPrevious) {
+            final long elapsed = time - previousTime;
+            zoneMillis[getZone(previous)] += Math.min(elapsed, MAX_GAP);
+            if (elapsed <= JUMP_INTERVAL && Math.abs(value - previous) >= JUMP_THRESHOLD) {
+                anomalies |= JUMP;
+                jumps++;
+            }
+        }
+        if (!hasPrevious || value != previous || runStartedAt < 0) {
+            runStartedAt = time;
+            flatlineCounted = false;
+        } else if (time - runStartedAt >= FLATLINE_DURATION) {
+            anomalies |= FLATLINE;
+            if (!flatlineCounted) {
+                flatlineCounted = true;
+                flatlines++;
+            }
+        }
+
+        while (next > oldest && (times[slot(oldest)] <= time - windowMillis || next - oldest == capacity)) {
+            evictOldest();
+        }
+        append(time, value);
+    }
+
+    /**
+     * @return readings in the window.
+     */
+    public synchronized int getCount() {
+        return (int) (next - oldest);
+    }
+
+    /**
+     * @return the latest reading, or 0 if the window is empty.
+     */
+    public synchronized int getLatest() {
+        return next > oldest ? values[slot(next - 1)] : 0;
+    }
+
+    public synchronized int getMin() {
+        return minimumSize == 0 ? 0 : values[slot(minimums[minimumHead])];
+    }
+
+    public synchronized int getMax() {
+        return maximumSize == 0 ? 0 : values[slot(maximums[maximumHead])];
+    }
+
+    public synchronized float getMean() {
+        final long count = next - oldest;
+        return count == 0 ? 0 : (float) sum / count;
+    }
+
+    /**
+     * @return population standard deviation of the window.
+     */
+    public synchronized float getStandardDeviation() {
+        final long count = next - oldest;
+        if (count == 0) {
+            return 0;
+        }
+        final double mean = (double) sum / count;
+        return (float) Math.sqrt(Math.max(0, (double) sumOfSquares / count - mean * mean));
+    }
+
+    /**
+     * @return zone of a heart rate, 0 below {@link #ZONE_BOUNDS} up to 5.
+     */
+    public synchronized int getZone(final int heartRate) {
+        int zone = 0;
+        while (zone < zoneBounds.length && heartRate >= zoneBounds[zone]) {
+            zone++;
+        }
+        return zone;
+    }
+
+    public synchronized long getZoneMillis(final int zone) {
+        return zoneMillis[zone];
+    }
+
+    /**
+     * @return {@link #JUMP} and {@link #FLATLINE} bits raised by the latest reading.
+     */
+    public synchronized int getAnomalies() {
+        return anomalies;
+    }
+
+    public synchronized long getJumps() {
+        return jumps;
+    }
+
+    public synchronized long getFlatlines() {
+        return flatlines;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder builder = new StringBuilder("HeartRateAnalytics{count=").append(getCount())
+                .append(", min=").append(getMin())
+                .append(", max=").append(getMax())
+                .append(", mean=").append(getMean())
+                .append(", stddev=").append(getStandardDeviation())
+                .append(", zoneSeconds=[");
+        for (int i = 0; i < ZONES; i++) {
+            builder.append(i == 0 ? "" : ", ").append(zoneMillis[i] / 1000);
+        }
+        return builder.append("], jumps=").append(jumps)
+                .append(", flatlines=").append(flatlines)
+                .append('}').toString();
+    }
+
+    private void append(final long time, final int value) {
+        final long sequence = next++;
+        times[slot(sequence)] = time;
+        values[slot(sequence)] = value;
+        sum += value;
+        sumOfSquares += value * value;
+
+        while (minimumSize > 0 && values[slot(minimums[(minimumHead + minimumSize - 1) % capacity])] >= value) {
+            minimumSize--;
+        }
+        minimums[(minimumHead + minimumSize++) % capacity] = sequence;
+        while (maximumSize > 0 && values[slot(maximums[(maximumHead + maximumSize - 1) % capacity])] <= value) {
+            maximumSize--;
+        }
+        maximums[(maximumHead + maximumSize++) % capacity] = sequence;
+    }
+
+    private void evictOldest() {
+        final int value = values[slot(oldest)];
+        sum -= value;
+        sumOfSquares -= value * value;
+        if (minimumSize > 0 && minimums[minimumHead] == oldest) {
+            minimumHead = (minimumHead + 1) % capacity;
+            minimumSize--;
+        }
+        if (maximumSize > 0 && maximums[maximumHead] == oldest) {
+            maximumHead = (maximumHead + 1) % capacity;
+            maximumSize--;
+        }
+        oldest++;
+    }
+
+    private int slot(final long sequence) {
+        return (int) (sequence % capacity);
+    }
+}
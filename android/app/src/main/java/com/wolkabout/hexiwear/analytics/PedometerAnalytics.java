@@ -0,0 +1,161 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.analytics;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.service.SampleListener;
+
+import java.util.TimeZone;
+
+/**
+ * Incremental analytics over one device's pedometer readings. The watch reports STEPS and CALORIES as
+ * running counters that wrap at the width of their payload and start over when it reboots; calories
+ * are a single byte, steps two bytes or, from older firmware, one. Each new reading is turned into an
+ * increment: a drop of more than half the range of the reading's payload is a wrap, a smaller one a
+ * restart. The increments add up to a monotonic total and go into per minute, hour and
+ * day {@link CounterRollup}s, so every query is answered without going through past readings.
+ * <p>
+ * The first reading only sets the baseline; its count happened before tracking began and isn't
+ * attributed to any period.
+ */
+public class PedometerAnalytics implements SampleListener {
+
+    /**
+     * Ranges assumed for samples that don't carry their payload width.
+     */
+    private static final int STEPS_RANGE = 1 << 16;
+    private static final int CALORIES_RANGE = 1 << 8;
+
+    private final Counter steps;
+    private final Counter calories;
+
+    public PedometerAnalytics(final TimeZone timeZone) {
+        steps = new Counter(STEPS_RANGE, timeZone);
+        calories = new Counter(CALORIES_RANGE, timeZone);
+    }
+
+    @Override
+    public synchronized void onSample(final Sample sample) {
+        final Counter counter = getCounter(sample.getCharacteristic());
+        if (counter != null) {
+            final int range = sample.getCounterRange();
+            counter.update(Math.round(sample.getValue(0)), range > 0 ? range : counter.defaultRange,
+                    sample.getTimestamp());
+        }
+    }
+
+    /**
+     * @return the counter as if it never wrapped or restarted, or -1 before the first reading.
+     */
+    public synchronized long getTotal(final Characteristic characteristic) {
+        return requireCounter(characteristic).total;
+    }
+
+    /**
+     * @return steps or calories counted in the minute, hour or day the timestamp falls in.
+     */
+    public synchronized int get(final Characteristic characteristic, final CounterRollup.Resolution resolution,
+                                final long timestamp) {
+        return requireCounter(characteristic).rollup.get(resolution, timestamp);
+    }
+
+    /**
+     * Copies the counts of consecutive periods, oldest first, ending with the one the timestamp falls in.
+     *
+     * @return periods copied, see {@link CounterRollup#getSeries}.
+     */
+    public synchronized int getSeries(final Characteristic characteristic, final CounterRollup.Resolution resolution,
+                                      final long endTimestamp, final int[] series) {
+        return requireCounter(characteristic).rollup.getSeries(resolution, endTimestamp, series);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PedometerAnalytics{" +
+                "steps=" + steps +
+                ", calories=" + calories +
+                '}';
+    }
+
+    private Counter getCounter(final Characteristic characteristic) {
+        switch (characteristic) {
+            case STEPS:
+                return steps;
+            case CALORIES:
+                return calories;
+            default:
+                return null;
+        }
+    }
+
+    private Counter requireCounter(final Characteristic characteristic) {
+        final Counter counter = getCounter(characteristic);
+        if (counter == null) {
+            throw new IllegalArgumentException(characteristic + " is not a pedometer counter");
+        }
+        return counter;
+    }
+
+    private static class Counter {
+
+        private final int defaultRange;
+        private final CounterRollup rollup;
+        private int last = -1;
+        private long total = -1;
+        private int wraps;
+        private int restarts;
+
+        Counter(final int defaultRange, final TimeZone timeZone) {
+            this.defaultRange = defaultRange;
+            this.rollup = new CounterRollup(timeZone);
+        }
+
+        void update(final int value, final int range, final long timestamp) {
+            if (last < 0) {
+                last = value;
+                total = value;
+                return;
+            }
+
+            int increment = value - last;
+            if (increment < 0) {
+                if (-increment > range / 2) {
+                    increment += range;
+                    wraps++;
+                } else {
+                    increment = value;
+                    restarts++;
+                }
+            }
+            last = value;
+            if (increment > 0) {
+                total += increment;
+                rollup.add(timestamp, increment);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "{total=" + total + ", wraps=" + wraps + ", restarts=" + restarts + '}';
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.cloud;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Unsent batches kept on disk in the order they were created, so they survive
+ * disconnects and restarts. Holds at most {@code maxBatches}; the oldest are dropped first.
+ * A batch is written to a temporary file and renamed, so a crash never leaves a partial batch behind.
+ */
+public class BatchSpool {
+
+    private static final String EXTENSION = ".batch";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    private final File directory;
+    private final int maxBatches;
+    private final Deque<File> files = new ArrayDeque<>();
+    private File peeked;
+    private long nextSequence;
+    private long dropped;
+
+    public BatchSpool(final File directory, final int maxBatches) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        this.directory = directory;
+        this.maxBatches = maxBatches;
+
+        final File[] existing = directory.listFiles();
+        if (existing != null) {
+            Arrays.sort(existing);
+            for (File file : existing) {
+                final String name = file.getName();
+                if (name.endsWith(EXTENSION)) {
+                    files.add(file);
+                    nextSequence = Math.max(nextSequence, parseSequence(name) + 1);
+                } else if (name.endsWith(TEMPORARY_EXTENSION)) {
+                    delete(file);
+                }
+            }
+        }
+    }
+
+    public synchronized void add(final byte[] batch) throws IOException {
+        final String name = String.format("%016x%s", nextSequence++, EXTENSION);
+        final File temporary = new File(directory, name + TEMPORARY_EXTENSION);
+        final FileOutputStream output = new FileOutputStream(temporary);
+        try {
+            output.write(batch);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        final File file = new File(directory, name);
+        if (!temporary.renameTo(file)) {
+            delete(temporary);
+            throw new IOException("Can't rename " + temporary + " to " + file);
+        }
+        files.add(file);
+
+        while (files.size() > maxBatches) {
+            delete(files.poll());
+            dropped++;
+        }
+    }
+
+    /**
+     * @return the oldest batch, or null if the spool is empty.
+     */
+    public synchronized byte[] peek() throws IOException {
+        final File file = files.peek();
+        peeked = file;
+        if (file == null) {
+            return null;
+        }
+
+        final byte[] batch = new byte[(int) file.length()];
+        final FileInputStream input = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < batch.length) {
+                final int count = input.read(batch, read, batch.length - read);
+                if (count < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                read += count;
+            }
+        } finally {
+            input.close();
+        }
+        return batch;
+    }
+
+    /**
+     * Removes the batch returned by the last {@link #peek()}.
+     */
+    public synchronized void remove() {
+        if (peeked != null && files.remove(peeked)) {
+            delete(peeked);
+        }
+        peeked = null;
+    }
+
+    public synchronized int size() {
+        return files.size();
+    }
+
+    /**
+     * @return number of batches dropped because the spool was full.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    private static void delete(final File file) {
+        if (!file.delete() && file.exists()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private static long parseSequence(final String name) {
+        try {
+            return Long.parseLong(name.substring(0, name.length() - EXTENSION.length()), 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
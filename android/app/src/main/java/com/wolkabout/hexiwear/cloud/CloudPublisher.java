@@ -0,0 +1,319 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.cloud;
+
+import android.util.Log;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.util.Clock;
+import com.wolkabout.hexiwear.util.DataConverter;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Publishes readings of one device to the sensor cloud in batches.
+ * <p>
+ * Readings are decoded or aggregated samples, formatted with
+ * {@link DataConverter#formatSampleForPublishing(Sample)} and buffered per characteristic.
+ * A batch is sealed when it holds {@code maxReadings} readings or its oldest reading is
+ * {@code maxAgeMillis} old. Sealed batches are gzip compressed, written to the
+ * {@link BatchSpool} and sent from a worker thread in order. A failed send is retried with backoff,
+ * so batches pile up in the spool while the network is down and go out once it is back. A batch the
+ * server rejects for good is dropped, so it doesn't hold up the ones behind it.
+ * <p>
+ * Batch format before compression, one line per characteristic:
+ * <pre>
+ * device &lt;address&gt;
+ * &lt;CHARACTERISTIC&gt; &lt;timestamp&gt;=&lt;value&gt;;&lt;delta&gt;=&lt;value&gt;;...
+ * </pre>
+ * Timestamps after the first one in a line are deltas from the previous reading in milliseconds.
+ */
+public class CloudPublisher {
+
+    private static final String TAG = CloudPublisher.class.getSimpleName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long MIN_RETRY_DELAY = 5000;
+    private static final long MAX_RETRY_DELAY = 5 * 60 * 1000;
+
+    private final String deviceAddress;
+    private final Transport transport;
+    private final BatchSpool spool;
+    private final DelayedExecutor timer;
+    private final Clock clock;
+    private final int maxReadings;
+    private final long maxAgeMillis;
+    private final long startedAt;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final StringBuilder[] lines = new StringBuilder[Characteristic.values().length];
+    private final long[] lastTimestamps = new long[Characteristic.values().length];
+    private final Runnable ageFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drainSpool();
+        }
+    };
+    private final Runnable retry = new Runnable() {
+        @Override
+        public void run() {
+            submit(drain);
+        }
+    };
+
+    private int buffered;
+    private long retryDelay = MIN_RETRY_DELAY;
+    private long readings;
+    private long unbatchedBytes;
+    private long batches;
+    private long requests;
+    private long sentBytes;
+    private long failedRequests;
+    private long rejectedBatches;
+
+    public CloudPublisher(final String deviceAddress, final Transport transport, final BatchSpool spool,
+                          final DelayedExecutor timer, final Clock clock, final int maxReadings, final long maxAgeMillis) {
+        this.deviceAddress = deviceAddress;
+        this.transport = transport;
+        this.spool = spool;
+        this.timer = timer;
+        this.clock = clock;
+        this.maxReadings = maxReadings;
+        this.maxAgeMillis = maxAgeMillis;
+        this.startedAt = clock.millis();
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = new StringBuilder();
+        }
+        submit(drain);
+    }
+
+    /**
+     * Buffers a decoded or aggregated sample for publishing.
+     */
+    public void publish(final Sample sample) {
+        publish(sample.getCharacteristic(), DataConverter.formatSampleForPublishing(sample), sample.getTimestamp());
+    }
+
+    private void publish(final Characteristic characteristic, final String value, final long timestamp) {
+        if (value.isEmpty()) {
+            return;
+        }
+
+        final boolean full;
+        synchronized (this) {
+            final int index = characteristic.ordinal();
+            final StringBuilder line = lines[index];
+            if (line.length() == 0) {
+                line.append(characteristic.name()).append(' ').append(timestamp);
+            } else {
+                line.append(';').append(timestamp - lastTimestamps[index]);
+            }
+            line.append('=').append(value);
+            lastTimestamps[index] = timestamp;
+
+            readings++;
+            // The same reading published on its own: "<CHARACTERISTIC> <timestamp>=<value>".
+            unbatchedBytes += characteristic.name().length() + 1 + Long.toString(timestamp).length() + 1 + value.length();
+
+            if (buffered++ == 0) {
+                timer.post(ageFlush, maxAgeMillis);
+            }
+            full = buffered >= maxReadings;
+        }
+
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Seals the buffered readings into a batch and queues it for sending.
+     */
+    public void flush() {
+        final String batch;
+        synchronized (this) {
+            timer.cancel(ageFlush);
+            if (buffered == 0) {
+                return;
+            }
+
+            final StringBuilder builder = new StringBuilder("device ").append(deviceAddress).append('\n');
+            for (StringBuilder line : lines) {
+                if (line.length() > 0) {
+                    builder.append(line).append('\n');
+                    line.setLength(0);
+                }
+            }
+            buffered = 0;
+            batches++;
+            batch = builder.toString();
+        }
+
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    spool.add(compress(batch));
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to spool batch, dropping it.", e);
+                    return;
+                }
+                drainSpool();
+            }
+        });
+    }
+
+    /**
+     * Flushes what is buffered and stops sending. Unsent batches stay in the spool for the next publisher.
+     */
+    public void close() {
+        flush();
+        timer.cancel(retry);
+        worker.shutdown();
+    }
+
+    public synchronized long getReadings() {
+        return readings;
+    }
+
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    public synchronized long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * @return compressed payload bytes sent per reading published.
+     */
+    public synchronized float getBytesPerReading() {
+        return readings == 0 ? 0 : (float) sentBytes / readings;
+    }
+
+    /**
+     * @return payload bytes per reading if every reading were published in its own request.
+     */
+    public synchronized float getUnbatchedBytesPerReading() {
+        return readings == 0 ? 0 : (float) unbatchedBytes / readings;
+    }
+
+    public synchronized float getRequestsPerMinute() {
+        return perMinute(requests);
+    }
+
+    /**
+     * @return requests per minute if every reading were published in its own request.
+     */
+    public synchronized float getUnbatchedRequestsPerMinute() {
+        return perMinute(readings);
+    }
+
+    /**
+     * @return batches dropped because the server rejected them for good.
+     */
+    public synchronized long getRejectedBatches() {
+        return rejectedBatches;
+    }
+
+    public int getSpooledBatches() {
+        return spool.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CloudPublisher{readings=" + readings + ", batches=" + batches + ", requests=" + requests +
+                ", failedRequests=" + failedRequests + ", rejected=" + rejectedBatches + ", spooled=" + spool.size() + ", dropped=" + spool.getDropped() +
+                ", bytesPerReading=" + getBytesPerReading() + " (unbatched " + getUnbatchedBytesPerReading() + ")" +
+                ", requestsPerMinute=" + getRequestsPerMinute() + " (unbatched " + getUnbatchedRequestsPerMinute() + ")}";
+    }
+
+    private float perMinute(final long count) {
+        final long elapsed = clock.millis() - startedAt;
+        return elapsed <= 0 ? 0 : count * 60000f / elapsed;
+    }
+
+    private void submit(final Runnable task) {
+        try {
+            worker.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.d(TAG, "Publisher closed, not running " + task);
+        }
+    }
+
+    /**
+     * Sends spooled batches oldest first until the spool is empty or a send fails. Runs on the worker thread.
+     */
+    private void drainSpool() {
+        try {
+            byte[] batch;
+            while ((batch = spool.peek()) != null) {
+                try {
+                    transport.send(batch);
+                } catch (RejectedBatchException e) {
+                    Log.e(TAG, "Dropping rejected batch: " + e.getMessage());
+                    spool.remove();
+                    synchronized (this) {
+                        rejectedBatches++;
+                    }
+                    continue;
+                }
+                spool.remove();
+                synchronized (this) {
+                    requests++;
+                    sentBytes += batch.length;
+                }
+            }
+            retryDelay = MIN_RETRY_DELAY;
+        } catch (IOException e) {
+            synchronized (this) {
+                failedRequests++;
+            }
+            Log.w(TAG, "Publishing failed, retrying in " + retryDelay + " ms: " + e.getMessage());
+            timer.cancel(retry);
+            timer.post(retry, retryDelay);
+            retryDelay = Math.min(MAX_RETRY_DELAY, retryDelay * 2);
+        }
+    }
+
+    private static byte[] compress(final String batch) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        try {
+            gzip.write(batch.getBytes(UTF_8));
+        } finally {
+            gzip.close();
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.cloud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Posts batches to an HTTP endpoint. Any 2xx response counts as delivered. Other 4xx responses,
+ * except timeouts and rate limiting, reject the batch for good; everything else is retried.
+ */
+public class HttpTransport implements Transport {
+
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final URL url;
+    private final String authorization;
+
+    /**
+     * @param authorization value of the Authorization header, or null to send none.
+     */
+    public HttpTransport(final URL url, final String authorization) {
+        this.url = url;
+        this.authorization = authorization;
+    }
+
+    @Override
+    public void send(final byte[] payload) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setFixedLengthStreamingMode(payload.length);
+            connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            if (authorization != null) {
+                connection.setRequestProperty("Authorization", authorization);
+            }
+
+            final OutputStream output = connection.getOutputStream();
+            try {
+                output.write(payload);
+            } finally {
+                output.close();
+            }
+
+            final int responseCode = connection.getResponseCode();
+            if (responseCode / 100 == 4 && responseCode != HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                    && responseCode != HTTP_TOO_MANY_REQUESTS) {
+                throw new RejectedBatchException("Publishing to " + url + " rejected with HTTP " + responseCode,
+                        responseCode);
+            }
+            if (responseCode / 100 != 2) {
+                throw new IOException("Publishing to " + url + " failed with HTTP " + responseCode);
+            }
+
+            final InputStream input = connection.getInputStream();
+            try {
+                final byte[] discard = new byte[256];
+                while (input.read(discard) != -1) {
+                    // Drain the response so the connection can go back to the keep-alive pool.
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            // A failed exchange leaves the connection in an unknown state, don't let it be reused.
+            connection.disconnect();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.model;
+
+/**
+ * Summary of the samples of one characteristic over a window. The sample values hold the
+ * statistic the subscriber asked for; the other statistics are available per value.
+ */
+public class Aggregate extends Sample {
+
+    private final float[] min = new float[MAX_VALUES];
+    private final float[] max = new float[MAX_VALUES];
+    private final float[] mean = new float[MAX_VALUES];
+    private final float[] last = new float[MAX_VALUES];
+    private long windowStart;
+    private int count;
+
+    /**
+     * @return timestamp of the first sample in the window; {@link #getTimestamp()} is the last one.
+     */
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    /**
+     * @return number of samples summarized.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public float getMin(final int index) {
+        checkIndex(index);
+        return min[index];
+    }
+
+    public float getMax(final int index) {
+        checkIndex(index);
+        return max[index];
+    }
+
+    public float getMean(final int index) {
+        checkIndex(index);
+        return mean[index];
+    }
+
+    public float getLast(final int index) {
+        checkIndex(index);
+        return last[index];
+    }
+
+    public void setStatistics(final long windowStart, final int count, final int index,
+                              final float min, final float max, final float mean, final float last) {
+        this.windowStart = windowStart;
+        this.count = count;
+        this.min[index] = min;
+        this.max[index] = max;
+        this.mean[index] = mean;
+        this.last[index] = last;
+    }
+
+    private void checkIndex(final int index) {
+        if (index >= getSize()) {
+            throw new IndexOutOfBoundsException("Aggregate has " + getSize() + " values, asked for " + index);
+        }
+    }
+}
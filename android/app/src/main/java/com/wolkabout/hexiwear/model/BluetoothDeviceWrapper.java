@@ -40,6 +40,16 @@ public class BluetoothDeviceWrapper {
 
     boolean isInOtapMode;
 
+    long lastSeen;
+
+    private static final int[] SIGNAL_ICONS = {
+            R.drawable.ic_signal_strength_1,
+            R.drawable.ic_signal_strength_2,
+            R.drawable.ic_signal_strength_3,
+            R.drawable.ic_signal_strength_4,
+            R.drawable.ic_signal_strength_5
+    };
+
     public BluetoothDevice getDevice() {
         return device;
     }
@@ -49,19 +59,30 @@ public class BluetoothDeviceWrapper {
     }
 
     public int getSignalStrength() {
-        if (signalStrength > -50.0) {
-            return R.drawable.ic_signal_strength_5;
-        } else if (signalStrength > -60.0) {
-            return R.drawable.ic_signal_strength_4;
-        } else if (signalStrength > -70.0) {
-            return R.drawable.ic_signal_strength_3;
-        } else if (signalStrength > -80.0) {
-            return R.drawable.ic_signal_strength_2;
+        return SIGNAL_ICONS[getSignalBucket(signalStrength) - 1];
+    }
+
+    /**
+     * @return 1 to 5 bars for the RSSI, in 10 dBm steps above -80 dBm.
+     */
+    public static int getSignalBucket(final int rssi) {
+        if (rssi > -50) {
+            return 5;
+        } else if (rssi > -60) {
+            return 4;
+        } else if (rssi > -70) {
+            return 3;
+        } else if (rssi > -80) {
+            return 2;
         } else {
-            return R.drawable.ic_signal_strength_1;
+            return 1;
         }
     }
 
+    public int getRssi() {
+        return signalStrength;
+    }
+
     public void setSignalStrength(int signalStrength) {
         this.signalStrength = signalStrength;
     }
@@ -74,12 +95,24 @@ public class BluetoothDeviceWrapper {
         isInOtapMode = inOtapMode;
     }
 
+    /**
+     * @return {@link com.wolkabout.hexiwear.util.Clock} time of the last advertisement, or 0 if it wasn't scanned.
+     */
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public void setLastSeen(long lastSeen) {
+        this.lastSeen = lastSeen;
+    }
+
     @Override
     public String toString() {
         return "BluetoothDeviceWrapper{" +
                 "device=" + device +
                 ", signalStrength=" + signalStrength +
                 ", isInOtapMode=" + isInOtapMode +
+                ", lastSeen=" + lastSeen +
                 '}';
     }
 }
@@ -21,7 +21,12 @@
 package com.wolkabout.hexiwear.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 public enum Characteristic {
 
@@ -114,19 +119,62 @@ public enum Characteristic {
      * */
     STATE(Type.OTAP, "01ff5553-ba5e-f4ee-5ca1-eb1e5e4b1ce0");
 
+    // Bluetooth SIG base UUID 0000xxxx-0000-1000-8000-00805f9b34fb, with the 16-bit short UUID masked out.
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+    private static final long BASE_UUID_MSB_MASK = 0xFFFF0000FFFFFFFFL;
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+    private static final int SHORT_UUID_TABLE_BITS = 6;
+    private static final int NO_SHORT_UUID = -1;
+
+    private static final Characteristic[] VALUES = values();
+    private static final int[] SHORT_UUIDS = new int[1 << SHORT_UUID_TABLE_BITS];
+    private static final Characteristic[] BY_SHORT_UUID = new Characteristic[1 << SHORT_UUID_TABLE_BITS];
+    private static final Characteristic[] BY_LONG_UUID;
+    private static final Map<String, Characteristic> BY_UUID_STRING = new HashMap<>();
+    private static final List<Characteristic> READINGS;
+
+    static {
+        Arrays.fill(SHORT_UUIDS, NO_SHORT_UUID);
+        final List<Characteristic> longUuids = new ArrayList<>();
+        final List<Characteristic> readings = new ArrayList<>();
+
+        for (Characteristic characteristic : VALUES) {
+            BY_UUID_STRING.put(characteristic.uuid, characteristic);
+            if (characteristic.type == Type.READING) {
+                readings.add(characteristic);
+            }
+
+            final int shortUuid = toShortUuid(characteristic.uuidValue);
+            if (shortUuid == NO_SHORT_UUID) {
+                longUuids.add(characteristic);
+                continue;
+            }
+
+            int index = shortUuidSlot(shortUuid);
+            while (SHORT_UUIDS[index] != NO_SHORT_UUID) {
+                index = (index + 1) & (SHORT_UUIDS.length - 1);
+            }
+            SHORT_UUIDS[index] = shortUuid;
+            BY_SHORT_UUID[index] = characteristic;
+        }
+
+        BY_LONG_UUID = longUuids.toArray(new Characteristic[longUuids.size()]);
+        READINGS = Collections.unmodifiableList(readings);
+    }
+
     private final Type type;
     private final String uuid;
+    private final UUID uuidValue;
     private final String unit;
 
     Characteristic(final Type type, final String uuid) {
-        this.type = type;
-        this.uuid = uuid;
-        this.unit = "";
+        this(type, uuid, "");
     }
 
     Characteristic(final Type type, final String uuid, final String unit) {
         this.type = type;
         this.uuid = uuid;
+        this.uuidValue = UUID.fromString(uuid);
         this.unit = unit;
     }
 
@@ -138,13 +186,68 @@ public enum Characteristic {
         return uuid;
     }
 
+    public UUID getUuidValue() {
+        return uuidValue;
+    }
+
     public String getUnit() {
         return unit;
     }
 
+    /**
+     * @return number of values in a decoded sample: 3 for motion axes, 1 for other readings, 0 otherwise.
+     */
+    public int getValueCount() {
+        switch (this) {
+            case ACCELERATION:
+            case GYRO:
+            case MAGNET:
+                return 3;
+            default:
+                return type == Type.READING ? 1 : 0;
+        }
+    }
+
+    /**
+     * @return single bit identifying this characteristic in capability masks such as {@link Mode#getCapabilities()}.
+     */
+    public long getMask() {
+        return 1L << ordinal();
+    }
+
+    /**
+     * @return the lowest characteristic set in the mask; iterate with {@code mask &= mask - 1}.
+     */
+    public static Characteristic firstOf(final long mask) {
+        return VALUES[Long.numberOfTrailingZeros(mask)];
+    }
+
     public static Characteristic byUuid(final String uuid) {
-        for (final Characteristic characteristic : values()) {
-            if (characteristic.uuid.equals(uuid)) {
+        return BY_UUID_STRING.get(uuid);
+    }
+
+    /**
+     * Resolves a GATT UUID without converting it to a string. Short Bluetooth SIG UUIDs
+     * are looked up in a small open-addressed table, the 128-bit OTAP ones by comparison.
+     */
+    public static Characteristic byUuid(final UUID uuid) {
+        final int shortUuid = toShortUuid(uuid);
+        if (shortUuid != NO_SHORT_UUID) {
+            int index = shortUuidSlot(shortUuid);
+            while (SHORT_UUIDS[index] != NO_SHORT_UUID) {
+                if (SHORT_UUIDS[index] == shortUuid) {
+                    return BY_SHORT_UUID[index];
+                }
+                index = (index + 1) & (SHORT_UUIDS.length - 1);
+            }
+            return null;
+        }
+
+        final long mostSignificantBits = uuid.getMostSignificantBits();
+        final long leastSignificantBits = uuid.getLeastSignificantBits();
+        for (Characteristic characteristic : BY_LONG_UUID) {
+            if (characteristic.uuidValue.getMostSignificantBits() == mostSignificantBits
+                    && characteristic.uuidValue.getLeastSignificantBits() == leastSignificantBits) {
                 return characteristic;
             }
         }
@@ -152,17 +255,24 @@ public enum Characteristic {
     }
 
     public static Characteristic byOrdinal(final int ordinal) {
-        return values()[ordinal];
+        return VALUES[ordinal];
     }
 
     public static List<Characteristic> getReadings() {
-        final List<Characteristic> readingCharacteristics = new ArrayList<>();
-        for (Characteristic characteristic : values()) {
-            if (characteristic.type == Type.READING) {
-                readingCharacteristics.add(characteristic);
-            }
+        return READINGS;
+    }
+
+    private static int toShortUuid(final UUID uuid) {
+        final long mostSignificantBits = uuid.getMostSignificantBits();
+        if (uuid.getLeastSignificantBits() != BASE_UUID_LSB
+                || (mostSignificantBits & BASE_UUID_MSB_MASK) != BASE_UUID_MSB) {
+            return NO_SHORT_UUID;
         }
-        return readingCharacteristics;
+        return (int) (mostSignificantBits >>> 32);
+    }
+
+    private static int shortUuidSlot(final int shortUuid) {
+        return (shortUuid * 0x9E3779B1) >>> (32 - SHORT_UUID_TABLE_BITS);
     }
 
     public enum Type {
@@ -0,0 +1,114 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.model;
+
+/**
+ * What a session learned about a device that stays valid across connections,
+ * as long as the firmware revision doesn't change.
+ */
+public class DeviceProfile {
+
+    private String firmwareRevision;
+    private String manufacturer;
+    private long characteristics;
+    private long notifiable;
+    private Mode mode;
+    private long timeSetAt;
+
+    public String getFirmwareRevision() {
+        return firmwareRevision;
+    }
+
+    public void setFirmwareRevision(final String firmwareRevision) {
+        this.firmwareRevision = firmwareRevision;
+    }
+
+    public String getManufacturer() {
+        return manufacturer;
+    }
+
+    public void setManufacturer(final String manufacturer) {
+        this.manufacturer = manufacturer;
+    }
+
+    /**
+     * @return mask of the characteristics found by service discovery.
+     */
+    public long getCharacteristics() {
+        return characteristics;
+    }
+
+    public void setCharacteristics(final long characteristics) {
+        this.characteristics = characteristics;
+    }
+
+    /**
+     * @return mask of the characteristics that support notifications.
+     */
+    public long getNotifiable() {
+        return notifiable;
+    }
+
+    public void setNotifiable(final long notifiable) {
+        this.notifiable = notifiable;
+    }
+
+    /**
+     * @return the mode the device was last seen in, or null.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(final Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * @return wall clock time the device's clock was last set, or 0.
+     */
+    public long getTimeSetAt() {
+        return timeSetAt;
+    }
+
+    public void setTimeSetAt(final long timeSetAt) {
+        this.timeSetAt = timeSetAt;
+    }
+
+    /**
+     * @return true once discovery and the info reads filled in the profile.
+     */
+    public boolean isComplete() {
+        return characteristics != 0 && firmwareRevision != null && manufacturer != null;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceProfile{" +
+                "firmwareRevision='" + firmwareRevision + '\'' +
+                ", manufacturer='" + manufacturer + '\'' +
+                ", characteristics=" + Long.toHexString(characteristics) +
+                ", notifiable=" + Long.toHexString(notifiable) +
+                ", mode=" + mode +
+                ", timeSetAt=" + timeSetAt +
+                '}';
+    }
+}
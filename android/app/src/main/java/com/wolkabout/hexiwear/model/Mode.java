@@ -22,26 +22,51 @@ package com.wolkabout.hexiwear.model;
 
 import com.wolkabout.hexiwear.R;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public enum Mode {
 
     IDLE(0, R.string.mode_idle),
     WATCH(1, R.string.mode_watch),
-    SENSOR_TAG(2, R.string.mode_sensor_tag),
+    SENSOR_TAG(2, R.string.mode_sensor_tag,
+            Characteristic.BATTERY,
+            Characteristic.ACCELERATION,
+            Characteristic.MAGNET,
+            Characteristic.GYRO,
+            Characteristic.TEMPERATURE,
+            Characteristic.HUMIDITY,
+            Characteristic.PRESSURE,
+            Characteristic.LIGHT),
     WEATHER_STATION(3, R.string.mode_weather_station),
     MOTION_CONTROL(4, R.string.mode_motion_control),
-    HEARTRATE(5, R.string.mode_heartrate),
-    PEDOMETER(6, R.string.mode_pedometer),
+    HEARTRATE(5, R.string.mode_heartrate, Characteristic.HEARTRATE),
+    PEDOMETER(6, R.string.mode_pedometer, Characteristic.STEPS, Characteristic.CALORIES),
     COMPASS(7, R.string.mode_compass);
 
     private final int symbol;
     private final int stringResource;
+    private final List<Characteristic> characteristics;
+    private final long capabilities;
 
-    Mode(final int symbol, final int stringResource) {
+    Mode(final int symbol, final int stringResource, final Characteristic... characteristics) {
         this.symbol = symbol;
         this.stringResource = stringResource;
+        this.characteristics = Collections.unmodifiableList(Arrays.asList(characteristics));
+
+        long capabilities = 0;
+        for (Characteristic characteristic : characteristics) {
+            capabilities |= characteristic.getMask();
+        }
+        this.capabilities = capabilities;
+    }
+
+    /**
+     * @return value of the MODE characteristic for this mode.
+     */
+    public int getSymbol() {
+        return symbol;
     }
 
     public int getStringResource() {
@@ -57,41 +82,46 @@ public enum Mode {
         throw new IllegalArgumentException("No mode with such symbol: " + symbol);
     }
 
+    /**
+     * @return immutable list of the characteristics the device populates in this mode.
+     */
     public List<Characteristic> getCharacteristics() {
-        final List<Characteristic> characteristics = new ArrayList<>();
-
-        switch (this) {
-            case SENSOR_TAG:
-                characteristics.add(Characteristic.BATTERY);
-                characteristics.add(Characteristic.ACCELERATION);
-                characteristics.add(Characteristic.MAGNET);
-                characteristics.add(Characteristic.GYRO);
-                characteristics.add(Characteristic.TEMPERATURE);
-                characteristics.add(Characteristic.HUMIDITY);
-                characteristics.add(Characteristic.PRESSURE);
-                characteristics.add(Characteristic.LIGHT);
-                break;
-            case PEDOMETER:
-                characteristics.add(Characteristic.STEPS);
-                characteristics.add(Characteristic.CALORIES);
-                break;
-            case HEARTRATE:
-                characteristics.add(Characteristic.HEARTRATE);
-                break;
-            default:
-                break;
-        }
-
         return characteristics;
     }
 
+    /**
+     * @return the characteristics of this mode as a bitmask of {@link Characteristic#getMask()}.
+     */
+    public long getCapabilities() {
+        return capabilities;
+    }
+
     public boolean hasCharacteristic(final String characteristicName) {
         return hasCharacteristic(Characteristic.valueOf(characteristicName));
     }
 
     public boolean hasCharacteristic(final Characteristic characteristic) {
-        final List<Characteristic> characteristics = getCharacteristics();
-        return characteristics.contains(characteristic);
+        return (capabilities & characteristic.getMask()) != 0;
+    }
+
+    /**
+     * @param previous mode before the change, or null if there was none.
+     * @return mask of the characteristics that were added or removed by switching to the next mode.
+     */
+    public static long getChangedCapabilities(final Mode previous, final Mode next) {
+        return capabilitiesOf(previous) ^ capabilitiesOf(next);
+    }
+
+    public static long getAddedCapabilities(final Mode previous, final Mode next) {
+        return ~capabilitiesOf(previous) & capabilitiesOf(next);
+    }
+
+    public static long getRemovedCapabilities(final Mode previous, final Mode next) {
+        return capabilitiesOf(previous) & ~capabilitiesOf(next);
+    }
+
+    private static long capabilitiesOf(final Mode mode) {
+        return mode == null ? 0 : mode.capabilities;
     }
 
 }
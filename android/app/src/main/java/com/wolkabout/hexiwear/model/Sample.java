@@ -0,0 +1,144 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.model;
+
+/**
+ * Decoded reading of a single characteristic. Instances are reused for every packet,
+ * so listeners have to copy a sample if they want to keep it.
+ */
+public class Sample {
+
+    public static final int MAX_VALUES = 3;
+
+    private final float[] values = new float[MAX_VALUES];
+    private Characteristic characteristic;
+    private String deviceAddress;
+    private long timestamp;
+    private long receivedNanos;
+    private int size;
+    private int counterRange;
+
+    public Characteristic getCharacteristic() {
+        return characteristic;
+    }
+
+    /**
+     * @return address of the device the sample was read from.
+     */
+    public String getDeviceAddress() {
+        return deviceAddress;
+    }
+
+    public void setDeviceAddress(final String deviceAddress) {
+        this.deviceAddress = deviceAddress;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the GATT callback carrying this sample arrived, or 0 if unknown.
+     */
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    public void setReceivedNanos(final long receivedNanos) {
+        this.receivedNanos = receivedNanos;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return values the counter reading can take before it wraps, as sent by the device, or 0 if the sample
+     * isn't a counter or its width is unknown.
+     */
+    public int getCounterRange() {
+        return counterRange;
+    }
+
+    public void setCounterRange(final int counterRange) {
+        this.counterRange = counterRange;
+    }
+
+    public float getValue(final int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Sample has " + size + " values, asked for " + index);
+        }
+        return values[index];
+    }
+
+    public void setValue(final Characteristic characteristic, final long timestamp, final float value) {
+        this.characteristic = characteristic;
+        this.timestamp = timestamp;
+        this.size = 1;
+        this.counterRange = 0;
+        values[0] = value;
+    }
+
+    public void setValues(final Characteristic characteristic, final long timestamp,
+                          final float x, final float y, final float z) {
+        this.characteristic = characteristic;
+        this.timestamp = timestamp;
+        this.size = 3;
+        this.counterRange = 0;
+        values[0] = x;
+        values[1] = y;
+        values[2] = z;
+    }
+
+    public void copyFrom(final Sample other) {
+        characteristic = other.characteristic;
+        deviceAddress = other.deviceAddress;
+        timestamp = other.timestamp;
+        receivedNanos = other.receivedNanos;
+        size = other.size;
+        counterRange = other.counterRange;
+        System.arraycopy(other.values, 0, values, 0, MAX_VALUES);
+    }
+
+    public boolean hasSameValues(final Sample other) {
+        if (characteristic != other.characteristic || size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (Float.compare(values[i], other.values[i]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("Sample{characteristic=").append(characteristic)
+                .append(", deviceAddress=").append(deviceAddress)
+                .append(", timestamp=").append(timestamp)
+                .append(", values=");
+        for (int i = 0; i < size; i++) {
+            builder.append(i == 0 ? "" : ";").append(values[i]);
+        }
+        return builder.append('}').toString();
+    }
+}
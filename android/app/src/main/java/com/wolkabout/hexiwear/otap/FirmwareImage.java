@@ -0,0 +1,128 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.otap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Firmware image to be sent over the air, mapped read-only so chunks are copied straight
+ * from the page cache instead of holding the whole file on the heap.
+ * <p>
+ * The image is an NXP OTAP image file, sent whole: a header naming the image id, version and
+ * total file size, followed by the sub-elements the bootloader checks and flashes.
+ */
+public class FirmwareImage implements Closeable {
+
+    public static final int FILE_IDENTIFIER = 0x0B1EF11E;
+    public static final int HEADER_LENGTH = 58;
+
+    private static final int IMAGE_ID_OFFSET = 12;
+    private static final int IMAGE_VERSION_OFFSET = 14;
+    private static final int TOTAL_SIZE_OFFSET = 54;
+
+    private final RandomAccessFile file;
+    private final ByteBuffer buffer;
+
+    public FirmwareImage(final File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        try {
+            if (this.file.length() > Integer.MAX_VALUE) {
+                throw new IOException("Firmware image too large: " + file);
+            }
+            buffer = this.file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, this.file.length());
+            final String error = validate(buffer);
+            if (error != null) {
+                throw new IOException(error + ": " + file);
+            }
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps an image that is already in memory.
+     */
+    public FirmwareImage(final ByteBuffer image) {
+        this.file = null;
+        this.buffer = image.duplicate();
+        final String error = validate(buffer);
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
+    }
+
+    public int getSize() {
+        return buffer.limit();
+    }
+
+    /**
+     * Copies the two byte image id, as it is sent in OTAP commands.
+     */
+    public void getImageId(final byte[] target, final int targetOffset) {
+        read(IMAGE_ID_OFFSET, target, targetOffset, OtapProtocol.IMAGE_ID_LENGTH);
+    }
+
+    /**
+     * Copies the eight byte image version, as it is sent in OTAP commands.
+     */
+    public void getImageVersion(final byte[] target, final int targetOffset) {
+        read(IMAGE_VERSION_OFFSET, target, targetOffset, OtapProtocol.IMAGE_VERSION_LENGTH);
+    }
+
+    /**
+     * Copies {@code length} bytes of the image starting at {@code offset}.
+     */
+    public synchronized void read(final int offset, final byte[] target, final int targetOffset, final int length) {
+        buffer.position(offset);
+        buffer.get(target, targetOffset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    /**
+     * @return why the image can't be sent, or null if its header is valid.
+     */
+    private static String validate(final ByteBuffer image) {
+        if (image.limit() < HEADER_LENGTH) {
+            return "Firmware image shorter than its header";
+        }
+        final ByteBuffer header = image.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != FILE_IDENTIFIER) {
+            return "Not an OTAP image file";
+        }
+        if (header.getInt(TOTAL_SIZE_OFFSET) != image.limit()) {
+            return "Firmware image size doesn't match its header";
+        }
+        return null;
+    }
+}
@@ -0,0 +1,389 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.otap;
+
+import android.util.Log;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.service.GattLink;
+import com.wolkabout.hexiwear.service.GattOperation;
+import com.wolkabout.hexiwear.service.GattQueue;
+import com.wolkabout.hexiwear.util.Clock;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+
+/**
+ * Sends a firmware image to a Hexiwear in OTAP mode, acting as the OTAP server of {@link OtapProtocol}.
+ * <p>
+ * The target drives the transfer: it asks for the image info and then for one block at a time, from
+ * wherever its flash ends. Each block is sent as chunks written without response, one at a time through
+ * the {@link GattQueue}. A chunk that fails is not repeated on its own; the rest of the block is dropped
+ * and the target requests the block again. A dropped connection is re-established, the image announced
+ * again and the target resumes with the block it is missing.
+ */
+public class OtapEngine implements GattQueue.Callback {
+
+    public interface Listener {
+
+        void onProgress(OtapEngine engine, int offset);
+
+        /**
+         * @param verified true if the target checked the integrity of the whole image.
+         */
+        void onFinished(OtapEngine engine, boolean verified);
+    }
+
+    public enum State {
+        IDLE, CONNECTING, PREPARING, TRANSFERRING, VERIFYING, COMPLETED, FAILED
+    }
+
+    private static final String TAG = OtapEngine.class.getSimpleName();
+    private static final long OPERATION_TIMEOUT = 3000;
+    private static final int OPERATION_RETRIES = 2;
+    private static final int REQUESTED_MTU = 247;
+    private static final long RESPONSE_TIMEOUT = 10000;
+
+    private final GattLink link;
+    private final GattQueue queue;
+    private final Listener listener;
+    private final DelayedExecutor executor;
+    private final Clock clock;
+    private final FirmwareImage image;
+    private final Runnable timeout = new Runnable() {
+        @Override
+        public void run() {
+            onTimeout();
+        }
+    };
+
+    private State state = State.IDLE;
+    private int chunkSize;
+    private int confirmedOffset;
+    private int sentOffset;
+    private int blockEnd;
+    private int sequence;
+    private int furthestOffset;
+    private boolean writing;
+    private long startedAt;
+    private long finishedAt;
+    private int firstOffset;
+    private long retransmitted;
+    private int reconnects;
+
+    public OtapEngine(final GattLink link, final Listener listener, final DelayedExecutor executor,
+                      final Clock clock, final FirmwareImage image) {
+        this.link = link;
+        this.listener = listener;
+        this.executor = executor;
+        this.clock = clock;
+        this.image = image;
+        this.queue = new GattQueue(link, this, executor, clock, OPERATION_TIMEOUT, OPERATION_RETRIES);
+    }
+
+    /**
+     * Connects and announces the image. A target that already holds part of it resumes from there.
+     */
+    public synchronized void start() {
+        state = State.CONNECTING;
+        link.connect();
+    }
+
+    /**
+     * Abandons the transfer. The target keeps what it has received, so a later start can resume.
+     */
+    public synchronized void stop() {
+        executor.cancel(timeout);
+        queue.clear();
+        link.close();
+        if (state != State.COMPLETED && state != State.FAILED) {
+            state = State.IDLE;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return image offset up to which the target holds the image, as told by its last block request.
+     */
+    public synchronized int getOffset() {
+        return confirmedOffset;
+    }
+
+    public FirmwareImage getImage() {
+        return image;
+    }
+
+    public int getSize() {
+        return image.getSize();
+    }
+
+    /**
+     * @return image bytes per chunk, as requested by the target, or 0 before its first block request.
+     */
+    public synchronized int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return confirmed kilobytes per second since the first block, including reconnections.
+     */
+    public synchronized float getThroughput() {
+        final long end = finishedAt != 0 ? finishedAt : clock.millis();
+        final long elapsed = end - startedAt;
+        return startedAt == 0 || elapsed <= 0 ? 0 : (confirmedOffset - firstOffset) * 1000f / 1024 / elapsed;
+    }
+
+    /**
+     * @return bytes sent again because the target requested them again.
+     */
+    public synchronized long getRetransmitted() {
+        return retransmitted;
+    }
+
+    public synchronized int getReconnects() {
+        return reconnects;
+    }
+
+    public GattQueue getGattQueue() {
+        return queue;
+    }
+
+    @Override
+    public synchronized void onConnectionStateChanged(final boolean connected) {
+        if (!isActive()) {
+            return;
+        }
+        if (connected) {
+            link.discoverServices();
+            return;
+        }
+
+        Log.i(TAG, "Disconnected at " + confirmedOffset + "/" + image.getSize() + ", reconnecting");
+        executor.cancel(timeout);
+        reconnects++;
+        writing = false;
+        blockEnd = sentOffset;
+        state = State.CONNECTING;
+        link.connect();
+    }
+
+    @Override
+    public synchronized void onServicesDiscovered(final int status) {
+        if (!isActive()) {
+            return;
+        }
+        if (status != GattLink.STATUS_SUCCESS || !link.canNotify(Characteristic.CONTROL_POINT)
+                || !link.hasCharacteristic(Characteristic.DATA)) {
+            fail("No OTAP service, status " + status);
+            return;
+        }
+
+        state = State.PREPARING;
+        link.requestConnectionPriority(GattLink.CONNECTION_PRIORITY_HIGH);
+        queue.requestMtu(REQUESTED_MTU, GattOperation.PRIORITY_HIGH);
+        queue.setNotification(Characteristic.CONTROL_POINT, true, GattOperation.PRIORITY_HIGH);
+        queue.write(Characteristic.CONTROL_POINT,
+                OtapProtocol.imageInfo(OtapProtocol.NEW_IMAGE_NOTIFICATION, image), GattOperation.PRIORITY_HIGH);
+        waitForTarget();
+    }
+
+    @Override
+    public synchronized void onOperationCompleted(final GattOperation operation, final byte[] value, final int status) {
+        if (operation.getType() == GattOperation.Type.MTU) {
+            return;
+        }
+        if (status != GattLink.STATUS_SUCCESS) {
+            fail(operation + " finished with status " + status);
+            return;
+        }
+        if (operation.getCharacteristic() == Characteristic.DATA) {
+            writing = false;
+            pump();
+        }
+    }
+
+    @Override
+    public synchronized void onOperationFailed(final GattOperation operation) {
+        if (operation.getCharacteristic() == Characteristic.DATA) {
+            Log.w(TAG, "Chunk at " + sentOffset + " failed, waiting for the target to request the block again");
+            writing = false;
+            blockEnd = sentOffset;
+            waitForTarget();
+        } else if (operation.getType() != GattOperation.Type.MTU) {
+            fail("Failed: " + operation);
+        }
+    }
+
+    @Override
+    public synchronized void onCharacteristicChanged(final Characteristic characteristic, final byte[] value) {
+        if (characteristic != Characteristic.CONTROL_POINT || value == null || value.length == 0 || !isActive()) {
+            return;
+        }
+
+        switch (value[0]) {
+            case OtapProtocol.NEW_IMAGE_INFO_REQUEST:
+                queue.write(Characteristic.CONTROL_POINT,
+                        OtapProtocol.imageInfo(OtapProtocol.NEW_IMAGE_INFO_RESPONSE, image), GattOperation.PRIORITY_HIGH);
+                waitForTarget();
+                break;
+            case OtapProtocol.IMAGE_BLOCK_REQUEST:
+                onBlockRequest(value);
+                break;
+            case OtapProtocol.IMAGE_TRANSFER_COMPLETE:
+                if (value.length < OtapProtocol.TRANSFER_COMPLETE_LENGTH || !OtapProtocol.isForImage(value, image)) {
+                    return;
+                }
+                final byte result = value[OtapProtocol.TRANSFER_COMPLETE_LENGTH - 1];
+                if (result == OtapProtocol.STATUS_SUCCESS) {
+                    confirm(image.getSize());
+                    finish(State.COMPLETED);
+                } else {
+                    fail("Target rejected the image, status " + result);
+                }
+                break;
+            case OtapProtocol.ERROR_NOTIFICATION:
+                if (value.length < OtapProtocol.ERROR_LENGTH) {
+                    return;
+                }
+                if (value[1] != OtapProtocol.IMAGE_CHUNK) {
+                    fail("Target reported error " + value[2] + " for command " + value[1]);
+                    return;
+                }
+                Log.w(TAG, "Target rejected a chunk with error " + value[2] + ", sent " + sentOffset);
+                blockEnd = sentOffset;
+                waitForTarget();
+                break;
+            default:
+                Log.w(TAG, "Unexpected OTAP command " + value[0]);
+                break;
+        }
+    }
+
+    private void onBlockRequest(final byte[] request) {
+        if (request.length < OtapProtocol.BLOCK_REQUEST_LENGTH || !OtapProtocol.isForImage(request, image)) {
+            fail("Invalid block request");
+            return;
+        }
+        final int start = OtapProtocol.getInt(request, OtapProtocol.BLOCK_START);
+        final int size = OtapProtocol.getInt(request, OtapProtocol.BLOCK_SIZE);
+        final int chunk = OtapProtocol.getShort(request, OtapProtocol.BLOCK_CHUNK_SIZE);
+        if (request[OtapProtocol.BLOCK_TRANSFER_METHOD] != OtapProtocol.TRANSFER_METHOD_ATT) {
+            fail("Unsupported transfer method " + request[OtapProtocol.BLOCK_TRANSFER_METHOD]);
+            return;
+        }
+        if (start < 0 || start > image.getSize() || size <= 0 || chunk <= 0
+                || chunk > OtapProtocol.getChunkPayload(queue.getMtu())
+                || (size + chunk - 1) / chunk > OtapProtocol.MAX_BLOCK_CHUNKS) {
+            fail("Can't send block of " + size + " at " + start + " in chunks of " + chunk
+                    + ", MTU " + queue.getMtu());
+            return;
+        }
+
+        if (state == State.PREPARING && startedAt == 0) {
+            startedAt = clock.millis();
+            firstOffset = start;
+            Log.i(TAG, "Sending " + image.getSize() + " bytes from " + start + " in chunks of " + chunk);
+        }
+        state = State.TRANSFERRING;
+        chunkSize = chunk;
+        sentOffset = start;
+        blockEnd = (int) Math.min((long) start + size, image.getSize());
+        sequence = 0;
+        confirm(start);
+        executor.cancel(timeout);
+        pump();
+    }
+
+    private void confirm(final int offset) {
+        if (offset != confirmedOffset) {
+            confirmedOffset = offset;
+            listener.onProgress(this, offset);
+        }
+    }
+
+    /**
+     * Writes the next chunk of the requested block.
+     */
+    private void pump() {
+        if (state != State.TRANSFERRING || writing) {
+            return;
+        }
+        if (sentOffset >= blockEnd) {
+            if (blockEnd == image.getSize()) {
+                state = State.VERIFYING;
+            }
+            waitForTarget();
+            return;
+        }
+
+        final int length = Math.min(chunkSize, blockEnd - sentOffset);
+        final byte[] chunk = new byte[OtapProtocol.CHUNK_HEADER + length];
+        chunk[0] = OtapProtocol.IMAGE_CHUNK;
+        chunk[1] = (byte) sequence++;
+        image.read(sentOffset, chunk, OtapProtocol.CHUNK_HEADER, length);
+        if (sentOffset < furthestOffset) {
+            retransmitted += Math.min(length, furthestOffset - sentOffset);
+        }
+        sentOffset += length;
+        furthestOffset = Math.max(furthestOffset, sentOffset);
+        writing = true;
+        queue.enqueue(GattOperation.writeNoResponse(Characteristic.DATA, chunk, GattOperation.PRIORITY_NORMAL));
+    }
+
+    private void waitForTarget() {
+        executor.cancel(timeout);
+        executor.post(timeout, RESPONSE_TIMEOUT);
+    }
+
+    private void onTimeout() {
+        if (state == State.PREPARING || state == State.TRANSFERRING || state == State.VERIFYING) {
+            fail("Target silent in " + state + " at " + confirmedOffset + ", sent " + sentOffset);
+        }
+    }
+
+    private boolean isActive() {
+        return state == State.CONNECTING || state == State.PREPARING
+                || state == State.TRANSFERRING || state == State.VERIFYING;
+    }
+
+    private void fail(final String reason) {
+        Log.e(TAG, reason);
+        finish(State.FAILED);
+    }
+
+    private void finish(final State result) {
+        executor.cancel(timeout);
+        finishedAt = clock.millis();
+        state = result;
+        queue.clear();
+        link.close();
+        Log.i(TAG, "OTAP " + result + ": " + this);
+        listener.onFinished(this, result == State.COMPLETED);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "OtapEngine{" + state + ' ' + confirmedOffset + '/' + image.getSize()
+                + ", chunk=" + chunkSize + ", throughput=" + getThroughput()
+                + "KB/s, retransmitted=" + retransmitted + ", reconnects=" + reconnects + '}';
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.otap;
+
+/**
+ * Commands of the NXP over-the-air programming (OTAP) protocol that the Hexiwear bootloader speaks.
+ * The phone is the OTAP server, holding the image; the watch is the client and drives the transfer.
+ * Every command starts with its id; integers are little endian.
+ * <ul>
+ * <li>CONTROL_POINT, written with response by the server and indicated by the client, carries
+ * everything except image data: new image notification, image info request and response, image
+ * block request, transfer complete, error notification and stop.</li>
+ * <li>DATA, written without response, carries the image chunks of a block, each with a sequence
+ * number that starts at 0 in every block.</li>
+ * </ul>
+ * The server announces its image; the client asks for the image info, then requests the image block
+ * by block, starting at whatever it already holds, and finally reports whether the image it stored
+ * passed its integrity check.
+ */
+public final class OtapProtocol {
+
+    public static final byte NEW_IMAGE_NOTIFICATION = 0x01;
+    public static final byte NEW_IMAGE_INFO_REQUEST = 0x02;
+    public static final byte NEW_IMAGE_INFO_RESPONSE = 0x03;
+    public static final byte IMAGE_BLOCK_REQUEST = 0x04;
+    public static final byte IMAGE_CHUNK = 0x05;
+    public static final byte IMAGE_TRANSFER_COMPLETE = 0x06;
+    public static final byte ERROR_NOTIFICATION = 0x07;
+    public static final byte STOP_IMAGE_TRANSFER = 0x08;
+
+    public static final byte TRANSFER_METHOD_ATT = 0x00;
+
+    public static final byte STATUS_SUCCESS = 0x00;
+    public static final byte STATUS_IMAGE_DATA_NOT_EXPECTED = 0x01;
+    public static final byte STATUS_FAILED_IMAGE_INTEGRITY_CHECK = 0x0A;
+    public static final byte STATUS_UNEXPECTED_SEQUENCE_NUMBER = 0x0B;
+    public static final byte STATUS_IMAGE_SIZE_TOO_LARGE = 0x0C;
+
+    public static final int IMAGE_ID_LENGTH = 2;
+    public static final int IMAGE_VERSION_LENGTH = 8;
+
+    /**
+     * Lengths of the commands, id included.
+     */
+    public static final int NEW_IMAGE_LENGTH = 1 + IMAGE_ID_LENGTH + IMAGE_VERSION_LENGTH + 4;
+    public static final int INFO_REQUEST_LENGTH = 1 + IMAGE_ID_LENGTH + IMAGE_VERSION_LENGTH;
+    public static final int BLOCK_REQUEST_LENGTH = 1 + IMAGE_ID_LENGTH + 4 + 4 + 2 + 1 + 2;
+    public static final int TRANSFER_COMPLETE_LENGTH = 1 + IMAGE_ID_LENGTH + 1;
+    public static final int ERROR_LENGTH = 3;
+    public static final int CHUNK_HEADER = 2;
+
+    /**
+     * Offsets of the image block request fields.
+     */
+    public static final int BLOCK_START = 3;
+    public static final int BLOCK_SIZE = 7;
+    public static final int BLOCK_CHUNK_SIZE = 11;
+    public static final int BLOCK_TRANSFER_METHOD = 13;
+
+    /**
+     * Chunks per block are limited by the one byte sequence number.
+     */
+    public static final int MAX_BLOCK_CHUNKS = 256;
+
+    private static final int ATT_HEADER = 3;
+
+    private OtapProtocol() {
+        // Not meant to be instantiated.
+    }
+
+    /**
+     * Announces the image, or answers the client's info request with it.
+     *
+     * @param command {@link #NEW_IMAGE_NOTIFICATION} or {@link #NEW_IMAGE_INFO_RESPONSE}.
+     */
+    public static byte[] imageInfo(final byte command, final FirmwareImage image) {
+        final byte[] info = new byte[NEW_IMAGE_LENGTH];
+        info[0] = command;
+        image.getImageId(info, 1);
+        image.getImageVersion(info, 1 + IMAGE_ID_LENGTH);
+        putInt(info, 1 + IMAGE_ID_LENGTH + IMAGE_VERSION_LENGTH, image.getSize());
+        return info;
+    }
+
+    public static byte[] stopImageTransfer(final FirmwareImage image) {
+        final byte[] stop = new byte[1 + IMAGE_ID_LENGTH];
+        stop[0] = STOP_IMAGE_TRANSFER;
+        image.getImageId(stop, 1);
+        return stop;
+    }
+
+    /**
+     * @return image bytes that fit in one chunk at the given ATT MTU.
+     */
+    public static int getChunkPayload(final int mtu) {
+        return mtu - ATT_HEADER - CHUNK_HEADER;
+    }
+
+    /**
+     * @return true if the command names the image, by the id that follows the command id.
+     */
+    public static boolean isForImage(final byte[] command, final FirmwareImage image) {
+        final byte[] id = new byte[IMAGE_ID_LENGTH];
+        image.getImageId(id, 0);
+        return command.length > IMAGE_ID_LENGTH && command[1] == id[0] && command[2] == id[1];
+    }
+
+    public static void putInt(final byte[] target, final int offset, final int value) {
+        target[offset] = (byte) value;
+        target[offset + 1] = (byte) (value >>> 8);
+        target[offset + 2] = (byte) (value >>> 16);
+        target[offset + 3] = (byte) (value >>> 24);
+    }
+
+    public static void putShort(final byte[] target, final int offset, final int value) {
+        target[offset] = (byte) value;
+        target[offset + 1] = (byte) (value >>> 8);
+    }
+
+    public static int getInt(final byte[] source, final int offset) {
+        return (source[offset] & 0xFF)
+                | (source[offset + 1] & 0xFF) << 8
+                | (source[offset + 2] & 0xFF) << 16
+                | (source[offset + 3] & 0xFF) << 24;
+    }
+
+    public static int getShort(final byte[] source, final int offset) {
+        return (source[offset] & 0xFF) | (source[offset + 1] & 0xFF) << 8;
+    }
+}
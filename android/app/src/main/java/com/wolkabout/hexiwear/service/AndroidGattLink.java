@@ -0,0 +1,236 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * {@link GattLink} backed by the platform BluetoothGatt.
+ */
+public class AndroidGattLink extends BluetoothGattCallback implements GattLink {
+
+    private static final String TAG = AndroidGattLink.class.getSimpleName();
+    private static final UUID CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private final Context context;
+    private final BluetoothDevice device;
+    private final Map<Characteristic, BluetoothGattCharacteristic> characteristics = new EnumMap<>(Characteristic.class);
+    private volatile Callback callback;
+    private BluetoothGatt bluetoothGatt;
+
+    public AndroidGattLink(final Context context, final BluetoothDevice device) {
+        this.context = context;
+        this.device = device;
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    @Override
+    public String getAddress() {
+        return device.getAddress();
+    }
+
+    @Override
+    public void setCallback(final Callback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public boolean connect() {
+        if (bluetoothGatt == null) {
+            bluetoothGatt = device.connectGatt(context, false, this);
+            return bluetoothGatt != null;
+        }
+        return bluetoothGatt.connect();
+    }
+
+    @Override
+    public void close() {
+        if (bluetoothGatt != null) {
+            bluetoothGatt.close();
+            bluetoothGatt = null;
+        }
+    }
+
+    @Override
+    public boolean discoverServices() {
+        return bluetoothGatt != null && bluetoothGatt.discoverServices();
+    }
+
+    /**
+     * A reconnect through the same BluetoothGatt keeps its handles; after {@link #close()} they are gone.
+     */
+    @Override
+    public boolean restoreServices() {
+        return bluetoothGatt != null && !characteristics.isEmpty();
+    }
+
+    @Override
+    public boolean hasCharacteristic(final Characteristic characteristic) {
+        return characteristics.containsKey(characteristic);
+    }
+
+    @Override
+    public boolean canNotify(final Characteristic characteristic) {
+        final BluetoothGattCharacteristic gattCharacteristic = characteristics.get(characteristic);
+        return gattCharacteristic != null && (gattCharacteristic.getProperties()
+                & (BluetoothGattCharacteristic.PROPERTY_NOTIFY | BluetoothGattCharacteristic.PROPERTY_INDICATE)) != 0;
+    }
+
+    @Override
+    public boolean read(final Characteristic characteristic) {
+        final BluetoothGattCharacteristic gattCharacteristic = characteristics.get(characteristic);
+        return bluetoothGatt != null && gattCharacteristic != null && bluetoothGatt.readCharacteristic(gattCharacteristic);
+    }
+
+    @Override
+    public boolean write(final Characteristic characteristic, final byte[] value, final boolean withResponse) {
+        final BluetoothGattCharacteristic gattCharacteristic = characteristics.get(characteristic);
+        if (bluetoothGatt == null || gattCharacteristic == null) {
+            return false;
+        }
+
+        gattCharacteristic.setValue(value);
+        gattCharacteristic.setWriteType(withResponse ?
+                BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT :
+                BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        return bluetoothGatt.writeCharacteristic(gattCharacteristic);
+    }
+
+    @Override
+    public boolean setNotification(final Characteristic characteristic, final boolean enable) {
+        final BluetoothGattCharacteristic gattCharacteristic = characteristics.get(characteristic);
+        if (bluetoothGatt == null || gattCharacteristic == null) {
+            return false;
+        }
+
+        final BluetoothGattDescriptor descriptor = gattCharacteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG);
+        if (descriptor == null) {
+            return false;
+        }
+
+        bluetoothGatt.setCharacteristicNotification(gattCharacteristic, enable);
+        if (!enable) {
+            descriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+        } else if ((gattCharacteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0) {
+            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        } else {
+            descriptor.setValue(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+        }
+        return bluetoothGatt.writeDescriptor(descriptor);
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public boolean requestMtu(final int mtu) {
+        return bluetoothGatt != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                && bluetoothGatt.requestMtu(mtu);
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public boolean requestConnectionPriority(final int priority) {
+        return bluetoothGatt != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                && bluetoothGatt.requestConnectionPriority(priority);
+    }
+
+    @Override
+    public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+        callback.onConnectionStateChanged(newState == BluetoothProfile.STATE_CONNECTED);
+    }
+
+    @Override
+    public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+        characteristics.clear();
+        if (gatt.getServices().size() == 0) {
+            Log.i(TAG, "No services found.");
+        }
+
+        for (BluetoothGattService gattService : gatt.getServices()) {
+            for (BluetoothGattCharacteristic gattCharacteristic : gattService.getCharacteristics()) {
+                final Characteristic characteristic = Characteristic.byUuid(gattCharacteristic.getUuid());
+                if (characteristic != null) {
+                    Log.v(TAG, characteristic.getType() + ": " + characteristic.name());
+                    characteristics.put(characteristic, gattCharacteristic);
+                } else {
+                    Log.v(TAG, "UNKNOWN: " + gattCharacteristic.getUuid());
+                }
+            }
+        }
+
+        callback.onServicesDiscovered(status);
+    }
+
+    @Override
+    public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic gattCharacteristic, int status) {
+        final Characteristic characteristic = Characteristic.byUuid(gattCharacteristic.getUuid());
+        if (characteristic != null) {
+            callback.onCharacteristicRead(characteristic, gattCharacteristic.getValue(), status);
+        }
+    }
+
+    @Override
+    public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic gattCharacteristic, int status) {
+        final Characteristic characteristic = Characteristic.byUuid(gattCharacteristic.getUuid());
+        if (characteristic != null) {
+            callback.onCharacteristicWrite(characteristic, gattCharacteristic.getValue(), status);
+        }
+    }
+
+    @Override
+    public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+        final Characteristic characteristic = Characteristic.byUuid(descriptor.getCharacteristic().getUuid());
+        if (characteristic != null) {
+            callback.onNotificationWritten(characteristic, status);
+        }
+    }
+
+    @Override
+    public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic gattCharacteristic) {
+        final Characteristic characteristic = Characteristic.byUuid(gattCharacteristic.getUuid());
+        if (characteristic != null) {
+            callback.onCharacteristicChanged(characteristic, gattCharacteristic.getValue());
+        }
+    }
+
+    @Override
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        callback.onMtuChanged(mtu, status);
+    }
+}
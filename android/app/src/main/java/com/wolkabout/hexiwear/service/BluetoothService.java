@@ -21,53 +21,73 @@
 package com.wolkabout.hexiwear.service;
 
 import android.annotation.SuppressLint;
+import android.app.Notification;
+import android.app.PendingIntent;
 import android.app.Service;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothProfile;
 import android.content.Intent;
 import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.wolkabout.hexiwear.R;
+import com.wolkabout.hexiwear.activity.ReadingsActivity_;
+import com.wolkabout.hexiwear.analytics.HeartRateAnalytics;
+import com.wolkabout.hexiwear.analytics.PedometerAnalytics;
+import com.wolkabout.hexiwear.cloud.BatchSpool;
+import com.wolkabout.hexiwear.cloud.CloudPublisher;
+import com.wolkabout.hexiwear.cloud.HttpTransport;
+import com.wolkabout.hexiwear.model.BluetoothDeviceWrapper;
 import com.wolkabout.hexiwear.model.Characteristic;
-import com.wolkabout.hexiwear.model.ManufacturerInfo;
 import com.wolkabout.hexiwear.model.Mode;
-import com.wolkabout.hexiwear.util.DataConverter;
-
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.otap.FirmwareImage;
+import com.wolkabout.hexiwear.otap.OtapEngine;
+import com.wolkabout.hexiwear.store.CaptureWriter;
+import com.wolkabout.hexiwear.store.DeviceProfileStore;
+import com.wolkabout.hexiwear.store.SampleStore;
+import com.wolkabout.hexiwear.stream.SampleFlow;
+import com.wolkabout.hexiwear.stream.SampleStreams;
+import com.wolkabout.hexiwear.stream.Subscription;
+import com.wolkabout.hexiwear.util.Clock;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+import com.wolkabout.hexiwear.util.HandlerExecutor;
+import com.wolkabout.hexiwear.util.PipelineMetrics;
+
+import org.androidannotations.annotations.Bean;
 import org.androidannotations.annotations.EService;
 import org.androidannotations.annotations.Receiver;
 import org.androidannotations.annotations.UiThread;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.HashMap;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Set;
 import java.util.TimeZone;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
 
 /**
  * @author notzuonotdied
  */
 @SuppressLint("Registered")
 @EService
-public class BluetoothService extends Service {
+public class BluetoothService extends Service implements DeviceSession.Listener {
 
     public static final String SERVICES_AVAILABLE = "servicesAvailable";
-    public static final String DATA_AVAILABLE = "dataAvailable";
-    public static final String READING_TYPE = "readingType";
     public static final String CONNECTION_STATE_CHANGED = "ConnectionStateChange";
     public static final String CONNECTION_STATE = "connectionState";
-    public static final String STRING_DATA = "stringData";
+    public static final String DEVICE_ADDRESS = "deviceAddress";
     public static final String STOP = "stop";
     public static final String ACTION_NEEDS_BOND = "noBond";
     public static final String MODE_CHANGED = "modeChanged";
@@ -75,22 +95,183 @@ public class BluetoothService extends Service {
     public static final String BLUETOOTH_SERVICE_STOPPED = "BLUETOOTH_SERVICE_STOPPED";
     public static final String SHOW_TIME_PROGRESS = "SHOW_TIME_PROGRESS";
     public static final String HIDE_TIME_PROGRESS = "HIDE_TIME_PROGRESS";
+    public static final String OTAP_PROGRESS = "otapProgress";
+    public static final String OTAP_FINISHED = "otapFinished";
+    public static final String OTAP_OFFSET = "otapOffset";
+    public static final String OTAP_SIZE = "otapSize";
+    public static final String OTAP_VERIFIED = "otapVerified";
     private static final String TAG = BluetoothService.class.getSimpleName();
+    private static final String SAMPLES_DIRECTORY = "samples";
+    private static final long SAMPLE_RETENTION = 24 * 60 * 60 * 1000L;
+    private static final long ALL_READINGS = -1L;
+    private static final long PEDOMETER_READINGS = Characteristic.STEPS.getMask() | Characteristic.CALORIES.getMask();
+    private static final long HEART_RATE_WINDOW = 60000;
+    private static final int HEART_RATE_CAPACITY = 256;
+    private static final long STORE_WINDOW = 100;
+    private static final long PUBLISH_WINDOW = 1000;
+    private static final String OUTBOX_DIRECTORY = "outbox";
+    private static final String PROFILES_DIRECTORY = "profiles";
+    private static final int PUBLISH_BATCH_READINGS = 500;
+    private static final long PUBLISH_BATCH_AGE = 30000;
+    private static final int PUBLISH_MAX_SPOOLED = 2000;
+    private static final int COLLECTION_NOTIFICATION = 1;
+    private static final long COLLECTION_FLUSH_PERIOD = 20000;
+    private static final int COLLECTION_BUFFER = 8192;
+    private static final String CAPTURES_DIRECTORY = "captures";
+    private static final String CAPTURE_EXTENSION = ".hxc";
+    private static final long CAPTURE_FLUSH_PERIOD = 5000;
+
+    private final Map<String, DeviceSession> sessions = new LinkedHashMap<>();
+    private final Map<String, SampleStore> sampleStores = new LinkedHashMap<>();
+    private final Map<String, CloudPublisher> publishers = new LinkedHashMap<>();
+    private final Map<String, OtapEngine> otapEngines = new LinkedHashMap<>();
+    private final Map<String, PedometerAnalytics> pedometers = new LinkedHashMap<>();
+    private final Map<String, HeartRateAnalytics> heartRates = new LinkedHashMap<>();
+    private final DelayedExecutor executor = new HandlerExecutor(new Handler());
+    private final SampleStreams.DemandListener demandListener = new SampleStreams.DemandListener() {
+        @Override
+        public void onDemandChanged(final long mask) {
+            for (DeviceSession session : getSessions()) {
+                session.setDemand(mask);
+            }
+        }
+    };
+    private final SampleStreams streams = new SampleStreams(demandListener, executor);
+    private final PipelineMetrics pipelineMetrics = new PipelineMetrics();
+    private DeviceProfileStore profileStore;
+    private HandlerThread collectionThread;
+    private SampleBatcher storeBatcher;
+    private SampleBatcher cloudBatcher;
+    private Subscription storeSubscription;
+    private Subscription cloudSubscription;
+    private Subscription pedometerSubscription;
+    private Subscription heartRateSubscription;
+    private volatile boolean collecting;
+    private volatile CaptureWriter capture;
+    private boolean clientsBound;
+    private final SampleListener storeWriter = new SampleListener() {
+        @Override
+        public void onSample(final Sample sample) {
+            try {
+                getSampleStore(sample.getDeviceAddress()).append(sample);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to store " + sample, e);
+            }
+        }
+    };
+    private final SampleListener cloudWriter = new SampleListener() {
+        @Override
+        public void onSample(final Sample sample) {
+            final CloudPublisher publisher = getPublisher(sample.getDeviceAddress());
+            if (publisher != null) {
+                publisher.publish(sample);
+            }
+        }
+    };
+    private final DeviceSession.PacketListener captureListener = new DeviceSession.PacketListener() {
+        @Override
+        public void onPacket(final DeviceSession session, final Characteristic characteristic,
+                             final byte[] value, final long receivedNanos) {
+            final CaptureWriter writer = capture;
+            if (writer == null) {
+                return;
+            }
 
-    private static final byte WRITE_NOTIFICATION = 1;
-    private static final byte WRITE_TIME = 3;
+            try {
+                writer.append(session.getAddress(), characteristic, value, receivedNanos);
+            } catch (IOException e) {
+                Log.e(TAG, "Capture failed: " + writer, e);
+                stopCapture();
+            }
+        }
+    };
+    private final Runnable captureFlush = new Runnable() {
+        @Override
+        public void run() {
+            final CaptureWriter writer = capture;
+            if (writer == null) {
+                return;
+            }
 
-    private static final Map<String, BluetoothGattCharacteristic> READABLE_CHARACTERISTICS = new HashMap<>();
-    private static final ManufacturerInfo MANUFACTURER_INFO = new ManufacturerInfo();
-    private static final Queue<String> READING_QUEUE = new ArrayBlockingQueue<>(12);
-    private static final Queue<byte[]> NOTIFICATIONS_QUEUE = new LinkedBlockingDeque<>();
+            // The writer flushes as packets arrive; this covers a link that went quiet.
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                Log.e(TAG, "Capture failed: " + writer, e);
+                stopCapture();
+                return;
+            }
+            executor.post(this, CAPTURE_FLUSH_PERIOD);
+        }
+    };
+    private final SampleListener pedometerTracker = new SampleListener() {
+        @Override
+        public void onSample(final Sample sample) {
+            getPedometerAnalytics(sample.getDeviceAddress()).onSample(sample);
+        }
+    };
+    private final SampleListener heartRateTracker = new SampleListener() {
+        @Override
+        public void onSample(final Sample sample) {
+            getHeartRateAnalytics(sample.getDeviceAddress()).onSample(sample);
+        }
+    };
+    private final OtapEngine.Listener otapListener = new OtapEngine.Listener() {
+        @Override
+        public void onProgress(final OtapEngine engine, final int offset) {
+            final Intent progress = new Intent(OTAP_PROGRESS);
+            progress.putExtra(DEVICE_ADDRESS, engine.getGattQueue().getLink().getAddress());
+            progress.putExtra(OTAP_OFFSET, offset);
+            progress.putExtra(OTAP_SIZE, engine.getSize());
+            sendBroadcast(progress);
+        }
 
-    private volatile boolean shouldUpdateTime;
-    private volatile boolean isConnected;
+        @Override
+        public void onFinished(final OtapEngine engine, final boolean verified) {
+            closeImage(engine.getImage());
+            final Intent finished = new Intent(OTAP_FINISHED);
+            finished.putExtra(DEVICE_ADDRESS, engine.getGattQueue().getLink().getAddress());
+            finished.putExtra(OTAP_VERIFIED, verified);
+            sendBroadcast(finished);
+        }
+    };
+    private final DiscoveryCache.Listener reconnectListener = new DiscoveryCache.Listener() {
+        @Override
+        public void onDevicesChanged(final List<BluetoothDeviceWrapper> added, final List<BluetoothDeviceWrapper> changed,
+                                     final List<BluetoothDeviceWrapper> lost) {
+            for (BluetoothDeviceWrapper wrapper : added) {
+                final DeviceSession session = getSession(wrapper.getDevice().getAddress());
+                if (session != null && session.reconnect()) {
+                    Log.i(TAG, "Advertising again, reconnecting: " + session.getAddress());
+                }
+            }
+        }
+    };
+    // Addresses of sessions whose link dropped; only touched on the main thread.
+    private final Set<String> lostAddresses = new HashSet<>();
+    @Bean
+    DeviceDiscoveryService reconnectScanner;
     private BluetoothDevice bluetoothDevice;
-    private BluetoothGattCharacteristic alertIn;
-    private BluetoothGatt bluetoothGatt;
-    private Mode mode;
+    private String cloudReadingsUrl;
+    private String cloudAuthorization;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        cloudReadingsUrl = getString(R.string.cloud_readings_url);
+        cloudAuthorization = getString(R.string.cloud_authorization);
+        profileStore = new DeviceProfileStore(new File(getFilesDir(), PROFILES_DIRECTORY));
+        reconnectScanner.setListener(reconnectListener);
+        collectionThread = new HandlerThread("collection");
+        collectionThread.start();
+        final DelayedExecutor collectionExecutor = new HandlerExecutor(new Handler(collectionThread.getLooper()));
+        storeBatcher = new SampleBatcher(storeWriter, collectionExecutor, COLLECTION_BUFFER);
+        cloudBatcher = new SampleBatcher(cloudWriter, collectionExecutor, COLLECTION_BUFFER);
+        subscribeCollection();
+        // Analytics follow whatever is read for the UI or collection, without asking for more.
+        pedometerSubscription = streams.observe(PEDOMETER_READINGS).subscribe(pedometerTracker);
+        heartRateSubscription = streams.observe(Characteristic.HEARTRATE.getMask()).subscribe(heartRateTracker);
+    }
 
     @Receiver(actions = BluetoothDevice.ACTION_BOND_STATE_CHANGED)
     void onBondStateChanged(Intent intent) {
@@ -103,7 +284,7 @@ public class BluetoothService extends Service {
 
         if (bondState == BluetoothDevice.BOND_BONDED) {
             Log.i(TAG, "Bonded");
-            createGATT(device);
+            createSession(device);
         } else if (bondState == BluetoothDevice.BOND_NONE) {
             device.createBond();
         }
@@ -112,6 +293,7 @@ public class BluetoothService extends Service {
     @Receiver(actions = STOP)
     void onStopCommand() {
         Log.i(TAG, "Stop command received.");
+        collecting = false;
         stopForeground(true);
         stopSelf();
     }
@@ -119,8 +301,40 @@ public class BluetoothService extends Service {
     @Override
     public void onDestroy() {
         Log.i(TAG, "Stopping service...");
-        if (bluetoothGatt != null) {
-            bluetoothGatt.close();
+        for (DeviceSession session : getSessions()) {
+            session.close();
+        }
+        synchronized (sessions) {
+            sessions.clear();
+        }
+        reconnectScanner.cancelScan();
+        cancelCollection();
+        pedometerSubscription.cancel();
+        heartRateSubscription.cancel();
+        streams.complete();
+        storeBatcher.flush();
+        cloudBatcher.flush();
+        collectionThread.quitSafely();
+        stopCapture();
+        synchronized (sampleStores) {
+            for (SampleStore store : sampleStores.values()) {
+                closeStore(store);
+            }
+            sampleStores.clear();
+        }
+        synchronized (publishers) {
+            for (CloudPublisher publisher : publishers.values()) {
+                Log.d(TAG, "Publishing stats: " + publisher);
+                publisher.close();
+            }
+            publishers.clear();
+        }
+        synchronized (otapEngines) {
+            for (OtapEngine engine : otapEngines.values()) {
+                engine.stop();
+                closeImage(engine.getImage());
+            }
+            otapEngines.clear();
         }
 
         Log.d(TAG, "onDestroy: sending intent that bt service stopped");
@@ -128,296 +342,537 @@ public class BluetoothService extends Service {
         LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
     }
 
+    /**
+     * Starts reading the device in its own session, next to any other connected devices.
+     * The first device started is the one reported by {@link #getCurrentDevice()}.
+     */
     public void startReading(BluetoothDevice device) {
         Log.i(TAG, "Starting to read data for device: " + device.getName());
-        bluetoothDevice = device;
-        createGATT(device);
-    }
-
-    private void createGATT(final BluetoothDevice device) {
-        bluetoothGatt = device.connectGatt(this, false, new BluetoothGattCallback() {
-            @Override
-            public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-                isConnected = BluetoothProfile.STATE_CONNECTED == newState;
-                if (isConnected) {
-                    Log.i(TAG, "GATT connected.");
-                    gatt.discoverServices();
-                } else {
-                    Log.i(TAG, "GATT disconnected.");
-                    gatt.connect();
-                }
+        if (bluetoothDevice == null) {
+            bluetoothDevice = device;
+        }
+        createSession(device);
+    }
 
-                final Intent connectionStateChanged = new Intent(CONNECTION_STATE_CHANGED);
-                connectionStateChanged.putExtra(CONNECTION_STATE, isConnected);
-                sendBroadcast(connectionStateChanged);
-            }
+    public void stopReading(final BluetoothDevice device) {
+        final DeviceSession session;
+        synchronized (sessions) {
+            session = sessions.remove(device.getAddress());
+        }
+        if (session != null) {
+            Log.i(TAG, "Stopping session for device: " + device.getName());
+            session.close();
+        }
+        final SampleStore store;
+        synchronized (sampleStores) {
+            store = sampleStores.remove(device.getAddress());
+        }
+        if (store != null) {
+            closeStore(store);
+        }
+        final CloudPublisher publisher;
+        synchronized (publishers) {
+            publisher = publishers.remove(device.getAddress());
+        }
+        if (publisher != null) {
+            Log.d(TAG, "Publishing stats: " + publisher);
+            publisher.close();
+        }
+        if (bluetoothDevice != null && bluetoothDevice.getAddress().equals(device.getAddress())) {
+            bluetoothDevice = null;
+        }
+        updateReconnectScan(device.getAddress(), false);
+    }
 
-            @Override
-            public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-                Log.i(TAG, "Services discovered.");
-                if (status == BluetoothGatt.GATT_INSUFFICIENT_AUTHENTICATION) {
-                    handleAuthenticationError(gatt);
-                    return;
-                }
+    /**
+     * Keeps a low power scan running for the devices whose link dropped, so they are reconnected as soon
+     * as they advertise again, and stops it once none are missing.
+     */
+    @UiThread
+    void updateReconnectScan(final String address, final boolean lost) {
+        final boolean changed = lost && getSession(address) != null
+                ? lostAddresses.add(address) : lostAddresses.remove(address);
+        if (!changed) {
+            return;
+        }
 
-                discoverCharacteristics(gatt);
-            }
+        reconnectScanner.cancelScan();
+        if (!lostAddresses.isEmpty()) {
+            final DeviceDiscoveryService.ScanProfile profile = DeviceDiscoveryService.ScanProfile.BACKGROUND;
+            reconnectScanner.startScan(profile, profile.getReportDelayMillis(), lostAddresses);
+        }
+    }
 
-            @Override
-            public void onCharacteristicWrite(BluetoothGatt gatt,
-                                              BluetoothGattCharacteristic characteristic,
-                                              int status) {
-                Log.i(TAG, "Characteristic written: " + status);
+    private void createSession(final BluetoothDevice device) {
+        final DeviceSession previous;
+        final DeviceSession session = new DeviceSession(new AndroidGattLink(this, device), this, executor, Clock.SYSTEM);
+        session.setPipelineMetrics(pipelineMetrics);
+        session.setProfileStore(profileStore);
+        session.setDemand(streams.getDemand());
+        session.setLowPower(collecting && !clientsBound);
+        session.setPacketListener(capture == null ? null : captureListener);
+        synchronized (sessions) {
+            previous = sessions.put(device.getAddress(), session);
+        }
+        if (previous != null) {
+            previous.close();
+        }
+        session.start();
+    }
 
-                if (status == BluetoothGatt.GATT_INSUFFICIENT_AUTHENTICATION) {
-                    handleAuthenticationError(gatt);
-                    return;
-                }
+    public DeviceSession getSession(final String address) {
+        synchronized (sessions) {
+            return sessions.get(address);
+        }
+    }
 
-                final byte command = characteristic.getValue()[0];
-                switch (command) {
-                    case WRITE_TIME:
-                        Log.i(TAG, "Time written.");
-                        showToast(R.string.readings_time_set_success);
-                        final Intent intent = new Intent(HIDE_TIME_PROGRESS);
-                        sendBroadcast(intent);
-
-                        final BluetoothGattCharacteristic batteryCharacteristic =
-                                READABLE_CHARACTERISTICS.get(Characteristic.BATTERY.getUuid());
-                        gatt.setCharacteristicNotification(batteryCharacteristic, true);
-                        for (BluetoothGattDescriptor descriptor : batteryCharacteristic.getDescriptors()) {
-                            if (descriptor.getUuid().toString().startsWith("00002904")) {
-                                descriptor.setValue(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
-                                gatt.writeDescriptor(descriptor);
-                            }
-                        }
-                        break;
-                    // 这里是发送指令到设备中，让设备将指定的数据发送过来
-                    case WRITE_NOTIFICATION:
-                        readNextCharacteristics(gatt);
-                        break;
-                    default:
-                        Log.w(TAG, "No such ALERT IN command: " + command);
-                        break;
-                }
-            }
+    public List<DeviceSession> getSessions() {
+        synchronized (sessions) {
+            return new ArrayList<>(sessions.values());
+        }
+    }
 
-            @Override
-            public void onDescriptorWrite(BluetoothGatt gatt,
-                                          BluetoothGattDescriptor descriptor,
-                                          int status) {
-                readCharacteristic(gatt, Characteristic.MANUFACTURER);
+    /**
+     * @return the on-disk history of the device's readings, opened on first use.
+     */
+    public SampleStore getSampleStore(final String address) {
+        synchronized (sampleStores) {
+            SampleStore store = sampleStores.get(address);
+            if (store == null) {
+                final File directory = new File(new File(getFilesDir(), SAMPLES_DIRECTORY), address.replace(":", ""));
+                store = new SampleStore(directory, SAMPLE_RETENTION);
+                sampleStores.put(address, store);
             }
+            return store;
+        }
+    }
 
-            @Override
-            public void onCharacteristicRead(BluetoothGatt gatt,
-                                             final BluetoothGattCharacteristic gattCharacteristic,
-                                             int status) {
-                if (status == BluetoothGatt.GATT_INSUFFICIENT_AUTHENTICATION) {
-                    handleAuthenticationError(gatt);
-                    return;
-                }
+    /**
+     * @return the device's step and calorie totals and rollups, kept while the service runs so they
+     * carry over reconnects.
+     */
+    public PedometerAnalytics getPedometerAnalytics(final String address) {
+        synchronized (pedometers) {
+            PedometerAnalytics analytics = pedometers.get(address);
+            if (analytics == null) {
+                analytics = new PedometerAnalytics(TimeZone.getDefault());
+                pedometers.put(address, analytics);
+            }
+            return analytics;
+        }
+    }
 
-                final String characteristicUuid = gattCharacteristic.getUuid().toString();
-                final Characteristic characteristic = Characteristic.byUuid(characteristicUuid);
-                assert characteristic != null;
-                switch (characteristic) {
-                    case MANUFACTURER:
-                        MANUFACTURER_INFO.manufacturer = gattCharacteristic.getStringValue(0);
-                        readCharacteristic(gatt, Characteristic.FW_REVISION);
-                        break;
-                    case FW_REVISION:
-                        MANUFACTURER_INFO.firmwareRevision = gattCharacteristic.getStringValue(0);
-                        readCharacteristic(gatt, Characteristic.MODE);
-                        break;
-                    default:
-                        Log.v(TAG, "Characteristic read: " + characteristic.name());
-                        if (characteristic == Characteristic.MODE) {
-                            final Mode newMode = Mode.bySymbol(gattCharacteristic.getValue()[0]);
-                            if (mode != newMode) {
-                                onModeChanged(newMode);
-                            }
-                        } else {
-                            onBluetoothDataReceived(characteristic, gattCharacteristic.getValue());
-                        }
-
-                        if (shouldUpdateTime) {
-                            updateTime();
-                        }
-
-                        if (NOTIFICATIONS_QUEUE.isEmpty()) {
-                            readNextCharacteristics(gatt);
-                        } else {
-                            alertIn.setValue(NOTIFICATIONS_QUEUE.poll());
-                            gatt.writeCharacteristic(alertIn);
-                        }
-
-                        break;
-                }
+    /**
+     * @return the device's heart rate statistics over the last {@link #HEART_RATE_WINDOW}, with zone times
+     * and anomalies since the service started.
+     */
+    public HeartRateAnalytics getHeartRateAnalytics(final String address) {
+        synchronized (heartRates) {
+            HeartRateAnalytics analytics = heartRates.get(address);
+            if (analytics == null) {
+                analytics = new HeartRateAnalytics(HEART_RATE_WINDOW, HEART_RATE_CAPACITY);
+                heartRates.put(address, analytics);
             }
+            return analytics;
+        }
+    }
 
-            @Override
-            public void onCharacteristicChanged(BluetoothGatt gatt,
-                                                BluetoothGattCharacteristic gattCharacteristic) {
-                final String characteristicUuid = gattCharacteristic.getUuid().toString();
-                final Characteristic characteristic = Characteristic.byUuid(characteristicUuid);
-                Log.d(TAG, "Characteristic changed: " + characteristic);
+    /**
+     * @return the device's cloud publisher, or null if publishing isn't configured or couldn't be set up.
+     */
+    public CloudPublisher getPublisher(final String address) {
+        if (!isPublishingConfigured()) {
+            return null;
+        }
 
-                if (characteristic == Characteristic.BATTERY) {
-                    onBluetoothDataReceived(Characteristic.BATTERY, gattCharacteristic.getValue());
+        synchronized (publishers) {
+            CloudPublisher publisher = publishers.get(address);
+            if (publisher == null) {
+                final File outbox = new File(new File(getFilesDir(), OUTBOX_DIRECTORY), address.replace(":", ""));
+                try {
+                    publisher = new CloudPublisher(address,
+                            new HttpTransport(new URL(cloudReadingsUrl), cloudAuthorization.isEmpty() ? null : cloudAuthorization),
+                            new BatchSpool(outbox, PUBLISH_MAX_SPOOLED), executor, Clock.SYSTEM,
+                            PUBLISH_BATCH_READINGS, PUBLISH_BATCH_AGE);
+                } catch (IOException e) {
+                    Log.e(TAG, "Can't publish readings of " + address, e);
+                    return null;
                 }
+                publishers.put(address, publisher);
             }
-        });
+            return publisher;
+        }
     }
 
-    private void onModeChanged(final Mode newMode) {
-        Log.i(TAG, "Mode changed. New mode is: " + mode);
-        mode = newMode;
+    private void closeStore(final SampleStore store) {
+        try {
+            store.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close sample store " + store.getDirectory(), e);
+        }
+    }
 
-        setReadingQueue();
+    /**
+     * @return latencies of readings of all sessions, from the GATT callback onwards.
+     */
+    public PipelineMetrics getPipelineMetrics() {
+        return pipelineMetrics;
+    }
 
+    /**
+     * Prints the pipeline latencies and queue statistics, for {@code adb shell dumpsys activity service}.
+     */
+    @Override
+    protected void dump(final FileDescriptor fd, final PrintWriter writer, final String[] args) {
+        writer.println("collecting=" + collecting + " " + storeBatcher + " " + cloudBatcher + " capture=" + capture);
+        writer.println("Pipeline latency (ms):");
+        writer.print(pipelineMetrics.snapshot());
+        for (DeviceSession session : getSessions()) {
+            writer.println(session.getAddress() + ": mode=" + session.getMode()
+                    + " connectionPriority=" + session.getConnectionPriority()
+                    + " throughput=" + session.getThroughput() + "B/s lowPower=" + session.isLowPower()
+                    + " " + session.getGattQueue());
+            writer.println("  " + getPedometerAnalytics(session.getAddress()));
+            writer.println("  " + getHeartRateAnalytics(session.getAddress()));
+            writer.println("  firstSample fast(" + session.getFastReconnects() + ")=" + session.getFirstSampleLatency(true)
+                    + " full(" + session.getFullDiscoveries() + ")=" + session.getFirstSampleLatency(false));
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return sum of the measured sample rates over all sessions.
+     */
+    public float getAggregateSampleRate() {
+        float total = 0;
+        for (DeviceSession session : getSessions()) {
+            total += session.getTotalSampleRate();
+        }
+        return total;
+    }
+
+    @Override
+    public void onConnectionStateChanged(final DeviceSession session, final boolean connected) {
+        Log.i(TAG, "GATT " + (connected ? "connected: " : "disconnected: ") + session.getAddress());
+        final Intent connectionStateChanged = new Intent(CONNECTION_STATE_CHANGED);
+        connectionStateChanged.putExtra(CONNECTION_STATE, connected);
+        connectionStateChanged.putExtra(DEVICE_ADDRESS, session.getAddress());
+        sendBroadcast(connectionStateChanged);
+        updateReconnectScan(session.getAddress(), !connected);
+    }
+
+    @Override
+    public void onServicesAvailable(final DeviceSession session) {
+        Log.i(TAG, "Services discovered: " + session.getAddress());
+        final Intent servicesAvailable = new Intent(SERVICES_AVAILABLE);
+        servicesAvailable.putExtra(DEVICE_ADDRESS, session.getAddress());
+        sendBroadcast(servicesAvailable);
+    }
+
+    @Override
+    public void onAuthenticationRequired(final DeviceSession session) {
+        final BluetoothDevice device = ((AndroidGattLink) session.getLink()).getDevice();
+        session.close();
+        sendBroadcast(new Intent(BluetoothService.ACTION_NEEDS_BOND));
+        device.createBond();
+    }
+
+    @Override
+    public void onTimeUpdateStarted(final DeviceSession session) {
+        sendBroadcast(new Intent(SHOW_TIME_PROGRESS));
+        showToast(R.string.readings_setting_time);
+    }
+
+    @Override
+    public void onTimeUpdated(final DeviceSession session) {
+        Log.i(TAG, "Time written.");
+        showToast(R.string.readings_time_set_success);
+        sendBroadcast(new Intent(HIDE_TIME_PROGRESS));
+    }
+
+    @Override
+    public void onModeChanged(final DeviceSession session, final Mode newMode) {
+        Log.i(TAG, "Mode changed. New mode is: " + newMode);
         final Intent modeChanged = new Intent(MODE_CHANGED);
         modeChanged.putExtra(MODE, newMode);
+        modeChanged.putExtra(DEVICE_ADDRESS, session.getAddress());
         LocalBroadcastManager.getInstance(this).sendBroadcast(modeChanged);
     }
 
-    private void setReadingQueue() {
-        READING_QUEUE.clear();
-        READING_QUEUE.add(Characteristic.MODE.name());
-        READING_QUEUE.add(Characteristic.ACCELERATION.name());
-        READING_QUEUE.add(Characteristic.GYRO.name());
-        READING_QUEUE.add(Characteristic.MAGNET.name());
-        READING_QUEUE.add(Characteristic.LIGHT.name());
-        READING_QUEUE.add(Characteristic.TEMPERATURE.name());
-        READING_QUEUE.add(Characteristic.HUMIDITY.name());
-        READING_QUEUE.add(Characteristic.PRESSURE.name());
-        READING_QUEUE.add(Characteristic.BATTERY.name());
-        READING_QUEUE.add(Characteristic.HEARTRATE.name());
-        READING_QUEUE.add(Characteristic.STEPS.name());
-        READING_QUEUE.add(Characteristic.CALORIES.name());
+    @Override
+    public void onSample(final DeviceSession session, final Sample sample) {
+        streams.onSample(sample);
     }
 
-    private void onBluetoothDataReceived(final Characteristic type, final byte[] data) {
-        final Intent dataRead = new Intent(DATA_AVAILABLE);
-        dataRead.putExtra(READING_TYPE, type.getUuid());
-        dataRead.putExtra(STRING_DATA, DataConverter.parseBluetoothData(type, data));
-        sendBroadcast(dataRead);
+    /**
+     * Samples of every session; storage, publishing and the UI all subscribe here.
+     * Devices only send the characteristics somebody is subscribed to.
+     */
+    public SampleStreams getSampleStreams() {
+        return streams;
     }
 
-    void readNextCharacteristics(final BluetoothGatt gatt) {
-        final String characteristicUuid = READING_QUEUE.poll();
-        READING_QUEUE.add(characteristicUuid);
-        readCharacteristic(gatt, Characteristic.valueOf(characteristicUuid));
+    public void setTime() {
+        Log.d(TAG, "Setting time...");
+        final DeviceSession session = getCurrentSession();
+        if (session == null || !session.setTime()) {
+            Log.w(TAG, "Time not set.");
+        }
     }
 
-    private void readCharacteristic(final BluetoothGatt gatt, final Characteristic characteristic) {
-        if (!isConnected) {
-            return;
-        }
+    @UiThread
+    void showToast(int messageRes) {
+        Toast.makeText(getApplicationContext(), messageRes, Toast.LENGTH_SHORT).show();
+    }
 
-        final BluetoothGattCharacteristic gattCharacteristic = READABLE_CHARACTERISTICS.get(characteristic.getUuid());
-        if (gattCharacteristic != null) {
-            gatt.readCharacteristic(gattCharacteristic);
-        }
+    public boolean isConnected() {
+        final DeviceSession session = getCurrentSession();
+        return session != null && session.isConnected();
     }
 
-    private void discoverCharacteristics(final BluetoothGatt gatt) {
-        if (gatt.getServices().size() == 0) {
-            Log.i(TAG, "No services found.");
+    public Mode getCurrentMode() {
+        final DeviceSession session = getCurrentSession();
+        return session == null ? null : session.getMode();
+    }
+
+    public BluetoothDevice getCurrentDevice() {
+        return bluetoothDevice;
+    }
+
+    private DeviceSession getCurrentSession() {
+        return bluetoothDevice == null ? null : getSession(bluetoothDevice.getAddress());
+    }
+
+    /**
+     * Switches all sessions between notification streaming and round-robin polling.
+     * Takes effect the next time each device's mode characteristic is read.
+     */
+    public void setStreamingEnabled(final boolean streamingEnabled) {
+        for (DeviceSession session : getSessions()) {
+            session.setStreamingEnabled(streamingEnabled);
         }
+    }
 
-        for (BluetoothGattService gattService : gatt.getServices()) {
-            storeCharacteristicsFromService(gattService);
+    /**
+     * Sends the firmware image to a device in OTAP mode, reporting through {@link #OTAP_PROGRESS}
+     * and {@link #OTAP_FINISHED} broadcasts. The image must be an NXP OTAP image file; the device
+     * requests the blocks it is missing, so an update interrupted earlier resumes where it stopped.
+     *
+     * @return false if the image couldn't be opened.
+     */
+    public boolean updateFirmware(final BluetoothDevice device, final File file) {
+        final FirmwareImage image;
+        try {
+            image = new FirmwareImage(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't open firmware image " + file, e);
+            return false;
         }
 
-        sendBroadcast(new Intent(SERVICES_AVAILABLE));
+        stopReading(device);
+        final OtapEngine engine = new OtapEngine(new AndroidGattLink(this, device), otapListener, executor,
+                Clock.SYSTEM, image);
+        final OtapEngine previous;
+        synchronized (otapEngines) {
+            previous = otapEngines.put(device.getAddress(), engine);
+        }
+        if (previous != null) {
+            previous.stop();
+            closeImage(previous.getImage());
+        }
+        Log.i(TAG, "Updating firmware of " + device.getAddress());
+        engine.start();
+        return true;
     }
 
-    private void storeCharacteristicsFromService(BluetoothGattService gattService) {
-        for (BluetoothGattCharacteristic gattCharacteristic : gattService.getCharacteristics()) {
-            final String characteristicUuid = gattCharacteristic.getUuid().toString();
-            final Characteristic characteristic = Characteristic.byUuid(characteristicUuid);
+    public OtapEngine getOtapEngine(final String address) {
+        synchronized (otapEngines) {
+            return otapEngines.get(address);
+        }
+    }
 
-            if (characteristic == Characteristic.ALERT_IN) {
-                Log.d(TAG, "ALERT_IN DISCOVERED");
-                alertIn = gattCharacteristic;
-                setTime();
-                updateTime();
-            } else if (characteristic != null) {
-                Log.v(TAG, characteristic.getType() + ": " + characteristic.name());
-                READABLE_CHARACTERISTICS.put(characteristicUuid, gattCharacteristic);
-            } else {
-                Log.v(TAG, "UNKNOWN: " + characteristicUuid);
-            }
+    private void closeImage(final FirmwareImage image) {
+        try {
+            image.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close firmware image", e);
         }
     }
 
-    public void setTime() {
-        Log.d(TAG, "Setting time...");
-        if (!isConnected || alertIn == null) {
-            Log.w(TAG, "Time not set.");
+    /**
+     * @return measured samples per second of the current device's characteristic, whether it is notified or polled.
+     */
+    public float getSampleRate(final Characteristic characteristic) {
+        final DeviceSession session = getCurrentSession();
+        return session == null ? 0 : session.getSampleRateMeter().getSamplesPerSecond(characteristic);
+    }
+
+    /**
+     * Keeps reading the device after the UI goes away. The service runs in the foreground with
+     * a notification, and storage and publishing get samples in batches every
+     * {@link #COLLECTION_FLUSH_PERIOD}. While no activity is bound, sessions also ask for the longest
+     * connection interval.
+     */
+    public void startCollection(final BluetoothDevice device) {
+        if (getSession(device.getAddress()) == null) {
+            startReading(device);
+        }
+        if (collecting) {
             return;
         }
 
-        shouldUpdateTime = true;
+        Log.i(TAG, "Collecting in the background: " + device.getAddress());
+        collecting = true;
+        startService(new Intent(this, BluetoothService_.class));
+        startForeground(COLLECTION_NOTIFICATION, createCollectionNotification(device));
+        storeBatcher.setPeriod(COLLECTION_FLUSH_PERIOD);
+        cloudBatcher.setPeriod(COLLECTION_FLUSH_PERIOD);
+        subscribeCollection();
+        updateLowPower();
     }
 
-    void updateTime() {
-        shouldUpdateTime = false;
+    public void stopCollection() {
+        if (!collecting) {
+            return;
+        }
 
-        final byte[] time = new byte[20];
-        final long currentTime = System.currentTimeMillis();
-        final long currentTimeWithTimeZoneOffset = (currentTime + TimeZone.getDefault().getOffset(currentTime)) / 1000;
+        Log.i(TAG, "Collection stopped: " + storeBatcher + " " + cloudBatcher);
+        collecting = false;
+        stopForeground(true);
+        storeBatcher.setPeriod(0);
+        cloudBatcher.setPeriod(0);
+        subscribeCollection();
+        updateLowPower();
+    }
 
-        final ByteBuffer buffer = ByteBuffer.allocate(8);
-        buffer.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().put(currentTimeWithTimeZoneOffset);
-        final byte[] utcBytes = buffer.array();
+    public boolean isCollecting() {
+        return collecting;
+    }
 
-        final byte length = 0x04;
+    /**
+     * Feeds storage and, if it is configured, publishing. While collecting they ask for every reading
+     * of the device's mode; otherwise they only observe what the UI asked for, so readings nobody looks
+     * at cost no GATT traffic.
+     */
+    private synchronized void subscribeCollection() {
+        cancelCollection();
+        final SampleFlow readings = collecting ? streams.of(ALL_READINGS) : streams.observe(ALL_READINGS);
+        storeSubscription = readings.window(STORE_WINDOW, SampleAggregator.Statistic.MEAN).subscribe(storeBatcher);
+        if (isPublishingConfigured()) {
+            cloudSubscription = readings.window(PUBLISH_WINDOW, SampleAggregator.Statistic.MEAN)
+                    .subscribe(cloudBatcher);
+        }
+    }
 
-        time[0] = WRITE_TIME;
-        time[1] = length;
-        time[2] = utcBytes[0];
-        time[3] = utcBytes[1];
-        time[4] = utcBytes[2];
-        time[5] = utcBytes[3];
+    private synchronized void cancelCollection() {
+        if (storeSubscription != null) {
+            storeSubscription.cancel();
+            storeSubscription = null;
+        }
+        if (cloudSubscription != null) {
+            cloudSubscription.cancel();
+            cloudSubscription = null;
+        }
+    }
 
-        alertIn.setValue(time);
-        alertIn.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
-        bluetoothGatt.writeCharacteristic(alertIn);
-        final Intent intent = new Intent(SHOW_TIME_PROGRESS);
-        sendBroadcast(intent);
-        showToast(R.string.readings_setting_time);
+    private boolean isPublishingConfigured() {
+        return cloudReadingsUrl != null && !cloudReadingsUrl.isEmpty();
     }
 
-    @UiThread
-    void showToast(int messageRes) {
-        Toast.makeText(getApplicationContext(), messageRes, Toast.LENGTH_SHORT).show();
+    /**
+     * Logs every payload of every session, before decoding, to a new file in {@link #CAPTURES_DIRECTORY}.
+     * {@link CaptureReplay} plays it back through the decoders for reproducing problems and benchmarks.
+     *
+     * @return the capture file.
+     */
+    public synchronized File startCapture() throws IOException {
+        if (capture != null) {
+            return capture.getFile();
+        }
+
+        final File directory = new File(getFilesDir(), CAPTURES_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+
+        final long now = System.currentTimeMillis();
+        capture = new CaptureWriter(new File(directory, now + CAPTURE_EXTENSION), now, System.nanoTime());
+        Log.i(TAG, "Capturing to " + capture.getFile());
+        for (DeviceSession session : getSessions()) {
+            session.setPacketListener(captureListener);
+        }
+        executor.post(captureFlush, CAPTURE_FLUSH_PERIOD);
+        return capture.getFile();
     }
 
-    public boolean isConnected() {
-        return isConnected;
+    /**
+     * @return the finished capture file, or null if nothing was being captured.
+     */
+    public synchronized File stopCapture() {
+        final CaptureWriter writer = capture;
+        if (writer == null) {
+            return null;
+        }
+
+        capture = null;
+        executor.cancel(captureFlush);
+        for (DeviceSession session : getSessions()) {
+            session.setPacketListener(null);
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close capture " + writer, e);
+        }
+        Log.i(TAG, "Capture finished: " + writer);
+        return writer.getFile();
     }
 
-    public Mode getCurrentMode() {
-        return mode;
+    public boolean isCapturing() {
+        return capture != null;
     }
 
-    public BluetoothDevice getCurrentDevice() {
-        return bluetoothDevice;
+    private Notification createCollectionNotification(final BluetoothDevice device) {
+        final PendingIntent open = PendingIntent.getActivity(this, 0,
+                ReadingsActivity_.intent(this).device(device).get(), PendingIntent.FLAG_UPDATE_CURRENT);
+        final PendingIntent stop = PendingIntent.getBroadcast(this, 0, new Intent(STOP), 0);
+        return new NotificationCompat.Builder(this)
+                .setSmallIcon(R.drawable.ic_bluetooth_connected_white_48dp)
+                .setContentTitle(getString(R.string.collection_notification_title))
+                .setContentText(getString(R.string.collection_notification_text, device.getName()))
+                .setOngoing(true)
+                .setContentIntent(open)
+                .addAction(R.drawable.ic_clear_white_24dp, getString(R.string.collection_notification_stop), stop)
+                .build();
     }
 
-    private void handleAuthenticationError(final BluetoothGatt gatt) {
-        gatt.close();
-        sendBroadcast(new Intent(BluetoothService.ACTION_NEEDS_BOND));
-        gatt.getDevice().createBond();
+    private void updateLowPower() {
+        final boolean lowPower = collecting && !clientsBound;
+        for (DeviceSession session : getSessions()) {
+            session.setLowPower(lowPower);
+        }
     }
 
     @Override
     public IBinder onBind(Intent intent) {
+        clientsBound = true;
+        updateLowPower();
         return new ServiceBinder(this);
     }
 
+    @Override
+    public void onRebind(Intent intent) {
+        clientsBound = true;
+        updateLowPower();
+    }
+
+    @Override
+    public boolean onUnbind(Intent intent) {
+        clientsBound = false;
+        updateLowPower();
+        return true;
+    }
+
     @Override
     public void sendBroadcast(Intent intent) {
         LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
@@ -0,0 +1,184 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import android.util.Log;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.store.CaptureReader;
+import com.wolkabout.hexiwear.util.Clock;
+import com.wolkabout.hexiwear.util.DataConverter;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+
+import java.io.IOException;
+
+/**
+ * Feeds a capture back through {@link DataConverter} into a {@link SampleListener}, as if the packets
+ * had just come off the link: at the recorded pace for reproducing problems, or as fast as possible
+ * for regression and throughput runs. Samples carry the time they were originally received.
+ * Decoding reuses one sample, so listeners must copy what they keep, like with a live session.
+ */
+public class CaptureReplay {
+
+    private static final String TAG = CaptureReplay.class.getSimpleName();
+
+    private final CaptureReader reader;
+    private final SampleListener output;
+    private final Sample sample = new Sample();
+    private final Runnable step = new Runnable() {
+        @Override
+        public void run() {
+            replayDue();
+        }
+    };
+
+    private DelayedExecutor executor;
+    private Clock clock;
+    private Listener listener;
+    private long startedAt;
+    private float speed;
+    private boolean pending;
+    private boolean running;
+    private long packets;
+    private long samples;
+
+    /**
+     * Told when a paced replay ran out of packets or hit a corrupt one.
+     */
+    public interface Listener {
+
+        void onReplayFinished(CaptureReplay replay);
+    }
+
+    public CaptureReplay(final CaptureReader reader, final SampleListener output) {
+        this.reader = reader;
+        this.output = output;
+    }
+
+    /**
+     * Replays the whole capture on the calling thread without pausing between packets.
+     *
+     * @return samples decoded.
+     */
+    public synchronized long replayAtMaxSpeed() throws IOException {
+        reader.rewind();
+        final long before = samples;
+        while (reader.next()) {
+            deliver();
+        }
+        return samples - before;
+    }
+
+    /**
+     * Replays the capture from the start on the executor, keeping the recorded gaps between packets.
+     *
+     * @param speed 1 for the recorded pace, 2 for twice as fast and so on.
+     */
+    public synchronized void start(final DelayedExecutor executor, final Clock clock, final float speed,
+                                   final Listener listener) {
+        stop();
+        this.executor = executor;
+        this.clock = clock;
+        this.speed = speed;
+        this.listener = listener;
+        reader.rewind();
+        pending = false;
+        running = true;
+        startedAt = clock.millis();
+        executor.post(step, 0);
+    }
+
+    public synchronized void stop() {
+        if (running) {
+            running = false;
+            executor.cancel(step);
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    public synchronized long getPackets() {
+        return packets;
+    }
+
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    private void replayDue() {
+        final Listener finished;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+
+            try {
+                while (pending || reader.next()) {
+                    final long delay = (long) (reader.getElapsedNanos() / 1e6 / speed) - (clock.millis() - startedAt);
+                    if (delay > 0) {
+                        pending = true;
+                        executor.post(step, delay);
+                        return;
+                    }
+                    pending = false;
+                    deliver();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Replay stopped", e);
+            }
+
+            running = false;
+            finished = listener;
+        }
+
+        if (finished != null) {
+            finished.onReplayFinished(this);
+        }
+    }
+
+    private void deliver() {
+        packets++;
+        final Characteristic characteristic = reader.getCharacteristic();
+        if (characteristic.getType() != Characteristic.Type.READING) {
+            return;
+        }
+
+        final long timestamp = reader.getStartedAt() + reader.getElapsedNanos() / 1000000;
+        if (DataConverter.decode(characteristic, reader.getValue(), timestamp, sample)) {
+            sample.setDeviceAddress(reader.getAddress());
+            sample.setReceivedNanos(System.nanoTime());
+            samples++;
+            output.onSample(sample);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CaptureReplay{" +
+                "packets=" + packets +
+                ", samples=" + samples +
+                ", running=" + running +
+                '}';
+    }
+}
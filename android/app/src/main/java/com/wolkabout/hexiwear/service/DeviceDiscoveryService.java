@@ -22,25 +22,35 @@ package com.wolkabout.hexiwear.service;
 
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
+import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import com.wolkabout.hexiwear.model.BluetoothDeviceWrapper;
+import com.wolkabout.hexiwear.util.Clock;
+import com.wolkabout.hexiwear.util.HandlerExecutor;
 
 import org.androidannotations.annotations.Background;
 import org.androidannotations.annotations.EBean;
 import org.androidannotations.annotations.RootContext;
 import org.androidannotations.api.BackgroundExecutor;
-import org.parceler.Parcels;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -51,25 +61,124 @@ public class DeviceDiscoveryService {
 
     public static final String SCAN_STARTED = "scanStarted";
     public static final String SCAN_STOPPED = "scanStopped";
-    public static final String DEVICE_DISCOVERED = "deviceDiscovered";
-    private static final String WRAPPER = "wrapper";
     private static final String TAG = DeviceDiscoveryService.class.getSimpleName();
     private static final long SCAN_PERIOD = 5000;
     private static final String SCAN_TASK = "scan";
     private static final String HEXIWEAR_TAG = "hexiwear";
     private static final String HEXI_OTAP_TAG = "hexiotap";
+    private static final int KNOWN_DEVICE_RSSI = 66;
+    private static final float RSSI_SMOOTHING = 0.25f;
+    private static final long LIST_UPDATE_INTERVAL = 500;
+    private static final long DEVICE_LOST_AFTER = 10000;
+    // Batches must arrive well within DEVICE_LOST_AFTER, or the sweep drops devices between them.
+    private static final long MAX_REPORT_DELAY = DEVICE_LOST_AFTER / 2;
     private static final BluetoothAdapter BLUETOOTH_ADAPTER = BluetoothAdapter.getDefaultAdapter();
-    private static ScanCallback lolipopScanCallback;
-    private static BluetoothAdapter.LeScanCallback kitKatScanCallback;
     @RootContext
     Context context;
 
+    private final DiscoveryCache cache = new DiscoveryCache(new DiscoveryCache.Listener() {
+        @Override
+        public void onDevicesChanged(final List<BluetoothDeviceWrapper> added, final List<BluetoothDeviceWrapper> changed,
+                                     final List<BluetoothDeviceWrapper> lost) {
+            for (BluetoothDeviceWrapper wrapper : added) {
+                Log.i(TAG, "Discovered device: " + wrapper.getDevice().getName() + "(" + wrapper.getDevice().getAddress() + ")");
+            }
+            final DiscoveryCache.Listener listener = DeviceDiscoveryService.this.listener;
+            if (listener != null) {
+                listener.onDevicesChanged(added, changed, lost);
+            }
+        }
+    }, new HandlerExecutor(new Handler(Looper.getMainLooper())), Clock.SYSTEM,
+            RSSI_SMOOTHING, LIST_UPDATE_INTERVAL, DEVICE_LOST_AFTER);
+    private volatile DiscoveryCache.Listener listener;
+    private ScanCallback lolipopScanCallback;
+    private BluetoothAdapter.LeScanCallback kitKatScanCallback;
+    private boolean scanning;
+    private boolean batching;
+    private boolean filtersEnabled = true;
+    private ScanProfile profile = ScanProfile.FOREGROUND;
+    private volatile Set<String> addresses;
+    private long scanCallbacks;
+    private long scanResults;
+    private long scanMatches;
+
+    /**
+     * How hard to scan on Lollipop and newer. Older releases always scan the same way.
+     */
+    public enum ScanProfile {
+        /**
+         * The user is looking at the device list: scan at full duty cycle, report every advertisement
+         * as it comes and stop after {@link #SCAN_PERIOD}.
+         */
+        FOREGROUND(ScanSettings.SCAN_MODE_LOW_LATENCY, 0, true),
+        /**
+         * Looking for devices that dropped their connection: scan in short windows and let the controller
+         * batch results, so the app is woken rarely. Runs until cancelled.
+         */
+        BACKGROUND(ScanSettings.SCAN_MODE_LOW_POWER, MAX_REPORT_DELAY, false);
+
+        private final int scanMode;
+        private final long reportDelayMillis;
+        private final boolean timeLimited;
+
+        ScanProfile(final int scanMode, final long reportDelayMillis, final boolean timeLimited) {
+            this.scanMode = scanMode;
+            this.reportDelayMillis = reportDelayMillis;
+            this.timeLimited = timeLimited;
+        }
+
+        public int getScanMode() {
+            return scanMode;
+        }
+
+        public long getReportDelayMillis() {
+            return reportDelayMillis;
+        }
+
+        /**
+         * @return true if the scan stops itself after {@link #SCAN_PERIOD}.
+         */
+        public boolean isTimeLimited() {
+            return timeLimited;
+        }
+    }
+
+    /**
+     * Receives added, re-ranked and lost devices on the main thread, at most every {@link #LIST_UPDATE_INTERVAL}.
+     */
+    public void setListener(final DiscoveryCache.Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Scans for the device list with the {@link ScanProfile#FOREGROUND} profile.
+     */
     public void startScan() {
+        startScan(ScanProfile.FOREGROUND, ScanProfile.FOREGROUND.getReportDelayMillis(), null);
+    }
+
+    /**
+     * @param reportDelayMillis how long the controller may hold results before delivering them in a batch;
+     *                          0 delivers each one as it comes. Capped at {@link #MAX_REPORT_DELAY} and
+     *                          ignored where batching isn't supported.
+     * @param addresses         devices to look for, or null for any Hexiwear.
+     */
+    public void startScan(final ScanProfile profile, final long reportDelayMillis, final Collection<String> addresses) {
         if (!isEnabled()) {
             return;
         }
+        if (scanning) {
+            cancelScan();
+        }
+
+        this.profile = profile;
+        this.addresses = addresses == null ? null : new HashSet<>(addresses);
+        scanCallbacks = 0;
+        scanResults = 0;
+        scanMatches = 0;
 
-        if (getBltList()) {
+        cache.clear();
+        if (addresses == null && getBltList()) {
             Log.i(TAG, "************连接到已经匹配的设备*************");
             return;
         }
@@ -77,12 +186,18 @@ public class DeviceDiscoveryService {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
             startKitKatScan();
         } else {
-            startLolipopScan();
+            startLolipopScan(profile, Math.min(reportDelayMillis, MAX_REPORT_DELAY));
         }
+        scanning = true;
 
-        setScanTimeLimit();
-        sendBroadcast(new Intent(SCAN_STARTED));
-        Log.i(TAG, "Bluetooth device discovery started.");
+        cache.startSweeping();
+        if (profile.isTimeLimited()) {
+            setScanTimeLimit();
+        }
+        if (profile == ScanProfile.FOREGROUND) {
+            sendBroadcast(new Intent(SCAN_STARTED));
+        }
+        Log.i(TAG, "Bluetooth device discovery started: " + profile);
     }
 
     /**
@@ -105,10 +220,7 @@ public class DeviceDiscoveryService {
                         }
                     }
                 } else if (device.getBondState() == BluetoothDevice.BOND_BONDED) {
-                    final BluetoothDeviceWrapper wrapper = new BluetoothDeviceWrapper();
-                    wrapper.setDevice(device);
-                    wrapper.setSignalStrength(66);
-                    onDeviceDiscovered(wrapper);
+                    onDeviceDiscovered(device, KNOWN_DEVICE_RSSI, true);
                 }
             }
         }
@@ -121,28 +233,85 @@ public class DeviceDiscoveryService {
         kitKatScanCallback = new BluetoothAdapter.LeScanCallback() {
             @Override
             public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
-                final BluetoothDeviceWrapper wrapper = new BluetoothDeviceWrapper();
-                wrapper.setDevice(device);
-                wrapper.setSignalStrength(rssi);
-                onDeviceDiscovered(wrapper);
+                scanCallbacks++;
+                scanResults++;
+                onDeviceDiscovered(device, rssi, false);
             }
         };
         BLUETOOTH_ADAPTER.startLeScan(kitKatScanCallback);
     }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    private void startLolipopScan() {
+    private void startLolipopScan(final ScanProfile profile, final long reportDelayMillis) {
         lolipopScanCallback = new ScanCallback() {
             @Override
             public void onScanResult(int callbackType, ScanResult result) {
                 super.onScanResult(callbackType, result);
-                final BluetoothDeviceWrapper wrapper = new BluetoothDeviceWrapper();
-                wrapper.setDevice(result.getDevice());
-                wrapper.setSignalStrength(result.getRssi());
-                onDeviceDiscovered(wrapper);
+                scanCallbacks++;
+                scanResults++;
+                onDeviceDiscovered(result.getDevice(), result.getRssi(), false);
+            }
+
+            @Override
+            public void onBatchScanResults(List<ScanResult> results) {
+                super.onBatchScanResults(results);
+                scanCallbacks++;
+                scanResults += results.size();
+                for (ScanResult result : results) {
+                    onDeviceDiscovered(result.getDevice(), result.getRssi(), false);
+                }
+            }
+
+            @Override
+            public void onScanFailed(int errorCode) {
+                Log.e(TAG, "Scan failed with error " + errorCode);
             }
         };
-        BLUETOOTH_ADAPTER.getBluetoothLeScanner().startScan(lolipopScanCallback);
+
+        batching = reportDelayMillis > 0 && BLUETOOTH_ADAPTER.isOffloadedScanBatchingSupported();
+        final ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(profile.getScanMode())
+                .setReportDelay(batching ? reportDelayMillis : 0)
+                .build();
+        BLUETOOTH_ADAPTER.getBluetoothLeScanner().startScan(createScanFilters(), settings, lolipopScanCallback);
+    }
+
+    /**
+     * Lets the controller drop other advertisers instead of waking the app for each of them. Only
+     * addresses are filtered on: name filters match exactly, and Hexiwear firmware doesn't always
+     * advertise its name in the same case. Scans for any Hexiwear leave the name check to
+     * {@link #onDeviceDiscovered}, which ignores case.
+     *
+     * @return filters for the addresses looked for, or null to get every advertisement.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private List<ScanFilter> createScanFilters() {
+        final Set<String> addresses = this.addresses;
+        if (!filtersEnabled || addresses == null) {
+            return null;
+        }
+
+        final List<ScanFilter> filters = new ArrayList<>();
+        for (String address : addresses) {
+            filters.add(new ScanFilter.Builder().setDeviceAddress(address).build());
+        }
+        return filters;
+    }
+
+    /**
+     * Scans without filters, for comparing callback counts with {@link #getScanStats()}.
+     * Takes effect with the next scan.
+     */
+    public void setFiltersEnabled(final boolean filtersEnabled) {
+        this.filtersEnabled = filtersEnabled;
+    }
+
+    /**
+     * @return callbacks, advertisements and Hexiwear advertisements delivered by the current or last scan.
+     */
+    public String getScanStats() {
+        return profile + " scan" + (filtersEnabled ? "" : " without filters") + ": " + scanCallbacks
+                + " callbacks, " + scanResults + " results, " + scanMatches + " matched";
     }
 
     /**
@@ -156,26 +325,34 @@ public class DeviceDiscoveryService {
             BLUETOOTH_ADAPTER.cancelDiscovery();
         }
         BluetoothDevice btDev = BLUETOOTH_ADAPTER.getRemoteDevice(address);
-        final BluetoothDeviceWrapper wrapper = new BluetoothDeviceWrapper();
-        wrapper.setDevice(btDev);
-        wrapper.setSignalStrength(66);
-        onDeviceDiscovered(wrapper);
+        onDeviceDiscovered(btDev, KNOWN_DEVICE_RSSI, true);
         return true;
     }
 
-    private void onDeviceDiscovered(final BluetoothDeviceWrapper wrapper) {
-        final BluetoothDevice device = wrapper.getDevice();
-        Log.i(TAG, "Discovered device: " + device.getName() + "(" + device.getAddress() + ")");
-        final String name = wrapper.getDevice().getName();
-        if (HEXI_OTAP_TAG.equalsIgnoreCase(name)) {
-            wrapper.setInOtapMode(true);
-        } else if (!HEXIWEAR_TAG.equalsIgnoreCase(name)) {
+    /**
+     * Only updates the cache; the list hears about it with the next batch of changes.
+     *
+     * @param known true for devices the system knows of rather than scanned ones.
+     */
+    private void onDeviceDiscovered(final BluetoothDevice device, final int rssi, final boolean known) {
+        final String name = device.getName();
+        final boolean inOtapMode = HEXI_OTAP_TAG.equalsIgnoreCase(name);
+        if (!inOtapMode && !HEXIWEAR_TAG.equalsIgnoreCase(name)) {
             return;
         }
+        final Set<String> addresses = this.addresses;
+        if (addresses != null && !addresses.contains(device.getAddress())) {
+            return;
+        }
+        if (!known) {
+            scanMatches++;
+        }
 
-        final Intent deviceDiscovered = new Intent(DEVICE_DISCOVERED);
-        deviceDiscovered.putExtra(WRAPPER, Parcels.wrap(wrapper));
-        sendBroadcast(deviceDiscovered);
+        if (known) {
+            cache.addKnown(device, rssi, inOtapMode);
+        } else {
+            cache.onAdvertisement(device, rssi, inOtapMode);
+        }
     }
 
     @Background(id = SCAN_TASK, delay = SCAN_PERIOD)
@@ -185,27 +362,43 @@ public class DeviceDiscoveryService {
 
     @SuppressWarnings("deprecation")
     public void cancelScan() {
-        if (!isEnabled()) {
+        if (!scanning || !isEnabled()) {
             return;
         }
 
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
             BLUETOOTH_ADAPTER.stopLeScan(kitKatScanCallback);
         } else {
+            if (batching) {
+                BLUETOOTH_ADAPTER.getBluetoothLeScanner().flushPendingScanResults(lolipopScanCallback);
+            }
             BLUETOOTH_ADAPTER.getBluetoothLeScanner().stopScan(lolipopScanCallback);
         }
+        scanning = false;
+        cache.stopSweeping();
 
-        sendBroadcast(new Intent(SCAN_STOPPED));
-        Log.i(TAG, "Bluetooth device discovery canceled");
-        BackgroundExecutor.cancelAll(SCAN_TASK, true);
+        Log.i(TAG, "Bluetooth device discovery canceled. " + getScanStats());
+        if (profile.isTimeLimited()) {
+            sendBroadcast(new Intent(SCAN_STOPPED));
+            BackgroundExecutor.cancelAll(SCAN_TASK, true);
+        }
     }
 
+    public boolean isScanning() {
+        return scanning;
+    }
+
+    /**
+     * Asks the user to turn Bluetooth on, but only from an activity; services scan quietly.
+     */
     private boolean isEnabled() {
         if (BLUETOOTH_ADAPTER == null) {
             Log.e(TAG, "Bluetooth not supported");
             return false;
         } else if (!BLUETOOTH_ADAPTER.isEnabled()) {
-            context.startActivity(new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE));
+            if (context instanceof Activity) {
+                context.startActivity(new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE));
+            }
             return false;
         } else {
             Log.v(TAG, "Bluetooth is enabled and functioning properly.");
@@ -0,0 +1,741 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import android.util.Log;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.DeviceProfile;
+import com.wolkabout.hexiwear.model.ManufacturerInfo;
+import com.wolkabout.hexiwear.model.Mode;
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.store.DeviceProfileStore;
+import com.wolkabout.hexiwear.util.Clock;
+import com.wolkabout.hexiwear.util.DataConverter;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+import com.wolkabout.hexiwear.util.LatencyHistogram;
+import com.wolkabout.hexiwear.util.PipelineMetrics;
+import com.wolkabout.hexiwear.util.SampleRateMeter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.TimeZone;
+
+/**
+ * Everything needed to read one Hexiwear: its GATT queue, subscriptions, read schedule
+ * and metrics. {@link BluetoothService} runs one session per connected device.
+ */
+public class DeviceSession implements GattQueue.Callback {
+
+    static final byte WRITE_TIME = 3;
+
+    private static final String TAG = DeviceSession.class.getSimpleName();
+    private static final long SAMPLE_RATE_WINDOW = 5000;
+    private static final long OPERATION_TIMEOUT = 3000;
+    private static final int OPERATION_RETRIES = 2;
+    private static final long ALWAYS_SUBSCRIBED = Characteristic.BATTERY.getMask();
+    private static final long MOTION = Characteristic.ACCELERATION.getMask() | Characteristic.GYRO.getMask()
+            | Characteristic.MAGNET.getMask();
+    private static final int SESSION_MTU = 247;
+    private static final long TIME_SYNC_INTERVAL = 60 * 60 * 1000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final GattLink link;
+    private final GattQueue queue;
+    private final Listener listener;
+    private final DelayedExecutor executor;
+    private final Clock clock;
+    private final ReadScheduler readScheduler;
+    private final long wallClockOffset;
+    private final SampleRateMeter sampleRateMeter = new SampleRateMeter(SAMPLE_RATE_WINDOW);
+    private final Sample[] samples = new Sample[Characteristic.values().length];
+    private final ManufacturerInfo manufacturerInfo = new ManufacturerInfo();
+    private final LatencyHistogram fastFirstSample = new LatencyHistogram();
+    private final LatencyHistogram fullFirstSample = new LatencyHistogram();
+    private final Runnable scheduledRead = new Runnable() {
+        @Override
+        public void run() {
+            readNextCharacteristic();
+        }
+    };
+
+    private volatile PipelineMetrics pipelineMetrics = new PipelineMetrics();
+    private volatile PacketListener packetListener;
+    private volatile boolean connected;
+    private volatile Mode mode;
+    private DeviceProfileStore profileStore;
+    private DeviceProfile profile;
+    private GattOperation pendingRead;
+    private boolean streamingEnabled = true;
+    private long demand = -1L;
+    private boolean lowPower;
+    private boolean streamingApplied;
+    private long notifiableCharacteristics;
+    private long subscribedCharacteristics;
+    private int connectionPriority = GattLink.CONNECTION_PRIORITY_BALANCED;
+    private long priorityChangedAt;
+    private long bytesSincePriorityChange;
+    private boolean fastReconnect;
+    private long connectedAt;
+    private boolean awaitingFirstSample;
+    private int fastReconnects;
+    private int fullDiscoveries;
+
+    /**
+     * Session events the service turns into broadcasts and listener calls.
+     */
+    public interface Listener {
+
+        void onConnectionStateChanged(DeviceSession session, boolean connected);
+
+        void onServicesAvailable(DeviceSession session);
+
+        void onAuthenticationRequired(DeviceSession session);
+
+        void onTimeUpdateStarted(DeviceSession session);
+
+        void onTimeUpdated(DeviceSession session);
+
+        void onModeChanged(DeviceSession session, Mode mode);
+
+        void onSample(DeviceSession session, Sample sample);
+    }
+
+    /**
+     * Sees every payload read or notified, as it came off the link and before it's decoded.
+     */
+    public interface PacketListener {
+
+        /**
+         * @param value the link's buffer; copy what you need before returning.
+         */
+        void onPacket(DeviceSession session, Characteristic characteristic, byte[] value, long receivedNanos);
+    }
+
+    public DeviceSession(final GattLink link, final Listener listener,
+                         final DelayedExecutor executor, final Clock clock) {
+        this.link = link;
+        this.listener = listener;
+        this.executor = executor;
+        this.clock = clock;
+        this.wallClockOffset = System.currentTimeMillis() - clock.millis();
+        this.queue = new GattQueue(link, this, executor, clock, OPERATION_TIMEOUT, OPERATION_RETRIES);
+        this.readScheduler = new ReadScheduler(clock, new ReadScheduler.Reader() {
+            @Override
+            public boolean read(final Characteristic characteristic) {
+                if (!link.hasCharacteristic(characteristic)) {
+                    return false;
+                }
+                pendingRead = GattOperation.read(characteristic, GattOperation.PRIORITY_LOW);
+                queue.enqueue(pendingRead);
+                return true;
+            }
+        });
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = new Sample();
+        }
+    }
+
+    public String getAddress() {
+        return link.getAddress();
+    }
+
+    public GattLink getLink() {
+        return link;
+    }
+
+    public GattQueue getGattQueue() {
+        return queue;
+    }
+
+    /**
+     * Keeps what the session learns about the device across connections and app restarts.
+     * Loads the stored profile, so set it before {@link #start()}.
+     */
+    public synchronized void setProfileStore(final DeviceProfileStore profileStore) {
+        this.profileStore = profileStore;
+        profile = profileStore == null ? null : profileStore.load(getAddress());
+    }
+
+    public boolean start() {
+        return link.connect();
+    }
+
+    /**
+     * Connects directly while the link is down, once the device was seen advertising again. A dropped
+     * link otherwise waits on a background connection, which the system looks for at a low duty cycle.
+     * The new link discovers services again, but the profile still spares the info reads.
+     */
+    public synchronized boolean reconnect() {
+        if (connected) {
+            return false;
+        }
+        link.close();
+        return link.connect();
+    }
+
+    public synchronized void close() {
+        Log.d(TAG, "Closing " + getAddress() + ": " + queue);
+        connected = false;
+        pendingRead = null;
+        executor.cancel(scheduledRead);
+        queue.clear();
+        link.close();
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public ManufacturerInfo getManufacturerInfo() {
+        return manufacturerInfo;
+    }
+
+    public ReadScheduler getReadScheduler() {
+        return readScheduler;
+    }
+
+    public SampleRateMeter getSampleRateMeter() {
+        return sampleRateMeter;
+    }
+
+    /**
+     * @return ATT MTU negotiated after service discovery.
+     */
+    public int getMtu() {
+        return queue.getMtu();
+    }
+
+    /**
+     * @return the {@code GattLink.CONNECTION_PRIORITY_*} last requested for the current mode.
+     */
+    public synchronized int getConnectionPriority() {
+        return connectionPriority;
+    }
+
+    /**
+     * @return reading payload bytes per second received since the connection priority last changed.
+     */
+    public synchronized float getThroughput() {
+        final long elapsed = clock.millis() - priorityChangedAt;
+        return elapsed > 0 ? bytesSincePriorityChange * 1000f / elapsed : 0;
+    }
+
+    /**
+     * @return time from a connection coming up until its first reading, for connections that skipped
+     * service discovery if fast is true, or went through it otherwise.
+     */
+    public LatencyHistogram getFirstSampleLatency(final boolean fast) {
+        return fast ? fastFirstSample : fullFirstSample;
+    }
+
+    public synchronized int getFastReconnects() {
+        return fastReconnects;
+    }
+
+    public synchronized int getFullDiscoveries() {
+        return fullDiscoveries;
+    }
+
+    public PipelineMetrics getPipelineMetrics() {
+        return pipelineMetrics;
+    }
+
+    /**
+     * @param packetListener raw payload tap, e.g. for capturing; null to remove it.
+     */
+    public void setPacketListener(final PacketListener packetListener) {
+        this.packetListener = packetListener;
+    }
+
+    /**
+     * Shares the metrics with other sessions, so latencies of all devices land in the same histograms.
+     */
+    public void setPipelineMetrics(final PipelineMetrics pipelineMetrics) {
+        this.pipelineMetrics = pipelineMetrics;
+    }
+
+    /**
+     * @return sum of the measured sample rates of all characteristics of this session.
+     */
+    public float getTotalSampleRate() {
+        float total = 0;
+        for (Characteristic characteristic : Characteristic.getReadings()) {
+            total += sampleRateMeter.getSamplesPerSecond(characteristic);
+        }
+        return total;
+    }
+
+    /**
+     * Switches between notification streaming and polling.
+     * Takes effect the next time the mode characteristic is read.
+     */
+    public synchronized void setStreamingEnabled(final boolean streamingEnabled) {
+        this.streamingEnabled = streamingEnabled;
+    }
+
+    public synchronized boolean isStreamingEnabled() {
+        return streamingEnabled;
+    }
+
+    /**
+     * Limits streaming and polling to the characteristics in the mask, the ones somebody consumes.
+     * The rest of the mode's readings are neither subscribed to nor read. Battery stays subscribed.
+     */
+    public synchronized void setDemand(final long demand) {
+        if (this.demand == demand) {
+            return;
+        }
+
+        this.demand = demand;
+        if (connected && mode != null) {
+            updateSubscriptions(mode);
+            setReadingQueue();
+        }
+    }
+
+    public synchronized long getDemand() {
+        return demand;
+    }
+
+    /**
+     * Asks for the longest connection interval whatever the mode, so notifications arrive in fewer,
+     * fuller connection events. For collecting with nobody watching.
+     */
+    public synchronized void setLowPower(final boolean lowPower) {
+        if (this.lowPower == lowPower) {
+            return;
+        }
+
+        this.lowPower = lowPower;
+        if (connected && mode != null) {
+            updateConnectionPriority(mode);
+        }
+    }
+
+    public synchronized boolean isLowPower() {
+        return lowPower;
+    }
+
+    /**
+     * Queues a write of the current time ahead of the periodic reads.
+     *
+     * @return false if the device isn't connected or has no ALERT_IN characteristic.
+     */
+    public synchronized boolean setTime() {
+        if (!connected || !link.hasCharacteristic(Characteristic.ALERT_IN)) {
+            return false;
+        }
+
+        queue.write(Characteristic.ALERT_IN, createTimeUpdate(), GattOperation.PRIORITY_HIGH);
+        listener.onTimeUpdateStarted(this);
+        return true;
+    }
+
+    /**
+     * Queues a raw ALERT_IN command ahead of the periodic reads.
+     */
+    public void queueAlert(final byte[] alert) {
+        queue.write(Characteristic.ALERT_IN, alert, GattOperation.PRIORITY_HIGH);
+    }
+
+    @Override
+    public synchronized void onConnectionStateChanged(final boolean connected) {
+        this.connected = connected;
+        pendingRead = null;
+        if (connected) {
+            connectedAt = clock.millis();
+            awaitingFirstSample = true;
+            if (profile != null && profile.isComplete() && link.restoreServices()
+                    && getCharacteristics() == profile.getCharacteristics()) {
+                Log.i(TAG, getAddress() + " reconnected, reusing " + profile);
+                fastReconnects++;
+                onServicesReady(true);
+            } else {
+                link.discoverServices();
+            }
+        } else {
+            executor.cancel(scheduledRead);
+            link.connect();
+        }
+        listener.onConnectionStateChanged(this, connected);
+    }
+
+    @Override
+    public synchronized void onServicesDiscovered(final int status) {
+        if (status == GattLink.STATUS_INSUFFICIENT_AUTHENTICATION) {
+            listener.onAuthenticationRequired(this);
+            return;
+        }
+
+        fullDiscoveries++;
+        onServicesReady(false);
+    }
+
+    /**
+     * Starts reading once the characteristics are known, either from discovery or kept from the last
+     * connection. What the profile remembers isn't read or written again: the manufacturer, a recent
+     * time update and the subscriptions of the last mode. The firmware revision is always read to
+     * check the profile is still valid.
+     */
+    private void onServicesReady(final boolean fast) {
+        fastReconnect = fast;
+        pendingRead = null;
+        subscribedCharacteristics = 0;
+        notifiableCharacteristics = 0;
+        connectionPriority = GattLink.CONNECTION_PRIORITY_BALANCED;
+        priorityChangedAt = clock.millis();
+        bytesSincePriorityChange = 0;
+        sampleRateMeter.reset();
+        for (Characteristic characteristic : Characteristic.values()) {
+            if (link.canNotify(characteristic)) {
+                notifiableCharacteristics |= characteristic.getMask();
+            }
+        }
+
+        if (profile == null) {
+            profile = new DeviceProfile();
+        }
+        profile.setCharacteristics(getCharacteristics());
+        profile.setNotifiable(notifiableCharacteristics);
+
+        listener.onServicesAvailable(this);
+
+        queue.requestMtu(SESSION_MTU, GattOperation.PRIORITY_HIGH);
+        if (System.currentTimeMillis() - profile.getTimeSetAt() > TIME_SYNC_INTERVAL) {
+            setTime();
+        }
+        if ((notifiableCharacteristics & ALWAYS_SUBSCRIBED) != 0) {
+            subscribedCharacteristics |= ALWAYS_SUBSCRIBED;
+            queue.setNotification(Characteristic.BATTERY, true, GattOperation.PRIORITY_NORMAL);
+        }
+        if (profile.getManufacturer() != null) {
+            manufacturerInfo.manufacturer = profile.getManufacturer();
+            manufacturerInfo.firmwareRevision = profile.getFirmwareRevision();
+        } else {
+            readIfPresent(Characteristic.MANUFACTURER);
+        }
+        readIfPresent(Characteristic.FW_REVISION);
+
+        final Mode lastMode = profile.getMode();
+        if (lastMode != null) {
+            if (mode != lastMode) {
+                mode = lastMode;
+                listener.onModeChanged(this, lastMode);
+            }
+            updateSubscriptions(lastMode);
+            updateConnectionPriority(lastMode);
+        }
+
+        setReadingQueue();
+        readNextCharacteristic();
+    }
+
+    @Override
+    public synchronized void onOperationCompleted(final GattOperation operation, final byte[] value, final int status) {
+        if (status == GattLink.STATUS_INSUFFICIENT_AUTHENTICATION) {
+            listener.onAuthenticationRequired(this);
+            return;
+        }
+
+        final boolean periodic = operation == pendingRead;
+        if (periodic) {
+            pendingRead = null;
+        }
+
+        if (status != GattLink.STATUS_SUCCESS) {
+            Log.w(TAG, operation + " finished with status " + status);
+        } else if (operation.getType() == GattOperation.Type.READ) {
+            onPacket(operation.getCharacteristic(), value, operation.getCompletedNanos());
+            onRead(operation, value);
+        } else if (operation.getType() == GattOperation.Type.MTU) {
+            Log.i(TAG, getAddress() + " negotiated MTU " + queue.getMtu());
+        } else if (operation.getType() == GattOperation.Type.WRITE && value != null && value.length > 0
+                && value[0] == WRITE_TIME) {
+            profile.setTimeSetAt(System.currentTimeMillis());
+            saveProfile();
+            listener.onTimeUpdated(this);
+        }
+
+        if (periodic) {
+            readNextCharacteristic();
+        }
+    }
+
+    @Override
+    public synchronized void onOperationFailed(final GattOperation operation) {
+        Log.w(TAG, "Failed: " + operation);
+        if (operation == pendingRead) {
+            pendingRead = null;
+            executor.cancel(scheduledRead);
+            postNextRead();
+        }
+    }
+
+    @Override
+    public void onCharacteristicChanged(final Characteristic characteristic, final byte[] value) {
+        final long receivedNanos = System.nanoTime();
+        onPacket(characteristic, value, receivedNanos);
+        if (characteristic.getType() == Characteristic.Type.READING) {
+            synchronized (this) {
+                onDataReceived(characteristic, value, receivedNanos);
+            }
+        }
+    }
+
+    private void onPacket(final Characteristic characteristic, final byte[] value, final long receivedNanos) {
+        final PacketListener packetListener = this.packetListener;
+        if (packetListener != null) {
+            packetListener.onPacket(this, characteristic, value, receivedNanos);
+        }
+    }
+
+    private void onRead(final GattOperation operation, final byte[] value) {
+        final Characteristic characteristic = operation.getCharacteristic();
+        switch (characteristic) {
+            case MANUFACTURER:
+                manufacturerInfo.manufacturer = toString(value);
+                profile.setManufacturer(manufacturerInfo.manufacturer);
+                saveProfile();
+                break;
+            case FW_REVISION:
+                onFirmwareRevision(toString(value));
+                break;
+            case MODE:
+                if (value == null || value.length == 0) {
+                    break;
+                }
+                final Mode newMode = Mode.bySymbol(value[0]);
+                if (mode != newMode) {
+                    mode = newMode;
+                    setReadingQueue();
+                    listener.onModeChanged(this, newMode);
+                }
+                if (profile.getMode() != newMode) {
+                    profile.setMode(newMode);
+                    saveProfile();
+                }
+                updateSubscriptions(newMode);
+                updateConnectionPriority(newMode);
+                break;
+            default:
+                pipelineMetrics.record(PipelineMetrics.Stage.READ, characteristic,
+                        operation.getCompletedNanos() - operation.getIssuedNanos());
+                onDataReceived(characteristic, value, operation.getCompletedNanos());
+                break;
+        }
+    }
+
+    /**
+     * New firmware may change the GATT layout and resets the watch's clock, so everything the profile
+     * remembers is dropped and learned again.
+     */
+    private void onFirmwareRevision(final String firmwareRevision) {
+        manufacturerInfo.firmwareRevision = firmwareRevision;
+        final String known = profile.getFirmwareRevision();
+        if (known == null || known.equals(firmwareRevision)) {
+            profile.setFirmwareRevision(firmwareRevision);
+            saveProfile();
+            return;
+        }
+
+        Log.i(TAG, getAddress() + " firmware changed from " + known + " to " + firmwareRevision);
+        profile = new DeviceProfile();
+        profile.setFirmwareRevision(firmwareRevision);
+        if (profileStore != null) {
+            profileStore.remove(getAddress());
+        }
+        if (fastReconnect) {
+            queue.clear();
+            link.discoverServices();
+        } else {
+            profile.setCharacteristics(getCharacteristics());
+            profile.setNotifiable(notifiableCharacteristics);
+            readIfPresent(Characteristic.MANUFACTURER);
+            setTime();
+        }
+    }
+
+    private void saveProfile() {
+        if (profileStore == null) {
+            return;
+        }
+        try {
+            profileStore.save(getAddress(), profile);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save the profile of " + getAddress(), e);
+        }
+    }
+
+    /**
+     * @return mask of the characteristics the link found.
+     */
+    private long getCharacteristics() {
+        long characteristics = 0;
+        for (Characteristic characteristic : Characteristic.values()) {
+            if (link.hasCharacteristic(characteristic)) {
+                characteristics |= characteristic.getMask();
+            }
+        }
+        return characteristics;
+    }
+
+    private void readIfPresent(final Characteristic characteristic) {
+        if (link.hasCharacteristic(characteristic)) {
+            queue.read(characteristic, GattOperation.PRIORITY_NORMAL);
+        }
+    }
+
+    private void onDataReceived(final Characteristic characteristic, final byte[] value, final long receivedNanos) {
+        final long timestamp = wallClockOffset + clock.millis();
+        sampleRateMeter.mark(characteristic, clock.millis());
+        bytesSincePriorityChange += value == null ? 0 : value.length;
+
+        if (awaitingFirstSample) {
+            awaitingFirstSample = false;
+            (fastReconnect ? fastFirstSample : fullFirstSample).record(clock.millis() - connectedAt);
+        }
+
+        final Sample sample = samples[characteristic.ordinal()];
+        if (DataConverter.decode(characteristic, value, timestamp, sample)) {
+            sample.setDeviceAddress(link.getAddress());
+            sample.setReceivedNanos(receivedNanos);
+            pipelineMetrics.recordSince(PipelineMetrics.Stage.DECODE, characteristic, receivedNanos);
+            listener.onSample(this, sample);
+        }
+    }
+
+    private synchronized void readNextCharacteristic() {
+        executor.cancel(scheduledRead);
+        if (!connected || pendingRead != null || readScheduler.readNext() != null) {
+            return;
+        }
+
+        postNextRead();
+    }
+
+    private void postNextRead() {
+        final long delay = readScheduler.getDelayToNextRead();
+        if (delay >= 0) {
+            executor.post(scheduledRead, delay);
+        }
+    }
+
+    /**
+     * Plans reads for the characteristics of the current mode that are in demand but aren't streamed.
+     */
+    private void setReadingQueue() {
+        final Queue<Characteristic> polled = new ArrayDeque<>();
+        polled.add(Characteristic.MODE);
+
+        if (mode != null) {
+            for (Characteristic characteristic : mode.getCharacteristics()) {
+                final long bit = characteristic.getMask();
+                if ((subscribedCharacteristics & bit) == 0 && (demand & bit) != 0) {
+                    polled.add(characteristic);
+                }
+            }
+        }
+
+        readScheduler.schedule(polled);
+    }
+
+    /**
+     * Brings notification subscriptions in line with the characteristics of the given mode.
+     * Characteristics that can't notify stay in the read schedule.
+     */
+    private void updateSubscriptions(final Mode mode) {
+        final long streamed = streamingEnabled ? mode.getCapabilities() & demand : 0;
+        final long wanted = (streamed | ALWAYS_SUBSCRIBED) & notifiableCharacteristics;
+        final long changed = wanted ^ subscribedCharacteristics;
+        if (changed == 0 && streamingApplied == streamingEnabled) {
+            return;
+        }
+
+        for (long remaining = changed; remaining != 0; remaining &= remaining - 1) {
+            final Characteristic characteristic = Characteristic.firstOf(remaining);
+            queue.setNotification(characteristic, (wanted & characteristic.getMask()) != 0,
+                    GattOperation.PRIORITY_NORMAL);
+        }
+
+        subscribedCharacteristics = wanted;
+        streamingApplied = streamingEnabled;
+        setReadingQueue();
+    }
+
+    /**
+     * Shortens the connection interval while motion readings flow and lengthens it when the mode
+     * has nothing to read, since throughput is bounded by connection events rather than the radio.
+     */
+    private void updateConnectionPriority(final Mode mode) {
+        final int priority;
+        if (lowPower) {
+            priority = GattLink.CONNECTION_PRIORITY_LOW_POWER;
+        } else if ((mode.getCapabilities() & MOTION) != 0) {
+            priority = GattLink.CONNECTION_PRIORITY_HIGH;
+        } else if (mode.getCapabilities() == 0) {
+            priority = GattLink.CONNECTION_PRIORITY_LOW_POWER;
+        } else {
+            priority = GattLink.CONNECTION_PRIORITY_BALANCED;
+        }
+        if (priority == connectionPriority || !link.requestConnectionPriority(priority)) {
+            return;
+        }
+
+        Log.i(TAG, getAddress() + " connection priority " + connectionPriority + " -> " + priority
+                + ", throughput was " + getThroughput() + " B/s");
+        connectionPriority = priority;
+        priorityChangedAt = clock.millis();
+        bytesSincePriorityChange = 0;
+    }
+
+    private static byte[] createTimeUpdate() {
+        final byte[] time = new byte[20];
+        final long currentTime = System.currentTimeMillis();
+        final long currentTimeWithTimeZoneOffset = (currentTime + TimeZone.getDefault().getOffset(currentTime)) / 1000;
+
+        final ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().put(currentTimeWithTimeZoneOffset);
+        final byte[] utcBytes = buffer.array();
+
+        final byte length = 0x04;
+
+        time[0] = WRITE_TIME;
+        time[1] = length;
+        time[2] = utcBytes[0];
+        time[3] = utcBytes[1];
+        time[4] = utcBytes[2];
+        time[5] = utcBytes[3];
+        return time;
+    }
+
+    private static String toString(final byte[] value) {
+        return value == null ? null : new String(value, UTF_8).trim();
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.wolkabout.hexiwear.model.BluetoothDeviceWrapper;
+import com.wolkabout.hexiwear.util.Clock;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Devices seen while scanning, keyed by address. Advertisements only update the entries;
+ * the listener hears about added devices, devices whose smoothed signal moved to another
+ * bucket and devices that stopped advertising, at most once per emit interval.
+ */
+public class DiscoveryCache {
+
+    public interface Listener {
+
+        /**
+         * Lists are never null, and hold fresh wrappers the cache won't touch again.
+         */
+        void onDevicesChanged(List<BluetoothDeviceWrapper> added, List<BluetoothDeviceWrapper> changed,
+                              List<BluetoothDeviceWrapper> lost);
+    }
+
+    private static final long NEVER_LOST = Long.MAX_VALUE;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Listener listener;
+    private final DelayedExecutor executor;
+    private final Clock clock;
+    private final float smoothing;
+    private final long emitIntervalMillis;
+    private final long lostAfterMillis;
+    private final Runnable emit = new Runnable() {
+        @Override
+        public void run() {
+            emit();
+        }
+    };
+    private final Runnable sweep = new Runnable() {
+        @Override
+        public void run() {
+            onSweep();
+        }
+    };
+    private boolean emitScheduled;
+    private boolean sweeping;
+    private long lastEmit;
+
+    /**
+     * @param smoothing weight of a new RSSI in the moving average, between 0 and 1.
+     */
+    public DiscoveryCache(final Listener listener, final DelayedExecutor executor, final Clock clock,
+                          final float smoothing, final long emitIntervalMillis, final long lostAfterMillis) {
+        this.listener = listener;
+        this.executor = executor;
+        this.clock = clock;
+        this.smoothing = smoothing;
+        this.emitIntervalMillis = emitIntervalMillis;
+        this.lostAfterMillis = lostAfterMillis;
+        this.lastEmit = -emitIntervalMillis;
+    }
+
+    public synchronized void onAdvertisement(final BluetoothDevice device, final int rssi, final boolean inOtapMode) {
+        update(device, rssi, inOtapMode, clock.millis());
+    }
+
+    /**
+     * Adds a device known without scanning, such as a bonded one. It is never reported lost.
+     */
+    public synchronized void addKnown(final BluetoothDevice device, final int rssi, final boolean inOtapMode) {
+        update(device, rssi, inOtapMode, NEVER_LOST);
+    }
+
+    /**
+     * Starts reporting devices that stopped advertising.
+     */
+    public synchronized void startSweeping() {
+        if (!sweeping) {
+            sweeping = true;
+            executor.post(sweep, lostAfterMillis);
+        }
+    }
+
+    /**
+     * Stops reporting lost devices, e.g. when the scan ends and nobody is expected to advertise.
+     */
+    public synchronized void stopSweeping() {
+        sweeping = false;
+        executor.cancel(sweep);
+    }
+
+    /**
+     * Forgets every device without reporting them lost.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        executor.cancel(emit);
+        emitScheduled = false;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void update(final BluetoothDevice device, final int rssi, final boolean inOtapMode, final long seenAt) {
+        Entry entry = entries.get(device.getAddress());
+        if (entry == null) {
+            entry = new Entry(device, rssi, inOtapMode);
+            entries.put(device.getAddress(), entry);
+        } else {
+            entry.rssi += smoothing * (rssi - entry.rssi);
+            entry.inOtapMode = inOtapMode;
+        }
+        if (entry.lastSeen != NEVER_LOST) {
+            entry.lastSeen = seenAt;
+        }
+
+        if (entry.isChanged()) {
+            scheduleEmit();
+        }
+    }
+
+    private void scheduleEmit() {
+        if (emitScheduled) {
+            return;
+        }
+        emitScheduled = true;
+        executor.post(emit, Math.max(0, lastEmit + emitIntervalMillis - clock.millis()));
+    }
+
+    private void onSweep() {
+        synchronized (this) {
+            if (!sweeping) {
+                return;
+            }
+            executor.post(sweep, lostAfterMillis);
+        }
+        emit();
+    }
+
+    private void emit() {
+        List<BluetoothDeviceWrapper> added = Collections.emptyList();
+        List<BluetoothDeviceWrapper> changed = Collections.emptyList();
+        List<BluetoothDeviceWrapper> lost = Collections.emptyList();
+        synchronized (this) {
+            emitScheduled = false;
+            final long now = clock.millis();
+            lastEmit = now;
+            final Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                final Entry entry = iterator.next();
+                if (sweeping && entry.lastSeen != NEVER_LOST && now - entry.lastSeen > lostAfterMillis) {
+                    iterator.remove();
+                    if (entry.reported) {
+                        lost = append(lost, entry.toWrapper());
+                    }
+                } else if (!entry.reported) {
+                    added = append(added, entry.report());
+                } else if (entry.isChanged()) {
+                    changed = append(changed, entry.report());
+                }
+            }
+        }
+
+        if (!added.isEmpty() || !changed.isEmpty() || !lost.isEmpty()) {
+            listener.onDevicesChanged(added, changed, lost);
+        }
+    }
+
+    private static List<BluetoothDeviceWrapper> append(final List<BluetoothDeviceWrapper> list,
+                                                       final BluetoothDeviceWrapper wrapper) {
+        final List<BluetoothDeviceWrapper> result = list.isEmpty() ? new ArrayList<BluetoothDeviceWrapper>() : list;
+        result.add(wrapper);
+        return result;
+    }
+
+    private static class Entry {
+
+        private final BluetoothDevice device;
+        private float rssi;
+        private boolean inOtapMode;
+        private long lastSeen;
+        private boolean reported;
+        private int reportedBucket;
+        private boolean reportedOtapMode;
+
+        Entry(final BluetoothDevice device, final int rssi, final boolean inOtapMode) {
+            this.device = device;
+            this.rssi = rssi;
+            this.inOtapMode = inOtapMode;
+        }
+
+        boolean isChanged() {
+            return !reported || reportedBucket != BluetoothDeviceWrapper.getSignalBucket(Math.round(rssi))
+                    || reportedOtapMode != inOtapMode;
+        }
+
+        BluetoothDeviceWrapper report() {
+            reported = true;
+            reportedBucket = BluetoothDeviceWrapper.getSignalBucket(Math.round(rssi));
+            reportedOtapMode = inOtapMode;
+            return toWrapper();
+        }
+
+        BluetoothDeviceWrapper toWrapper() {
+            final BluetoothDeviceWrapper wrapper = new BluetoothDeviceWrapper();
+            wrapper.setDevice(device);
+            wrapper.setSignalStrength(Math.round(rssi));
+            wrapper.setInOtapMode(inOtapMode);
+            wrapper.setLastSeen(lastSeen == NEVER_LOST ? 0 : lastSeen);
+            return wrapper;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+
+/**
+ * The GATT client operations a {@link DeviceSession} performs on one peripheral.
+ * Implemented on top of BluetoothGatt on the device, and by simulated peripherals on the JVM.
+ * Every operation completes asynchronously through {@link Callback}.
+ */
+public interface GattLink {
+
+    int STATUS_SUCCESS = 0;
+    int STATUS_INSUFFICIENT_AUTHENTICATION = 5;
+    int STATUS_FAILURE = 257;
+
+    int DEFAULT_MTU = 23;
+
+    int CONNECTION_PRIORITY_BALANCED = 0;
+    int CONNECTION_PRIORITY_HIGH = 1;
+    int CONNECTION_PRIORITY_LOW_POWER = 2;
+
+    String getAddress();
+
+    void setCallback(Callback callback);
+
+    boolean connect();
+
+    void close();
+
+    boolean discoverServices();
+
+    /**
+     * Reuses the services found before the link dropped, so a reconnect can skip discovery.
+     *
+     * @return false if nothing was discovered on this link yet and {@link #discoverServices()} is needed.
+     */
+    boolean restoreServices();
+
+    /**
+     * @return true if the characteristic was found during service discovery.
+     */
+    boolean hasCharacteristic(Characteristic characteristic);
+
+    /**
+     * @return true if the characteristic supports notifications or indications.
+     */
+    boolean canNotify(Characteristic characteristic);
+
+    boolean read(Characteristic characteristic);
+
+    boolean write(Characteristic characteristic, byte[] value, boolean withResponse);
+
+    /**
+     * Enables or disables notifications by writing the client characteristic configuration.
+     */
+    boolean setNotification(Characteristic characteristic, boolean enable);
+
+    /**
+     * Requests a larger ATT MTU. Not every link supports it.
+     */
+    boolean requestMtu(int mtu);
+
+    /**
+     * Asks the peripheral for a shorter or longer connection interval. Applies without a callback
+     * and may be issued while an operation is in flight.
+     *
+     * @param priority one of the {@code CONNECTION_PRIORITY_*} constants.
+     */
+    boolean requestConnectionPriority(int priority);
+
+    interface Callback {
+
+        void onConnectionStateChanged(boolean connected);
+
+        void onServicesDiscovered(int status);
+
+        void onCharacteristicRead(Characteristic characteristic, byte[] value, int status);
+
+        void onCharacteristicWrite(Characteristic characteristic, byte[] value, int status);
+
+        void onNotificationWritten(Characteristic characteristic, int status);
+
+        void onMtuChanged(int mtu, int status);
+
+        void onCharacteristicChanged(Characteristic characteristic, byte[] value);
+    }
+}
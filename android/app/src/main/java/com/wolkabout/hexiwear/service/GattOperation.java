@@ -0,0 +1,146 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+
+/**
+ * One GATT request waiting in, or executed by, a {@link GattQueue}.
+ */
+public class GattOperation {
+
+    public enum Type {
+        READ, WRITE, WRITE_NO_RESPONSE, NOTIFICATION, MTU
+    }
+
+    /**
+     * Alerts and time updates the user is waiting for.
+     */
+    public static final int PRIORITY_HIGH = 2;
+    /**
+     * Connection setup: subscriptions and device information.
+     */
+    public static final int PRIORITY_NORMAL = 1;
+    /**
+     * Periodic reads of the read schedule.
+     */
+    public static final int PRIORITY_LOW = 0;
+
+    private final Type type;
+    private final Characteristic characteristic;
+    private final byte[] value;
+    private final boolean enable;
+    private final int mtu;
+    private final int priority;
+    long sequence;
+    long enqueuedAt;
+    long startedAt;
+    long issuedNanos;
+    long completedNanos;
+    int attempts;
+
+    private GattOperation(final Type type, final Characteristic characteristic, final byte[] value,
+                          final boolean enable, final int mtu, final int priority) {
+        this.type = type;
+        this.characteristic = characteristic;
+        this.value = value;
+        this.enable = enable;
+        this.mtu = mtu;
+        this.priority = priority;
+    }
+
+    public static GattOperation read(final Characteristic characteristic, final int priority) {
+        return new GattOperation(Type.READ, characteristic, null, false, 0, priority);
+    }
+
+    public static GattOperation write(final Characteristic characteristic, final byte[] value, final int priority) {
+        return new GattOperation(Type.WRITE, characteristic, value, false, 0, priority);
+    }
+
+    /**
+     * Write command; the stack still reports when the packet has been handed to the controller.
+     */
+    public static GattOperation writeNoResponse(final Characteristic characteristic, final byte[] value, final int priority) {
+        return new GattOperation(Type.WRITE_NO_RESPONSE, characteristic, value, false, 0, priority);
+    }
+
+    public static GattOperation setNotification(final Characteristic characteristic, final boolean enable, final int priority) {
+        return new GattOperation(Type.NOTIFICATION, characteristic, null, enable, 0, priority);
+    }
+
+    public static GattOperation requestMtu(final int mtu, final int priority) {
+        return new GattOperation(Type.MTU, null, null, false, mtu, priority);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Characteristic getCharacteristic() {
+        return characteristic;
+    }
+
+    public byte[] getValue() {
+        return value;
+    }
+
+    public boolean isEnable() {
+        return enable;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the last attempt was handed to the link.
+     */
+    public long getIssuedNanos() {
+        return issuedNanos;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the link's callback for this operation arrived.
+     */
+    public long getCompletedNanos() {
+        return completedNanos;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    boolean matches(final Type type, final Characteristic characteristic) {
+        if (type == Type.WRITE) {
+            return (this.type == Type.WRITE || this.type == Type.WRITE_NO_RESPONSE) && this.characteristic == characteristic;
+        }
+        return this.type == type && this.characteristic == characteristic;
+    }
+
+    @Override
+    public String toString() {
+        return type + (characteristic == null ? "" : " " + characteristic) + (type == Type.MTU ? " " + mtu : "");
+    }
+}
@@ -0,0 +1,350 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import android.util.Log;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.util.Clock;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+import com.wolkabout.hexiwear.util.LatencyHistogram;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Serializes GATT operations on one {@link GattLink}: Android allows only one in flight.
+ * Operations run by priority, then in the order they were queued. The next one is issued straight
+ * from the completion callback of the previous one. An operation that gets no callback within the
+ * timeout is retried, and reported as failed once the retries run out, so a lost callback can't
+ * stall the link.
+ * <p>
+ * Callbacks are delivered without holding the queue's lock, so they may queue further operations.
+ */
+public class GattQueue implements GattLink.Callback {
+
+    private static final String TAG = GattQueue.class.getSimpleName();
+    private static final int TYPES = GattOperation.Type.values().length;
+    private static final Comparator<GattOperation> ORDER = new Comparator<GattOperation>() {
+        @Override
+        public int compare(final GattOperation first, final GattOperation second) {
+            if (first.getPriority() != second.getPriority()) {
+                return first.getPriority() > second.getPriority() ? -1 : 1;
+            }
+            return first.sequence < second.sequence ? -1 : (first.sequence == second.sequence ? 0 : 1);
+        }
+    };
+
+    private final GattLink link;
+    private final Callback callback;
+    private final DelayedExecutor executor;
+    private final Clock clock;
+    private final long timeoutMillis;
+    private final int maxRetries;
+    private final PriorityQueue<GattOperation> pending = new PriorityQueue<>(16, ORDER);
+    private final LatencyHistogram[] latencies = new LatencyHistogram[TYPES];
+    private final long[] retries = new long[TYPES];
+    private final long[] failures = new long[TYPES];
+    private final Runnable timeout = new Runnable() {
+        @Override
+        public void run() {
+            onTimeout();
+        }
+    };
+
+    private volatile int mtu = GattLink.DEFAULT_MTU;
+    private GattOperation inFlight;
+    private long sequence;
+
+    /**
+     * Link events and the outcome of every queued operation.
+     */
+    public interface Callback {
+
+        void onConnectionStateChanged(boolean connected);
+
+        void onServicesDiscovered(int status);
+
+        void onCharacteristicChanged(Characteristic characteristic, byte[] value);
+
+        /**
+         * The link answered the operation. The status may still be an error.
+         *
+         * @param value read or written value, or null for notifications and MTU requests.
+         */
+        void onOperationCompleted(GattOperation operation, byte[] value, int status);
+
+        /**
+         * The operation couldn't be started or timed out after all retries.
+         */
+        void onOperationFailed(GattOperation operation);
+    }
+
+    public GattQueue(final GattLink link, final Callback callback, final DelayedExecutor executor,
+                     final Clock clock, final long timeoutMillis, final int maxRetries) {
+        this.link = link;
+        this.callback = callback;
+        this.executor = executor;
+        this.clock = clock;
+        this.timeoutMillis = timeoutMillis;
+        this.maxRetries = maxRetries;
+        for (int i = 0; i < TYPES; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+        link.setCallback(this);
+    }
+
+    public GattLink getLink() {
+        return link;
+    }
+
+    public void enqueue(final GattOperation operation) {
+        synchronized (this) {
+            operation.sequence = sequence++;
+            operation.enqueuedAt = clock.millis();
+            operation.attempts = 0;
+            pending.add(operation);
+        }
+        issueNext();
+    }
+
+    public void read(final Characteristic characteristic, final int priority) {
+        enqueue(GattOperation.read(characteristic, priority));
+    }
+
+    public void write(final Characteristic characteristic, final byte[] value, final int priority) {
+        enqueue(GattOperation.write(characteristic, value, priority));
+    }
+
+    public void setNotification(final Characteristic characteristic, final boolean enable, final int priority) {
+        enqueue(GattOperation.setNotification(characteristic, enable, priority));
+    }
+
+    public void requestMtu(final int mtu, final int priority) {
+        enqueue(GattOperation.requestMtu(mtu, priority));
+    }
+
+    /**
+     * Drops every queued operation and forgets the one in flight without reporting them.
+     */
+    public synchronized void clear() {
+        executor.cancel(timeout);
+        pending.clear();
+        inFlight = null;
+    }
+
+    public synchronized int size() {
+        return pending.size() + (inFlight == null ? 0 : 1);
+    }
+
+    /**
+     * @return the ATT MTU negotiated on this link, {@link GattLink#DEFAULT_MTU} until a request succeeds.
+     */
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * @return time from issuing operations of the given type until the link answered them, including retries.
+     */
+    public LatencyHistogram getLatency(final GattOperation.Type type) {
+        return latencies[type.ordinal()];
+    }
+
+    public synchronized long getRetries(final GattOperation.Type type) {
+        return retries[type.ordinal()];
+    }
+
+    public synchronized long getFailures(final GattOperation.Type type) {
+        return failures[type.ordinal()];
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder builder = new StringBuilder("GattQueue{pending=").append(pending.size())
+                .append(", mtu=").append(mtu);
+        for (GattOperation.Type type : GattOperation.Type.values()) {
+            final int index = type.ordinal();
+            if (latencies[index].getCount() > 0 || failures[index] > 0) {
+                builder.append(", ").append(type).append(": ").append(latencies[index])
+                        .append(" retries=").append(retries[index])
+                        .append(" failures=").append(failures[index]);
+            }
+        }
+        return builder.append('}').toString();
+    }
+
+    @Override
+    public void onConnectionStateChanged(final boolean connected) {
+        if (!connected) {
+            clear();
+            mtu = GattLink.DEFAULT_MTU;
+        }
+        callback.onConnectionStateChanged(connected);
+    }
+
+    @Override
+    public void onServicesDiscovered(final int status) {
+        clear();
+        callback.onServicesDiscovered(status);
+    }
+
+    @Override
+    public void onCharacteristicRead(final Characteristic characteristic, final byte[] value, final int status) {
+        complete(GattOperation.Type.READ, characteristic, value, status);
+    }
+
+    @Override
+    public void onCharacteristicWrite(final Characteristic characteristic, final byte[] value, final int status) {
+        complete(GattOperation.Type.WRITE, characteristic, value, status);
+    }
+
+    @Override
+    public void onNotificationWritten(final Characteristic characteristic, final int status) {
+        complete(GattOperation.Type.NOTIFICATION, characteristic, null, status);
+    }
+
+    @Override
+    public void onMtuChanged(final int mtu, final int status) {
+        if (status == GattLink.STATUS_SUCCESS) {
+            this.mtu = mtu;
+        }
+        complete(GattOperation.Type.MTU, null, null, status);
+    }
+
+    @Override
+    public void onCharacteristicChanged(final Characteristic characteristic, final byte[] value) {
+        callback.onCharacteristicChanged(characteristic, value);
+    }
+
+    private void complete(final GattOperation.Type type, final Characteristic characteristic,
+                          final byte[] value, final int status) {
+        final long completedNanos = System.nanoTime();
+        final GattOperation operation;
+        synchronized (this) {
+            if (inFlight == null || !inFlight.matches(type, characteristic)) {
+                Log.w(TAG, "Unexpected " + type + " callback for " + characteristic + ", in flight: " + inFlight);
+                return;
+            }
+
+            operation = inFlight;
+            operation.completedNanos = completedNanos;
+            inFlight = null;
+            executor.cancel(timeout);
+            latencies[operation.getType().ordinal()].record(clock.millis() - operation.startedAt);
+        }
+
+        callback.onOperationCompleted(operation, value, status);
+        issueNext();
+    }
+
+    private void onTimeout() {
+        final GattOperation operation;
+        synchronized (this) {
+            if (inFlight == null) {
+                return;
+            }
+
+            final int index = inFlight.getType().ordinal();
+            if (inFlight.attempts <= maxRetries) {
+                Log.w(TAG, "Timed out, retrying: " + inFlight);
+                retries[index]++;
+                if (start(inFlight)) {
+                    return;
+                }
+            } else {
+                Log.w(TAG, "Timed out, giving up: " + inFlight);
+            }
+
+            operation = inFlight;
+            inFlight = null;
+            failures[index]++;
+        }
+
+        callback.onOperationFailed(operation);
+        issueNext();
+    }
+
+    private void issueNext() {
+        while (true) {
+            final GattOperation failed;
+            synchronized (this) {
+                if (inFlight != null) {
+                    return;
+                }
+
+                final GattOperation next = pending.poll();
+                if (next == null) {
+                    return;
+                }
+
+                next.startedAt = clock.millis();
+                inFlight = next;
+                if (start(next)) {
+                    return;
+                }
+
+                inFlight = null;
+                failures[next.getType().ordinal()]++;
+                failed = next;
+            }
+
+            callback.onOperationFailed(failed);
+        }
+    }
+
+    /**
+     * Arms the timeout and issues the operation to the link.
+     *
+     * @return false if the link refused the operation.
+     */
+    private boolean start(final GattOperation operation) {
+        operation.attempts++;
+        operation.issuedNanos = System.nanoTime();
+        executor.post(timeout, timeoutMillis);
+        final boolean started;
+        switch (operation.getType()) {
+            case READ:
+                started = link.read(operation.getCharacteristic());
+                break;
+            case WRITE:
+                started = link.write(operation.getCharacteristic(), operation.getValue(), true);
+                break;
+            case WRITE_NO_RESPONSE:
+                started = link.write(operation.getCharacteristic(), operation.getValue(), false);
+                break;
+            case NOTIFICATION:
+                started = link.setNotification(operation.getCharacteristic(), operation.isEnable());
+                break;
+            case MTU:
+                started = link.requestMtu(operation.getMtu());
+                break;
+            default:
+                started = false;
+                break;
+        }
+
+        if (!started) {
+            executor.cancel(timeout);
+        }
+        return started;
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.util.Clock;
+
+import java.util.Collection;
+
+/**
+ * Plans characteristic reads earliest-deadline-first, so every polled characteristic
+ * is read close to its own target rate instead of in a fixed round-robin order.
+ */
+public class ReadScheduler {
+
+    private static final int SIZE = Characteristic.values().length;
+
+    private final Clock clock;
+    private final Reader reader;
+    private final long[] intervals = new long[SIZE];
+    private final long[] deadlines = new long[SIZE];
+    private final boolean[] scheduled = new boolean[SIZE];
+    private final int[] reads = new int[SIZE];
+    private long scheduleStart;
+
+    /**
+     * Issues a read. Implemented by the GATT layer, or by a fake one.
+     */
+    public interface Reader {
+        /**
+         * @return true if the read was issued.
+         */
+        boolean read(Characteristic characteristic);
+    }
+
+    public ReadScheduler(final Clock clock, final Reader reader) {
+        this.clock = clock;
+        this.reader = reader;
+        for (Characteristic characteristic : Characteristic.values()) {
+            intervals[characteristic.ordinal()] = getDefaultInterval(characteristic);
+        }
+    }
+
+    public static long getDefaultInterval(final Characteristic characteristic) {
+        switch (characteristic) {
+            case ACCELERATION:
+            case GYRO:
+            case MAGNET:
+                return 100;
+            case HEARTRATE:
+            case STEPS:
+            case CALORIES:
+                return 1000;
+            case LIGHT:
+            case TEMPERATURE:
+            case HUMIDITY:
+            case PRESSURE:
+                return 2000;
+            case MODE:
+                return 5000;
+            case BATTERY:
+                return 60000;
+            default:
+                return 10000;
+        }
+    }
+
+    public synchronized void setTargetInterval(final Characteristic characteristic, final long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Interval must be positive: " + intervalMillis);
+        }
+        intervals[characteristic.ordinal()] = intervalMillis;
+    }
+
+    public synchronized long getTargetInterval(final Characteristic characteristic) {
+        return intervals[characteristic.ordinal()];
+    }
+
+    /**
+     * Replaces the current plan. Every scheduled characteristic is due immediately.
+     */
+    public synchronized void schedule(final Collection<Characteristic> characteristics) {
+        final long now = clock.millis();
+        for (int i = 0; i < SIZE; i++) {
+            scheduled[i] = false;
+            reads[i] = 0;
+        }
+        for (Characteristic characteristic : characteristics) {
+            final int index = characteristic.ordinal();
+            scheduled[index] = true;
+            deadlines[index] = now;
+        }
+        scheduleStart = now;
+    }
+
+    public synchronized boolean isScheduled(final Characteristic characteristic) {
+        return scheduled[characteristic.ordinal()];
+    }
+
+    /**
+     * Reads the characteristic with the earliest deadline that is already due.
+     * Characteristics the reader refuses are pushed back by one interval.
+     *
+     * @return the characteristic that is being read, or null if nothing is due yet.
+     */
+    public synchronized Characteristic readNext() {
+        final long now = clock.millis();
+        for (int attempt = 0; attempt < SIZE; attempt++) {
+            int next = -1;
+            for (int i = 0; i < SIZE; i++) {
+                if (scheduled[i] && deadlines[i] <= now && (next < 0 || deadlines[i] < deadlines[next])) {
+                    next = i;
+                }
+            }
+
+            if (next < 0) {
+                return null;
+            }
+
+            // Catch up at most one interval, so a stall doesn't turn into a burst of reads.
+            deadlines[next] = Math.max(deadlines[next] + intervals[next], now);
+            final Characteristic characteristic = Characteristic.byOrdinal(next);
+            if (reader.read(characteristic)) {
+                reads[next]++;
+                return characteristic;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return time in milliseconds until the next read is due, or -1 if nothing is scheduled.
+     */
+    public synchronized long getDelayToNextRead() {
+        long earliest = Long.MAX_VALUE;
+        for (int i = 0; i < SIZE; i++) {
+            if (scheduled[i] && deadlines[i] < earliest) {
+                earliest = deadlines[i];
+            }
+        }
+        return earliest == Long.MAX_VALUE ? -1 : Math.max(0, earliest - clock.millis());
+    }
+
+    public synchronized float getTargetRate(final Characteristic characteristic) {
+        final int index = characteristic.ordinal();
+        return scheduled[index] ? 1000f / intervals[index] : 0;
+    }
+
+    /**
+     * @return reads per second issued since the plan was last replaced.
+     */
+    public synchronized float getAchievedRate(final Characteristic characteristic) {
+        final long elapsed = clock.millis() - scheduleStart;
+        return elapsed > 0 ? reads[characteristic.ordinal()] * 1000f / elapsed : 0;
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import com.wolkabout.hexiwear.model.Aggregate;
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fans decoded samples out to subscribers, each at its own rate.
+ * <p>
+ * A subscriber gets one {@link Aggregate} per characteristic and device at most every
+ * {@code windowMillis}: the first sample after a quiet window goes out right away, samples
+ * arriving sooner are summarized into min, max, mean and last and go out with the first sample
+ * after the window. Streams slower than the window pass through unchanged.
+ * The aggregate instance is reused, like samples.
+ */
+public class SampleAggregator {
+
+    public enum Statistic {
+        MEAN, LAST, MIN, MAX
+    }
+
+    private static final int SIZE = Characteristic.values().length;
+    private static final int VALUES = Sample.MAX_VALUES;
+
+    private volatile Subscription[] subscriptions = new Subscription[0];
+
+    /**
+     * @param windowMillis minimum time between aggregates of one characteristic; 0 passes every sample.
+     * @param mask         characteristics to receive, see {@link Characteristic#getMask()}.
+     * @param statistic    which statistic the aggregate's sample values hold.
+     */
+    public synchronized void subscribe(final SampleListener listener, final long windowMillis,
+                                       final long mask, final Statistic statistic) {
+        final Subscription[] updated = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+        updated[updated.length - 1] = new Subscription(listener, windowMillis, mask, statistic);
+        subscriptions = updated;
+    }
+
+    public synchronized void unsubscribe(final SampleListener listener) {
+        final List<Subscription> updated = new ArrayList<>(subscriptions.length);
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener != listener) {
+                updated.add(subscription);
+            }
+        }
+        subscriptions = updated.toArray(new Subscription[updated.size()]);
+    }
+
+    public void onSample(final Sample sample) {
+        final long bit = sample.getCharacteristic().getMask();
+        for (Subscription subscription : subscriptions) {
+            if ((subscription.mask & bit) != 0) {
+                subscription.accept(sample);
+            }
+        }
+    }
+
+    private static class Subscription {
+
+        private final SampleListener listener;
+        private final long windowMillis;
+        private final long mask;
+        private final Statistic statistic;
+        private final Map<String, Windows> devices = new HashMap<>();
+        private final Aggregate aggregate = new Aggregate();
+        private final float[] values = new float[VALUES];
+
+        Subscription(final SampleListener listener, final long windowMillis,
+                     final long mask, final Statistic statistic) {
+            this.listener = listener;
+            this.windowMillis = windowMillis;
+            this.mask = mask;
+            this.statistic = statistic;
+        }
+
+        synchronized void accept(final Sample sample) {
+            Windows windows = devices.get(sample.getDeviceAddress());
+            if (windows == null) {
+                windows = new Windows();
+                devices.put(sample.getDeviceAddress(), windows);
+            }
+
+            final int index = sample.getCharacteristic().ordinal();
+            final int offset = index * VALUES;
+            final int size = sample.getSize();
+            final long timestamp = sample.getTimestamp();
+
+            if (windows.counts[index]++ == 0) {
+                windows.starts[index] = timestamp;
+                for (int i = 0; i < size; i++) {
+                    final float value = sample.getValue(i);
+                    windows.mins[offset + i] = value;
+                    windows.maxs[offset + i] = value;
+                    windows.sums[offset + i] = value;
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    final float value = sample.getValue(i);
+                    windows.mins[offset + i] = Math.min(windows.mins[offset + i], value);
+                    windows.maxs[offset + i] = Math.max(windows.maxs[offset + i], value);
+                    windows.sums[offset + i] += value;
+                }
+            }
+
+            if (windows.emitted[index] && timestamp - windows.lastEmits[index] < windowMillis) {
+                return;
+            }
+
+            emit(sample, windows, index);
+        }
+
+        private void emit(final Sample sample, final Windows windows, final int index) {
+            final int offset = index * VALUES;
+            final int size = sample.getSize();
+            final int count = windows.counts[index];
+            for (int i = 0; i < size; i++) {
+                final float min = windows.mins[offset + i];
+                final float max = windows.maxs[offset + i];
+                final float mean = (float) (windows.sums[offset + i] / count);
+                final float last = sample.getValue(i);
+                aggregate.setStatistics(windows.starts[index], count, i, min, max, mean, last);
+                switch (statistic) {
+                    case MEAN:
+                        values[i] = mean;
+                        break;
+                    case MIN:
+                        values[i] = min;
+                        break;
+                    case MAX:
+                        values[i] = max;
+                        break;
+                    default:
+                        values[i] = last;
+                        break;
+                }
+            }
+
+            if (size == 3) {
+                aggregate.setValues(sample.getCharacteristic(), sample.getTimestamp(), values[0], values[1], values[2]);
+            } else {
+                aggregate.setValue(sample.getCharacteristic(), sample.getTimestamp(), values[0]);
+            }
+            aggregate.setDeviceAddress(sample.getDeviceAddress());
+            aggregate.setReceivedNanos(sample.getReceivedNanos());
+
+            windows.counts[index] = 0;
+            windows.emitted[index] = true;
+            windows.lastEmits[index] = sample.getTimestamp();
+            listener.onSample(aggregate);
+        }
+    }
+
+    /**
+     * Open windows of every characteristic of one device.
+     */
+    private static class Windows {
+
+        final int[] counts = new int[SIZE];
+        final long[] starts = new long[SIZE];
+        final long[] lastEmits = new long[SIZE];
+        final boolean[] emitted = new boolean[SIZE];
+        final float[] mins = new float[SIZE * VALUES];
+        final float[] maxs = new float[SIZE * VALUES];
+        final double[] sums = new double[SIZE * VALUES];
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+
+/**
+ * Holds samples in memory and hands them on in bursts, so a consumer that writes to disk or the
+ * network wakes up once per period instead of for every reading.
+ * <p>
+ * The first sample after a flush arms the timer; a full buffer flushes early. With a period of 0
+ * samples pass straight through. Samples are copied into a fixed set of instances, two buffers that
+ * swap on every flush, so filling and flushing don't allocate or wait for each other.
+ */
+public class SampleBatcher implements SampleListener {
+
+    private final SampleListener output;
+    private final DelayedExecutor executor;
+    private final Object flushLock = new Object();
+    private final Runnable scheduledFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private Sample[] filling;
+    private Sample[] flushing;
+    private int size;
+    private long periodMillis;
+    private boolean flushScheduled;
+    private long flushes;
+    private long batchedSamples;
+    private long droppedSamples;
+
+    /**
+     * @param executor runs the periodic flushes, and with them the output.
+     * @param capacity samples held between flushes.
+     */
+    public SampleBatcher(final SampleListener output, final DelayedExecutor executor, final int capacity) {
+        this.output = output;
+        this.executor = executor;
+        this.filling = new Sample[capacity];
+        this.flushing = new Sample[capacity];
+        for (int i = 0; i < capacity; i++) {
+            filling[i] = new Sample();
+            flushing[i] = new Sample();
+        }
+    }
+
+    /**
+     * Changes the longest time a sample is held. Samples already held are flushed right away.
+     */
+    public void setPeriod(final long periodMillis) {
+        synchronized (this) {
+            this.periodMillis = periodMillis;
+        }
+        flush();
+    }
+
+    public synchronized long getPeriod() {
+        return periodMillis;
+    }
+
+    @Override
+    public void onSample(final Sample sample) {
+        synchronized (this) {
+            if (periodMillis > 0) {
+                if (size == filling.length) {
+                    droppedSamples++;
+                    return;
+                }
+
+                filling[size++].copyFrom(sample);
+                batchedSamples++;
+                if (size == filling.length) {
+                    executor.cancel(scheduledFlush);
+                    executor.post(scheduledFlush, 0);
+                    flushScheduled = true;
+                } else if (!flushScheduled) {
+                    executor.post(scheduledFlush, periodMillis);
+                    flushScheduled = true;
+                }
+                return;
+            }
+        }
+        output.onSample(sample);
+    }
+
+    /**
+     * Hands every held sample to the output now, on the calling thread.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            final Sample[] batch;
+            final int count;
+            synchronized (this) {
+                executor.cancel(scheduledFlush);
+                flushScheduled = false;
+                if (size == 0) {
+                    return;
+                }
+
+                batch = filling;
+                count = size;
+                filling = flushing;
+                flushing = batch;
+                size = 0;
+                flushes++;
+            }
+
+            for (int i = 0; i < count; i++) {
+                output.onSample(batch[i]);
+            }
+        }
+    }
+
+    public synchronized long getFlushes() {
+        return flushes;
+    }
+
+    public synchronized long getBatchedSamples() {
+        return batchedSamples;
+    }
+
+    /**
+     * @return samples lost because the buffer was full before a flush could empty it.
+     */
+    public synchronized long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SampleBatcher{" +
+                "period=" + periodMillis +
+                ", flushes=" + flushes +
+                ", batched=" + batchedSamples +
+                ", dropped=" + droppedSamples +
+                ", held=" + size +
+                '}';
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.store;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a log written by {@link CaptureWriter}, one packet at a time, from a read-only mapping.
+ * Payloads land in arrays reused per length, so reading allocates nothing once every length was seen.
+ * A record cut short by a crash ends the capture.
+ */
+public class CaptureReader {
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final long startedAt;
+    private final String[] devices = new String[256];
+    private final byte[][] values = new byte[CaptureWriter.MAX_PAYLOAD + 1][];
+
+    private long elapsedNanos;
+    private String address;
+    private Characteristic characteristic;
+    private byte[] value;
+
+    public CaptureReader(final File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < 5 || buffer.getInt() != CaptureWriter.MAGIC) {
+                throw new IOException("Not a capture: " + path);
+            }
+            final byte version = buffer.get();
+            if (version != CaptureWriter.VERSION || buffer.limit() < CaptureWriter.HEADER_SIZE) {
+                throw new IOException("Unsupported capture version " + version + ": " + path);
+            }
+            buffer.position(8);
+            startedAt = buffer.getLong();
+            if (buffer.getInt() != CaptureWriter.LAYOUT) {
+                throw new IOException("Capture written with a different characteristic layout: " + path);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return wall clock time the capture started.
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * Moves to the next packet.
+     *
+     * @return false at the end of the capture.
+     */
+    public boolean next() throws IOException {
+        while (buffer.remaining() > 0) {
+            final int start = buffer.position();
+            final byte type = buffer.get();
+            if (type == CaptureWriter.RECORD_DEVICE) {
+                if (buffer.remaining() < 2) {
+                    return truncated();
+                }
+                final int index = buffer.get() & 0xff;
+                final int length = buffer.get() & 0xff;
+                if (buffer.remaining() < length) {
+                    return truncated();
+                }
+                final byte[] ascii = new byte[length];
+                buffer.get(ascii);
+                devices[index] = new String(ascii, "US-ASCII");
+            } else if (type == CaptureWriter.RECORD_PACKET) {
+                if (buffer.remaining() < CaptureWriter.PACKET_HEADER - 1) {
+                    return truncated();
+                }
+                elapsedNanos = buffer.getLong();
+                address = devices[buffer.get() & 0xff];
+                final int ordinal = buffer.get() & 0xff;
+                final int length = buffer.getShort() & 0xffff;
+                if (ordinal >= Characteristic.values().length || length > CaptureWriter.MAX_PAYLOAD || address == null) {
+                    throw new IOException("Corrupt packet record at " + start);
+                }
+                if (buffer.remaining() < length) {
+                    return truncated();
+                }
+                characteristic = Characteristic.byOrdinal(ordinal);
+                value = values[length];
+                if (value == null) {
+                    value = new byte[length];
+                    values[length] = value;
+                }
+                buffer.get(value);
+                return true;
+            } else {
+                throw new IOException("Unknown record type " + type + " at " + start);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts over from the first packet.
+     */
+    public void rewind() {
+        buffer.position(CaptureWriter.HEADER_SIZE);
+    }
+
+    /**
+     * @return nanoseconds from the start of the capture until the current packet was received.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public Characteristic getCharacteristic() {
+        return characteristic;
+    }
+
+    /**
+     * @return the current packet's payload; the array is reused.
+     */
+    public byte[] getValue() {
+        return value;
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private boolean truncated() {
+        buffer.position(buffer.limit());
+        return false;
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.store;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Appends raw GATT payloads to a compact binary log, so field problems can be reproduced with the
+ * exact bytes that came off the link. Records are assembled in one preallocated direct buffer and
+ * written to a FileChannel when it fills up, or once a packet arrives {@link #FLUSH_INTERVAL_NANOS}
+ * after the last write, so capturing a packet allocates nothing and a crash loses at most about a
+ * second. Call {@link #flush()} now and then to cover a link that went quiet.
+ * <p>
+ * Layout, little endian: a {@value #HEADER_SIZE} byte header of magic, version, the wall clock
+ * time the capture started and a fingerprint of the {@link Characteristic} layout, followed by records that each start with a type byte. A device record
+ * gives a device index to an address: index, address length, ASCII address. A packet record holds
+ * 8 bytes of nanoseconds since the capture started, device index, characteristic ordinal, 2 bytes
+ * of payload length and the payload. Since packets refer to characteristics by ordinal, a capture
+ * only reads back with the same layout.
+ */
+public class CaptureWriter {
+
+    static final int MAGIC = 0x50435848;
+    static final byte VERSION = 2;
+    static final int HEADER_SIZE = 20;
+    static final int LAYOUT = getLayoutFingerprint();
+    static final byte RECORD_DEVICE = 1;
+    static final byte RECORD_PACKET = 2;
+    static final int PACKET_HEADER = 13;
+    static final int MAX_PAYLOAD = 512;
+
+    private static final int MAX_DEVICES = 255;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long FLUSH_INTERVAL_NANOS = 1000000000L;
+
+    private final File file;
+    private final RandomAccessFile output;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final Map<String, Integer> devices = new HashMap<>();
+    private final long startedNanos;
+    private long flushedNanos;
+    private long packets;
+    private long bytes;
+    private boolean closed;
+
+    /**
+     * @param startedNanos {@link System#nanoTime()} at the start; packet times are relative to it.
+     */
+    public CaptureWriter(final File file, final long startedAtMillis, final long startedNanos) throws IOException {
+        this.file = file;
+        this.startedNanos = startedNanos;
+        this.flushedNanos = startedNanos;
+        this.output = new RandomAccessFile(file, "rw");
+        this.channel = output.getChannel();
+        output.setLength(0);
+        buffer.putInt(MAGIC).put(VERSION).put((byte) 0).putShort((short) 0).putLong(startedAtMillis).putInt(LAYOUT);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Logs one payload. Payloads longer than the largest ATT value are cut.
+     */
+    public synchronized void append(final String address, final Characteristic characteristic,
+                                    final byte[] value, final long receivedNanos) throws IOException {
+        if (closed) {
+            return;
+        }
+
+        final int device = getDeviceIndex(address);
+        final int length = value == null ? 0 : Math.min(value.length, MAX_PAYLOAD);
+        reserve(PACKET_HEADER + length);
+        buffer.put(RECORD_PACKET)
+                .putLong(receivedNanos - startedNanos)
+                .put((byte) device)
+                .put((byte) characteristic.ordinal())
+                .putShort((short) length);
+        if (length > 0) {
+            buffer.put(value, 0, length);
+        }
+        packets++;
+        bytes += length;
+        if (receivedNanos - flushedNanos >= FLUSH_INTERVAL_NANOS) {
+            flush();
+            flushedNanos = receivedNanos;
+        }
+    }
+
+    /**
+     * Writes buffered records to the file.
+     */
+    public synchronized void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            closed = true;
+            output.close();
+        }
+    }
+
+    public synchronized long getPackets() {
+        return packets;
+    }
+
+    /**
+     * @return payload bytes captured, without record headers.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private int getDeviceIndex(final String address) throws IOException {
+        final Integer known = devices.get(address);
+        if (known != null) {
+            return known;
+        }
+        if (devices.size() == MAX_DEVICES) {
+            throw new IOException("More than " + MAX_DEVICES + " devices in one capture");
+        }
+
+        final int index = devices.size();
+        final byte[] ascii = address.getBytes("US-ASCII");
+        reserve(3 + ascii.length);
+        buffer.put(RECORD_DEVICE).put((byte) index).put((byte) ascii.length).put(ascii);
+        devices.put(address, index);
+        return index;
+    }
+
+    /**
+     * @return hash of the characteristic names in ordinal order; it changes whenever ordinals do.
+     */
+    private static int getLayoutFingerprint() {
+        int fingerprint = 1;
+        for (Characteristic characteristic : Characteristic.values()) {
+            fingerprint = 31 * fingerprint + characteristic.name().hashCode();
+        }
+        return fingerprint;
+    }
+
+    private void reserve(final int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CaptureWriter{" +
+                "file=" + file +
+                ", packets=" + packets +
+                ", bytes=" + bytes +
+                '}';
+    }
+}
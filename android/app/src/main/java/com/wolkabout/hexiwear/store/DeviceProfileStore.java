@@ -0,0 +1,127 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.store;
+
+import com.wolkabout.hexiwear.model.DeviceProfile;
+import com.wolkabout.hexiwear.model.Mode;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Keeps a {@link DeviceProfile} per device address, one small properties file each.
+ * Files are replaced atomically, so a crash leaves either the old or the new profile.
+ */
+public class DeviceProfileStore {
+
+    private static final String EXTENSION = ".properties";
+    private static final String FIRMWARE_REVISION = "firmwareRevision";
+    private static final String MANUFACTURER = "manufacturer";
+    private static final String CHARACTERISTICS = "characteristics";
+    private static final String NOTIFIABLE = "notifiable";
+    private static final String MODE = "mode";
+    private static final String TIME_SET_AT = "timeSetAt";
+
+    private final File directory;
+
+    public DeviceProfileStore(final File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the stored profile, or null if there is none or it can't be read.
+     */
+    public synchronized DeviceProfile load(final String address) {
+        final File file = getFile(address);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        final Properties properties = new Properties();
+        try {
+            final InputStream input = new FileInputStream(file);
+            try {
+                properties.load(input);
+            } finally {
+                input.close();
+            }
+
+            final DeviceProfile profile = new DeviceProfile();
+            profile.setFirmwareRevision(properties.getProperty(FIRMWARE_REVISION));
+            profile.setManufacturer(properties.getProperty(MANUFACTURER));
+            profile.setCharacteristics(Long.parseLong(properties.getProperty(CHARACTERISTICS, "0"), 16));
+            profile.setNotifiable(Long.parseLong(properties.getProperty(NOTIFIABLE, "0"), 16));
+            final String mode = properties.getProperty(MODE);
+            profile.setMode(mode == null ? null : Mode.valueOf(mode));
+            profile.setTimeSetAt(Long.parseLong(properties.getProperty(TIME_SET_AT, "0")));
+            return profile;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public synchronized void save(final String address, final DeviceProfile profile) throws IOException {
+        final Properties properties = new Properties();
+        if (profile.getFirmwareRevision() != null) {
+            properties.setProperty(FIRMWARE_REVISION, profile.getFirmwareRevision());
+        }
+        if (profile.getManufacturer() != null) {
+            properties.setProperty(MANUFACTURER, profile.getManufacturer());
+        }
+        properties.setProperty(CHARACTERISTICS, Long.toHexString(profile.getCharacteristics()));
+        properties.setProperty(NOTIFIABLE, Long.toHexString(profile.getNotifiable()));
+        if (profile.getMode() != null) {
+            properties.setProperty(MODE, profile.getMode().name());
+        }
+        properties.setProperty(TIME_SET_AT, Long.toString(profile.getTimeSetAt()));
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        final File file = getFile(address);
+        final File temporary = new File(directory, file.getName() + ".tmp");
+        final OutputStream output = new FileOutputStream(temporary);
+        try {
+            properties.store(output, address);
+        } finally {
+            output.close();
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Can't replace " + file);
+        }
+    }
+
+    public synchronized void remove(final String address) {
+        final File file = getFile(address);
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private File getFile(final String address) {
+        return new File(directory, address.replace(":", "") + EXTENSION);
+    }
+}
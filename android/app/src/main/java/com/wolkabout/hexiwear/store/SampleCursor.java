@@ -0,0 +1,118 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.store;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+
+import java.util.List;
+
+/**
+ * Iterates the stored samples of one characteristic in a time range, reading straight from the
+ * mapped segments. Nothing is copied until a value is asked for.
+ * <p>
+ * The cursor ends early if the ring wraps around onto a segment it hasn't finished reading.
+ */
+public class SampleCursor {
+
+    private final Characteristic characteristic;
+    private final SampleSegment[] segments;
+    private final long[] sequences;
+    private final int[] starts;
+    private final int[] ends;
+    private int segment;
+    private int index = -1;
+
+    SampleCursor(final Characteristic characteristic, final List<SampleSegment> segments,
+                 final long from, final long to) {
+        final int size = segments.size();
+        this.characteristic = characteristic;
+        this.segments = new SampleSegment[size];
+        this.sequences = new long[size];
+        this.starts = new int[size];
+        this.ends = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            final SampleSegment current = segments.get(i);
+            final int count = current.getCount();
+            this.segments[i] = current;
+            sequences[i] = current.getSequence();
+            starts[i] = current.indexOf(from, count);
+            ends[i] = to == Long.MAX_VALUE ? count : current.indexOf(to + 1, count);
+        }
+        if (size > 0) {
+            index = starts[0] - 1;
+        }
+    }
+
+    public Characteristic getCharacteristic() {
+        return characteristic;
+    }
+
+    /**
+     * Moves to the next sample in range.
+     *
+     * @return false when there are no more samples.
+     */
+    public boolean next() {
+        while (segment < segments.length) {
+            if (segments[segment].getSequence() != sequences[segment]) {
+                segment = segments.length;
+                return false;
+            }
+            if (++index < ends[segment]) {
+                return true;
+            }
+            if (++segment < segments.length) {
+                index = starts[segment] - 1;
+            }
+        }
+        return false;
+    }
+
+    public long getTimestamp() {
+        final SampleSegment current = segments[segment];
+        return current.getBaseTimestamp() + current.getDelta(index);
+    }
+
+    public int getValueCount() {
+        return characteristic.getValueCount();
+    }
+
+    public float getValue(final int value) {
+        if (value >= characteristic.getValueCount()) {
+            throw new IndexOutOfBoundsException(characteristic + " has " + characteristic.getValueCount()
+                    + " values, asked for " + value);
+        }
+        return segments[segment].getValue(index, value);
+    }
+
+    /**
+     * Fills the sample with the current record.
+     */
+    public void read(final Sample sample) {
+        if (characteristic.getValueCount() == 3) {
+            sample.setValues(characteristic, getTimestamp(), getValue(0), getValue(1), getValue(2));
+        } else {
+            sample.setValue(characteristic, getTimestamp(), getValue(0));
+        }
+    }
+}
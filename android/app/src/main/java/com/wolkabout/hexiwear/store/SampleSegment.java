@@ -0,0 +1,171 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.store;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One memory-mapped file of fixed-width sample records.
+ * <p>
+ * Layout: a {@value #HEADER_SIZE} byte header followed by records of a 4 byte timestamp delta
+ * from the segment's base timestamp and {@code valueCount} 4 byte floats.
+ * The record count in the header is written after the record, so readers only see complete records.
+ */
+class SampleSegment {
+
+    static final int HEADER_SIZE = 32;
+
+    private static final int MAGIC = 0x48585453;
+    private static final byte VERSION = 1;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CHARACTERISTIC_OFFSET = 5;
+    private static final int VALUE_COUNT_OFFSET = 6;
+    private static final int SEQUENCE_OFFSET = 8;
+    private static final int BASE_TIMESTAMP_OFFSET = 16;
+    private static final int COUNT_OFFSET = 24;
+    private static final int LAST_DELTA_OFFSET = 28;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final Characteristic characteristic;
+    private final int valueCount;
+    private final int recordSize;
+    private final int capacity;
+
+    SampleSegment(final File path, final Characteristic characteristic, final int size) throws IOException {
+        this.characteristic = characteristic;
+        this.valueCount = characteristic.getValueCount();
+        this.recordSize = 4 + 4 * valueCount;
+        this.capacity = (size - HEADER_SIZE) / recordSize;
+        this.file = new RandomAccessFile(path, "rw");
+        this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (!isValid()) {
+            reset(0, 0);
+        }
+    }
+
+    private boolean isValid() {
+        return buffer.getInt(MAGIC_OFFSET) == MAGIC
+                && buffer.get(VERSION_OFFSET) == VERSION
+                && buffer.get(CHARACTERISTIC_OFFSET) == characteristic.ordinal()
+                && buffer.get(VALUE_COUNT_OFFSET) == valueCount
+                && getCount() >= 0 && getCount() <= capacity;
+    }
+
+    /**
+     * Empties the segment and starts it over at the given base timestamp.
+     */
+    void reset(final long sequence, final long baseTimestamp) {
+        buffer.putInt(COUNT_OFFSET, 0);
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.put(VERSION_OFFSET, VERSION);
+        buffer.put(CHARACTERISTIC_OFFSET, (byte) characteristic.ordinal());
+        buffer.put(VALUE_COUNT_OFFSET, (byte) valueCount);
+        buffer.putLong(SEQUENCE_OFFSET, sequence);
+        buffer.putLong(BASE_TIMESTAMP_OFFSET, baseTimestamp);
+        buffer.putInt(LAST_DELTA_OFFSET, 0);
+    }
+
+    /**
+     * @return false if the segment is full, or the timestamp is older than the last one
+     * or too far from the base to be stored as a delta.
+     */
+    boolean append(final Sample sample) {
+        final int count = getCount();
+        final long delta = sample.getTimestamp() - getBaseTimestamp();
+        if (count >= capacity || delta < 0 || delta > Integer.MAX_VALUE
+                || (count > 0 && delta < buffer.getInt(LAST_DELTA_OFFSET))) {
+            return false;
+        }
+
+        int offset = HEADER_SIZE + count * recordSize;
+        buffer.putInt(offset, (int) delta);
+        for (int i = 0; i < valueCount; i++) {
+            offset += 4;
+            buffer.putFloat(offset, sample.getValue(i));
+        }
+        buffer.putInt(LAST_DELTA_OFFSET, (int) delta);
+        buffer.putInt(COUNT_OFFSET, count + 1);
+        return true;
+    }
+
+    /**
+     * @return index of the first record at or after the timestamp, or the count if there is none.
+     */
+    int indexOf(final long timestamp, final int count) {
+        final long delta = timestamp - getBaseTimestamp();
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (getDelta(middle) < delta) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    int getDelta(final int index) {
+        return buffer.getInt(HEADER_SIZE + index * recordSize);
+    }
+
+    float getValue(final int index, final int value) {
+        return buffer.getFloat(HEADER_SIZE + index * recordSize + 4 + 4 * value);
+    }
+
+    long getSequence() {
+        return buffer.getLong(SEQUENCE_OFFSET);
+    }
+
+    long getBaseTimestamp() {
+        return buffer.getLong(BASE_TIMESTAMP_OFFSET);
+    }
+
+    long getLastTimestamp() {
+        return getBaseTimestamp() + buffer.getInt(LAST_DELTA_OFFSET);
+    }
+
+    int getCount() {
+        return buffer.getInt(COUNT_OFFSET);
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+}
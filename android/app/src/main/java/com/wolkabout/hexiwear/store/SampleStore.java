@@ -0,0 +1,185 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.store;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.service.ReadScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only time series of the readings of one device, kept on disk in bounded space.
+ * <p>
+ * Every characteristic gets a ring of {@value #SEGMENTS} memory-mapped segment files, sized so the
+ * ring holds the retention period at the characteristic's default read rate. When the newest
+ * segment is full, the oldest one is emptied and reused. Faster streams keep a shorter history,
+ * never more disk.
+ */
+public class SampleStore {
+
+    static final int SEGMENTS = 8;
+
+    private static final int PAGE_SIZE = 4096;
+    private static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final String EXTENSION = ".seg";
+
+    private final File directory;
+    private final long retentionMillis;
+    private final Stream[] streams = new Stream[Characteristic.values().length];
+
+    /**
+     * @param directory       created if missing; holds one set of segment files per characteristic.
+     * @param retentionMillis how much history to keep at default read rates.
+     */
+    public SampleStore(final File directory, final long retentionMillis) {
+        this.directory = directory;
+        this.retentionMillis = retentionMillis;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stores a copy of the sample. Samples older than the last one stored start a new segment.
+     */
+    public void append(final Sample sample) throws IOException {
+        getStream(sample.getCharacteristic()).append(sample);
+    }
+
+    /**
+     * @return cursor over the samples with timestamps in {@code [from, to]}, in the order they were stored.
+     */
+    public SampleCursor query(final Characteristic characteristic, final long from, final long to) throws IOException {
+        return getStream(characteristic).query(from, to);
+    }
+
+    /**
+     * @return bytes mapped for the characteristic's ring.
+     */
+    public static long getCapacity(final Characteristic characteristic, final long retentionMillis) {
+        return (long) getSegmentSize(characteristic, retentionMillis) * SEGMENTS;
+    }
+
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (int i = 0; i < streams.length; i++) {
+            if (streams[i] == null) {
+                continue;
+            }
+            try {
+                streams[i].close();
+            } catch (IOException e) {
+                failure = e;
+            }
+            streams[i] = null;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private synchronized Stream getStream(final Characteristic characteristic) throws IOException {
+        if (characteristic.getType() != Characteristic.Type.READING) {
+            throw new IllegalArgumentException(characteristic + " isn't a reading.");
+        }
+
+        final int index = characteristic.ordinal();
+        if (streams[index] == null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can't create " + directory);
+            }
+            streams[index] = new Stream(characteristic, getSegmentSize(characteristic, retentionMillis));
+        }
+        return streams[index];
+    }
+
+    private static int getSegmentSize(final Characteristic characteristic, final long retentionMillis) {
+        final long records = retentionMillis / ReadScheduler.getDefaultInterval(characteristic) / (SEGMENTS - 1) + 1;
+        final long bytes = SampleSegment.HEADER_SIZE + records * (4 + 4 * characteristic.getValueCount());
+        final long pages = (bytes + PAGE_SIZE - 1) / PAGE_SIZE;
+        return (int) Math.min(MAX_SEGMENT_SIZE, pages * PAGE_SIZE);
+    }
+
+    /**
+     * The segment ring of one characteristic.
+     */
+    private class Stream {
+
+        private final SampleSegment[] segments = new SampleSegment[SEGMENTS];
+        private final Characteristic characteristic;
+        private int current;
+
+        Stream(final Characteristic characteristic, final int segmentSize) throws IOException {
+            this.characteristic = characteristic;
+            final String name = characteristic.name().toLowerCase();
+            try {
+                for (int i = 0; i < SEGMENTS; i++) {
+                    segments[i] = new SampleSegment(new File(directory, name + "-" + i + EXTENSION),
+                            characteristic, segmentSize);
+                    if (segments[i].getSequence() > segments[current].getSequence()) {
+                        current = i;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        synchronized void append(final Sample sample) {
+            if (segments[current].getCount() == 0) {
+                segments[current].reset(segments[current].getSequence(), sample.getTimestamp());
+            }
+            if (segments[current].append(sample)) {
+                return;
+            }
+
+            final long sequence = segments[current].getSequence() + 1;
+            current = (current + 1) % SEGMENTS;
+            segments[current].reset(sequence, sample.getTimestamp());
+            segments[current].append(sample);
+        }
+
+        synchronized SampleCursor query(final long from, final long to) {
+            final List<SampleSegment> overlapping = new ArrayList<>(SEGMENTS);
+            for (int i = 1; i <= SEGMENTS; i++) {
+                final SampleSegment segment = segments[(current + i) % SEGMENTS];
+                if (segment.getCount() > 0 && segment.getBaseTimestamp() <= to && segment.getLastTimestamp() >= from) {
+                    overlapping.add(segment);
+                }
+            }
+            return new SampleCursor(characteristic, overlapping, from, to);
+        }
+
+        synchronized void close() throws IOException {
+            for (SampleSegment segment : segments) {
+                if (segment != null) {
+                    segment.close();
+                }
+            }
+        }
+    }
+}
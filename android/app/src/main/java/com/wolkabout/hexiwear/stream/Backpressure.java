@@ -0,0 +1,42 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.stream;
+
+/**
+ * What {@link SampleFlow#observeOn} does with samples that arrive faster than its subscriber takes them.
+ */
+public enum Backpressure {
+
+    /**
+     * A newer sample of the same characteristic and device replaces the queued one.
+     */
+    LATEST,
+
+    /**
+     * Samples queue up to the capacity; beyond that, the oldest queued sample is dropped.
+     */
+    BUFFER,
+
+    /**
+     * Samples queue up to the capacity; beyond that, new samples are dropped.
+     */
+    DROP
+}
@@ -0,0 +1,155 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.stream;
+
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+
+/**
+ * Queues samples in a fixed ring of reused instances and delivers them on an executor as fast as
+ * the subscriber's demand allows. When the ring is full, {@link Backpressure} decides what goes.
+ */
+class ObserveOn extends Stage {
+
+    private final DelayedExecutor executor;
+    private final Backpressure backpressure;
+    private final Sample[] ring;
+    private final Sample deliverySample = new Sample();
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private int head;
+    private int size;
+    private boolean drainScheduled;
+    private boolean completed;
+
+    ObserveOn(final SampleSubscriber downstream, final DelayedExecutor executor,
+              final Backpressure backpressure, final int capacity) {
+        super(downstream);
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.executor = executor;
+        this.backpressure = backpressure;
+        this.ring = new Sample[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Sample();
+        }
+    }
+
+    @Override
+    public void onNext(final Sample sample) {
+        synchronized (this) {
+            if (backpressure == Backpressure.LATEST && replaceQueued(sample)) {
+                return;
+            } else if (size < ring.length) {
+                ring[(head + size++) % ring.length].copyFrom(sample);
+            } else if (backpressure == Backpressure.DROP) {
+                return;
+            } else {
+                ring[head].copyFrom(sample);
+                head = (head + 1) % ring.length;
+            }
+        }
+        scheduleDrain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            completed = true;
+        }
+        scheduleDrain();
+    }
+
+    @Override
+    public void request(final long n) {
+        super.request(n);
+        scheduleDrain();
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        executor.cancel(drain);
+        synchronized (this) {
+            size = 0;
+            drainScheduled = false;
+        }
+    }
+
+    private boolean replaceQueued(final Sample sample) {
+        for (int i = 0; i < size; i++) {
+            final Sample queued = ring[(head + i) % ring.length];
+            if (queued.getCharacteristic() == sample.getCharacteristic()
+                    && equals(queued.getDeviceAddress(), sample.getDeviceAddress())) {
+                queued.copyFrom(sample);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void scheduleDrain() {
+        synchronized (this) {
+            if (drainScheduled || isCancelled()) {
+                return;
+            }
+            drainScheduled = true;
+        }
+        executor.post(drain, 0);
+    }
+
+    private void drain() {
+        while (true) {
+            synchronized (this) {
+                if (isCancelled()) {
+                    return;
+                }
+                if (size == 0) {
+                    drainScheduled = false;
+                    if (completed) {
+                        completed = false;
+                        break;
+                    }
+                    return;
+                }
+                if (!takeDemand(requested)) {
+                    drainScheduled = false;
+                    return;
+                }
+                deliverySample.copyFrom(ring[head]);
+                head = (head + 1) % ring.length;
+                size--;
+            }
+            downstream.onNext(deliverySample);
+        }
+        downstream.onComplete();
+    }
+
+    private static boolean equals(final String first, final String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.stream;
+
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.service.SampleAggregator;
+import com.wolkabout.hexiwear.service.SampleListener;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+
+/**
+ * A stream of samples that subscribers attach to, with operators that derive new flows from it.
+ * <p>
+ * Flows from {@link SampleStreams} are hot: they emit while the device produces readings, and a
+ * subscriber without outstanding demand misses samples. Operators are cold; each subscription runs
+ * its own chain of operators against its own subscription to the source, so one slow subscriber
+ * never holds up the others. Unless {@link #observeOn} moves them elsewhere, samples are delivered
+ * on the thread of the GATT callback.
+ */
+public abstract class SampleFlow {
+
+    /**
+     * Attaches the subscriber. It gets {@link SampleSubscriber#onSubscribe} before any sample.
+     */
+    public abstract void subscribe(SampleSubscriber subscriber);
+
+    /**
+     * Delivers every sample to the listener, with unbounded demand.
+     *
+     * @return the subscription to cancel when the listener is done.
+     */
+    public Subscription subscribe(final SampleListener listener) {
+        final ListenerSubscriber subscriber = new ListenerSubscriber(listener);
+        subscribe(subscriber);
+        return subscriber.subscription;
+    }
+
+    /**
+     * @return samples of one device only.
+     */
+    public SampleFlow forDevice(final String address) {
+        return new SampleFlow() {
+            @Override
+            public void subscribe(final SampleSubscriber subscriber) {
+                SampleFlow.this.subscribe(new DeviceFilter(subscriber, address));
+            }
+        };
+    }
+
+    /**
+     * Summarizes samples into at most one {@link com.wolkabout.hexiwear.model.Aggregate} per characteristic
+     * and device every {@code windowMillis}, as {@link SampleAggregator} does.
+     */
+    public SampleFlow window(final long windowMillis, final SampleAggregator.Statistic statistic) {
+        return new SampleFlow() {
+            @Override
+            public void subscribe(final SampleSubscriber subscriber) {
+                SampleFlow.this.subscribe(new Window(subscriber, windowMillis, statistic));
+            }
+        };
+    }
+
+    /**
+     * Emits the latest sample of each characteristic and device every {@code periodMillis}, on the
+     * executor. Nothing is emitted for a characteristic that had no new sample in the period.
+     */
+    public SampleFlow sample(final long periodMillis, final DelayedExecutor executor) {
+        return new SampleFlow() {
+            @Override
+            public void subscribe(final SampleSubscriber subscriber) {
+                SampleFlow.this.subscribe(new Sampler(subscriber, periodMillis, executor));
+            }
+        };
+    }
+
+    /**
+     * Moves delivery to the executor, queueing at most {@code capacity} samples in between.
+     * This is where a slow subscriber's backpressure is absorbed, so the GATT callback never waits.
+     */
+    public SampleFlow observeOn(final DelayedExecutor executor, final Backpressure backpressure, final int capacity) {
+        return new SampleFlow() {
+            @Override
+            public void subscribe(final SampleSubscriber subscriber) {
+                SampleFlow.this.subscribe(new ObserveOn(subscriber, executor, backpressure, capacity));
+            }
+        };
+    }
+
+    private static class DeviceFilter extends Stage {
+
+        private final String address;
+
+        DeviceFilter(final SampleSubscriber downstream, final String address) {
+            super(downstream);
+            this.address = address;
+        }
+
+        @Override
+        public void onNext(final Sample sample) {
+            if (address.equals(sample.getDeviceAddress())) {
+                emit(sample);
+            }
+        }
+    }
+
+    private static class Window extends Stage {
+
+        private final SampleAggregator aggregator = new SampleAggregator();
+
+        Window(final SampleSubscriber downstream, final long windowMillis, final SampleAggregator.Statistic statistic) {
+            super(downstream);
+            aggregator.subscribe(new SampleListener() {
+                @Override
+                public void onSample(final Sample aggregate) {
+                    emit(aggregate);
+                }
+            }, windowMillis, -1L, statistic);
+        }
+
+        @Override
+        public void onNext(final Sample sample) {
+            aggregator.onSample(sample);
+        }
+    }
+
+    private static class ListenerSubscriber implements SampleSubscriber {
+
+        private final SampleListener listener;
+        private Subscription subscription;
+
+        ListenerSubscriber(final SampleListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(final Sample sample) {
+            listener.onSample(sample);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.stream;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source of the hot sample flows. Sessions push every decoded sample in through
+ * {@link #onSample(Sample)}; subscribers take them out through {@link #of(Characteristic)}.
+ * <p>
+ * Subscriptions are counted per characteristic. The union of characteristics that have at least
+ * one subscriber is the demand, reported to the {@link DemandListener} so the sessions subscribe
+ * to and read only those. However many subscribers share a characteristic, the device sends it once.
+ * Subscribers of {@link #observe(long)} aren't counted; they see what the others asked for.
+ */
+public class SampleStreams {
+
+    private static final int SIZE = Characteristic.values().length;
+
+    private final DemandListener demandListener;
+    private final DelayedExecutor executor;
+    private final SampleFlow[] flows = new SampleFlow[SIZE];
+    private final int[] subscribers = new int[SIZE];
+    private final Runnable reportDemand = new Runnable() {
+        @Override
+        public void run() {
+            demandListener.onDemandChanged(getDemand());
+        }
+    };
+
+    private volatile Source[] sources = new Source[0];
+    private long demand;
+
+    /**
+     * Learns which characteristics have subscribers.
+     */
+    public interface DemandListener {
+
+        void onDemandChanged(long mask);
+    }
+
+    /**
+     * @param executor runs the demand listener, so it is never called from within a subscribe or cancel.
+     */
+    public SampleStreams(final DemandListener demandListener, final DelayedExecutor executor) {
+        this.demandListener = demandListener;
+        this.executor = executor;
+        for (Characteristic characteristic : Characteristic.values()) {
+            flows[characteristic.ordinal()] = of(characteristic.getMask());
+        }
+    }
+
+    /**
+     * @return the flow of one characteristic, of every device.
+     */
+    public SampleFlow of(final Characteristic characteristic) {
+        return flows[characteristic.ordinal()];
+    }
+
+    /**
+     * @return the flow of every characteristic in the mask, see {@link Characteristic#getMask()}.
+     */
+    public SampleFlow of(final long mask) {
+        return flow(mask, true);
+    }
+
+    /**
+     * @return the flow of every characteristic in the mask, without adding to the demand:
+     * it only carries samples of characteristics that other subscribers asked for.
+     */
+    public SampleFlow observe(final long mask) {
+        return flow(mask, false);
+    }
+
+    private SampleFlow flow(final long mask, final boolean counted) {
+        return new SampleFlow() {
+            @Override
+            public void subscribe(final SampleSubscriber subscriber) {
+                final Source source = new Source(subscriber, mask, counted);
+                add(source);
+                subscriber.onSubscribe(source);
+            }
+        };
+    }
+
+    /**
+     * @return mask of the characteristics that have at least one subscriber.
+     */
+    public synchronized long getDemand() {
+        return demand;
+    }
+
+    public void onSample(final Sample sample) {
+        final long bit = sample.getCharacteristic().getMask();
+        for (Source source : sources) {
+            if ((source.mask & bit) != 0 && Stage.takeDemand(source.requested)) {
+                source.subscriber.onNext(sample);
+            }
+        }
+    }
+
+    /**
+     * Ends every flow and drops all subscribers.
+     */
+    public void complete() {
+        final Source[] completed;
+        synchronized (this) {
+            completed = sources;
+            sources = new Source[0];
+            Arrays.fill(subscribers, 0);
+            demand = 0;
+        }
+        for (Source source : completed) {
+            source.subscriber.onComplete();
+        }
+        executor.post(reportDemand, 0);
+    }
+
+    private void add(final Source source) {
+        final boolean changed;
+        synchronized (this) {
+            final Source[] updated = Arrays.copyOf(sources, sources.length + 1);
+            updated[updated.length - 1] = source;
+            sources = updated;
+            changed = source.counted && count(source.mask, 1);
+        }
+        if (changed) {
+            executor.post(reportDemand, 0);
+        }
+    }
+
+    private void remove(final Source source) {
+        final boolean changed;
+        synchronized (this) {
+            final List<Source> updated = new ArrayList<>(sources.length);
+            for (Source existing : sources) {
+                if (existing != source) {
+                    updated.add(existing);
+                }
+            }
+            if (updated.size() == sources.length) {
+                return;
+            }
+            sources = updated.toArray(new Source[updated.size()]);
+            changed = source.counted && count(source.mask, -1);
+        }
+        if (changed) {
+            executor.post(reportDemand, 0);
+        }
+    }
+
+    /**
+     * @return true if a characteristic gained its first or lost its last subscriber.
+     */
+    private boolean count(final long mask, final int delta) {
+        final long previous = demand;
+        for (int i = 0; i < SIZE; i++) {
+            if ((mask & (1L << i)) != 0) {
+                subscribers[i] += delta;
+                if (subscribers[i] > 0) {
+                    demand |= 1L << i;
+                } else {
+                    demand &= ~(1L << i);
+                }
+            }
+        }
+        return demand != previous;
+    }
+
+    private class Source implements Subscription {
+
+        private final SampleSubscriber subscriber;
+        private final long mask;
+        private final boolean counted;
+        private final AtomicLong requested = new AtomicLong();
+
+        Source(final SampleSubscriber subscriber, final long mask, final boolean counted) {
+            this.subscriber = subscriber;
+            this.mask = mask;
+            this.counted = counted;
+        }
+
+        @Override
+        public void request(final long n) {
+            Stage.addDemand(requested, n);
+        }
+
+        @Override
+        public void cancel() {
+            remove(this);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.stream;
+
+import com.wolkabout.hexiwear.model.Sample;
+
+/**
+ * Receives samples from a {@link SampleFlow}. Samples arrive only while there is outstanding
+ * demand from {@link Subscription#request(long)}.
+ */
+public interface SampleSubscriber {
+
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * The sample instance is reused; copy it to keep it past the call.
+     */
+    void onNext(Sample sample);
+
+    /**
+     * The flow ended, e.g. because the service is going away. No more samples follow.
+     */
+    void onComplete();
+}
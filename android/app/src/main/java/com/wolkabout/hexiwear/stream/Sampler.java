@@ -0,0 +1,126 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.stream;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the latest sample per characteristic and device and emits the new ones on a timer.
+ */
+class Sampler extends Stage {
+
+    private static final int SIZE = Characteristic.values().length;
+
+    private final long periodMillis;
+    private final DelayedExecutor executor;
+    private final Map<String, Latest> devices = new HashMap<>();
+    private final List<Latest> latest = new ArrayList<>();
+    private final Sample frameSample = new Sample();
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            emitLatest();
+        }
+    };
+
+    Sampler(final SampleSubscriber downstream, final long periodMillis, final DelayedExecutor executor) {
+        super(downstream);
+        this.periodMillis = periodMillis;
+        this.executor = executor;
+    }
+
+    @Override
+    public void onSubscribe(final Subscription subscription) {
+        super.onSubscribe(subscription);
+        executor.post(tick, periodMillis);
+    }
+
+    @Override
+    public synchronized void onNext(final Sample sample) {
+        Latest device = devices.get(sample.getDeviceAddress());
+        if (device == null) {
+            device = new Latest();
+            devices.put(sample.getDeviceAddress(), device);
+            latest.add(device);
+        }
+
+        final int index = sample.getCharacteristic().ordinal();
+        device.samples[index].copyFrom(sample);
+        device.pending |= 1L << index;
+    }
+
+    @Override
+    public void onComplete() {
+        executor.cancel(tick);
+        super.onComplete();
+    }
+
+    @Override
+    public void cancel() {
+        executor.cancel(tick);
+        super.cancel();
+    }
+
+    private void emitLatest() {
+        if (isCancelled()) {
+            return;
+        }
+
+        final int count;
+        synchronized (this) {
+            count = latest.size();
+        }
+        for (int i = 0; i < count; i++) {
+            while (true) {
+                synchronized (this) {
+                    final Latest device = latest.get(i);
+                    if (device.pending == 0) {
+                        break;
+                    }
+                    final int index = Long.numberOfTrailingZeros(device.pending);
+                    device.pending &= ~(1L << index);
+                    frameSample.copyFrom(device.samples[index]);
+                }
+                emit(frameSample);
+            }
+        }
+        executor.post(tick, periodMillis);
+    }
+
+    private static class Latest {
+
+        final Sample[] samples = new Sample[SIZE];
+        long pending;
+
+        Latest() {
+            for (int i = 0; i < SIZE; i++) {
+                samples[i] = new Sample();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.stream;
+
+import com.wolkabout.hexiwear.model.Sample;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One operator between an upstream flow and a downstream subscriber. Takes everything from
+ * upstream and passes on what the downstream subscriber has asked for.
+ */
+abstract class Stage implements SampleSubscriber, Subscription {
+
+    final SampleSubscriber downstream;
+    final AtomicLong requested = new AtomicLong();
+    private volatile Subscription upstream;
+    private volatile boolean cancelled;
+
+    Stage(final SampleSubscriber downstream) {
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void onSubscribe(final Subscription subscription) {
+        upstream = subscription;
+        downstream.onSubscribe(this);
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onComplete() {
+        if (!cancelled) {
+            downstream.onComplete();
+        }
+    }
+
+    @Override
+    public void request(final long n) {
+        addDemand(requested, n);
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        final Subscription subscription = upstream;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Passes the sample downstream if it was asked for.
+     *
+     * @return false if the sample was dropped.
+     */
+    boolean emit(final Sample sample) {
+        if (cancelled || !takeDemand(requested)) {
+            return false;
+        }
+        downstream.onNext(sample);
+        return true;
+    }
+
+    static void addDemand(final AtomicLong requested, final long n) {
+        if (n <= 0) {
+            return;
+        }
+        while (true) {
+            final long current = requested.get();
+            final long updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+            if (current == Long.MAX_VALUE || requested.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    static boolean takeDemand(final AtomicLong requested) {
+        while (true) {
+            final long current = requested.get();
+            if (current == Long.MAX_VALUE) {
+                return true;
+            }
+            if (current == 0) {
+                return false;
+            }
+            if (requested.compareAndSet(current, current - 1)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.stream;
+
+/**
+ * Link between one {@link SampleSubscriber} and the flow it subscribed to.
+ */
+public interface Subscription {
+
+    /**
+     * Asks for up to n more samples. {@link Long#MAX_VALUE} means unbounded.
+     */
+    void request(long n);
+
+    /**
+     * Stops delivery and releases whatever the subscription holds, including its GATT subscriptions.
+     */
+    void cancel();
+}
@@ -21,6 +21,7 @@
 package com.wolkabout.hexiwear.util;
 
 import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
 
 import java.util.Locale;
 
@@ -56,9 +57,11 @@ public class DataConverter {
             case BATTERY:
             case LIGHT:
             case CALORIES:
-            case STEPS:
                 floatVal = (data[0] & 0xff);
                 return String.format("%.0f %s", floatVal, unit);
+            case STEPS:
+                floatVal = toCounter(data);
+                return String.format("%.0f %s", floatVal, unit);
             case TEMPERATURE:
             case HUMIDITY:
             case PRESSURE:
@@ -93,6 +96,91 @@ public class DataConverter {
         }
     }
 
+    /**
+     * Decodes raw characteristic bytes into the given sample, with the same scaling as
+     * {@link #parseBluetoothData(Characteristic, byte[])}, without allocating.
+     *
+     * @return false if the characteristic isn't a reading or the payload is too short.
+     */
+    public static boolean decode(final Characteristic characteristic, final byte[] data,
+                                 final long timestamp, final Sample sample) {
+        if (data == null) {
+            return false;
+        }
+
+        switch (characteristic) {
+            case HEARTRATE:
+            case BATTERY:
+            case LIGHT:
+                if (data.length < 1) {
+                    return false;
+                }
+                sample.setValue(characteristic, timestamp, data[0] & 0xff);
+                return true;
+            case CALORIES:
+                if (data.length < 1) {
+                    return false;
+                }
+                sample.setValue(characteristic, timestamp, data[0] & 0xff);
+                sample.setCounterRange(1 << 8);
+                return true;
+            case STEPS:
+                if (data.length < 1) {
+                    return false;
+                }
+                sample.setValue(characteristic, timestamp, toCounter(data));
+                sample.setCounterRange(data.length < 2 ? 1 << 8 : 1 << 16);
+                return true;
+            case TEMPERATURE:
+            case HUMIDITY:
+            case PRESSURE:
+                if (data.length < 2) {
+                    return false;
+                }
+                sample.setValue(characteristic, timestamp, (float) ((data[1] << 8) & 0xff00 | (data[0] & 0xff)) / 100);
+                return true;
+            case ACCELERATION:
+            case MAGNET:
+                if (data.length < 6) {
+                    return false;
+                }
+                sample.setValues(characteristic, timestamp,
+                        (float) (((int) data[1] << 8) | (data[0] & 0xff)) / 100,
+                        (float) (((int) data[3] << 8) | (data[2] & 0xff)) / 100,
+                        (float) (((int) data[5] << 8) | (data[4] & 0xff)) / 100);
+                return true;
+            case GYRO:
+                if (data.length < 6) {
+                    return false;
+                }
+                sample.setValues(characteristic, timestamp,
+                        (float) (((int) data[1] << 8) | (data[0] & 0xff)),
+                        (float) (((int) data[3] << 8) | (data[2] & 0xff)),
+                        (float) (((int) data[5] << 8) | (data[4] & 0xff)));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Formats one value of a decoded sample for display, matching the text produced by
+     * {@link #parseBluetoothData(Characteristic, byte[])}.
+     */
+    public static String formatForDisplay(final Sample sample, final int index) {
+        final Characteristic characteristic = sample.getCharacteristic();
+        switch (characteristic) {
+            case HEARTRATE:
+            case BATTERY:
+            case LIGHT:
+            case CALORIES:
+            case STEPS:
+                return String.format("%.0f %s", sample.getValue(index), characteristic.getUnit());
+            default:
+                return String.format("%.2f %s", sample.getValue(index), characteristic.getUnit());
+        }
+    }
+
     public static String formatForPublushing(final Characteristic characteristic, final byte[] data) {
         if (data == null || data.length == 0) {
             return "";
@@ -141,6 +229,40 @@ public class DataConverter {
         }
     }
 
+    /**
+     * Formats a decoded, possibly averaged, sample the way {@link #formatForPublushing(Characteristic, byte[])}
+     * formats the raw reading it was decoded from.
+     */
+    public static String formatSampleForPublishing(final Sample sample) {
+        switch (sample.getCharacteristic()) {
+            case HEARTRATE:
+            case LIGHT:
+            case BATTERY:
+            case CALORIES:
+                return format(INTEGER, Math.round(sample.getValue(0)));
+            case STEPS:
+                return format(FLOAT, sample.getValue(0) / 10);
+            case TEMPERATURE:
+            case HUMIDITY:
+                return format(FLOAT, sample.getValue(0) * 10);
+            case PRESSURE:
+                return format(INTEGER, Math.round(sample.getValue(0) * 100));
+            case ACCELERATION:
+            case MAGNET:
+            case GYRO:
+                return format(TRIPLE_VALUE, sample.getValue(0) * 10, sample.getValue(1) * 10, sample.getValue(2) * 10);
+            default:
+                return "Unknown";
+        }
+    }
+
+    /**
+     * The step counter is 16 bits wide; older firmware sent only the low byte.
+     */
+    private static int toCounter(final byte[] data) {
+        return data.length < 2 ? data[0] & 0xff : (data[1] << 8) & 0xff00 | (data[0] & 0xff);
+    }
+
     private static String format(final String type, final Object... values) {
         return String.format(Locale.ENGLISH, type, values);
     }
@@ -0,0 +1,149 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency distribution in microseconds, HDR style: every power of two is split into
+ * {@value #SUB_BUCKETS} linear sub-buckets, so any recorded value is reported within 12.5%
+ * from 1 us up to hours. Recording is a few atomic increments and never blocks,
+ * so it is safe on the GATT and UI threads.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 42;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(final long latencyMillis) {
+        recordMicros(latencyMillis * 1000);
+    }
+
+    public void recordNanos(final long latencyNanos) {
+        recordMicros(latencyNanos / 1000);
+    }
+
+    public void recordMicros(final long latencyMicros) {
+        final long latency = Math.max(0, latencyMicros);
+        buckets.incrementAndGet(indexOf(latency));
+        count.incrementAndGet();
+        total.addAndGet(latency);
+
+        long current;
+        while (latency > (current = max.get()) && !max.compareAndSet(current, latency)) {
+            // Another thread raised the maximum; compare against the new one.
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get() / 1000;
+    }
+
+    public long getMaxMicros() {
+        return max.get();
+    }
+
+    public float getMean() {
+        return getMeanMicros() / 1000;
+    }
+
+    public float getMeanMicros() {
+        final long samples = count.get();
+        return samples == 0 ? 0 : (float) total.get() / samples;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return upper bound in milliseconds of the bucket holding the given percentile.
+     */
+    public long getPercentile(final double percentile) {
+        return getPercentileMicros(percentile) / 1000;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return upper bound in microseconds of the bucket holding the given percentile, capped at the maximum seen.
+     */
+    public long getPercentileMicros(final double percentile) {
+        final long samples = count.get();
+        if (samples == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(samples * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(max.get(), upperBoundOf(i));
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears the histogram. Values recorded concurrently may be lost or half counted.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " mean=" + getMean() + "ms p50=" + getPercentile(50) +
+                "ms p99=" + getPercentile(99) + "ms max=" + getMax() + "ms";
+    }
+
+    private static int indexOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(value));
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.util;
+
+/**
+ * Streaming Largest-Triangle-Three-Buckets downsampling: keeps one point per time bucket,
+ * the one forming the largest triangle with the previously kept point and the average of the
+ * following bucket. That keeps peaks and dips a plain average would flatten.
+ * <p>
+ * Since the following bucket has to be complete, points come out one to two buckets late. Input that
+ * isn't faster than one point per bucket has nothing to reduce, so it is passed through as it comes.
+ */
+public class LttbDownsampler {
+
+    public interface Output {
+
+        void onPoint(long timestamp, float value);
+    }
+
+    private final long bucketMillis;
+    private final Output output;
+    private long lastTimestamp;
+    private long meanInterval;
+    private TimeSeriesRing pending;
+    private TimeSeriesRing filling;
+    private long fillingStart;
+    private boolean hasPrevious;
+    private long previousTimestamp;
+    private float previousValue;
+
+    /**
+     * @param maxPointsPerBucket points above this many in one bucket overwrite the oldest ones.
+     */
+    public LttbDownsampler(final long bucketMillis, final int maxPointsPerBucket, final Output output) {
+        this.bucketMillis = bucketMillis;
+        this.output = output;
+        this.pending = new TimeSeriesRing(maxPointsPerBucket);
+        this.filling = new TimeSeriesRing(maxPointsPerBucket);
+    }
+
+    public void add(final long timestamp, final float value) {
+        if (!hasPrevious) {
+            // The first point is always kept.
+            emit(timestamp, value);
+            lastTimestamp = timestamp;
+            meanInterval = bucketMillis;
+            return;
+        }
+
+        // Smoothed over a few points, so jitter around one point per bucket doesn't switch modes.
+        meanInterval += (timestamp - lastTimestamp - meanInterval) / 8;
+        lastTimestamp = timestamp;
+        if (meanInterval * 4 >= bucketMillis * 3) {
+            flushBuckets(timestamp, value);
+            emit(timestamp, value);
+            return;
+        }
+
+        if (!filling.isEmpty() && timestamp - fillingStart >= bucketMillis) {
+            if (!pending.isEmpty()) {
+                selectFromPending(filling.getMeanTimestamp(), filling.getMeanValue());
+            }
+            final TimeSeriesRing completed = filling;
+            filling = pending;
+            pending = completed;
+            filling.clear();
+        }
+
+        if (filling.isEmpty()) {
+            fillingStart = timestamp;
+        }
+        filling.add(timestamp, value);
+    }
+
+    public void reset() {
+        pending.clear();
+        filling.clear();
+        hasPrevious = false;
+    }
+
+    /**
+     * Emits one point of each bucket still held, before switching to passing points through.
+     */
+    private void flushBuckets(final long nextTimestamp, final float nextValue) {
+        if (!pending.isEmpty()) {
+            if (filling.isEmpty()) {
+                selectFromPending(nextTimestamp, nextValue);
+            } else {
+                selectFromPending(filling.getMeanTimestamp(), filling.getMeanValue());
+            }
+            pending.clear();
+        }
+        if (!filling.isEmpty()) {
+            final TimeSeriesRing completed = filling;
+            filling = pending;
+            pending = completed;
+            selectFromPending(nextTimestamp, nextValue);
+            pending.clear();
+        }
+    }
+
+    private void selectFromPending(final long nextTimestamp, final float nextValue) {
+        int selected = 0;
+        double largestArea = -1;
+        for (int i = 0; i < pending.size(); i++) {
+            // Twice the triangle area; the factor doesn't change which point wins.
+            final double area = Math.abs(
+                    (double) (previousTimestamp - nextTimestamp) * (pending.getValue(i) - previousValue)
+                            - (double) (previousTimestamp - pending.getTimestamp(i)) * (nextValue - previousValue));
+            if (area > largestArea) {
+                largestArea = area;
+                selected = i;
+            }
+        }
+        emit(pending.getTimestamp(selected), pending.getValue(selected));
+    }
+
+    private void emit(final long timestamp, final float value) {
+        hasPrevious = true;
+        previousTimestamp = timestamp;
+        previousValue = value;
+        output.onPoint(timestamp, value);
+    }
+}
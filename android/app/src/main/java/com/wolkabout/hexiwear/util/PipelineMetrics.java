@@ -0,0 +1,109 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.util;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+
+import java.util.Locale;
+
+/**
+ * Latency of every stage a reading passes through, per characteristic, from the GATT request
+ * to the view showing it. All stages but {@link Stage#READ} are measured from the moment the
+ * GATT callback arrived, so each one includes the stages before it.
+ */
+public class PipelineMetrics {
+
+    public enum Stage {
+        /**
+         * GATT read issued until its response arrived. Streamed readings skip this stage.
+         */
+        READ,
+        /**
+         * Until {@link DataConverter#decode} produced the sample.
+         */
+        DECODE,
+        /**
+         * Until the sample, possibly aggregated, reached a consumer.
+         */
+        DISPATCH,
+        /**
+         * Until the view showed the value.
+         */
+        RENDER
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final int SIZE = Characteristic.values().length;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length * SIZE];
+
+    public PipelineMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(final Stage stage, final Characteristic characteristic, final long latencyNanos) {
+        get(stage, characteristic).recordNanos(latencyNanos);
+    }
+
+    /**
+     * Records the time since {@code sinceNanos}, a {@link System#nanoTime()} reading.
+     */
+    public void recordSince(final Stage stage, final Characteristic characteristic, final long sinceNanos) {
+        if (sinceNanos != 0) {
+            record(stage, characteristic, System.nanoTime() - sinceNanos);
+        }
+    }
+
+    public LatencyHistogram get(final Stage stage, final Characteristic characteristic) {
+        return histograms[stage.ordinal() * SIZE + characteristic.ordinal()];
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @return table of the stages recorded so far, latencies in milliseconds.
+     */
+    public String snapshot() {
+        final StringBuilder builder = new StringBuilder(String.format(Locale.ENGLISH,
+                "%-13s %-8s %7s %8s %8s %8s %8s%n", "reading", "stage", "count", "p50", "p90", "p99", "max"));
+        for (Characteristic characteristic : Characteristic.getReadings()) {
+            for (Stage stage : STAGES) {
+                final LatencyHistogram histogram = get(stage, characteristic);
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                builder.append(String.format(Locale.ENGLISH, "%-13s %-8s %7d %8.2f %8.2f %8.2f %8.2f%n",
+                        characteristic, stage, histogram.getCount(),
+                        histogram.getPercentileMicros(50) / 1000f,
+                        histogram.getPercentileMicros(90) / 1000f,
+                        histogram.getPercentileMicros(99) / 1000f,
+                        histogram.getMaxMicros() / 1000f));
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.util;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+
+/**
+ * Measures samples per second for every characteristic over fixed windows.
+ */
+public class SampleRateMeter {
+
+    private static final int SIZE = Characteristic.values().length;
+
+    private final long windowMillis;
+    private final int[] counts = new int[SIZE];
+    private final long[] windowStarts = new long[SIZE];
+    private final long[] totals = new long[SIZE];
+    private final float[] rates = new float[SIZE];
+
+    public SampleRateMeter(final long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Counts one sample.
+     *
+     * @return true if this sample closed a measuring window and the rate was updated.
+     */
+    public synchronized boolean mark(final Characteristic characteristic, final long timeMillis) {
+        final int index = characteristic.ordinal();
+        totals[index]++;
+
+        if (counts[index]++ == 0 && windowStarts[index] == 0) {
+            windowStarts[index] = timeMillis;
+            return false;
+        }
+
+        final long elapsed = timeMillis - windowStarts[index];
+        if (elapsed < windowMillis) {
+            return false;
+        }
+
+        rates[index] = (counts[index] - 1) * 1000f / elapsed;
+        counts[index] = 1;
+        windowStarts[index] = timeMillis;
+        return true;
+    }
+
+    public synchronized float getSamplesPerSecond(final Characteristic characteristic) {
+        return rates[characteristic.ordinal()];
+    }
+
+    public synchronized long getTotalSamples(final Characteristic characteristic) {
+        return totals[characteristic.ordinal()];
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < SIZE; i++) {
+            counts[i] = 0;
+            windowStarts[i] = 0;
+            totals[i] = 0;
+            rates[i] = 0;
+        }
+    }
+}
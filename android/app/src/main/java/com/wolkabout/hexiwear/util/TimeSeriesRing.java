@@ -0,0 +1,101 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.util;
+
+/**
+ * Fixed-capacity ring of (timestamp, value) points in primitive arrays.
+ * When full, adding a point overwrites the oldest one.
+ */
+public class TimeSeriesRing {
+
+    private final long[] timestamps;
+    private final float[] values;
+    private int start;
+    private int size;
+
+    public TimeSeriesRing(final int capacity) {
+        timestamps = new long[capacity];
+        values = new float[capacity];
+    }
+
+    public void add(final long timestamp, final float value) {
+        final int capacity = timestamps.length;
+        final int index = (start + size) % capacity;
+        timestamps[index] = timestamp;
+        values[index] = value;
+        if (size < capacity) {
+            size++;
+        } else {
+            start = (start + 1) % capacity;
+        }
+    }
+
+    /**
+     * @param index 0 for the oldest point.
+     */
+    public long getTimestamp(final int index) {
+        return timestamps[(start + index) % timestamps.length];
+    }
+
+    /**
+     * @param index 0 for the oldest point.
+     */
+    public float getValue(final int index) {
+        return values[(start + index) % values.length];
+    }
+
+    public float getMeanValue() {
+        float sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += getValue(i);
+        }
+        return size == 0 ? 0 : sum / size;
+    }
+
+    public long getMeanTimestamp() {
+        if (size == 0) {
+            return 0;
+        }
+        final long first = getTimestamp(0);
+        long offsets = 0;
+        for (int i = 0; i < size; i++) {
+            offsets += getTimestamp(i) - first;
+        }
+        return first + offsets / size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        start = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.util;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Bulk counterpart of {@link DataConverter#decode} for the triple axis readings, for replays,
+ * imports and analytics that go through stored payloads by the million. Decodes payloads packed back
+ * to back, six bytes of little endian int16 x, y and z each, into one array per axis.
+ * <p>
+ * Values are scaled exactly like {@link DataConverter#decode} and
+ * {@link DataConverter#parseBluetoothData} do, or like {@link DataConverter#formatForPublushing}
+ * before rounding. The payload is copied in chunks into a scratch array first, which lets the
+ * scaling loop run over plain arrays; a decoder is therefore not thread safe.
+ */
+public class TripleDecoder {
+
+    public static final int TRIPLE_SIZE = 6;
+
+    private static final int CHUNK = 1024;
+
+    private final short[] chunk = new short[CHUNK * 3];
+
+    /**
+     * Units the decoded values are in.
+     */
+    public enum Scale {
+        /**
+         * As shown to the user: g, µT and °/s.
+         */
+        DISPLAY,
+        /**
+         * As published to the cloud.
+         */
+        PUBLISHING
+    }
+
+    /**
+     * Decodes up to {@code count} triples from the buffer's position and moves it past them.
+     *
+     * @return triples decoded, fewer than {@code count} if the buffer runs out.
+     * @throws IllegalArgumentException if the characteristic isn't ACCELERATION, MAGNET or GYRO.
+     */
+    public int decode(final Characteristic characteristic, final Scale scale, final ByteBuffer source,
+                      final float[] x, final float[] y, final float[] z, final int offset, final int count) {
+        final float multiplier;
+        final float divisor;
+        switch (characteristic) {
+            case ACCELERATION:
+            case MAGNET:
+                multiplier = 1;
+                divisor = scale == Scale.DISPLAY ? 100 : 10;
+                break;
+            case GYRO:
+                multiplier = scale == Scale.DISPLAY ? 1 : 10;
+                divisor = 1;
+                break;
+            default:
+                throw new IllegalArgumentException(characteristic + " is not a triple axis reading");
+        }
+
+        final int total = Math.min(count, source.remaining() / TRIPLE_SIZE);
+        final ShortBuffer shorts = source.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        for (int done = 0; done < total; ) {
+            final int length = Math.min(CHUNK, total - done);
+            shorts.get(chunk, 0, length * 3);
+            final int start = offset + done;
+            for (int i = 0, j = 0; i < length; i++, j += 3) {
+                x[start + i] = chunk[j] * multiplier / divisor;
+                y[start + i] = chunk[j + 1] * multiplier / divisor;
+                z[start + i] = chunk[j + 2] * multiplier / divisor;
+            }
+            done += length;
+        }
+        source.position(source.position() + total * TRIPLE_SIZE);
+        return total;
+    }
+
+    /**
+     * Splits up to {@code count} triples from the buffer's position into raw, unscaled axis values and
+     * moves the buffer past them.
+     *
+     * @return triples decoded, fewer than {@code count} if the buffer runs out.
+     */
+    public int decode(final ByteBuffer source, final short[] x, final short[] y, final short[] z,
+                      final int offset, final int count) {
+        final int total = Math.min(count, source.remaining() / TRIPLE_SIZE);
+        final ShortBuffer shorts = source.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        for (int done = 0; done < total; ) {
+            final int length = Math.min(CHUNK, total - done);
+            shorts.get(chunk, 0, length * 3);
+            final int start = offset + done;
+            for (int i = 0, j = 0; i < length; i++, j += 3) {
+                x[start + i] = chunk[j];
+                y[start + i] = chunk[j + 1];
+                z[start + i] = chunk[j + 2];
+            }
+            done += length;
+        }
+        source.position(source.position() + total * TRIPLE_SIZE);
+        return total;
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.view;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+
+/**
+ * Keeps only the latest sample per characteristic and hands it to the renderer once per
+ * display frame. Samples whose values didn't change since the last render are skipped.
+ * Samples may be submitted from any thread; rendering happens on the main thread.
+ */
+public class RenderCoalescer implements Choreographer.FrameCallback {
+
+    private static final int SIZE = Characteristic.values().length;
+
+    private final Renderer renderer;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Sample[] latestSamples = new Sample[SIZE];
+    private final Sample[] renderedSamples = new Sample[SIZE];
+    private final Sample frameSample = new Sample();
+    private final Runnable scheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(RenderCoalescer.this);
+        }
+    };
+
+    private long pending;
+    private long alwaysRendered;
+    private boolean frameScheduled;
+
+    private long submittedCount;
+    private long coalescedCount;
+    private long unchangedCount;
+    private long renderedCount;
+    private long frameCount;
+    private long totalFrameNanos;
+    private long maxFrameNanos;
+
+    public interface Renderer {
+        void render(Sample sample);
+    }
+
+    public RenderCoalescer(final Renderer renderer) {
+        this.renderer = renderer;
+        for (int i = 0; i < SIZE; i++) {
+            latestSamples[i] = new Sample();
+            renderedSamples[i] = new Sample();
+        }
+    }
+
+    /**
+     * Characteristics in the mask are rendered every frame they have a new sample,
+     * even if the value is the same, e.g. to keep a chart moving.
+     */
+    public synchronized void setAlwaysRendered(final long mask) {
+        alwaysRendered = mask;
+    }
+
+    public void submit(final Sample sample) {
+        synchronized (this) {
+            final int index = sample.getCharacteristic().ordinal();
+            final long bit = 1L << index;
+            submittedCount++;
+            if ((pending & bit) != 0) {
+                coalescedCount++;
+            }
+
+            latestSamples[index].copyFrom(sample);
+            pending |= bit;
+            if (frameScheduled) {
+                return;
+            }
+            frameScheduled = true;
+        }
+        handler.post(scheduleFrame);
+    }
+
+    @Override
+    public void doFrame(final long frameTimeNanos) {
+        final long start = System.nanoTime();
+
+        long frame;
+        synchronized (this) {
+            frame = pending;
+        }
+
+        for (; frame != 0; frame &= frame - 1) {
+            final int index = Long.numberOfTrailingZeros(frame);
+            final boolean always;
+            synchronized (this) {
+                pending &= ~(1L << index);
+                frameSample.copyFrom(latestSamples[index]);
+                always = (alwaysRendered & (1L << index)) != 0;
+            }
+
+            if (!always && frameSample.hasSameValues(renderedSamples[index])) {
+                unchangedCount++;
+                continue;
+            }
+
+            renderer.render(frameSample);
+            renderedSamples[index].copyFrom(frameSample);
+            renderedCount++;
+        }
+
+        final long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            frameCount++;
+            totalFrameNanos += elapsed;
+            maxFrameNanos = Math.max(maxFrameNanos, elapsed);
+
+            if (pending == 0) {
+                frameScheduled = false;
+                return;
+            }
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Drops pending samples and stops frame callbacks. Must be called on the main thread.
+     */
+    public synchronized void cancel() {
+        handler.removeCallbacks(scheduleFrame);
+        Choreographer.getInstance().removeFrameCallback(this);
+        pending = 0;
+        frameScheduled = false;
+    }
+
+    public synchronized long getSubmittedCount() {
+        return submittedCount;
+    }
+
+    /**
+     * @return samples overwritten by a newer one before a frame rendered them.
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return samples skipped because their values were already on screen.
+     */
+    public synchronized long getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    public synchronized long getRenderedCount() {
+        return renderedCount;
+    }
+
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    public synchronized long getAverageFrameNanos() {
+        return frameCount == 0 ? 0 : totalFrameNanos / frameCount;
+    }
+
+    public synchronized long getMaxFrameNanos() {
+        return maxFrameNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RenderCoalescer{" +
+                "submitted=" + submittedCount +
+                ", coalesced=" + coalescedCount +
+                ", unchanged=" + unchangedCount +
+                ", rendered=" + renderedCount +
+                ", frames=" + frameCount +
+                ", avgFrameNanos=" + getAverageFrameNanos() +
+                ", maxFrameNanos=" + maxFrameNanos +
+                '}';
+    }
+}
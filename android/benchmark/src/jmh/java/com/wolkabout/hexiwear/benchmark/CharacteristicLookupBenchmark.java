@@ -0,0 +1,69 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.benchmark;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.UUID;
+
+/**
+ * Cost of resolving a GATT UUID to a {@link Characteristic}: the indexed lookup against
+ * the previous toString() and linear scan over values().
+ */
+@State(Scope.Thread)
+public class CharacteristicLookupBenchmark {
+
+    @Param({"00002001-0000-1000-8000-00805f9b34fb", // ACCELERATION, first short UUID
+            "00002a29-0000-1000-8000-00805f9b34fb", // MANUFACTURER, last short UUID
+            "01ff5553-ba5e-f4ee-5ca1-eb1e5e4b1ce0", // STATE, 128-bit OTAP UUID
+            "00002a00-0000-1000-8000-00805f9b34fb"}) // device name, unknown
+    public String uuidString;
+
+    private UUID uuid;
+
+    @Setup
+    public void setUp() {
+        // A fresh instance, as delivered by BluetoothGattCharacteristic.getUuid().
+        uuid = UUID.fromString(uuidString);
+    }
+
+    @Benchmark
+    public Characteristic byUuid() {
+        return Characteristic.byUuid(uuid);
+    }
+
+    @Benchmark
+    public Characteristic linearScan() {
+        final String uuidString = uuid.toString();
+        for (final Characteristic characteristic : Characteristic.values()) {
+            if (characteristic.getUuid().equals(uuidString)) {
+                return characteristic;
+            }
+        }
+        return null;
+    }
+}
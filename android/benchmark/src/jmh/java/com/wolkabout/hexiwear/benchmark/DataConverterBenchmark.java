@@ -0,0 +1,78 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.benchmark;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.util.DataConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decode and format cost of every {@link DataConverter} branch.
+ * Run with {@code ./gradlew :benchmark:jmh}; throughput, average time and the
+ * gc profiler's allocation rate are reported for each characteristic.
+ */
+@State(Scope.Thread)
+public class DataConverterBenchmark {
+
+    @Param({"ACCELERATION", "GYRO", "MAGNET", "LIGHT", "TEMPERATURE", "HUMIDITY", "PRESSURE",
+            "BATTERY", "HEARTRATE", "STEPS", "CALORIES", "MODE"})
+    public String characteristicName;
+
+    private Characteristic characteristic;
+    private byte[] payload;
+    private final Sample sample = new Sample();
+
+    @Setup
+    public void setUp() {
+        characteristic = Characteristic.valueOf(characteristicName);
+        payload = Payloads.of(characteristic);
+    }
+
+    @Benchmark
+    public String parseBluetoothData() {
+        return DataConverter.parseBluetoothData(characteristic, payload);
+    }
+
+    @Benchmark
+    public String formatForPublishing() {
+        return DataConverter.formatForPublushing(characteristic, payload);
+    }
+
+    @Benchmark
+    public Sample decode() {
+        DataConverter.decode(characteristic, payload, 0, sample);
+        return sample;
+    }
+
+    @Benchmark
+    public String decodeAndFormatForDisplay() {
+        if (!DataConverter.decode(characteristic, payload, 0, sample)) {
+            return "Unknown";
+        }
+        return DataConverter.formatForDisplay(sample, sample.getSize() - 1);
+    }
+}
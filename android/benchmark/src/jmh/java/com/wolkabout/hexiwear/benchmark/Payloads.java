@@ -0,0 +1,57 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.benchmark;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+
+/**
+ * Representative raw payloads. DataConverterTest checks that the typed decoder gives the same
+ * output as the String based parser it is benchmarked against.
+ */
+final class Payloads {
+
+    private Payloads() {
+        // Not meant to be instantiated.
+    }
+
+    static byte[] of(final Characteristic characteristic) {
+        switch (characteristic) {
+            case ACCELERATION:
+                return new byte[]{(byte) 0x9c, (byte) 0xff, 0x32, 0x00, 0x62, 0x00};
+            case MAGNET:
+                return new byte[]{0x10, 0x27, (byte) 0xf0, (byte) 0xd8, 0x05, 0x00};
+            case GYRO:
+                return new byte[]{(byte) 0xfe, (byte) 0xff, 0x03, 0x00, (byte) 0x80, 0x00};
+            case TEMPERATURE:
+                return new byte[]{(byte) 0x8e, 0x09};
+            case HUMIDITY:
+                return new byte[]{0x74, 0x0e};
+            case PRESSURE:
+                return new byte[]{(byte) 0xa4, 0x27};
+            case HEARTRATE:
+                return new byte[]{72};
+            case STEPS:
+                return new byte[]{(byte) 0xc8, 0x01};
+            default:
+                return new byte[]{42};
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.benchmark;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.util.DataConverter;
+import com.wolkabout.hexiwear.util.TripleDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Decoding a block of stored triple axis payloads with {@link TripleDecoder} against a loop that
+ * decodes one payload at a time with {@link DataConverter#decode}. Scores are per triple.
+ */
+@State(Scope.Thread)
+@OperationsPerInvocation(TripleDecoderBenchmark.TRIPLES)
+public class TripleDecoderBenchmark {
+
+    static final int TRIPLES = 4096;
+
+    @Param({"ACCELERATION", "GYRO"})
+    public String characteristicName;
+
+    private final TripleDecoder decoder = new TripleDecoder();
+    private final float[] x = new float[TRIPLES];
+    private final float[] y = new float[TRIPLES];
+    private final float[] z = new float[TRIPLES];
+    private final short[] rawX = new short[TRIPLES];
+    private final short[] rawY = new short[TRIPLES];
+    private final short[] rawZ = new short[TRIPLES];
+    private final byte[] payload = new byte[TripleDecoder.TRIPLE_SIZE];
+    private final Sample sample = new Sample();
+    private Characteristic characteristic;
+    private ByteBuffer payloads;
+
+    @Setup
+    public void setUp() {
+        characteristic = Characteristic.valueOf(characteristicName);
+        payloads = ByteBuffer.allocate(TRIPLES * TripleDecoder.TRIPLE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        final Random random = new Random(1);
+        while (payloads.hasRemaining()) {
+            payloads.putShort((short) (random.nextGaussian() * 2000));
+        }
+        verifyBulkMatchesPerPacket();
+    }
+
+    @Benchmark
+    public float[] perPacket() {
+        payloads.position(0);
+        for (int i = 0; i < TRIPLES; i++) {
+            payloads.get(payload);
+            DataConverter.decode(characteristic, payload, 0, sample);
+            x[i] = sample.getValue(0);
+            y[i] = sample.getValue(1);
+            z[i] = sample.getValue(2);
+        }
+        return x;
+    }
+
+    @Benchmark
+    public float[] bulk() {
+        payloads.position(0);
+        decoder.decode(characteristic, TripleDecoder.Scale.DISPLAY, payloads, x, y, z, 0, TRIPLES);
+        return x;
+    }
+
+    @Benchmark
+    public float[] bulkForPublishing() {
+        payloads.position(0);
+        decoder.decode(characteristic, TripleDecoder.Scale.PUBLISHING, payloads, x, y, z, 0, TRIPLES);
+        return x;
+    }
+
+    @Benchmark
+    public short[] bulkRaw() {
+        payloads.position(0);
+        decoder.decode(payloads, rawX, rawY, rawZ, 0, TRIPLES);
+        return rawX;
+    }
+
+    private void verifyBulkMatchesPerPacket() {
+        bulk();
+        final float[] bulkX = x.clone();
+        final float[] bulkY = y.clone();
+        final float[] bulkZ = z.clone();
+        perPacket();
+        for (int i = 0; i < TRIPLES; i++) {
+            if (Float.floatToIntBits(bulkX[i]) != Float.floatToIntBits(x[i])
+                    || Float.floatToIntBits(bulkY[i]) != Float.floatToIntBits(y[i])
+                    || Float.floatToIntBits(bulkZ[i]) != Float.floatToIntBits(z[i])) {
+                throw new IllegalStateException(characteristic + " triple " + i + ": bulk decoded "
+                        + bulkX[i] + ", " + bulkY[i] + ", " + bulkZ[i] + ", decode() " + x[i] + ", " + y[i] + ", " + z[i]);
+            }
+        }
+
+        bulkForPublishing();
+        for (int i = 0; i < TRIPLES; i++) {
+            System.arraycopy(payloads.array(), i * TripleDecoder.TRIPLE_SIZE, payload, 0, TripleDecoder.TRIPLE_SIZE);
+            final String expected = DataConverter.formatForPublushing(characteristic, payload);
+            final String actual = String.format(Locale.ENGLISH, "%+.0f%+.0f%+.0f", x[i], y[i], z[i]);
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException(characteristic + " triple " + i + ": bulk published \""
+                        + actual + "\", formatForPublushing \"" + expected + "\"");
+            }
+        }
+    }
+}
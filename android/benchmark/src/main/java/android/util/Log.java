@@ -0,0 +1,59 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.util;
+
+/**
+ * Stand-in for the Android logger so app classes run headless on the JVM.
+ * Warnings and errors go to standard error, the rest is dropped.
+ */
+public final class Log {
+
+    private Log() {
+        // Not meant to be instantiated.
+    }
+
+    public static int v(final String tag, final String message) {
+        return 0;
+    }
+
+    public static int d(final String tag, final String message) {
+        return 0;
+    }
+
+    public static int i(final String tag, final String message) {
+        return 0;
+    }
+
+    public static int w(final String tag, final String message) {
+        System.err.println("W/" + tag + ": " + message);
+        return 0;
+    }
+
+    public static int e(final String tag, final String message) {
+        System.err.println("E/" + tag + ": " + message);
+        return 0;
+    }
+
+    public static int e(final String tag, final String message, final Throwable throwable) {
+        System.err.println("E/" + tag + ": " + message + ": " + throwable);
+        return 0;
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear;
+
+/**
+ * Stand-in for the generated resource ids the headless model classes refer to.
+ */
+public final class R {
+
+    private R() {
+        // Not meant to be instantiated.
+    }
+
+    public static final class drawable {
+
+        public static final int ic_signal_strength_1 = 1;
+        public static final int ic_signal_strength_2 = 2;
+        public static final int ic_signal_strength_3 = 3;
+        public static final int ic_signal_strength_4 = 4;
+        public static final int ic_signal_strength_5 = 5;
+
+        private drawable() {
+            // Not meant to be instantiated.
+        }
+    }
+
+    public static final class string {
+
+        public static final int mode_idle = 1;
+        public static final int mode_watch = 2;
+        public static final int mode_sensor_tag = 3;
+        public static final int mode_weather_station = 4;
+        public static final int mode_motion_control = 5;
+        public static final int mode_heartrate = 6;
+        public static final int mode_pedometer = 7;
+        public static final int mode_compass = 8;
+
+        private string() {
+            // Not meant to be instantiated.
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.simulator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Counts bytes allocated by the current thread between {@link #start()} and {@link #stop()},
+ * minus the meter's own overhead.
+ */
+public class AllocationMeter {
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final long overhead;
+    private long startedAt;
+    private long allocated;
+
+    public AllocationMeter() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        threads = bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) bean : null;
+        overhead = calibrate();
+    }
+
+    public boolean isSupported() {
+        return threads != null;
+    }
+
+    public void start() {
+        startedAt = read();
+    }
+
+    public void stop() {
+        allocated += Math.max(0, read() - startedAt - overhead);
+    }
+
+    public long getAllocatedBytes() {
+        return allocated;
+    }
+
+    public void reset() {
+        allocated = 0;
+    }
+
+    private long read() {
+        return threads == null ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private long calibrate() {
+        long smallest = Long.MAX_VALUE;
+        for (int i = 0; i < 10000; i++) {
+            final long first = read();
+            final long second = read();
+            smallest = Math.min(smallest, second - first);
+        }
+        return smallest;
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.simulator;
+
+import com.wolkabout.hexiwear.model.Mode;
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.service.DeviceSession;
+import com.wolkabout.hexiwear.service.SampleAggregator;
+import com.wolkabout.hexiwear.service.SampleBatcher;
+import com.wolkabout.hexiwear.service.SampleListener;
+import com.wolkabout.hexiwear.store.SampleStore;
+import com.wolkabout.hexiwear.stream.SampleStreams;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs the background collection pipeline headless, sessions through {@link SampleStreams} and a
+ * {@link SampleBatcher} into a real {@link SampleStore}, and reports wakeups per hour and CPU time
+ * per sample as a proxy for energy.
+ * <p>
+ * Arguments are {@code key=value} pairs; see {@link #main(String[])} for the keys and defaults.
+ * {@code flush=0} stores every sample as it comes, as the service does while the UI is open.
+ */
+public class CollectionTest {
+
+    private static final long STORE_WINDOW = 100;
+    private static final int BUFFER = 8192;
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private final SimulationLoop loop = new SimulationLoop();
+    private final WakeMeter meter = new WakeMeter(loop);
+    private final DelayedExecutor executor = meter.meter(loop);
+    private final List<DeviceSession> sessions = new ArrayList<>();
+    private long samples;
+    private long stored;
+    private long storeWakes;
+    private long lastStoredAt = -1;
+
+    public static void main(final String[] args) throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        final int devices = Integer.parseInt(option(options, "devices", "2"));
+        final long duration = Long.parseLong(option(options, "duration", "3600")) * 1000;
+        final long warmup = Long.parseLong(option(options, "warmup", "60")) * 1000;
+        final long flush = Long.parseLong(option(options, "flush", "20")) * 1000;
+        final boolean lowPower = Boolean.parseBoolean(option(options, "lowPower", "true"));
+        final Mode mode = Mode.valueOf(option(options, "mode", "SENSOR_TAG"));
+        final LinkConditions conditions = new LinkConditions(
+                Long.parseLong(option(options, "interval", "30")),
+                Long.parseLong(option(options, "latency", "2")),
+                Long.parseLong(option(options, "jitter", "0")),
+                Double.parseDouble(option(options, "loss", "0.01")));
+
+        System.out.println("devices=" + devices + " mode=" + mode + " flush=" + flush + " lowPower=" + lowPower
+                + " " + conditions);
+        final File directory = File.createTempFile("collection", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Can't create " + directory);
+        }
+        final SampleStore store = new SampleStore(directory, HOUR);
+        try {
+            new CollectionTest().run(store, devices, mode, conditions, flush, lowPower, duration, warmup);
+        } finally {
+            store.close();
+            delete(directory);
+        }
+    }
+
+    private static String option(final Map<String, String> options, final String key, final String defaultValue) {
+        final String value = options.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    public void run(final SampleStore store, final int deviceCount, final Mode mode, final LinkConditions conditions,
+                    final long flushMillis, final boolean lowPower, final long durationMillis, final long warmupMillis) {
+        final SampleStreams streams = new SampleStreams(new SampleStreams.DemandListener() {
+            @Override
+            public void onDemandChanged(final long mask) {
+                for (DeviceSession session : sessions) {
+                    session.setDemand(mask);
+                }
+            }
+        }, executor);
+        final SampleBatcher batcher = new SampleBatcher(new SampleListener() {
+            @Override
+            public void onSample(final Sample sample) {
+                try {
+                    store.append(sample);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                stored++;
+                if (loop.millis() != lastStoredAt) {
+                    lastStoredAt = loop.millis();
+                    storeWakes++;
+                }
+            }
+        }, executor, BUFFER);
+        batcher.setPeriod(flushMillis);
+        streams.of(-1L).window(STORE_WINDOW, SampleAggregator.Statistic.MEAN).subscribe(batcher);
+
+        final DeviceSession.Listener listener = new Recorder(streams);
+        for (int i = 0; i < deviceCount; i++) {
+            final String address = String.format(Locale.ENGLISH, "00:00:00:00:%02X:%02X", i >> 8, i & 0xff);
+            final SimulatedHexiwear device = new SimulatedHexiwear(address, loop, conditions, i, meter);
+            device.setMode(mode);
+            final DeviceSession session = new DeviceSession(device, listener, executor, loop);
+            session.setDemand(streams.getDemand());
+            session.setLowPower(lowPower);
+            sessions.add(session);
+            session.start();
+        }
+
+        loop.runUntil(warmupMillis);
+        batcher.flush();
+        samples = 0;
+        stored = 0;
+        storeWakes = 0;
+        meter.reset();
+
+        final long events = loop.runUntil(warmupMillis + durationMillis);
+        batcher.flush();
+
+        final float hours = durationMillis / (float) HOUR;
+        System.out.println(String.format(Locale.ENGLISH, "simulated %.2f h, %d events", hours, events));
+        System.out.println(String.format(Locale.ENGLISH, "samples: %d decoded, %d stored, %s",
+                samples, stored, batcher));
+        System.out.println(String.format(Locale.ENGLISH, "wakeups/h: %.0f app, %.0f store writes",
+                meter.getWakeups() / hours, storeWakes / hours));
+        System.out.println(String.format(Locale.ENGLISH, "cpu: %.1f us/sample, %.0f ms/h",
+                samples == 0 ? 0f : meter.getCpuNanos() / 1000f / samples, meter.getCpuNanos() / 1e6 / hours));
+        System.out.println(String.format(Locale.ENGLISH, "first session: connectionPriority=%d %s",
+                sessions.get(0).getConnectionPriority(), sessions.get(0).getGattQueue()));
+        for (DeviceSession session : sessions) {
+            session.close();
+        }
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private class Recorder implements DeviceSession.Listener {
+
+        private final SampleStreams streams;
+
+        Recorder(final SampleStreams streams) {
+            this.streams = streams;
+        }
+
+        @Override
+        public void onConnectionStateChanged(final DeviceSession session, final boolean connected) {
+        }
+
+        @Override
+        public void onServicesAvailable(final DeviceSession session) {
+        }
+
+        @Override
+        public void onAuthenticationRequired(final DeviceSession session) {
+        }
+
+        @Override
+        public void onTimeUpdateStarted(final DeviceSession session) {
+        }
+
+        @Override
+        public void onTimeUpdated(final DeviceSession session) {
+        }
+
+        @Override
+        public void onModeChanged(final DeviceSession session, final Mode mode) {
+        }
+
+        @Override
+        public void onSample(final DeviceSession session, final Sample sample) {
+            samples++;
+            streams.onSample(sample);
+        }
+    }
+}
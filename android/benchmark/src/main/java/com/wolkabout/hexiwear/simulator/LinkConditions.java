@@ -0,0 +1,71 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.simulator;
+
+/**
+ * Radio conditions of a simulated link.
+ */
+public class LinkConditions {
+
+    private final long connectionIntervalMillis;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double packetLoss;
+
+    /**
+     * @param connectionIntervalMillis packets only move at connection events this far apart.
+     * @param latencyMillis            fixed delay added to every packet, e.g. firmware processing.
+     * @param jitterMillis             up to this much random delay added on top.
+     * @param packetLoss               probability between 0 and 1 that a response or notification never arrives.
+     */
+    public LinkConditions(final long connectionIntervalMillis, final long latencyMillis,
+                          final long jitterMillis, final double packetLoss) {
+        if (connectionIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Connection interval must be positive.");
+        }
+        this.connectionIntervalMillis = connectionIntervalMillis;
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.packetLoss = packetLoss;
+    }
+
+    public long getConnectionIntervalMillis() {
+        return connectionIntervalMillis;
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public long getJitterMillis() {
+        return jitterMillis;
+    }
+
+    public double getPacketLoss() {
+        return packetLoss;
+    }
+
+    @Override
+    public String toString() {
+        return "interval=" + connectionIntervalMillis + "ms latency=" + latencyMillis +
+                "ms jitter=" + jitterMillis + "ms loss=" + packetLoss;
+    }
+}
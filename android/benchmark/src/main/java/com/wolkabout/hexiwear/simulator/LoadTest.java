@@ -0,0 +1,236 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.simulator;
+
+import com.wolkabout.hexiwear.model.Mode;
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.service.DeviceSession;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs {@link DeviceSession}s headless against simulated Hexiwears and reports throughput,
+ * end-to-end latency and allocation per sample.
+ * <p>
+ * Arguments are {@code key=value} pairs; see {@link #main(String[])} for the keys and defaults.
+ * End-to-end latency runs from the moment the simulated sensor produced a value to the moment the
+ * session delivered the decoded sample, in simulated time.
+ */
+public class LoadTest {
+
+    private static final Mode[] MODE_CYCLE = {Mode.SENSOR_TAG, Mode.HEARTRATE, Mode.PEDOMETER};
+    private static final int MAX_LATENCY = 60000;
+    private static final byte[] ALERT = {2, 1, 1};
+
+    private final SimulationLoop loop = new SimulationLoop();
+    private final AllocationMeter allocationMeter = new AllocationMeter();
+    private final List<SimulatedHexiwear> devices = new ArrayList<>();
+    private final List<DeviceSession> sessions = new ArrayList<>();
+    private final Map<String, SimulatedHexiwear> devicesByAddress = new HashMap<>();
+    private final int[] latencies = new int[MAX_LATENCY + 1];
+    private long samples;
+
+    public static void main(final String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        final int devices = Integer.parseInt(option(options, "devices", "4"));
+        final long duration = Long.parseLong(option(options, "duration", "600")) * 1000;
+        final long warmup = Long.parseLong(option(options, "warmup", "30")) * 1000;
+        final long modeSwitch = Long.parseLong(option(options, "modeSwitch", "120")) * 1000;
+        final long alertEvery = Long.parseLong(option(options, "alertEvery", "30")) * 1000;
+        final long dropEvery = Long.parseLong(option(options, "dropEvery", "0")) * 1000;
+        final boolean streaming = Boolean.parseBoolean(option(options, "streaming", "true"));
+        final LinkConditions conditions = new LinkConditions(
+                Long.parseLong(option(options, "interval", "30")),
+                Long.parseLong(option(options, "latency", "2")),
+                Long.parseLong(option(options, "jitter", "5")),
+                Double.parseDouble(option(options, "loss", "0.01")));
+
+        System.out.println("devices=" + devices + " streaming=" + streaming + " " + conditions);
+        new LoadTest().run(devices, conditions, streaming, duration, warmup, modeSwitch, alertEvery, dropEvery);
+    }
+
+    private static String option(final Map<String, String> options, final String key, final String defaultValue) {
+        final String value = options.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    public void run(final int deviceCount, final LinkConditions conditions, final boolean streaming,
+                    final long durationMillis, final long warmupMillis, final long modeSwitchMillis,
+                    final long alertEveryMillis, final long dropEveryMillis) {
+        for (int i = 0; i < deviceCount; i++) {
+            final String address = String.format(Locale.ENGLISH, "00:00:00:00:%02X:%02X", i >> 8, i & 0xff);
+            final SimulatedHexiwear device = new SimulatedHexiwear(address, loop, conditions, i, allocationMeter);
+            final DeviceSession session = new DeviceSession(device, new Recorder(), loop, loop);
+            session.setStreamingEnabled(streaming);
+            devices.add(device);
+            sessions.add(session);
+            devicesByAddress.put(address, device);
+            session.start();
+        }
+
+        loop.post(new Runnable() {
+            private int next = 1;
+
+            @Override
+            public void run() {
+                for (SimulatedHexiwear device : devices) {
+                    device.setMode(MODE_CYCLE[next % MODE_CYCLE.length]);
+                }
+                next++;
+                loop.post(this, modeSwitchMillis);
+            }
+        }, modeSwitchMillis);
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                for (DeviceSession session : sessions) {
+                    session.queueAlert(ALERT);
+                }
+                loop.post(this, alertEveryMillis);
+            }
+        }, alertEveryMillis);
+        if (dropEveryMillis > 0) {
+            loop.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (SimulatedHexiwear device : devices) {
+                        device.dropConnection();
+                    }
+                    loop.post(this, dropEveryMillis);
+                }
+            }, dropEveryMillis);
+        }
+
+        loop.runUntil(warmupMillis);
+        resetStats();
+
+        final long startedAt = System.nanoTime();
+        final long events = loop.runUntil(warmupMillis + durationMillis);
+        final long wallNanos = System.nanoTime() - startedAt;
+
+        report(durationMillis, wallNanos, events);
+        for (DeviceSession session : sessions) {
+            session.close();
+        }
+    }
+
+    private void resetStats() {
+        samples = 0;
+        allocationMeter.reset();
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = 0;
+        }
+    }
+
+    private void report(final long durationMillis, final long wallNanos, final long events) {
+        long sent = 0;
+        long lost = 0;
+        for (SimulatedHexiwear device : devices) {
+            sent += device.getSentPackets();
+            lost += device.getLostPackets();
+        }
+
+        final float seconds = durationMillis / 1000f;
+        System.out.println(String.format(Locale.ENGLISH,
+                "simulated %.0f s in %.2f s wall, %d events", seconds, wallNanos / 1e9, events));
+        System.out.println(String.format(Locale.ENGLISH,
+                "samples: %d, %.1f/s total, %.1f/s per device, %.0f/s wall",
+                samples, samples / seconds, samples / seconds / devices.size(), samples / (wallNanos / 1e9)));
+        System.out.println(String.format(Locale.ENGLISH,
+                "latency ms: p50=%d p90=%d p99=%d max=%d",
+                percentile(50), percentile(90), percentile(99), percentile(100)));
+        System.out.println(String.format(Locale.ENGLISH,
+                "packets: %d sent, %d lost", sent, lost));
+        if (allocationMeter.isSupported()) {
+            System.out.println(String.format(Locale.ENGLISH, "allocation: %.1f B/sample in client callbacks",
+                    samples == 0 ? 0f : (float) allocationMeter.getAllocatedBytes() / samples));
+        }
+        System.out.println(String.format(Locale.ENGLISH,
+                "first session: mtu=%d connectionPriority=%d throughput=%.1f B/s %s",
+                sessions.get(0).getMtu(), sessions.get(0).getConnectionPriority(),
+                sessions.get(0).getThroughput(), sessions.get(0).getGattQueue()));
+        for (DeviceSession session : sessions) {
+            System.out.println(String.format(Locale.ENGLISH,
+                    "%s first sample ms: %d full discovery %s, %d fast reconnect %s", session.getAddress(),
+                    session.getFullDiscoveries(), session.getFirstSampleLatency(false),
+                    session.getFastReconnects(), session.getFirstSampleLatency(true)));
+        }
+    }
+
+    private int percentile(final double percentile) {
+        final long rank = (long) Math.ceil(samples * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < latencies.length; i++) {
+            seen += latencies[i];
+            if (seen >= rank && seen > 0) {
+                return i;
+            }
+        }
+        return MAX_LATENCY;
+    }
+
+    private class Recorder implements DeviceSession.Listener {
+
+        @Override
+        public void onConnectionStateChanged(final DeviceSession session, final boolean connected) {
+        }
+
+        @Override
+        public void onServicesAvailable(final DeviceSession session) {
+        }
+
+        @Override
+        public void onAuthenticationRequired(final DeviceSession session) {
+        }
+
+        @Override
+        public void onTimeUpdateStarted(final DeviceSession session) {
+        }
+
+        @Override
+        public void onTimeUpdated(final DeviceSession session) {
+        }
+
+        @Override
+        public void onModeChanged(final DeviceSession session, final Mode mode) {
+        }
+
+        @Override
+        public void onSample(final DeviceSession session, final Sample sample) {
+            final SimulatedHexiwear device = devicesByAddress.get(session.getAddress());
+            final long latency = loop.millis() - device.getDeliveredPacketTime();
+            latencies[(int) Math.min(MAX_LATENCY, Math.max(0, latency))]++;
+            samples++;
+        }
+    }
+}
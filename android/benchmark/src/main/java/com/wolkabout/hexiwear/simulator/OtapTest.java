@@ -0,0 +1,139 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.simulator;
+
+import com.wolkabout.hexiwear.otap.FirmwareImage;
+import com.wolkabout.hexiwear.otap.OtapEngine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Sends a random firmware image with an {@link OtapEngine} to a {@link SimulatedOtapTarget} and
+ * reports the transfer rate. The target requests {@code block} chunks at a time. The image is written to a temporary file and mapped, as on the phone.
+ * <p>
+ * Arguments are {@code key=value} pairs; see {@link #main(String[])} for the keys and defaults.
+ */
+public class OtapTest {
+
+    private static final long TIMEOUT = 60 * 60 * 1000;
+
+    public static void main(final String[] args) throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        final int size = Integer.parseInt(option(options, "size", "512")) * 1024;
+        final int block = Integer.parseInt(option(options, "block", "16"));
+        final int mtu = Integer.parseInt(option(options, "mtu", "247"));
+        final long dropAt = Long.parseLong(option(options, "dropAt", "0")) * 1000;
+        final int corruptAt = Integer.parseInt(option(options, "corruptAt", "-1"));
+        final LinkConditions conditions = new LinkConditions(
+                Long.parseLong(option(options, "interval", "30")),
+                Long.parseLong(option(options, "latency", "2")),
+                0,
+                Double.parseDouble(option(options, "loss", "0")));
+
+        System.out.println("size=" + size + " block=" + block + " mtu=" + mtu + " " + conditions);
+        final File file = File.createTempFile("firmware", ".bin");
+        try {
+            final byte[] content = new byte[size];
+            new Random(size).nextBytes(content);
+            final FileOutputStream output = new FileOutputStream(file);
+            try {
+                output.write(SimulatedOtapTarget.createImage((short) 1, content));
+            } finally {
+                output.close();
+            }
+
+            final FirmwareImage image = new FirmwareImage(file);
+            try {
+                run(image, conditions, block, mtu, dropAt, corruptAt);
+            } finally {
+                image.close();
+            }
+        } finally {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private static String option(final Map<String, String> options, final String key, final String defaultValue) {
+        final String value = options.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    private static void run(final FirmwareImage image, final LinkConditions conditions, final int block,
+                            final int mtu, final long dropAtMillis, final int corruptAt) {
+        final SimulationLoop loop = new SimulationLoop();
+        final SimulatedOtapTarget target = new SimulatedOtapTarget("00:00:00:00:07:A9", loop, conditions, 1,
+                image.getSize(), mtu, block);
+        if (corruptAt >= 0) {
+            target.corruptAt(corruptAt);
+        }
+
+        final boolean[] finished = new boolean[1];
+        final OtapEngine engine = new OtapEngine(target, new OtapEngine.Listener() {
+            @Override
+            public void onProgress(final OtapEngine engine, final int offset) {
+                // Reported at the end.
+            }
+
+            @Override
+            public void onFinished(final OtapEngine engine, final boolean verified) {
+                finished[0] = true;
+            }
+        }, loop, loop, image);
+
+        if (dropAtMillis > 0) {
+            loop.post(new Runnable() {
+                @Override
+                public void run() {
+                    System.out.println("dropping connection at " + engine.getOffset());
+                    target.dropConnection();
+                }
+            }, dropAtMillis);
+        }
+
+        engine.start();
+        while (!finished[0] && loop.millis() < TIMEOUT && loop.getPendingEvents() > 0) {
+            loop.runUntil(loop.millis() + 1000);
+        }
+
+        System.out.println(String.format(Locale.ENGLISH, "%s after %.1f s simulated",
+                engine.getState(), loop.millis() / 1000f));
+        System.out.println(String.format(Locale.ENGLISH,
+                "throughput: %.1f KB/s, chunk %d B, retransmitted %d B, reconnects %d, packets %d sent %d lost",
+                engine.getThroughput(), engine.getChunkSize(), engine.getRetransmitted(), engine.getReconnects(),
+                target.getDataPackets(), target.getLostPackets()));
+    }
+}
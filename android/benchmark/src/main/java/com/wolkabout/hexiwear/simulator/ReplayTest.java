@@ -0,0 +1,313 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.simulator;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Mode;
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.service.CaptureReplay;
+import com.wolkabout.hexiwear.service.DeviceSession;
+import com.wolkabout.hexiwear.service.SampleAggregator;
+import com.wolkabout.hexiwear.service.SampleListener;
+import com.wolkabout.hexiwear.store.CaptureReader;
+import com.wolkabout.hexiwear.store.CaptureWriter;
+import com.wolkabout.hexiwear.stream.SampleStreams;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Captures the raw payloads of simulated sessions with a {@link CaptureWriter}, then replays the
+ * capture through the decoders and {@link SampleStreams} with {@link CaptureReplay}: as fast as
+ * possible for throughput, and at the recorded pace on a fresh simulation. Every replay must decode
+ * the same samples as the live sessions did, which makes a capture of a real device a regression test
+ * for {@code DataConverter}.
+ * <p>
+ * Arguments are {@code key=value} pairs; see {@link #main(String[])} for the keys and defaults.
+ * {@code file=} replays an existing capture instead of recording one.
+ */
+public class ReplayTest {
+
+    private static final long STREAM_WINDOW = 100;
+
+    private final AllocationMeter allocationMeter = new AllocationMeter();
+    private long windows;
+
+    public static void main(final String[] args) throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        final int devices = Integer.parseInt(option(options, "devices", "4"));
+        final long duration = Long.parseLong(option(options, "duration", "600")) * 1000;
+        final int repeat = Integer.parseInt(option(options, "repeat", "20"));
+        final Mode mode = Mode.valueOf(option(options, "mode", "SENSOR_TAG"));
+        final LinkConditions conditions = new LinkConditions(
+                Long.parseLong(option(options, "interval", "30")),
+                Long.parseLong(option(options, "latency", "2")),
+                Long.parseLong(option(options, "jitter", "0")),
+                Double.parseDouble(option(options, "loss", "0.01")));
+
+        final ReplayTest test = new ReplayTest();
+        final String path = options.get("file");
+        if (path != null) {
+            test.replay(new File(path), -1, repeat);
+            return;
+        }
+
+        System.out.println("devices=" + devices + " mode=" + mode + " " + conditions);
+        final File capture = File.createTempFile("replay", ".hxc");
+        try {
+            final long checksum = test.record(capture, devices, mode, conditions, duration);
+            test.replay(capture, checksum, repeat);
+        } finally {
+            if (!capture.delete()) {
+                capture.deleteOnExit();
+            }
+        }
+    }
+
+    private static String option(final Map<String, String> options, final String key, final String defaultValue) {
+        final String value = options.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Runs the sessions with every payload captured.
+     *
+     * @return checksum of the samples the sessions decoded.
+     */
+    public long record(final File file, final int deviceCount, final Mode mode, final LinkConditions conditions,
+                       final long durationMillis) throws IOException {
+        final SimulationLoop loop = new SimulationLoop();
+        final CaptureWriter writer = new CaptureWriter(file, System.currentTimeMillis(), 0);
+        final Checksum live = new Checksum();
+        final long[] appendNanos = new long[1];
+        final AllocationMeter appendMeter = new AllocationMeter();
+        final DeviceSession.PacketListener capture = new DeviceSession.PacketListener() {
+            @Override
+            public void onPacket(final DeviceSession session, final Characteristic characteristic,
+                                 final byte[] value, final long receivedNanos) {
+                appendMeter.start();
+                final long startedAt = System.nanoTime();
+                try {
+                    // Simulated time, so the capture replays at the pace the simulation ran.
+                    writer.append(session.getAddress(), characteristic, value, loop.millis() * 1000000);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                appendNanos[0] += System.nanoTime() - startedAt;
+                appendMeter.stop();
+            }
+        };
+
+        final List<DeviceSession> sessions = new ArrayList<>();
+        final DeviceSession.Listener listener = new Recorder(live);
+        for (int i = 0; i < deviceCount; i++) {
+            final String address = String.format(Locale.ENGLISH, "00:00:00:00:%02X:%02X", i >> 8, i & 0xff);
+            final SimulatedHexiwear device = new SimulatedHexiwear(address, loop, conditions, i, allocationMeter);
+            device.setMode(mode);
+            final DeviceSession session = new DeviceSession(device, listener, loop, loop);
+            session.setPacketListener(capture);
+            sessions.add(session);
+            session.start();
+        }
+
+        loop.runUntil(durationMillis);
+        for (DeviceSession session : sessions) {
+            session.close();
+        }
+        writer.close();
+
+        final long packets = writer.getPackets();
+        System.out.println(String.format(Locale.ENGLISH,
+                "captured %d packets, %d payload bytes, %d file bytes (%.1f B/packet) in %.1f s simulated",
+                packets, writer.getBytes(), file.length(), file.length() / (float) packets, durationMillis / 1000f));
+        System.out.println(String.format(Locale.ENGLISH, "append: %.0f ns/packet, %.2f B/packet allocated",
+                appendNanos[0] / (float) packets, appendMeter.getAllocatedBytes() / (float) packets));
+        System.out.println("live: " + live);
+        return live.value;
+    }
+
+    /**
+     * Replays the capture at full speed {@code repeat} times, then once at the recorded pace.
+     *
+     * @param expected checksum the replays must match, or -1 to only report.
+     */
+    public void replay(final File file, final long expected, final int repeat) throws IOException {
+        final CaptureReader reader = new CaptureReader(file);
+        try {
+            long bestNanos = Long.MAX_VALUE;
+            long samples = 0;
+            for (int i = 0; i < repeat; i++) {
+                final Checksum checksum = new Checksum();
+                final CaptureReplay replay = new CaptureReplay(reader, new Tap(checksum, createStreams()));
+                windows = 0;
+                allocationMeter.reset();
+                final long startedAt = System.nanoTime();
+                allocationMeter.start();
+                samples = replay.replayAtMaxSpeed();
+                allocationMeter.stop();
+                final long elapsed = System.nanoTime() - startedAt;
+                verify("max speed", checksum, expected);
+                if (elapsed < bestNanos) {
+                    bestNanos = elapsed;
+                    System.out.println(String.format(Locale.ENGLISH,
+                            "max speed #%d: %d packets, %d samples, %d windows in %.1f ms, %.0f ns/packet, "
+                                    + "%.0f packets/s, %.2f B/packet allocated",
+                            i, replay.getPackets(), samples, windows, elapsed / 1e6, elapsed / (float) replay.getPackets(),
+                            replay.getPackets() * 1e9 / elapsed,
+                            allocationMeter.getAllocatedBytes() / (float) replay.getPackets()));
+                }
+            }
+
+            final SimulationLoop loop = new SimulationLoop();
+            final Checksum checksum = new Checksum();
+            final CaptureReplay replay = new CaptureReplay(reader, new Tap(checksum, createStreams()));
+            final long[] finishedAt = {-1};
+            replay.start(loop, loop, 1, new CaptureReplay.Listener() {
+                @Override
+                public void onReplayFinished(final CaptureReplay replay) {
+                    finishedAt[0] = loop.millis();
+                }
+            });
+            final long events = loop.runUntil(Long.MAX_VALUE);
+            System.out.println(String.format(Locale.ENGLISH, "1x: %d samples over %.1f s simulated, %d events",
+                    replay.getSamples(), finishedAt[0] / 1000f, events));
+            verify("1x", checksum, expected);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Streams with the service's windowed subscription; windows are keyed by sample time, so every
+     * pass over the capture needs its own.
+     */
+    private SampleStreams createStreams() {
+        final SampleStreams streams = new SampleStreams(new SampleStreams.DemandListener() {
+            @Override
+            public void onDemandChanged(final long mask) {
+            }
+        }, new SimulationLoop());
+        streams.of(-1L).window(STREAM_WINDOW, SampleAggregator.Statistic.MEAN).subscribe(new SampleListener() {
+            @Override
+            public void onSample(final Sample sample) {
+                windows++;
+            }
+        });
+        return streams;
+    }
+
+    private static void verify(final String run, final Checksum checksum, final long expected) {
+        if (expected != -1 && checksum.value != expected) {
+            throw new IllegalStateException(run + " replay decoded different samples: " + checksum);
+        }
+    }
+
+    /**
+     * Order-sensitive hash of every decoded sample's device, characteristic and values.
+     */
+    private static class Checksum {
+
+        private long value = 17;
+        private long samples;
+
+        void add(final Sample sample) {
+            samples++;
+            value = value * 31 + sample.getDeviceAddress().hashCode();
+            value = value * 31 + sample.getCharacteristic().ordinal();
+            for (int i = 0; i < sample.getSize(); i++) {
+                value = value * 31 + Float.floatToIntBits(sample.getValue(i));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return samples + " samples, checksum " + Long.toHexString(value);
+        }
+    }
+
+    private static class Tap implements SampleListener {
+
+        private final Checksum checksum;
+        private final SampleStreams streams;
+
+        Tap(final Checksum checksum, final SampleStreams streams) {
+            this.checksum = checksum;
+            this.streams = streams;
+        }
+
+        @Override
+        public void onSample(final Sample sample) {
+            checksum.add(sample);
+            streams.onSample(sample);
+        }
+    }
+
+    private static class Recorder implements DeviceSession.Listener {
+
+        private final Checksum checksum;
+
+        Recorder(final Checksum checksum) {
+            this.checksum = checksum;
+        }
+
+        @Override
+        public void onConnectionStateChanged(final DeviceSession session, final boolean connected) {
+        }
+
+        @Override
+        public void onServicesAvailable(final DeviceSession session) {
+        }
+
+        @Override
+        public void onAuthenticationRequired(final DeviceSession session) {
+        }
+
+        @Override
+        public void onTimeUpdateStarted(final DeviceSession session) {
+        }
+
+        @Override
+        public void onTimeUpdated(final DeviceSession session) {
+        }
+
+        @Override
+        public void onModeChanged(final DeviceSession session, final Mode mode) {
+        }
+
+        @Override
+        public void onSample(final DeviceSession session, final Sample sample) {
+            checksum.add(sample);
+        }
+    }
+}
@@ -0,0 +1,479 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.simulator;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Mode;
+import com.wolkabout.hexiwear.service.GattLink;
+import com.wolkabout.hexiwear.service.ReadScheduler;
+
+import java.util.Random;
+
+/**
+ * A Hexiwear on simulated time: every characteristic of {@link Characteristic}, the mode reported
+ * through MODE, ALERT_IN writes, notifications of readings and battery indications.
+ * <p>
+ * Packets move only at connection events, plus the link's latency and jitter, and may be lost.
+ * Only one request is served at a time; a lost response leaves the client to time out.
+ * Callbacks run on the {@link SimulationLoop}, and the time spent and memory allocated in them
+ * is the client's, which is what the load test measures.
+ */
+public class SimulatedHexiwear implements GattLink {
+
+    private static final int SIZE = Characteristic.values().length;
+    private static final long CONNECT_EVENTS = 3;
+    private static final long DISCOVERY_EVENTS = 10;
+    private static final long BATTERY_DRAIN_MILLIS = 10 * 60 * 1000;
+    // Upper ends of the intervals Android asks for with each connection priority.
+    private static final long HIGH_PRIORITY_INTERVAL = 15;
+    private static final long LOW_POWER_INTERVAL = 125;
+
+    private final String address;
+    private final SimulationLoop loop;
+    private final LinkConditions conditions;
+    private final Random random;
+    private final AllocationMeter allocationMeter;
+    private final long[] sensorIntervals = new long[SIZE];
+    private final Runnable[] sensors = new Runnable[SIZE];
+    private Callback callback;
+    private Mode mode = Mode.SENSOR_TAG;
+    private boolean connected;
+    private boolean discovered;
+    private boolean requestPending;
+    private long notifying;
+    private long connectionInterval;
+    private long lastDelivery;
+    private long deliveredPacketTime;
+    private int alerts;
+    private int timeWrites;
+    private long sent;
+    private long lost;
+
+    public SimulatedHexiwear(final String address, final SimulationLoop loop, final LinkConditions conditions,
+                             final long seed, final AllocationMeter allocationMeter) {
+        this.address = address;
+        this.loop = loop;
+        this.conditions = conditions;
+        this.connectionInterval = conditions.getConnectionIntervalMillis();
+        this.random = new Random(seed);
+        this.allocationMeter = allocationMeter;
+        for (final Characteristic characteristic : Characteristic.getReadings()) {
+            sensorIntervals[characteristic.ordinal()] = ReadScheduler.getDefaultInterval(characteristic);
+            sensors[characteristic.ordinal()] = new Runnable() {
+                @Override
+                public void run() {
+                    onSensorTick(characteristic);
+                }
+            };
+        }
+    }
+
+    /**
+     * Switches the mode, as if the user changed it on the watch. Clients learn about it by reading MODE.
+     */
+    public void setMode(final Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets how often the sensor behind a reading produces a value while notifying.
+     */
+    public void setSensorInterval(final Characteristic characteristic, final long intervalMillis) {
+        sensorIntervals[characteristic.ordinal()] = intervalMillis;
+    }
+
+    /**
+     * Drops the connection as if the watch went out of range.
+     */
+    public void dropConnection() {
+        if (!connected) {
+            return;
+        }
+        disconnect();
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                invoke(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onConnectionStateChanged(false);
+                    }
+                });
+            }
+        }, connectionInterval);
+    }
+
+    /**
+     * @return simulated time the value in the callback being delivered was produced.
+     */
+    public long getDeliveredPacketTime() {
+        return deliveredPacketTime;
+    }
+
+    public int getAlerts() {
+        return alerts;
+    }
+
+    public int getTimeWrites() {
+        return timeWrites;
+    }
+
+    public long getSentPackets() {
+        return sent;
+    }
+
+    public long getLostPackets() {
+        return lost;
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public void setCallback(final Callback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public boolean connect() {
+        if (connected) {
+            return true;
+        }
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                connected = true;
+                connectionInterval = conditions.getConnectionIntervalMillis();
+                lastDelivery = loop.millis();
+                invoke(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onConnectionStateChanged(true);
+                    }
+                });
+            }
+        }, CONNECT_EVENTS * connectionInterval);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        disconnect();
+        discovered = false;
+    }
+
+    @Override
+    public boolean discoverServices() {
+        if (!connected) {
+            return false;
+        }
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                discovered = true;
+                callback.onServicesDiscovered(STATUS_SUCCESS);
+            }
+        }, DISCOVERY_EVENTS * connectionInterval, false);
+        return true;
+    }
+
+    @Override
+    public boolean restoreServices() {
+        return connected && discovered;
+    }
+
+    @Override
+    public boolean hasCharacteristic(final Characteristic characteristic) {
+        return true;
+    }
+
+    @Override
+    public boolean canNotify(final Characteristic characteristic) {
+        return characteristic.getType() == Characteristic.Type.READING;
+    }
+
+    @Override
+    public boolean read(final Characteristic characteristic) {
+        if (!startRequest()) {
+            return false;
+        }
+        final long producedAt = loop.millis();
+        final byte[] value = encode(characteristic, producedAt);
+        respond(new Runnable() {
+            @Override
+            public void run() {
+                deliveredPacketTime = producedAt;
+                callback.onCharacteristicRead(characteristic, value, STATUS_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean write(final Characteristic characteristic, final byte[] value, final boolean withResponse) {
+        if (!startRequest()) {
+            return false;
+        }
+        if (characteristic == Characteristic.ALERT_IN && value.length > 0) {
+            if (value[0] == 3) {
+                timeWrites++;
+            } else {
+                alerts++;
+            }
+        }
+        respond(new Runnable() {
+            @Override
+            public void run() {
+                callback.onCharacteristicWrite(characteristic, value, STATUS_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean setNotification(final Characteristic characteristic, final boolean enable) {
+        if (!canNotify(characteristic) || !startRequest()) {
+            return false;
+        }
+        final int index = characteristic.ordinal();
+        if (enable && (notifying & characteristic.getMask()) == 0) {
+            loop.post(sensors[index], sensorIntervals[index]);
+        } else if (!enable) {
+            loop.cancel(sensors[index]);
+        }
+        notifying = enable ? notifying | characteristic.getMask() : notifying & ~characteristic.getMask();
+        respond(new Runnable() {
+            @Override
+            public void run() {
+                callback.onNotificationWritten(characteristic, STATUS_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean requestMtu(final int mtu) {
+        if (!startRequest()) {
+            return false;
+        }
+        respond(new Runnable() {
+            @Override
+            public void run() {
+                callback.onMtuChanged(Math.min(mtu, 247), STATUS_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Switches the connection interval from the next event on; balanced is the interval of the link conditions.
+     */
+    @Override
+    public boolean requestConnectionPriority(final int priority) {
+        if (!connected) {
+            return false;
+        }
+        switch (priority) {
+            case CONNECTION_PRIORITY_HIGH:
+                connectionInterval = Math.min(HIGH_PRIORITY_INTERVAL, conditions.getConnectionIntervalMillis());
+                break;
+            case CONNECTION_PRIORITY_LOW_POWER:
+                connectionInterval = Math.max(LOW_POWER_INTERVAL, conditions.getConnectionIntervalMillis());
+                break;
+            default:
+                connectionInterval = conditions.getConnectionIntervalMillis();
+                break;
+        }
+        return true;
+    }
+
+    public long getConnectionInterval() {
+        return connectionInterval;
+    }
+
+    private boolean startRequest() {
+        if (!connected || requestPending) {
+            return false;
+        }
+        requestPending = true;
+        return true;
+    }
+
+    /**
+     * The request goes out at the next connection event and the response comes back one event later.
+     */
+    private void respond(final Runnable response) {
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                requestPending = false;
+                response.run();
+            }
+        }, connectionInterval, true);
+    }
+
+    private void onSensorTick(final Characteristic characteristic) {
+        if (!connected || (notifying & characteristic.getMask()) == 0) {
+            return;
+        }
+
+        final int index = characteristic.ordinal();
+        loop.post(sensors[index], sensorIntervals[index]);
+        if (characteristic != Characteristic.BATTERY && !mode.hasCharacteristic(characteristic)) {
+            return;
+        }
+
+        final long producedAt = loop.millis();
+        final byte[] value = encode(characteristic, producedAt);
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                deliveredPacketTime = producedAt;
+                callback.onCharacteristicChanged(characteristic, value);
+            }
+        }, 0, true);
+    }
+
+    /**
+     * Schedules a packet for the first connection event after {@code extraMillis}, plus latency and jitter.
+     * Packets are delivered in the order they were sent.
+     */
+    private void deliver(final Runnable packet, final long extraMillis, final boolean mayBeLost) {
+        final long interval = connectionInterval;
+        final long ready = loop.millis() + extraMillis;
+        final long connectionEvent = (ready + interval - 1) / interval * interval;
+        final long jitter = conditions.getJitterMillis() > 0 ? (long) (random.nextDouble() * conditions.getJitterMillis()) : 0;
+        final long arrival = Math.max(lastDelivery, connectionEvent + conditions.getLatencyMillis() + jitter);
+        lastDelivery = arrival;
+        sent++;
+
+        if (mayBeLost && random.nextDouble() < conditions.getPacketLoss()) {
+            lost++;
+            loop.post(new Runnable() {
+                @Override
+                public void run() {
+                    requestPending = false;
+                }
+            }, arrival - loop.millis());
+            return;
+        }
+
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                if (connected) {
+                    invoke(packet);
+                } else {
+                    requestPending = false;
+                }
+            }
+        }, arrival - loop.millis());
+    }
+
+    private void invoke(final Runnable packet) {
+        if (allocationMeter != null) {
+            allocationMeter.start();
+            packet.run();
+            allocationMeter.stop();
+        } else {
+            packet.run();
+        }
+    }
+
+    private void disconnect() {
+        connected = false;
+        requestPending = false;
+        notifying = 0;
+        for (Runnable sensor : sensors) {
+            if (sensor != null) {
+                loop.cancel(sensor);
+            }
+        }
+    }
+
+    /**
+     * Produces a plausible raw value, encoded the way the firmware does.
+     */
+    private byte[] encode(final Characteristic characteristic, final long time) {
+        final double phase = time / 1000.0;
+        switch (characteristic) {
+            case ACCELERATION:
+                return triple(Math.sin(phase) * 100, Math.cos(phase) * 100, 98 + random.nextGaussian() * 2);
+            case MAGNET:
+                return triple(Math.sin(phase / 10) * 3000, Math.cos(phase / 10) * 3000, 4000);
+            case GYRO:
+                return triple(Math.sin(phase * 2) * 200, random.nextGaussian() * 5, Math.cos(phase * 2) * 200);
+            case TEMPERATURE:
+                return unsigned16((22 + Math.sin(phase / 600)) * 100);
+            case HUMIDITY:
+                return unsigned16((45 + Math.sin(phase / 900) * 5) * 100);
+            case PRESSURE:
+                return unsigned16(101.3 * 100);
+            case LIGHT:
+                return new byte[]{(byte) (50 + Math.sin(phase / 60) * 40)};
+            case BATTERY:
+                return new byte[]{(byte) Math.max(0, 100 - time / BATTERY_DRAIN_MILLIS)};
+            case HEARTRATE:
+                return new byte[]{(byte) (72 + Math.sin(phase / 30) * 10 + random.nextGaussian())};
+            case STEPS:
+                return new byte[]{(byte) (time / 600)};
+            case CALORIES:
+                return new byte[]{(byte) (time / 30000)};
+            case MODE:
+                return new byte[]{(byte) mode.getSymbol()};
+            case MANUFACTURER:
+                return "NXP".getBytes();
+            case FW_REVISION:
+                return "1.0.0".getBytes();
+            case HW_REVISION:
+                return "1.0".getBytes();
+            case SERIAL:
+                return address.getBytes();
+            default:
+                return new byte[]{0};
+        }
+    }
+
+    private static byte[] triple(final double x, final double y, final double z) {
+        final byte[] value = new byte[6];
+        put16(value, 0, (int) Math.round(x));
+        put16(value, 2, (int) Math.round(y));
+        put16(value, 4, (int) Math.round(z));
+        return value;
+    }
+
+    private static byte[] unsigned16(final double value) {
+        final byte[] bytes = new byte[2];
+        put16(bytes, 0, (int) Math.round(value));
+        return bytes;
+    }
+
+    private static void put16(final byte[] bytes, final int offset, final int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+    }
+}
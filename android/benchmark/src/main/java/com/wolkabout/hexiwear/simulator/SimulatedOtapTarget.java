@@ -0,0 +1,513 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.simulator;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.otap.FirmwareImage;
+import com.wolkabout.hexiwear.otap.OtapProtocol;
+import com.wolkabout.hexiwear.service.GattLink;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * A Hexiwear in OTAP mode, the client side of {@link OtapProtocol}: it asks for the image info,
+ * requests the image block by block from wherever its flash ends and reports the integrity check.
+ * <p>
+ * Writes without response sit in a small controller buffer and leave it at connection events, a few
+ * packets per event, so throughput depends on chunk size, block size and connection interval. Data
+ * packets may be lost; a sequence gap, or a block that stops arriving, makes the target request the
+ * block again. The received image survives disconnections so transfers resume.
+ * <p>
+ * In place of the CRC sub-element of a real image, the last four bytes of the image hold the CRC-32
+ * of everything before them, see {@link #appendCrc(byte[])}.
+ */
+public class SimulatedOtapTarget implements GattLink {
+
+    private static final long CONNECT_EVENTS = 3;
+    private static final long DISCOVERY_EVENTS = 10;
+    private static final int PACKETS_PER_EVENT = 6;
+    private static final int BUFFER_PACKETS = 8;
+    private static final int MAX_MTU = 247;
+    private static final long HIGH_PRIORITY_INTERVAL = 15;
+    private static final long CHUNK_TIMEOUT = 1000;
+    private static final int CRC_LENGTH = 4;
+
+    private final String address;
+    private final SimulationLoop loop;
+    private final LinkConditions conditions;
+    private final Random random;
+    private final byte[] flash;
+    private final int blockChunks;
+    private final ArrayDeque<Long> buffered = new ArrayDeque<>();
+    private final Runnable chunkTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (blockActive) {
+                resyncing = true;
+                requestBlock();
+            }
+        }
+    };
+    private final int maxMtu;
+    private Callback callback;
+    private boolean connected;
+    private boolean requestPending;
+    private boolean notifying;
+    private long connectionInterval;
+    private int mtu = DEFAULT_MTU;
+    private long dataEvent;
+    private int dataInEvent;
+    private long lastDataArrival;
+    private final byte[] imageId = new byte[OtapProtocol.IMAGE_ID_LENGTH];
+    private final byte[] imageVersion = new byte[OtapProtocol.IMAGE_VERSION_LENGTH];
+    private int imageSize = -1;
+    private int received;
+    private int blockEnd;
+    private int sequence;
+    private boolean blockActive;
+    private boolean resyncing;
+    private int corruptOffset = -1;
+    private long dataPackets;
+    private long lostPackets;
+
+    /**
+     * @param capacity    largest image the target can hold.
+     * @param maxMtu      largest ATT MTU the target accepts.
+     * @param blockChunks chunks the target requests per block.
+     */
+    public SimulatedOtapTarget(final String address, final SimulationLoop loop, final LinkConditions conditions,
+                               final long seed, final int capacity, final int maxMtu, final int blockChunks) {
+        this.address = address;
+        this.loop = loop;
+        this.conditions = conditions;
+        this.random = new Random(seed);
+        this.flash = new byte[capacity];
+        this.maxMtu = Math.min(maxMtu, MAX_MTU);
+        this.blockChunks = Math.min(blockChunks, OtapProtocol.MAX_BLOCK_CHUNKS);
+        this.connectionInterval = conditions.getConnectionIntervalMillis();
+    }
+
+    /**
+     * Builds an image file around the content: a header with the given image id, the content and
+     * the CRC-32 trailer the target checks.
+     */
+    public static byte[] createImage(final short imageId, final byte[] content) {
+        final int size = FirmwareImage.HEADER_LENGTH + content.length + CRC_LENGTH;
+        final byte[] image = new byte[size];
+        OtapProtocol.putInt(image, 0, FirmwareImage.FILE_IDENTIFIER);
+        OtapProtocol.putShort(image, 4, 0x0100);
+        OtapProtocol.putShort(image, 6, FirmwareImage.HEADER_LENGTH);
+        OtapProtocol.putShort(image, 10, 0x01FF);
+        OtapProtocol.putShort(image, 12, imageId);
+        image[14] = 1;
+        OtapProtocol.putInt(image, 54, size);
+        System.arraycopy(content, 0, image, FirmwareImage.HEADER_LENGTH, content.length);
+        appendCrc(image);
+        return image;
+    }
+
+    /**
+     * Stores the CRC-32 of all but the last four bytes in the last four bytes.
+     */
+    public static void appendCrc(final byte[] image) {
+        final CRC32 crc = new CRC32();
+        crc.update(image, 0, image.length - CRC_LENGTH);
+        OtapProtocol.putInt(image, image.length - CRC_LENGTH, (int) crc.getValue());
+    }
+
+    /**
+     * Flips a bit of the byte stored at the offset, as a faulty flash write would.
+     */
+    public void corruptAt(final int offset) {
+        corruptOffset = offset;
+    }
+
+    /**
+     * Drops the connection at the next connection event, keeping the received part of the image.
+     */
+    public void dropConnection() {
+        if (!connected) {
+            return;
+        }
+        connected = false;
+        requestPending = false;
+        buffered.clear();
+        stopBlock();
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onConnectionStateChanged(false);
+            }
+        }, connectionInterval);
+    }
+
+    /**
+     * @return bytes of the current image received in order.
+     */
+    public int getReceived() {
+        return received;
+    }
+
+    public long getDataPackets() {
+        return dataPackets;
+    }
+
+    public long getLostPackets() {
+        return lostPackets;
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public void setCallback(final Callback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public boolean connect() {
+        if (connected) {
+            return true;
+        }
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                connected = true;
+                connectionInterval = conditions.getConnectionIntervalMillis();
+                mtu = DEFAULT_MTU;
+                notifying = false;
+                dataEvent = 0;
+                dataInEvent = 0;
+                lastDataArrival = loop.millis();
+                callback.onConnectionStateChanged(true);
+            }
+        }, CONNECT_EVENTS * connectionInterval);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+        requestPending = false;
+        buffered.clear();
+        stopBlock();
+    }
+
+    @Override
+    public boolean discoverServices() {
+        if (!connected) {
+            return false;
+        }
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                if (connected) {
+                    callback.onServicesDiscovered(STATUS_SUCCESS);
+                }
+            }
+        }, DISCOVERY_EVENTS * connectionInterval);
+        return true;
+    }
+
+    @Override
+    public boolean restoreServices() {
+        return false;
+    }
+
+    @Override
+    public boolean hasCharacteristic(final Characteristic characteristic) {
+        return characteristic.getType() == Characteristic.Type.OTAP;
+    }
+
+    @Override
+    public boolean canNotify(final Characteristic characteristic) {
+        return characteristic == Characteristic.CONTROL_POINT;
+    }
+
+    @Override
+    public boolean read(final Characteristic characteristic) {
+        return false;
+    }
+
+    @Override
+    public boolean write(final Characteristic characteristic, final byte[] value, final boolean withResponse) {
+        if (!connected || requestPending) {
+            return false;
+        }
+        if (characteristic == Characteristic.DATA && !withResponse) {
+            sendData(value);
+            return true;
+        }
+        if (characteristic != Characteristic.CONTROL_POINT || value.length == 0) {
+            return false;
+        }
+
+        respond(new Runnable() {
+            @Override
+            public void run() {
+                callback.onCharacteristicWrite(characteristic, value, STATUS_SUCCESS);
+                onCommand(value);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean setNotification(final Characteristic characteristic, final boolean enable) {
+        if (!connected || requestPending || !canNotify(characteristic)) {
+            return false;
+        }
+        respond(new Runnable() {
+            @Override
+            public void run() {
+                notifying = enable;
+                callback.onNotificationWritten(characteristic, STATUS_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean requestMtu(final int mtu) {
+        if (!connected || requestPending) {
+            return false;
+        }
+        respond(new Runnable() {
+            @Override
+            public void run() {
+                SimulatedOtapTarget.this.mtu = Math.max(DEFAULT_MTU, Math.min(mtu, maxMtu));
+                callback.onMtuChanged(SimulatedOtapTarget.this.mtu, STATUS_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean requestConnectionPriority(final int priority) {
+        if (!connected) {
+            return false;
+        }
+        connectionInterval = priority == CONNECTION_PRIORITY_HIGH
+                ? Math.min(HIGH_PRIORITY_INTERVAL, conditions.getConnectionIntervalMillis())
+                : conditions.getConnectionIntervalMillis();
+        return true;
+    }
+
+    /**
+     * Schedules the packet into the first connection event with room left. The local write callback
+     * comes right away while the controller buffer has room, otherwise when a buffered packet leaves.
+     */
+    private void sendData(final byte[] value) {
+        final long now = loop.millis();
+        while (!buffered.isEmpty() && buffered.peekFirst() <= now) {
+            buffered.pollFirst();
+        }
+
+        long event = Math.max(nextEvent(now), dataEvent);
+        if (event == dataEvent && dataInEvent >= PACKETS_PER_EVENT) {
+            event += connectionInterval;
+        }
+        if (event != dataEvent) {
+            dataEvent = event;
+            dataInEvent = 0;
+        }
+        dataInEvent++;
+        buffered.addLast(event);
+        dataPackets++;
+
+        final long arrival = Math.max(lastDataArrival, event + conditions.getLatencyMillis());
+        lastDataArrival = arrival;
+        if (random.nextDouble() < conditions.getPacketLoss()) {
+            lostPackets++;
+        } else {
+            loop.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (connected) {
+                        onData(value);
+                    }
+                }
+            }, arrival - now);
+        }
+
+        final long released = buffered.size() > BUFFER_PACKETS ? buffered.peekFirst() : now;
+        requestPending = true;
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                if (connected) {
+                    requestPending = false;
+                    callback.onCharacteristicWrite(Characteristic.DATA, value, STATUS_SUCCESS);
+                }
+            }
+        }, released - now);
+    }
+
+    private void onData(final byte[] value) {
+        if (value.length < OtapProtocol.CHUNK_HEADER || value[0] != OtapProtocol.IMAGE_CHUNK || !blockActive) {
+            return;
+        }
+
+        final int length = value.length - OtapProtocol.CHUNK_HEADER;
+        if ((value[1] & 0xFF) != sequence || received + length > blockEnd) {
+            // Chunks of an attempt that was given up on may still arrive; the new attempt starts at 0.
+            if (!resyncing) {
+                resyncing = true;
+                indicate(error(OtapProtocol.IMAGE_CHUNK, OtapProtocol.STATUS_UNEXPECTED_SEQUENCE_NUMBER));
+                requestBlock();
+            }
+            return;
+        }
+
+        resyncing = false;
+        System.arraycopy(value, OtapProtocol.CHUNK_HEADER, flash, received, length);
+        if (corruptOffset >= received && corruptOffset < received + length) {
+            flash[corruptOffset] ^= 1;
+        }
+        received += length;
+        sequence++;
+        loop.cancel(chunkTimeout);
+        if (received < blockEnd) {
+            loop.post(chunkTimeout, CHUNK_TIMEOUT);
+        } else if (received < imageSize) {
+            requestBlock();
+        } else {
+            stopBlock();
+            final byte[] complete = new byte[OtapProtocol.TRANSFER_COMPLETE_LENGTH];
+            complete[0] = OtapProtocol.IMAGE_TRANSFER_COMPLETE;
+            System.arraycopy(imageId, 0, complete, 1, imageId.length);
+            complete[complete.length - 1] = isIntact() ? OtapProtocol.STATUS_SUCCESS
+                    : OtapProtocol.STATUS_FAILED_IMAGE_INTEGRITY_CHECK;
+            indicate(complete);
+        }
+    }
+
+    private void onCommand(final byte[] command) {
+        switch (command[0]) {
+            case OtapProtocol.NEW_IMAGE_NOTIFICATION:
+                final byte[] request = new byte[OtapProtocol.INFO_REQUEST_LENGTH];
+                request[0] = OtapProtocol.NEW_IMAGE_INFO_REQUEST;
+                System.arraycopy(imageId, 0, request, 1, imageId.length);
+                System.arraycopy(imageVersion, 0, request, 1 + imageId.length, imageVersion.length);
+                indicate(request);
+                break;
+            case OtapProtocol.NEW_IMAGE_INFO_RESPONSE:
+                if (command.length < OtapProtocol.NEW_IMAGE_LENGTH) {
+                    return;
+                }
+                final int size = OtapProtocol.getInt(command, 1 + imageId.length + imageVersion.length);
+                if (size > flash.length) {
+                    indicate(error(command[0], OtapProtocol.STATUS_IMAGE_SIZE_TOO_LARGE));
+                    return;
+                }
+                final byte[] id = Arrays.copyOfRange(command, 1, 1 + imageId.length);
+                final byte[] version = Arrays.copyOfRange(command, 1 + imageId.length,
+                        1 + imageId.length + imageVersion.length);
+                if (size != imageSize || !Arrays.equals(id, imageId) || !Arrays.equals(version, imageVersion)) {
+                    System.arraycopy(id, 0, imageId, 0, id.length);
+                    System.arraycopy(version, 0, imageVersion, 0, version.length);
+                    imageSize = size;
+                    received = 0;
+                }
+                requestBlock();
+                break;
+            case OtapProtocol.STOP_IMAGE_TRANSFER:
+                stopBlock();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void requestBlock() {
+        final int chunkSize = OtapProtocol.getChunkPayload(mtu);
+        blockEnd = Math.min(received + chunkSize * blockChunks, imageSize);
+        sequence = 0;
+        blockActive = true;
+
+        final byte[] request = new byte[OtapProtocol.BLOCK_REQUEST_LENGTH];
+        request[0] = OtapProtocol.IMAGE_BLOCK_REQUEST;
+        System.arraycopy(imageId, 0, request, 1, imageId.length);
+        OtapProtocol.putInt(request, OtapProtocol.BLOCK_START, received);
+        OtapProtocol.putInt(request, OtapProtocol.BLOCK_SIZE, blockEnd - received);
+        OtapProtocol.putShort(request, OtapProtocol.BLOCK_CHUNK_SIZE, chunkSize);
+        request[OtapProtocol.BLOCK_TRANSFER_METHOD] = OtapProtocol.TRANSFER_METHOD_ATT;
+        indicate(request);
+        loop.cancel(chunkTimeout);
+        loop.post(chunkTimeout, CHUNK_TIMEOUT);
+    }
+
+    private void stopBlock() {
+        blockActive = false;
+        resyncing = false;
+        loop.cancel(chunkTimeout);
+    }
+
+    private boolean isIntact() {
+        final CRC32 crc = new CRC32();
+        crc.update(flash, 0, imageSize - CRC_LENGTH);
+        return (int) crc.getValue() == OtapProtocol.getInt(flash, imageSize - CRC_LENGTH);
+    }
+
+    private static byte[] error(final byte command, final byte status) {
+        return new byte[]{OtapProtocol.ERROR_NOTIFICATION, command, status};
+    }
+
+    private void indicate(final byte[] command) {
+        if (!connected || !notifying) {
+            return;
+        }
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                if (connected) {
+                    callback.onCharacteristicChanged(Characteristic.CONTROL_POINT, command);
+                }
+            }
+        }, nextEvent(loop.millis() + 1) - loop.millis() + conditions.getLatencyMillis());
+    }
+
+    /**
+     * The request goes out at the next connection event and the response comes back one event later.
+     */
+    private void respond(final Runnable response) {
+        requestPending = true;
+        final long delay = nextEvent(loop.millis()) - loop.millis() + connectionInterval + conditions.getLatencyMillis();
+        loop.post(new Runnable() {
+            @Override
+            public void run() {
+                if (connected) {
+                    requestPending = false;
+                    response.run();
+                }
+            }
+        }, delay);
+    }
+
+    private long nextEvent(final long time) {
+        return (time + connectionInterval - 1) / connectionInterval * connectionInterval;
+    }
+}
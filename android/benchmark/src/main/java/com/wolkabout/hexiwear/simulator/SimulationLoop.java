@@ -0,0 +1,102 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.simulator;
+
+import com.wolkabout.hexiwear.util.Clock;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Discrete-event loop on simulated time. Sessions and simulated peripherals share it as their
+ * {@link Clock} and {@link DelayedExecutor}, so hours of traffic run in seconds, on one thread,
+ * with the same result every time.
+ */
+public class SimulationLoop implements Clock, DelayedExecutor {
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long now;
+    private long sequence;
+
+    @Override
+    public long millis() {
+        return now;
+    }
+
+    @Override
+    public void post(final Runnable task, final long delayMillis) {
+        events.add(new Event(now + Math.max(0, delayMillis), sequence++, task));
+    }
+
+    @Override
+    public void cancel(final Runnable task) {
+        final Iterator<Event> iterator = events.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().task == task) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Runs events in time order until the given simulated time.
+     *
+     * @return number of events run.
+     */
+    public long runUntil(final long timeMillis) {
+        long count = 0;
+        Event event;
+        while ((event = events.peek()) != null && event.time <= timeMillis) {
+            events.poll();
+            now = event.time;
+            event.task.run();
+            count++;
+        }
+        now = Math.max(now, timeMillis);
+        return count;
+    }
+
+    public int getPendingEvents() {
+        return events.size();
+    }
+
+    private static class Event implements Comparable<Event> {
+
+        private final long time;
+        private final long sequence;
+        private final Runnable task;
+
+        Event(final long time, final long sequence, final Runnable task) {
+            this.time = time;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(final Event other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
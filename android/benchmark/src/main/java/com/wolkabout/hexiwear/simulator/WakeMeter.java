@@ -0,0 +1,117 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.simulator;
+
+import com.wolkabout.hexiwear.util.Clock;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Besides allocation, counts how often the app wakes up and how much CPU time it uses while awake.
+ * Every metered stretch of app code, GATT callbacks and timers alike, counts as a wakeup unless
+ * the app was already running less than {@link #HOLD_MILLIS} of simulated time before, the way a
+ * phone keeps the CPU up briefly after an interrupt.
+ */
+public class WakeMeter extends AllocationMeter {
+
+    private static final long HOLD_MILLIS = 10;
+
+    private final Clock clock;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final Map<Runnable, Runnable> metered = new IdentityHashMap<>();
+    private long lastActive = Long.MIN_VALUE / 2;
+    private long startedCpu;
+    private long wakeups;
+    private long cpuNanos;
+
+    public WakeMeter(final Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @return executor that meters every task it runs, for handing to the code under test.
+     */
+    public DelayedExecutor meter(final DelayedExecutor executor) {
+        return new DelayedExecutor() {
+            @Override
+            public void post(final Runnable task, final long delayMillis) {
+                executor.post(wrap(task), delayMillis);
+            }
+
+            @Override
+            public void cancel(final Runnable task) {
+                executor.cancel(wrap(task));
+            }
+        };
+    }
+
+    @Override
+    public void start() {
+        final long now = clock.millis();
+        if (now - lastActive > HOLD_MILLIS) {
+            wakeups++;
+        }
+        lastActive = now;
+        super.start();
+        startedCpu = threads.getCurrentThreadCpuTime();
+    }
+
+    @Override
+    public void stop() {
+        cpuNanos += threads.getCurrentThreadCpuTime() - startedCpu;
+        super.stop();
+    }
+
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        wakeups = 0;
+        cpuNanos = 0;
+    }
+
+    private Runnable wrap(final Runnable task) {
+        Runnable wrapper = metered.get(task);
+        if (wrapper == null) {
+            wrapper = new Runnable() {
+                @Override
+                public void run() {
+                    start();
+                    task.run();
+                    stop();
+                }
+            };
+            metered.put(task, wrapper);
+        }
+        return wrapper;
+    }
+}
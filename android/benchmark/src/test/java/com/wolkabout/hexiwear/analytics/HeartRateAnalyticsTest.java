@@ -0,0 +1,144 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.analytics;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class HeartRateAnalyticsTest {
+
+    private static final long WINDOW = 10000;
+    private static final int CAPACITY = 8;
+
+    private HeartRateAnalytics analytics;
+    private Sample sample;
+
+    @Before
+    public void setUp() {
+        analytics = new HeartRateAnalytics(WINDOW, CAPACITY);
+        sample = new Sample();
+    }
+
+    /**
+     * Compares the window statistics with a brute-force scan of every reading so far, at every
+     * reading, with gaps both shorter and longer than the window fills up.
+     */
+    @Test
+    public void windowMatchesBruteForce() {
+        final Random random = new Random(3);
+        final List<long[]> history = new ArrayList<>();
+        long time = 0;
+        for (int i = 0; i < 20000; i++) {
+            time += random.nextInt(3000);
+            final int value = 40 + random.nextInt(150);
+            feed(time, value);
+            history.add(new long[]{time, value});
+
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            long sum = 0;
+            long sumOfSquares = 0;
+            int count = 0;
+            for (int j = history.size() - 1; j >= 0 && count < CAPACITY && history.get(j)[0] > time - WINDOW; j--) {
+                final int reading = (int) history.get(j)[1];
+                min = Math.min(min, reading);
+                max = Math.max(max, reading);
+                sum += reading;
+                sumOfSquares += reading * reading;
+                count++;
+            }
+            final double mean = sum / (double) count;
+            final double deviation = Math.sqrt(Math.max(0, sumOfSquares / (double) count - mean * mean));
+
+            final String at = "reading " + i;
+            assertEquals(at, count, analytics.getCount());
+            assertEquals(at, value, analytics.getLatest());
+            assertEquals(at, min, analytics.getMin());
+            assertEquals(at, max, analytics.getMax());
+            assertEquals(at, mean, analytics.getMean(), 1e-3);
+            assertEquals(at, deviation, analytics.getStandardDeviation(), 1e-2);
+        }
+    }
+
+    @Test
+    public void jumpBetweenCloseReadingsIsFlagged() {
+        feed(1000, 80);
+        feed(2000, 115);
+        assertEquals(HeartRateAnalytics.JUMP, analytics.getAnomalies());
+
+        feed(10000, 70);
+        assertEquals(0, analytics.getAnomalies());
+        assertEquals(1, analytics.getJumps());
+    }
+
+    @Test
+    public void flatlineIsFlaggedOnceAndBrokenByNoContact() {
+        long time = 0;
+        for (int i = 0; i <= 90; i++) {
+            time += 1000;
+            feed(time, 72);
+        }
+        assertEquals(HeartRateAnalytics.FLATLINE, analytics.getAnomalies());
+        assertEquals(1, analytics.getFlatlines());
+
+        feed(time + 1000, 0);
+        assertEquals(0, analytics.getAnomalies());
+        feed(time + 2000, 72);
+        assertEquals(0, analytics.getAnomalies());
+        assertEquals(1, analytics.getFlatlines());
+    }
+
+    @Test
+    public void noContactReadingIsSkipped() {
+        feed(1000, 80);
+        feed(2000, 0);
+
+        assertEquals(1, analytics.getCount());
+        assertEquals(80, analytics.getLatest());
+        assertEquals(80, analytics.getMin());
+    }
+
+    @Test
+    public void zoneTimeStopsAtGap() {
+        analytics.setMaxHeartRate(200);
+        feed(0, 150);
+        feed(1000, 150);
+        feed(61000, 150);
+
+        final int zone = analytics.getZone(150);
+        assertEquals(3, zone);
+        assertEquals(1000 + HeartRateAnalytics.MAX_GAP, analytics.getZoneMillis(zone));
+    }
+
+    private void feed(final long timestamp, final int heartRate) {
+        sample.setValue(Characteristic.HEARTRATE, timestamp, heartRate);
+        analytics.onSample(sample);
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.analytics;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.util.DataConverter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PedometerAnalyticsTest {
+
+    private static final long START = 1476748800000L;
+
+    private PedometerAnalytics analytics;
+    private Sample sample;
+
+    @Before
+    public void setUp() {
+        analytics = new PedometerAnalytics(TimeZone.getTimeZone("UTC"));
+        sample = new Sample();
+    }
+
+    @Test
+    public void totalIsUnknownBeforeFirstReading() {
+        assertEquals(-1, analytics.getTotal(Characteristic.STEPS));
+    }
+
+    @Test
+    public void oneByteStepsWrapAtByteRange() {
+        for (int steps = 200; steps <= 300; steps++) {
+            feed(Characteristic.STEPS, new byte[]{(byte) steps}, START + steps * 1000L);
+        }
+
+        assertEquals(300, analytics.getTotal(Characteristic.STEPS));
+        assertTrue(analytics.toString().contains("wraps=1, restarts=0"));
+    }
+
+    @Test
+    public void twoByteStepsWrapAtSixteenBits() {
+        for (int steps = 65000; steps <= 66000; steps += 100) {
+            feed(Characteristic.STEPS, new byte[]{(byte) steps, (byte) (steps >> 8)}, START + steps);
+        }
+
+        assertEquals(66000, analytics.getTotal(Characteristic.STEPS));
+    }
+
+    @Test
+    public void smallDropIsRestart() {
+        feed(Characteristic.STEPS, new byte[]{(byte) 0xE8, 0x03}, START);
+        feed(Characteristic.STEPS, new byte[]{(byte) 0xF2, 0x03}, START + 1000);
+        feed(Characteristic.STEPS, new byte[]{0x05, 0x00}, START + 2000);
+
+        assertEquals(1015, analytics.getTotal(Characteristic.STEPS));
+        assertTrue(analytics.toString().contains("wraps=0, restarts=1"));
+    }
+
+    @Test
+    public void caloriesWrapAtByteRangeAndRestartOnReboot() {
+        int calories = 0;
+        for (int i = 0; i < 3000; i++) {
+            if (i % 5 == 0) {
+                calories++;
+            }
+            feed(Characteristic.CALORIES, new byte[]{(byte) calories}, START + i * 1000L);
+        }
+        assertEquals(600, analytics.getTotal(Characteristic.CALORIES));
+
+        feed(Characteristic.CALORIES, new byte[]{3}, START + 3000 * 1000L);
+        assertEquals(603, analytics.getTotal(Characteristic.CALORIES));
+    }
+
+    @Test
+    public void samplesWithoutRangeUseCounterWidth() {
+        sample.setValue(Characteristic.STEPS, START, 65500);
+        analytics.onSample(sample);
+        sample.setValue(Characteristic.STEPS, START + 1000, 20);
+        analytics.onSample(sample);
+
+        assertEquals(65556, analytics.getTotal(Characteristic.STEPS));
+    }
+
+    @Test
+    public void incrementsGoToTheirPeriods() {
+        feed(Characteristic.STEPS, new byte[]{10, 0}, START);
+        feed(Characteristic.STEPS, new byte[]{30, 0}, START + 60000);
+        feed(Characteristic.STEPS, new byte[]{35, 0}, START + 61000);
+        feed(Characteristic.STEPS, new byte[]{100, 0}, START + 120000);
+
+        final int[] series = new int[3];
+        final int copied = analytics.getSeries(Characteristic.STEPS, CounterRollup.Resolution.MINUTE,
+                START + 120000, series);
+
+        assertEquals(3, copied);
+        assertEquals(0, series[0]);
+        assertEquals(25, series[1]);
+        assertEquals(65, series[2]);
+        assertEquals(90, analytics.get(Characteristic.STEPS, CounterRollup.Resolution.DAY, START));
+    }
+
+    private void feed(final Characteristic characteristic, final byte[] payload, final long timestamp) {
+        assertTrue(DataConverter.decode(characteristic, payload, timestamp, sample));
+        analytics.onSample(sample);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.cloud;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class BatchSpoolTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void batchesSurviveReopeningInOrder() throws IOException {
+        final File directory = folder.newFolder();
+        final BatchSpool spool = new BatchSpool(directory, 10);
+        spool.add(new byte[]{1});
+        spool.add(new byte[]{2});
+
+        final BatchSpool reopened = new BatchSpool(directory, 10);
+        reopened.add(new byte[]{3});
+        assertEquals(3, reopened.size());
+        for (byte expected = 1; expected <= 3; expected++) {
+            assertArrayEquals(new byte[]{expected}, reopened.peek());
+            reopened.remove();
+        }
+        assertNull(reopened.peek());
+    }
+
+    @Test
+    public void oldestBatchesAreDroppedWhenFull() throws IOException {
+        final BatchSpool spool = new BatchSpool(folder.newFolder(), 2);
+        spool.add(new byte[]{1});
+        spool.add(new byte[]{2});
+        spool.add(new byte[]{3});
+
+        assertEquals(2, spool.size());
+        assertEquals(1, spool.getDropped());
+        assertArrayEquals(new byte[]{2}, spool.peek());
+    }
+
+    @Test
+    public void partialBatchIsDiscarded() throws IOException {
+        final File directory = folder.newFolder();
+        new BatchSpool(directory, 10).add(new byte[]{1});
+        final File partial = new File(directory, String.format("%016x.batch.tmp", 1));
+        final FileOutputStream output = new FileOutputStream(partial);
+        try {
+            output.write(new byte[]{2, 2});
+        } finally {
+            output.close();
+        }
+
+        final BatchSpool reopened = new BatchSpool(directory, 10);
+        assertFalse(partial.exists());
+        assertEquals(1, reopened.size());
+        assertArrayEquals(new byte[]{1}, reopened.peek());
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.cloud;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+import com.wolkabout.hexiwear.util.Clock;
+import com.wolkabout.hexiwear.util.DelayedExecutor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the publisher against {@link FakeCloudServer} over real HTTP, with the retry timer driven by hand.
+ */
+public class CloudPublisherTest {
+
+    private static final String ADDRESS = "00:11:22:33:44:55";
+    private static final int MAX_READINGS = 500;
+    private static final long TIMEOUT = 10000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final ManualTimer timer = new ManualTimer();
+    private FakeCloudServer server;
+    private CloudPublisher publisher;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeCloudServer();
+        publisher = new CloudPublisher(ADDRESS, new HttpTransport(server.getUrl(), null),
+                new BatchSpool(folder.newFolder("spool"), 100), timer, Clock.SYSTEM, MAX_READINGS, 60000);
+    }
+
+    @After
+    public void tearDown() {
+        publisher.close();
+        server.stop();
+    }
+
+    /**
+     * 500 seconds of motion at 10 Hz and heart rate at 1 Hz pile up in the spool while the server is down,
+     * then go out in order once a retry finds it back.
+     */
+    @Test
+    public void spooledBatchesGoOutInOrderOnceServerIsBack() throws Exception {
+        server.setDefaultStatus(503);
+        publishReadings(5500);
+
+        // Each sealed batch is tried once as it is spooled.
+        server.awaitRequests(11, TIMEOUT);
+        assertEquals(11, server.getRequests().size());
+        assertEquals(0, server.getDelivered().size());
+        assertEquals(11, publisher.getSpooledBatches());
+        assertTrue(timer.awaitPending(TIMEOUT));
+
+        server.setDefaultStatus(200);
+        timer.runPending();
+        awaitSent(11);
+
+        final List<String> delivered = server.getDelivered();
+        assertEquals(11, delivered.size());
+        long previous = -1;
+        int readings = 0;
+        for (String batch : delivered) {
+            final String[] lines = batch.split("\n");
+            assertEquals("device " + ADDRESS, lines[0]);
+            for (int i = 1; i < lines.length; i++) {
+                readings += lines[i].split(";").length;
+                if (lines[i].startsWith(Characteristic.ACCELERATION.name())) {
+                    final long first = Long.parseLong(lines[i].substring(lines[i].indexOf(' ') + 1, lines[i].indexOf('=')));
+                    assertTrue(first > previous);
+                    previous = first;
+                }
+            }
+        }
+        assertEquals(5500, readings);
+        assertEquals(0, publisher.getSpooledBatches());
+        assertEquals(5500, publisher.getReadings());
+        assertEquals(11, publisher.getRequests());
+        assertTrue(publisher.getBytesPerReading() < publisher.getUnbatchedBytesPerReading());
+    }
+
+    @Test
+    public void rejectedBatchIsDroppedWithoutHoldingUpTheRest() throws Exception {
+        server.enqueueStatus(400);
+        publishReadings(3 * MAX_READINGS);
+        awaitSent(3);
+
+        assertEquals(1, publisher.getRejectedBatches());
+        assertEquals(2, publisher.getRequests());
+        assertEquals(2, server.getDelivered().size());
+        assertEquals(0, publisher.getSpooledBatches());
+        assertEquals(0, timer.getPendingCount());
+    }
+
+    @Test
+    public void flushSealsPartialBatch() throws Exception {
+        publishReadings(20);
+        assertEquals(1, timer.getPendingCount());
+
+        publisher.flush();
+        awaitSent(1);
+
+        assertEquals(0, timer.getPendingCount());
+        final String[] lines = server.getDelivered().get(0).split("\n");
+        assertEquals(3, lines.length);
+    }
+
+    /**
+     * Ten acceleration readings and one heart rate reading per second.
+     */
+    private void publishReadings(final int count) {
+        final Sample sample = new Sample();
+        long timestamp = 1476748800000L;
+        for (int i = 0; i < count; i++) {
+            if (i % 11 == 10) {
+                sample.setValue(Characteristic.HEARTRATE, timestamp, 70 + i % 20);
+            } else {
+                timestamp += 100;
+                sample.setValues(Characteristic.ACCELERATION, timestamp, 0.01f * (i % 50), -0.02f, 0.98f);
+            }
+            publisher.publish(sample);
+        }
+    }
+
+    private void awaitSent(final int batches) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (publisher.getRequests() + publisher.getRejectedBatches() < batches
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Keeps posted tasks until the test runs them.
+     */
+    private static class ManualTimer implements DelayedExecutor {
+
+        private final List<Runnable> pending = new ArrayList<>();
+
+        @Override
+        public synchronized void post(final Runnable task, final long delayMillis) {
+            pending.add(task);
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel(final Runnable task) {
+            while (pending.remove(task)) {
+                // Remove every posting of the task.
+            }
+        }
+
+        synchronized int getPendingCount() {
+            return pending.size();
+        }
+
+        synchronized boolean awaitPending(final long timeoutMillis) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (pending.isEmpty() && System.currentTimeMillis() < deadline) {
+                wait(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+            return !pending.isEmpty();
+        }
+
+        void runPending() {
+            final List<Runnable> tasks;
+            synchronized (this) {
+                tasks = new ArrayList<>(pending);
+                pending.clear();
+            }
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.cloud;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Stand-in for the sensor cloud on a local port. Answers each POST with the next queued status,
+ * or the default one, and keeps the decompressed body and headers of every request.
+ */
+class FakeCloudServer {
+
+    static class Request {
+
+        final int status;
+        final String contentEncoding;
+        final String authorization;
+        final String body;
+
+        Request(final int status, final String contentEncoding, final String authorization, final String body) {
+            this.status = status;
+            this.contentEncoding = contentEncoding;
+            this.authorization = authorization;
+            this.body = body;
+        }
+    }
+
+    private final HttpServer server;
+    private final Queue<Integer> statuses = new LinkedList<>();
+    private final List<Request> requests = new ArrayList<>();
+    private int defaultStatus = 200;
+
+    FakeCloudServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/readings", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String body = gunzip(exchange.getRequestBody());
+                final int status;
+                synchronized (FakeCloudServer.this) {
+                    final Integer queued = statuses.poll();
+                    status = queued != null ? queued : defaultStatus;
+                    requests.add(new Request(status, exchange.getRequestHeaders().getFirst("Content-Encoding"),
+                            exchange.getRequestHeaders().getFirst("Authorization"), body));
+                    FakeCloudServer.this.notifyAll();
+                }
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    URL getUrl() throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/readings");
+    }
+
+    synchronized void setDefaultStatus(final int status) {
+        defaultStatus = status;
+    }
+
+    synchronized void enqueueStatus(final int status) {
+        statuses.add(status);
+    }
+
+    synchronized List<Request> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    /**
+     * @return bodies of the requests answered with a 2xx status, in the order they came in.
+     */
+    synchronized List<String> getDelivered() {
+        final List<String> delivered = new ArrayList<>();
+        for (Request request : requests) {
+            if (request.status / 100 == 2) {
+                delivered.add(request.body);
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Waits until at least {@code count} requests came in.
+     */
+    synchronized void awaitRequests(final int count, final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (requests.size() < count && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    private static String gunzip(final InputStream body) throws IOException {
+        final InputStream input = new GZIPInputStream(body);
+        try {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            return output.toString("UTF-8");
+        } finally {
+            input.close();
+        }
+    }
+}
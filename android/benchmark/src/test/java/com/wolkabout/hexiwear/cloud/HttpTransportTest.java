@@ -0,0 +1,101 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.cloud;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class HttpTransportTest {
+
+    private FakeCloudServer server;
+    private HttpTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeCloudServer();
+        transport = new HttpTransport(server.getUrl(), "Bearer token");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void deliversCompressedBatch() throws IOException {
+        transport.send(gzip("device 00:11:22:33:44:55\nHEARTRATE 1000=72;1000=73\n"));
+
+        assertEquals(1, server.getRequests().size());
+        final FakeCloudServer.Request request = server.getRequests().get(0);
+        assertEquals("gzip", request.contentEncoding);
+        assertEquals("Bearer token", request.authorization);
+        assertEquals("device 00:11:22:33:44:55\nHEARTRATE 1000=72;1000=73\n", request.body);
+    }
+
+    @Test
+    public void clientErrorsRejectBatch() throws IOException {
+        for (int status : new int[]{400, 401, 404, 413}) {
+            server.enqueueStatus(status);
+            try {
+                transport.send(gzip("device 00:11:22:33:44:55\n"));
+                fail("HTTP " + status + " accepted");
+            } catch (RejectedBatchException e) {
+                assertEquals(status, e.getResponseCode());
+            }
+        }
+    }
+
+    @Test
+    public void timeoutsRateLimitingAndServerErrorsAreRetried() throws IOException {
+        for (int status : new int[]{408, 429, 500, 503}) {
+            server.enqueueStatus(status);
+            try {
+                transport.send(gzip("device 00:11:22:33:44:55\n"));
+                fail("HTTP " + status + " accepted");
+            } catch (IOException e) {
+                assertFalse("HTTP " + status + " rejected for good", e instanceof RejectedBatchException);
+            }
+        }
+
+        transport.send(gzip("device 00:11:22:33:44:55\n"));
+        assertEquals(5, server.getRequests().size());
+    }
+
+    static byte[] gzip(final String text) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        try {
+            gzip.write(text.getBytes("UTF-8"));
+        } finally {
+            gzip.close();
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.model;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.UUID;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CharacteristicTest {
+
+    private static final String BASE_UUID_SUFFIX = "-0000-1000-8000-00805f9b34fb";
+
+    @Test
+    public void everyCharacteristicResolvesFromItsUuid() {
+        int shortUuids = 0;
+        int longUuids = 0;
+        for (Characteristic characteristic : Characteristic.values()) {
+            final UUID parsed = UUID.fromString(characteristic.getUuid().toUpperCase(Locale.US));
+            assertSame(characteristic, Characteristic.byUuid(parsed));
+            assertSame(characteristic, Characteristic.byUuid(characteristic.getUuidValue()));
+            assertSame(characteristic, Characteristic.byUuid(characteristic.getUuid()));
+            if (characteristic.getUuid().endsWith(BASE_UUID_SUFFIX)) {
+                shortUuids++;
+            } else {
+                longUuids++;
+            }
+        }
+
+        // Both lookup paths are exercised.
+        assertTrue(shortUuids > 0);
+        assertTrue(longUuids > 0);
+    }
+
+    /**
+     * Every 16-bit UUID, known or not, has to give what a linear scan gives, whichever slot it hashes to.
+     */
+    @Test
+    public void shortUuidTableMatchesLinearScan() {
+        for (int shortUuid = 0; shortUuid <= 0xffff; shortUuid++) {
+            final UUID uuid = UUID.fromString(String.format("0000%04x", shortUuid) + BASE_UUID_SUFFIX);
+            assertSame(uuid.toString(), linearScan(uuid), Characteristic.byUuid(uuid));
+        }
+    }
+
+    @Test
+    public void unknownLongUuidsResolveToNothing() {
+        for (Characteristic characteristic : Characteristic.values()) {
+            final UUID uuid = characteristic.getUuidValue();
+            assertNull(Characteristic.byUuid(new UUID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits() ^ 1)));
+            assertNull(Characteristic.byUuid(new UUID(uuid.getMostSignificantBits() ^ 1L << 40,
+                    uuid.getLeastSignificantBits())));
+        }
+        assertNull(Characteristic.byUuid(UUID.randomUUID()));
+        assertNull(Characteristic.byUuid("not a uuid"));
+    }
+
+    private static Characteristic linearScan(final UUID uuid) {
+        for (Characteristic characteristic : Characteristic.values()) {
+            if (characteristic.getUuidValue().equals(uuid)) {
+                return characteristic;
+            }
+        }
+        return null;
+    }
+}
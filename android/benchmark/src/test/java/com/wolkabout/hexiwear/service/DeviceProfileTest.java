@@ -0,0 +1,127 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.DeviceProfile;
+import com.wolkabout.hexiwear.model.Mode;
+import com.wolkabout.hexiwear.simulator.SimulationLoop;
+import com.wolkabout.hexiwear.store.DeviceProfileStore;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceProfileTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final SimulationLoop loop = new SimulationLoop();
+    private DeviceProfileStore store;
+
+    @Before
+    public void setUp() {
+        store = new DeviceProfileStore(folder.getRoot());
+    }
+
+    @Test
+    public void firstConnectionReadsEverythingAndSavesProfile() {
+        final FakeGattLink link = connect("1.0.0");
+
+        assertEquals(1, link.count("READ MANUFACTURER"));
+        assertEquals(1, link.count("READ FW_REVISION"));
+        assertEquals(1, link.count("WRITE ALERT_IN"));
+
+        final DeviceProfile profile = store.load(link.getAddress());
+        assertEquals("1.0.0", profile.getFirmwareRevision());
+        assertEquals("NXP", profile.getManufacturer());
+        assertEquals(Mode.PEDOMETER, profile.getMode());
+        assertTrue(profile.isComplete());
+        assertTrue(profile.getTimeSetAt() > 0);
+    }
+
+    @Test
+    public void sameFirmwareReusesProfile() {
+        connect("1.0.0");
+        final FakeGattLink link = connect("1.0.0");
+
+        assertEquals(0, link.count("READ MANUFACTURER"));
+        assertEquals(1, link.count("READ FW_REVISION"));
+        assertEquals(0, link.count("WRITE ALERT_IN"));
+        assertEquals("1.0.0", store.load(link.getAddress()).getFirmwareRevision());
+    }
+
+    @Test
+    public void newFirmwareInvalidatesProfile() {
+        connect("1.0.0");
+        connect("1.0.0");
+        final FakeGattLink link = connect("2.0.0");
+
+        assertEquals(1, link.count("READ MANUFACTURER"));
+        assertEquals(1, link.count("WRITE ALERT_IN"));
+
+        final DeviceProfile profile = store.load(link.getAddress());
+        assertEquals("2.0.0", profile.getFirmwareRevision());
+        assertEquals("NXP", profile.getManufacturer());
+        assertTrue(profile.isComplete());
+    }
+
+    @Test
+    public void withoutStoreNothingIsKept() {
+        final FakeGattLink first = connect("1.0.0", null);
+        final FakeGattLink second = connect("1.0.0", null);
+
+        assertEquals(1, first.count("READ MANUFACTURER"));
+        assertEquals(1, second.count("READ MANUFACTURER"));
+        assertNull(store.load(second.getAddress()));
+    }
+
+    private FakeGattLink connect(final String firmwareRevision) {
+        return connect(firmwareRevision, store);
+    }
+
+    /**
+     * Runs one connection until the info reads and the time update are done, then closes it.
+     */
+    private FakeGattLink connect(final String firmwareRevision, final DeviceProfileStore profileStore) {
+        final FakeGattLink link = new FakeGattLink(loop);
+        link.setCharacteristics(Characteristic.MODE.getMask() | Characteristic.MANUFACTURER.getMask()
+                | Characteristic.FW_REVISION.getMask() | Characteristic.ALERT_IN.getMask()
+                | Characteristic.STEPS.getMask(), 0);
+        link.setResponseDelay(10);
+        link.setValue(Characteristic.MODE, new byte[]{(byte) Mode.PEDOMETER.getSymbol()});
+        link.setValue(Characteristic.FW_REVISION, firmwareRevision.getBytes());
+        link.setValue(Characteristic.MANUFACTURER, "NXP".getBytes());
+
+        final DeviceSession session = new DeviceSession(link, new SessionListenerAdapter(), loop, loop);
+        session.setProfileStore(profileStore);
+        session.start();
+        loop.runUntil(loop.millis() + 2000);
+        session.close();
+        return link;
+    }
+}
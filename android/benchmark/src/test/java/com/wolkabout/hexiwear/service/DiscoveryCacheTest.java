@@ -0,0 +1,154 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.wolkabout.hexiwear.model.BluetoothDeviceWrapper;
+import com.wolkabout.hexiwear.simulator.SimulationLoop;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class DiscoveryCacheTest {
+
+    private static final long EMIT_INTERVAL = 500;
+    private static final long LOST_AFTER = 5000;
+
+    private final SimulationLoop loop = new SimulationLoop();
+    private final List<String> events = new ArrayList<>();
+    private final BluetoothDevice first = new BluetoothDevice("00:00:00:00:00:01", "HEXIWEAR");
+    private final BluetoothDevice second = new BluetoothDevice("00:00:00:00:00:02", "HEXIOTAP");
+    private DiscoveryCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new DiscoveryCache(new DiscoveryCache.Listener() {
+            @Override
+            public void onDevicesChanged(final List<BluetoothDeviceWrapper> added,
+                                         final List<BluetoothDeviceWrapper> changed,
+                                         final List<BluetoothDeviceWrapper> lost) {
+                log("added", added);
+                log("changed", changed);
+                log("lost", lost);
+            }
+        }, loop, loop, 0.5f, EMIT_INTERVAL, LOST_AFTER);
+    }
+
+    @Test
+    public void newDeviceIsAddedOnce() {
+        cache.onAdvertisement(first, -55, false);
+        loop.runUntil(0);
+        assertEquals(Arrays.asList("added 00:00:00:00:00:01 -55"), events);
+
+        // Advertisements in the same signal bucket only update the entry.
+        for (long time = 100; time < 5000; time += 100) {
+            loop.runUntil(time);
+            cache.onAdvertisement(first, time % 200 == 0 ? -52 : -58, false);
+        }
+        loop.runUntil(5000);
+        assertEquals(1, events.size());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void changesAreEmittedAtMostOncePerInterval() {
+        cache.onAdvertisement(first, -55, false);
+        loop.runUntil(0);
+        loop.runUntil(100);
+        cache.onAdvertisement(second, -75, true);
+        cache.onAdvertisement(first, -85, false);
+
+        loop.runUntil(EMIT_INTERVAL - 1);
+        assertEquals(1, events.size());
+        loop.runUntil(EMIT_INTERVAL);
+        assertEquals(Arrays.asList("added 00:00:00:00:00:01 -55", "added 00:00:00:00:00:02 -75 otap",
+                "changed 00:00:00:00:00:01 -70"), sorted(events));
+    }
+
+    @Test
+    public void otapModeChangeIsReported() {
+        cache.onAdvertisement(first, -55, false);
+        loop.runUntil(0);
+        cache.onAdvertisement(first, -55, true);
+        loop.runUntil(EMIT_INTERVAL);
+
+        assertEquals(Arrays.asList("added 00:00:00:00:00:01 -55", "changed 00:00:00:00:00:01 -55 otap"), events);
+    }
+
+    @Test
+    public void silentDeviceIsLostWhileSweeping() {
+        cache.startSweeping();
+        cache.onAdvertisement(first, -55, false);
+        cache.onAdvertisement(second, -65, false);
+        for (long time = 1000; time <= 4 * LOST_AFTER; time += 1000) {
+            loop.runUntil(time);
+            cache.onAdvertisement(second, -65, false);
+        }
+
+        assertEquals(Arrays.asList("added 00:00:00:00:00:01 -55", "added 00:00:00:00:00:02 -65",
+                "lost 00:00:00:00:00:01 -55"), sorted(events));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void knownDeviceIsNeverLost() {
+        cache.startSweeping();
+        cache.addKnown(first, -60, true);
+        loop.runUntil(10 * LOST_AFTER);
+
+        assertEquals(Arrays.asList("added 00:00:00:00:00:01 -60 otap"), events);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void clearedDeviceIsAddedAgain() {
+        cache.onAdvertisement(first, -55, false);
+        loop.runUntil(0);
+        cache.clear();
+        assertEquals(0, cache.size());
+
+        loop.runUntil(1000);
+        cache.onAdvertisement(first, -65, false);
+        loop.runUntil(1000);
+        assertEquals(Arrays.asList("added 00:00:00:00:00:01 -55", "added 00:00:00:00:00:01 -65"), events);
+    }
+
+    private void log(final String kind, final List<BluetoothDeviceWrapper> devices) {
+        for (BluetoothDeviceWrapper device : devices) {
+            events.add(kind + " " + device.getDevice().getAddress() + " " + device.getRssi()
+                    + (device.isInOtapMode() ? " otap" : ""));
+        }
+    }
+
+    private static List<String> sorted(final List<String> events) {
+        final List<String> sorted = new ArrayList<>(events);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.simulator.SimulationLoop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scripted {@link GattLink}: logs every operation it is given, such as "READ MODE" or
+ * "NOTIFY ACCELERATION on", and answers it on the loop after a fixed delay, or leaves the answer to
+ * the test when the delay is negative.
+ */
+class FakeGattLink implements GattLink {
+
+    private final SimulationLoop loop;
+    private final List<String> operations = new ArrayList<>();
+    private final byte[][] values = new byte[Characteristic.values().length][];
+    private long characteristics;
+    private long notifiable;
+    private long responseDelay = -1;
+    private boolean refusing;
+    private Callback callback;
+
+    FakeGattLink(final SimulationLoop loop) {
+        this.loop = loop;
+    }
+
+    void setCharacteristics(final long characteristics, final long notifiable) {
+        this.characteristics = characteristics;
+        this.notifiable = notifiable;
+    }
+
+    void setValue(final Characteristic characteristic, final byte[] value) {
+        values[characteristic.ordinal()] = value;
+    }
+
+    void setResponseDelay(final long responseDelay) {
+        this.responseDelay = responseDelay;
+    }
+
+    /**
+     * Makes every following operation fail to start.
+     */
+    void setRefusing(final boolean refusing) {
+        this.refusing = refusing;
+    }
+
+    Callback getCallback() {
+        return callback;
+    }
+
+    List<String> getOperations() {
+        return operations;
+    }
+
+    int count(final String operation) {
+        int count = 0;
+        for (String logged : operations) {
+            if (logged.equals(operation)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String getAddress() {
+        return "00:11:22:33:44:55";
+    }
+
+    @Override
+    public void setCallback(final Callback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public boolean connect() {
+        operations.add("CONNECT");
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                callback.onConnectionStateChanged(true);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public void close() {
+        operations.add("CLOSE");
+    }
+
+    @Override
+    public boolean discoverServices() {
+        operations.add("DISCOVER");
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                callback.onServicesDiscovered(STATUS_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean restoreServices() {
+        return false;
+    }
+
+    @Override
+    public boolean hasCharacteristic(final Characteristic characteristic) {
+        return (characteristics & characteristic.getMask()) != 0;
+    }
+
+    @Override
+    public boolean canNotify(final Characteristic characteristic) {
+        return (notifiable & characteristic.getMask()) != 0;
+    }
+
+    @Override
+    public boolean read(final Characteristic characteristic) {
+        if (!log("READ " + characteristic)) {
+            return false;
+        }
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                callback.onCharacteristicRead(characteristic, values[characteristic.ordinal()], STATUS_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean write(final Characteristic characteristic, final byte[] value, final boolean withResponse) {
+        if (!log((withResponse ? "WRITE " : "WRITE_NO_RESPONSE ") + characteristic)) {
+            return false;
+        }
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                callback.onCharacteristicWrite(characteristic, value, STATUS_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean setNotification(final Characteristic characteristic, final boolean enable) {
+        if (!log("NOTIFY " + characteristic + (enable ? " on" : " off"))) {
+            return false;
+        }
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                callback.onNotificationWritten(characteristic, STATUS_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean requestMtu(final int mtu) {
+        if (!log("MTU " + mtu)) {
+            return false;
+        }
+        answer(new Runnable() {
+            @Override
+            public void run() {
+                callback.onMtuChanged(mtu, STATUS_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean requestConnectionPriority(final int priority) {
+        return true;
+    }
+
+    private boolean log(final String operation) {
+        if (refusing) {
+            return false;
+        }
+        operations.add(operation);
+        return true;
+    }
+
+    private void answer(final Runnable response) {
+        if (responseDelay >= 0) {
+            loop.post(response, responseDelay);
+        }
+    }
+}
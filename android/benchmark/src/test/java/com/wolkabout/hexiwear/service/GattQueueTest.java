@@ -0,0 +1,192 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.simulator.SimulationLoop;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class GattQueueTest {
+
+    private static final long TIMEOUT = 3000;
+    private static final int RETRIES = 2;
+
+    private final SimulationLoop loop = new SimulationLoop();
+    private final List<String> outcomes = new ArrayList<>();
+    private FakeGattLink link;
+    private GattQueue queue;
+
+    @Before
+    public void setUp() {
+        link = new FakeGattLink(loop);
+        queue = new GattQueue(link, new GattQueue.Callback() {
+            @Override
+            public void onConnectionStateChanged(final boolean connected) {
+                outcomes.add(connected ? "CONNECTED" : "DISCONNECTED");
+            }
+
+            @Override
+            public void onServicesDiscovered(final int status) {
+            }
+
+            @Override
+            public void onCharacteristicChanged(final Characteristic characteristic, final byte[] value) {
+            }
+
+            @Override
+            public void onOperationCompleted(final GattOperation operation, final byte[] value, final int status) {
+                outcomes.add("COMPLETED " + operation + " after " + operation.getAttempts());
+            }
+
+            @Override
+            public void onOperationFailed(final GattOperation operation) {
+                outcomes.add("FAILED " + operation);
+            }
+        }, loop, loop, TIMEOUT, RETRIES);
+    }
+
+    @Test
+    public void oneOperationInFlight() {
+        queue.read(Characteristic.MODE, GattOperation.PRIORITY_LOW);
+        queue.read(Characteristic.BATTERY, GattOperation.PRIORITY_LOW);
+        queue.write(Characteristic.ALERT_IN, new byte[]{1}, GattOperation.PRIORITY_LOW);
+        assertEquals(Arrays.asList("READ MODE"), link.getOperations());
+        assertEquals(3, queue.size());
+
+        answerRead(Characteristic.MODE);
+        assertEquals(Arrays.asList("READ MODE", "READ BATTERY"), link.getOperations());
+        answerRead(Characteristic.BATTERY);
+        link.getCallback().onCharacteristicWrite(Characteristic.ALERT_IN, new byte[]{1}, GattLink.STATUS_SUCCESS);
+
+        assertEquals(Arrays.asList("READ MODE", "READ BATTERY", "WRITE ALERT_IN"), link.getOperations());
+        assertEquals(Arrays.asList("COMPLETED READ MODE after 1", "COMPLETED READ BATTERY after 1",
+                "COMPLETED WRITE ALERT_IN after 1"), outcomes);
+        assertEquals(0, queue.size());
+        assertEquals(3, queue.getLatency(GattOperation.Type.READ).getCount()
+                + queue.getLatency(GattOperation.Type.WRITE).getCount());
+    }
+
+    @Test
+    public void higherPriorityGoesFirstThenQueueOrder() {
+        queue.read(Characteristic.MODE, GattOperation.PRIORITY_LOW);
+        queue.read(Characteristic.TEMPERATURE, GattOperation.PRIORITY_LOW);
+        queue.read(Characteristic.MANUFACTURER, GattOperation.PRIORITY_NORMAL);
+        queue.write(Characteristic.ALERT_IN, new byte[]{1}, GattOperation.PRIORITY_HIGH);
+        queue.setNotification(Characteristic.BATTERY, true, GattOperation.PRIORITY_NORMAL);
+
+        answerRead(Characteristic.MODE);
+        link.getCallback().onCharacteristicWrite(Characteristic.ALERT_IN, new byte[]{1}, GattLink.STATUS_SUCCESS);
+        answerRead(Characteristic.MANUFACTURER);
+        link.getCallback().onNotificationWritten(Characteristic.BATTERY, GattLink.STATUS_SUCCESS);
+        answerRead(Characteristic.TEMPERATURE);
+
+        assertEquals(Arrays.asList("READ MODE", "WRITE ALERT_IN", "READ MANUFACTURER", "NOTIFY BATTERY on",
+                "READ TEMPERATURE"), link.getOperations());
+    }
+
+    @Test
+    public void unexpectedCallbackIsIgnored() {
+        queue.read(Characteristic.MODE, GattOperation.PRIORITY_LOW);
+        queue.read(Characteristic.BATTERY, GattOperation.PRIORITY_LOW);
+
+        answerRead(Characteristic.BATTERY);
+        assertEquals(0, outcomes.size());
+        assertEquals(2, queue.size());
+
+        answerRead(Characteristic.MODE);
+        assertEquals(Arrays.asList("COMPLETED READ MODE after 1"), outcomes);
+    }
+
+    @Test
+    public void timedOutOperationIsRetried() {
+        queue.read(Characteristic.MODE, GattOperation.PRIORITY_LOW);
+        loop.runUntil(TIMEOUT - 1);
+        assertEquals(1, link.count("READ MODE"));
+
+        loop.runUntil(TIMEOUT);
+        assertEquals(2, link.count("READ MODE"));
+        assertEquals(1, queue.getRetries(GattOperation.Type.READ));
+
+        answerRead(Characteristic.MODE);
+        assertEquals(Arrays.asList("COMPLETED READ MODE after 2"), outcomes);
+
+        // The answer disarmed the timeout.
+        loop.runUntil(10 * TIMEOUT);
+        assertEquals(2, link.count("READ MODE"));
+    }
+
+    @Test
+    public void operationFailsAfterLastRetryAndNextOneStarts() {
+        queue.read(Characteristic.MODE, GattOperation.PRIORITY_LOW);
+        queue.read(Characteristic.BATTERY, GattOperation.PRIORITY_LOW);
+
+        loop.runUntil((RETRIES + 1) * TIMEOUT - 1);
+        assertEquals(RETRIES + 1, link.count("READ MODE"));
+        assertEquals(0, outcomes.size());
+
+        loop.runUntil((RETRIES + 1) * TIMEOUT);
+        assertEquals(Arrays.asList("FAILED READ MODE"), outcomes);
+        assertEquals(RETRIES, queue.getRetries(GattOperation.Type.READ));
+        assertEquals(1, queue.getFailures(GattOperation.Type.READ));
+        assertEquals(1, link.count("READ BATTERY"));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void refusedOperationFailsAtOnce() {
+        link.setRefusing(true);
+        queue.read(Characteristic.MODE, GattOperation.PRIORITY_LOW);
+        queue.read(Characteristic.BATTERY, GattOperation.PRIORITY_LOW);
+
+        assertEquals(Arrays.asList("FAILED READ MODE", "FAILED READ BATTERY"), outcomes);
+        assertEquals(0, queue.size());
+        assertEquals(0, loop.getPendingEvents());
+    }
+
+    @Test
+    public void disconnectDropsQueueAndMtu() {
+        queue.requestMtu(247, GattOperation.PRIORITY_HIGH);
+        link.getCallback().onMtuChanged(247, GattLink.STATUS_SUCCESS);
+        assertEquals(247, queue.getMtu());
+
+        queue.read(Characteristic.MODE, GattOperation.PRIORITY_LOW);
+        queue.read(Characteristic.BATTERY, GattOperation.PRIORITY_LOW);
+        link.getCallback().onConnectionStateChanged(false);
+
+        assertEquals(0, queue.size());
+        assertEquals(GattLink.DEFAULT_MTU, queue.getMtu());
+        loop.runUntil(10 * TIMEOUT);
+        assertEquals(Arrays.asList("COMPLETED MTU 247 after 1", "DISCONNECTED"), outcomes);
+        assertEquals(1, link.count("READ MODE"));
+    }
+
+    private void answerRead(final Characteristic characteristic) {
+        link.getCallback().onCharacteristicRead(characteristic, new byte[]{1}, GattLink.STATUS_SUCCESS);
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Mode;
+import com.wolkabout.hexiwear.simulator.SimulationLoop;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReadSchedulerTest {
+
+    private final SimulationLoop loop = new SimulationLoop();
+    private final List<Characteristic> reads = new ArrayList<>();
+    private final List<Characteristic> refused = new ArrayList<>();
+    private final List<DeviceSession> sessions = new ArrayList<>();
+    private ReadScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new ReadScheduler(loop, new ReadScheduler.Reader() {
+            @Override
+            public boolean read(final Characteristic characteristic) {
+                if (refused.contains(characteristic)) {
+                    return false;
+                }
+                reads.add(characteristic);
+                return true;
+            }
+        });
+    }
+
+    @Test
+    public void eachCharacteristicIsReadAtItsOwnPeriod() {
+        scheduler.schedule(Arrays.asList(Characteristic.ACCELERATION, Characteristic.HEARTRATE,
+                Characteristic.MODE, Characteristic.BATTERY));
+        for (long time = 0; time < 10000; time++) {
+            loop.runUntil(time);
+            while (scheduler.readNext() != null) {
+                // Issue everything that is due.
+            }
+        }
+        loop.runUntil(10000);
+
+        assertEquals(100, count(Characteristic.ACCELERATION));
+        assertEquals(10, count(Characteristic.HEARTRATE));
+        assertEquals(2, count(Characteristic.MODE));
+        assertEquals(1, count(Characteristic.BATTERY));
+        assertEquals(0, count(Characteristic.TEMPERATURE));
+        assertEquals(scheduler.getTargetRate(Characteristic.ACCELERATION),
+                scheduler.getAchievedRate(Characteristic.ACCELERATION), 0.01f);
+        assertEquals(scheduler.getTargetRate(Characteristic.HEARTRATE),
+                scheduler.getAchievedRate(Characteristic.HEARTRATE), 0.01f);
+        assertEquals(0, scheduler.getTargetRate(Characteristic.TEMPERATURE), 0);
+    }
+
+    @Test
+    public void targetIntervalIsConfigurable() {
+        scheduler.setTargetInterval(Characteristic.TEMPERATURE, 250);
+        scheduler.schedule(Arrays.asList(Characteristic.TEMPERATURE));
+        for (long time = 0; time < 1000; time += 50) {
+            loop.runUntil(time);
+            scheduler.readNext();
+        }
+
+        assertEquals(4, count(Characteristic.TEMPERATURE));
+        assertEquals(4f, scheduler.getTargetRate(Characteristic.TEMPERATURE), 0);
+    }
+
+    @Test
+    public void earliestDeadlineIsReadFirst() {
+        scheduler.schedule(Arrays.asList(Characteristic.TEMPERATURE, Characteristic.HEARTRATE));
+        scheduler.readNext();
+        scheduler.readNext();
+        assertNull(scheduler.readNext());
+        assertEquals(1000, scheduler.getDelayToNextRead());
+
+        // Heart rate was due at 1000 and temperature at 2000. Heart rate catches up one interval only.
+        loop.runUntil(2500);
+        assertEquals(Characteristic.HEARTRATE, scheduler.readNext());
+        assertEquals(Characteristic.TEMPERATURE, scheduler.readNext());
+        assertEquals(Characteristic.HEARTRATE, scheduler.readNext());
+        assertNull(scheduler.readNext());
+        assertEquals(1000, scheduler.getDelayToNextRead());
+    }
+
+    @Test
+    public void refusedReadIsPushedBackOneInterval() {
+        refused.add(Characteristic.HEARTRATE);
+        scheduler.schedule(Arrays.asList(Characteristic.HEARTRATE, Characteristic.TEMPERATURE));
+
+        assertEquals(Characteristic.TEMPERATURE, scheduler.readNext());
+        assertNull(scheduler.readNext());
+        assertEquals(1000, scheduler.getDelayToNextRead());
+    }
+
+    @Test
+    public void nothingScheduled() {
+        scheduler.schedule(new ArrayList<Characteristic>());
+
+        assertNull(scheduler.readNext());
+        assertEquals(-1, scheduler.getDelayToNextRead());
+    }
+
+    @Test
+    public void sessionReadsOnlyTheCharacteristicsOfTheMode() {
+        final FakeGattLink link = startSession(Mode.PEDOMETER, 0);
+        loop.runUntil(10000);
+
+        assertInRange(9, 11, link.count("READ STEPS"));
+        assertInRange(9, 11, link.count("READ CALORIES"));
+        assertInRange(2, 3, link.count("READ MODE"));
+        assertEquals(0, link.count("READ ACCELERATION"));
+        assertEquals(0, link.count("READ TEMPERATURE"));
+        assertEquals(0, link.count("READ HEARTRATE"));
+    }
+
+    @Test
+    public void sessionPausesReadsWhileNotificationsAreActive() {
+        final long notifiable = Characteristic.ACCELERATION.getMask() | Characteristic.GYRO.getMask()
+                | Characteristic.MAGNET.getMask() | Characteristic.BATTERY.getMask();
+        final FakeGattLink link = startSession(Mode.SENSOR_TAG, notifiable);
+        final DeviceSession session = sessions.get(0);
+        loop.runUntil(10000);
+
+        assertEquals(1, link.count("NOTIFY ACCELERATION on"));
+        assertEquals(1, link.count("NOTIFY BATTERY on"));
+        assertEquals(0, link.count("READ ACCELERATION"));
+        assertEquals(0, link.count("READ GYRO"));
+        assertEquals(0, link.count("READ BATTERY"));
+        assertInRange(5, 6, link.count("READ TEMPERATURE"));
+        assertInRange(5, 6, link.count("READ LIGHT"));
+
+        // Polling resumes once the notifications are turned off, at the next MODE read.
+        session.setStreamingEnabled(false);
+        loop.runUntil(20000);
+
+        assertEquals(1, link.count("NOTIFY ACCELERATION off"));
+        assertEquals(0, link.count("NOTIFY BATTERY off"));
+        assertInRange(90, 100, link.count("READ ACCELERATION"));
+        assertInRange(90, 100, link.count("READ GYRO"));
+        assertEquals(0, link.count("READ BATTERY"));
+    }
+
+    private FakeGattLink startSession(final Mode mode, final long notifiable) {
+        long characteristics = Characteristic.MODE.getMask() | Characteristic.MANUFACTURER.getMask()
+                | Characteristic.FW_REVISION.getMask();
+        for (Characteristic characteristic : Characteristic.getReadings()) {
+            characteristics |= characteristic.getMask();
+        }
+
+        final FakeGattLink link = new FakeGattLink(loop);
+        link.setCharacteristics(characteristics, notifiable);
+        link.setResponseDelay(10);
+        link.setValue(Characteristic.MODE, new byte[]{(byte) mode.getSymbol()});
+        link.setValue(Characteristic.FW_REVISION, "1.0.0".getBytes());
+        link.setValue(Characteristic.MANUFACTURER, "NXP".getBytes());
+        final DeviceSession session = new DeviceSession(link, new SessionListenerAdapter(), loop, loop);
+        sessions.add(session);
+        session.start();
+        return link;
+    }
+
+    private int count(final Characteristic characteristic) {
+        int count = 0;
+        for (Characteristic read : reads) {
+            if (read == characteristic) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void assertInRange(final int min, final int max, final int actual) {
+        assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+}
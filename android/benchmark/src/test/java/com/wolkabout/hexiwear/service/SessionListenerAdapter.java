@@ -0,0 +1,58 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.service;
+
+import com.wolkabout.hexiwear.model.Mode;
+import com.wolkabout.hexiwear.model.Sample;
+
+/**
+ * Session listener that ignores every event; tests override what they look at.
+ */
+class SessionListenerAdapter implements DeviceSession.Listener {
+
+    @Override
+    public void onConnectionStateChanged(final DeviceSession session, final boolean connected) {
+    }
+
+    @Override
+    public void onServicesAvailable(final DeviceSession session) {
+    }
+
+    @Override
+    public void onAuthenticationRequired(final DeviceSession session) {
+    }
+
+    @Override
+    public void onTimeUpdateStarted(final DeviceSession session) {
+    }
+
+    @Override
+    public void onTimeUpdated(final DeviceSession session) {
+    }
+
+    @Override
+    public void onModeChanged(final DeviceSession session, final Mode mode) {
+    }
+
+    @Override
+    public void onSample(final DeviceSession session, final Sample sample) {
+    }
+}
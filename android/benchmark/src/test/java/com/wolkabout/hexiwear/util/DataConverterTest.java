@@ -0,0 +1,109 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.util;
+
+import com.wolkabout.hexiwear.model.Characteristic;
+import com.wolkabout.hexiwear.model.Sample;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Golden-output check: the typed decoder, formatted for display, has to produce the same text as the
+ * String based parser for every reading characteristic.
+ */
+public class DataConverterTest {
+
+    private static final Characteristic[] READINGS = {
+            Characteristic.ACCELERATION, Characteristic.MAGNET, Characteristic.GYRO,
+            Characteristic.TEMPERATURE, Characteristic.HUMIDITY, Characteristic.PRESSURE,
+            Characteristic.LIGHT, Characteristic.BATTERY, Characteristic.HEARTRATE,
+            Characteristic.STEPS, Characteristic.CALORIES
+    };
+
+    @Test
+    public void decoderMatchesParserForRepresentativePayloads() {
+        assertMatches(Characteristic.ACCELERATION, new byte[]{(byte) 0x9c, (byte) 0xff, 0x32, 0x00, 0x62, 0x00});
+        assertMatches(Characteristic.MAGNET, new byte[]{0x10, 0x27, (byte) 0xf0, (byte) 0xd8, 0x05, 0x00});
+        assertMatches(Characteristic.GYRO, new byte[]{(byte) 0xfe, (byte) 0xff, 0x03, 0x00, (byte) 0x80, 0x00});
+        assertMatches(Characteristic.TEMPERATURE, new byte[]{(byte) 0x8e, 0x09});
+        assertMatches(Characteristic.HUMIDITY, new byte[]{0x74, 0x0e});
+        assertMatches(Characteristic.PRESSURE, new byte[]{(byte) 0xa4, 0x27});
+        assertMatches(Characteristic.HEARTRATE, new byte[]{72});
+        assertMatches(Characteristic.STEPS, new byte[]{(byte) 0xc8, 0x01});
+        assertMatches(Characteristic.STEPS, new byte[]{(byte) 0xc8});
+        assertMatches(Characteristic.CALORIES, new byte[]{42});
+    }
+
+    @Test
+    public void decoderMatchesParserForRandomPayloads() {
+        final Random random = new Random(4);
+        for (Characteristic characteristic : READINGS) {
+            for (int i = 0; i < 1000; i++) {
+                final byte[] payload = new byte[getPayloadLength(characteristic)];
+                random.nextBytes(payload);
+                assertMatches(characteristic, payload);
+            }
+        }
+    }
+
+    @Test
+    public void decoderRejectsShortPayloads() {
+        final Sample sample = new Sample();
+        assertFalse(DataConverter.decode(Characteristic.ACCELERATION, new byte[5], 0, sample));
+        assertFalse(DataConverter.decode(Characteristic.TEMPERATURE, new byte[1], 0, sample));
+        assertFalse(DataConverter.decode(Characteristic.HEARTRATE, new byte[0], 0, sample));
+        assertFalse(DataConverter.decode(Characteristic.MODE, new byte[]{1}, 0, sample));
+    }
+
+    private static void assertMatches(final Characteristic characteristic, final byte[] payload) {
+        final Sample sample = new Sample();
+        final StringBuilder decoded = new StringBuilder();
+        if (DataConverter.decode(characteristic, payload, 0, sample)) {
+            for (int i = 0; i < sample.getSize(); i++) {
+                decoded.append(i == 0 ? "" : ";").append(DataConverter.formatForDisplay(sample, i));
+            }
+        } else {
+            decoded.append("Unknown");
+        }
+        assertEquals(characteristic.name(), DataConverter.parseBluetoothData(characteristic, payload), decoded.toString());
+    }
+
+    private static int getPayloadLength(final Characteristic characteristic) {
+        switch (characteristic) {
+            case ACCELERATION:
+            case MAGNET:
+            case GYRO:
+                return 6;
+            case TEMPERATURE:
+            case HUMIDITY:
+            case PRESSURE:
+            case STEPS:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+}
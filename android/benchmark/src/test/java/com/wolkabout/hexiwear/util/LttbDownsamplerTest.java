@@ -0,0 +1,73 @@
+/**
+ * Hexiwear application is used to pair with Hexiwear BLE devices
+ * and send sensor readings to WolkSense sensor data cloud
+ * <p>
+ * Copyright (C) 2016 WolkAbout Technology s.r.o.
+ * <p>
+ * Hexiwear is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * Hexiwear is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.wolkabout.hexiwear.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LttbDownsamplerTest {
+
+    private static final long BUCKET = 1000;
+
+    private final List<Long> timestamps = new ArrayList<>();
+    private final List<Float> values = new ArrayList<>();
+    private LttbDownsampler downsampler;
+
+    @Before
+    public void setUp() {
+        downsampler = new LttbDownsampler(BUCKET, 64, new LttbDownsampler.Output() {
+            @Override
+            public void onPoint(final long timestamp, final float value) {
+                timestamps.add(timestamp);
+                values.add(value);
+            }
+        });
+    }
+
+    @Test
+    public void spikeSurvivesDownsampling() {
+        for (int i = 0; i < 600; i++) {
+            downsampler.add(i * 100L, i == 300 ? 150 : 70);
+        }
+
+        assertTrue(values.size() <= 61);
+        assertTrue(values.contains(150f));
+    }
+
+    @Test
+    public void slowInputPassesThrough() {
+        for (int i = 0; i < 600; i++) {
+            downsampler.add(i * BUCKET, 60 + i % 40);
+        }
+
+        assertEquals(600, values.size());
+        for (int i = 0; i < 600; i++) {
+            assertEquals(i * BUCKET, (long) timestamps.get(i));
+            assertEquals(60 + i % 40, values.get(i), 0);
+        }
+    }
+}